@@ -0,0 +1,103 @@
+package org.picketlink.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.picketlink.Identity;
+import org.picketlink.Identity.AuthenticationResult;
+import org.picketlink.benchmarks.IdentityStoreFixture.StoreType;
+import org.picketlink.credential.LoginCredentials;
+import org.picketlink.idm.credential.PasswordCredential;
+
+/**
+ * Measures a complete login and logout through {@link Identity}, which selects the
+ * {@link BenchmarkAuthenticator} with the DefaultAuthenticatorSelector and validates the password against
+ * the file identity store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthenticationBenchmark {
+
+    @Param({ "100", "10000" })
+    public int userCount;
+
+    private IdentityStoreFixture fixture;
+
+    private CDIBenchmarkContainer container;
+
+    private String[] userIds;
+
+    /**
+     * The session of each benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Session {
+        private final Random random = new Random();
+
+        private CDIBenchmarkContainer.Contexts contexts;
+
+        private Identity identity;
+
+        private LoginCredentials credentials;
+
+        @Setup(Level.Trial)
+        public void setup(AuthenticationBenchmark benchmark) {
+            contexts = benchmark.container.activateContexts();
+            identity = benchmark.container.getReference(Identity.class);
+            credentials = benchmark.container.getReference(LoginCredentials.class);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            contexts.end();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new IdentityStoreFixture(StoreType.FILE, userCount);
+        fixture.start();
+        BenchmarkAuthenticator.setIdentityManager(fixture.getIdentityManager());
+
+        userIds = new String[userCount];
+        for (int i = 0; i < userCount; i++) {
+            userIds[i] = IdentityStoreFixture.getUserId(i);
+        }
+
+        container = new CDIBenchmarkContainer();
+        container.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        container.stop();
+        fixture.stop();
+    }
+
+    @Benchmark
+    public AuthenticationResult loginLogout(Session session) {
+        session.credentials.setUserId(userIds[session.random.nextInt(userCount)]);
+        session.credentials.setCredential(new PasswordCredential(IdentityStoreFixture.PASSWORD));
+
+        AuthenticationResult result = session.identity.login();
+        session.identity.logout();
+        return result;
+    }
+}
@@ -0,0 +1,37 @@
+package org.picketlink.benchmarks;
+
+import javax.inject.Inject;
+
+import org.picketlink.authentication.BaseAuthenticator;
+import org.picketlink.credential.LoginCredentials;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.model.User;
+
+/**
+ * Authenticates the login credentials against the IdentityManager of the benchmark's
+ * {@link IdentityStoreFixture}.  The IdentityManager produced by the core module isn't configured
+ * with any stores yet, so the fixture's instance is handed over by the benchmark instead.
+ */
+public class BenchmarkAuthenticator extends BaseAuthenticator {
+
+    private static volatile IdentityManager identityManager;
+
+    @Inject
+    private LoginCredentials credentials;
+
+    public static void setIdentityManager(IdentityManager identityManager) {
+        BenchmarkAuthenticator.identityManager = identityManager;
+    }
+
+    @Override
+    public void authenticate() {
+        User user = identityManager.getUser(credentials.getUserId());
+
+        if (user != null && identityManager.validateCredential(user, credentials.getCredential())) {
+            setUser(user);
+            setStatus(AuthenticationStatus.SUCCESS);
+        } else {
+            setStatus(AuthenticationStatus.FAILURE);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.picketlink.benchmarks;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.RequestScoped;
+import javax.enterprise.inject.Disposes;
+import javax.enterprise.inject.Produces;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.picketlink.idm.IdentityCache;
+import org.picketlink.idm.internal.DefaultIdentityCache;
+
+/**
+ * Provides the resources that a PicketLink deployment is expected to supply to the CDI benchmarks
+ */
+public class BenchmarkProducers {
+
+    @Produces
+    @ApplicationScoped
+    public IdentityCache createIdentityCache() {
+        return new DefaultIdentityCache();
+    }
+
+    @Produces
+    @ApplicationScoped
+    public EntityManagerFactory createEntityManagerFactory() {
+        return Persistence.createEntityManagerFactory("benchmarks-pu");
+    }
+
+    public void closeEntityManagerFactory(@Disposes EntityManagerFactory emf) {
+        emf.close();
+    }
+
+    /**
+     * Each benchmark thread keeps its request context active for the whole trial, and therefore
+     * reuses the same EntityManager
+     */
+    @Produces
+    @RequestScoped
+    public EntityManager createEntityManager(EntityManagerFactory emf) {
+        return emf.createEntityManager();
+    }
+
+    public void closeEntityManager(@Disposes EntityManager entityManager) {
+        entityManager.close();
+    }
+}
@@ -0,0 +1,41 @@
+package org.picketlink.benchmarks;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for each of the thread counts listed in the <code>threads</code> system property,
+ * for example:
+ *
+ * <pre>
+ * java -Dthreads=1,4,16 -jar benchmarks.jar IdentityManagerBenchmark -p storeType=FILE,JPA
+ * </pre>
+ *
+ * All other arguments are passed to JMH as they are.  Without the <code>threads</code> property the benchmarks
+ * run with a single thread, or with the thread count given by the JMH <code>-t</code> option.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        String threads = System.getProperty("threads");
+
+        if (threads == null) {
+            new Runner(commandLine).run();
+            return;
+        }
+
+        for (String count : threads.split(",")) {
+            Options options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(Integer.parseInt(count.trim()))
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.picketlink.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.weld.context.bound.BoundLiteral;
+import org.jboss.weld.context.bound.BoundRequestContext;
+import org.jboss.weld.context.bound.BoundSessionContext;
+import org.jboss.weld.environment.se.Weld;
+import org.jboss.weld.environment.se.WeldContainer;
+
+/**
+ * Boots a Weld SE container for the benchmarks that go through the CDI beans of the core module, and
+ * binds request and session contexts to the benchmark threads.
+ */
+public class CDIBenchmarkContainer {
+
+    private Weld weld;
+
+    private WeldContainer container;
+
+    public void start() {
+        weld = new Weld();
+        container = weld.initialize();
+    }
+
+    public void stop() {
+        if (weld != null) {
+            weld.shutdown();
+            weld = null;
+        }
+    }
+
+    public <T> T getReference(Class<T> beanType) {
+        return container.instance().select(beanType).get();
+    }
+
+    /**
+     * Activates a new request and session context on the calling thread.  The contexts stay active until
+     * the returned Contexts are ended.
+     */
+    public Contexts activateContexts() {
+        Contexts contexts = new Contexts(
+                container.instance().select(BoundRequestContext.class, BoundLiteral.INSTANCE).get(),
+                container.instance().select(BoundSessionContext.class, BoundLiteral.INSTANCE).get());
+        contexts.activate();
+        return contexts;
+    }
+
+    public static class Contexts {
+        private final BoundRequestContext requestContext;
+        private final BoundSessionContext sessionContext;
+        private final Map<String, Object> requestStore = new HashMap<String, Object>();
+        private final Map<String, Object> sessionStore = new HashMap<String, Object>();
+
+        Contexts(BoundRequestContext requestContext, BoundSessionContext sessionContext) {
+            this.requestContext = requestContext;
+            this.sessionContext = sessionContext;
+        }
+
+        void activate() {
+            sessionContext.associate(sessionStore);
+            sessionContext.activate();
+            requestContext.associate(requestStore);
+            requestContext.activate();
+        }
+
+        public void end() {
+            try {
+                requestContext.invalidate();
+                requestContext.deactivate();
+            } finally {
+                requestContext.dissociate(requestStore);
+            }
+
+            try {
+                sessionContext.invalidate();
+                sessionContext.deactivate();
+            } finally {
+                sessionContext.dissociate(sessionStore);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.picketlink.benchmarks;
+
+import org.picketbox.test.ldap.AbstractLDAPTest;
+
+/**
+ * Embedded ApacheDS instance standing in for a directory server in the LDAP benchmarks
+ */
+public class EmbeddedLDAPServer extends AbstractLDAPTest {
+
+    public static final String LDAP_URL = "ldap://localhost:10389";
+
+    public void start() throws Exception {
+        setup();
+        importLDIF("ldap/benchmarks.ldif");
+    }
+
+    public void stop() throws Exception {
+        tearDown();
+    }
+
+    public String getAdminDN() {
+        return adminDN;
+    }
+
+    public String getAdminPassword() {
+        return adminPW;
+    }
+}
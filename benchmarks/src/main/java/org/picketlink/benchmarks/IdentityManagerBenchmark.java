@@ -0,0 +1,121 @@
+package org.picketlink.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.picketlink.benchmarks.IdentityStoreFixture.StoreType;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.credential.PasswordCredential;
+import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.SimpleGroup;
+import org.picketlink.idm.model.SimpleRole;
+import org.picketlink.idm.model.SimpleUser;
+import org.picketlink.idm.model.User;
+
+/**
+ * Measures the {@link IdentityManager} operations performed for every authenticated request, against each of the
+ * built-in identity stores.  Each invocation picks a random user, so that the results reflect a working set of
+ * <code>userCount</code> users rather than a single cached one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdentityManagerBenchmark {
+
+    @Param({ "FILE", "JPA", "LDAP" })
+    public StoreType storeType;
+
+    @Param({ "100", "10000" })
+    public int userCount;
+
+    private IdentityStoreFixture fixture;
+
+    private IdentityManager identityManager;
+
+    private String[] userIds;
+
+    private User[] users;
+
+    private Role[] roles;
+
+    private Group group;
+
+    private PasswordCredential credential;
+
+    /**
+     * Random source of each benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final Random random = new Random();
+
+        int next(int bound) {
+            return random.nextInt(bound);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new IdentityStoreFixture(storeType, userCount);
+        fixture.start();
+
+        identityManager = fixture.getIdentityManager();
+
+        userIds = new String[userCount];
+        users = new User[userCount];
+        for (int i = 0; i < userCount; i++) {
+            userIds[i] = IdentityStoreFixture.getUserId(i);
+            users[i] = new SimpleUser(userIds[i]);
+        }
+
+        roles = new Role[IdentityStoreFixture.ROLE_COUNT];
+        for (int i = 0; i < roles.length; i++) {
+            roles[i] = new SimpleRole(IdentityStoreFixture.getRoleName(i));
+        }
+
+        group = new SimpleGroup(IdentityStoreFixture.GROUP_NAME);
+        credential = new PasswordCredential(IdentityStoreFixture.PASSWORD);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.stop();
+    }
+
+    @Benchmark
+    public User getUser(Cursor cursor) {
+        return identityManager.getUser(userIds[cursor.next(userCount)]);
+    }
+
+    @Benchmark
+    public boolean validateCredential(Cursor cursor) {
+        return identityManager.validateCredential(users[cursor.next(userCount)], credential);
+    }
+
+    @Benchmark
+    public boolean hasRole(Cursor cursor) {
+        return identityManager.hasRole(users[cursor.next(userCount)], roles[cursor.next(roles.length)]);
+    }
+
+    @Benchmark
+    public boolean hasGroupRole(Cursor cursor) {
+        return identityManager.hasGroupRole(users[cursor.next(userCount)], roles[cursor.next(roles.length)], group);
+    }
+}
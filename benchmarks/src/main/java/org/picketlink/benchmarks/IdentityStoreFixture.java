@@ -0,0 +1,309 @@
+package org.picketlink.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.picketlink.benchmarks.jpa.IdentityMembership;
+import org.picketlink.benchmarks.jpa.IdentityObject;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.SecurityConfigurationException;
+import org.picketlink.idm.config.IdentityConfiguration;
+import org.picketlink.idm.config.IdentityStoreConfiguration;
+import org.picketlink.idm.config.IdentityStoreConfigurationBuilder;
+import org.picketlink.idm.config.PartitionStoreConfiguration;
+import org.picketlink.idm.credential.PasswordCredential;
+import org.picketlink.idm.file.internal.FileBasedIdentityStore;
+import org.picketlink.idm.internal.DefaultIdentityManager;
+import org.picketlink.idm.internal.DefaultIdentityStoreInvocationContextFactory;
+import org.picketlink.idm.jpa.internal.JPAIdentityStoreConfiguration;
+import org.picketlink.idm.ldap.internal.LDAPConfiguration;
+import org.picketlink.idm.ldap.internal.LDAPConfigurationBuilder;
+import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.GroupRole;
+import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.SimpleGroup;
+import org.picketlink.idm.model.SimpleGroupRole;
+import org.picketlink.idm.model.SimpleRole;
+import org.picketlink.idm.model.SimpleUser;
+import org.picketlink.idm.model.User;
+import org.picketlink.idm.spi.IdentityStore;
+import org.picketlink.idm.spi.IdentityStore.Feature;
+import org.picketlink.idm.spi.IdentityStoreInvocationContext;
+import org.picketlink.idm.spi.PartitionStore;
+import org.picketlink.idm.spi.StoreFactory;
+
+/**
+ * Creates an {@link IdentityManager} backed by one of the built-in identity stores and populates it with
+ * <code>userCount</code> users.  Each user is granted one of {@link #ROLE_COUNT} roles in the {@link #GROUP_NAME}
+ * group, so that role checks hit both granted and missing memberships.  Memberships are always created as group
+ * roles, as a GroupRole requires a group.  The LDAP store can't write group members yet, so no memberships are
+ * granted there and role checks against LDAP only measure the lookup of missing memberships.
+ */
+public class IdentityStoreFixture {
+
+    public enum StoreType {
+        FILE, JPA, LDAP
+    }
+
+    public static final int ROLE_COUNT = 10;
+
+    public static final String GROUP_NAME = "staff";
+
+    public static final String PASSWORD = "secret";
+
+    private final StoreType storeType;
+
+    private final int userCount;
+
+    private IdentityManager identityManager;
+
+    private EntityManagerFactory emf;
+
+    private EmbeddedLDAPServer ldapServer;
+
+    private File workingDir;
+
+    public IdentityStoreFixture(StoreType storeType, int userCount) {
+        this.storeType = storeType;
+        this.userCount = userCount;
+    }
+
+    public static String getUserId(int index) {
+        return "user" + index;
+    }
+
+    public static String getRoleName(int index) {
+        return "role" + (index % ROLE_COUNT);
+    }
+
+    public void start() throws Exception {
+        try {
+            doStart();
+        } catch (Exception e) {
+            stop();
+            throw e;
+        }
+    }
+
+    private void doStart() throws Exception {
+        switch (storeType) {
+            case FILE:
+                identityManager = createFileIdentityManager();
+                populate(true);
+                break;
+            case JPA:
+                emf = Persistence.createEntityManagerFactory("benchmarks-pu");
+                populateDatabase();
+                identityManager = createJPAIdentityManager();
+                break;
+            case LDAP:
+                ldapServer = new EmbeddedLDAPServer();
+                ldapServer.start();
+                identityManager = createLDAPIdentityManager();
+                populate(false);
+                break;
+        }
+    }
+
+    public void stop() throws Exception {
+        if (emf != null) {
+            emf.close();
+            emf = null;
+        }
+
+        if (ldapServer != null) {
+            ldapServer.stop();
+            ldapServer = null;
+        }
+
+        if (workingDir != null) {
+            for (File file : workingDir.listFiles()) {
+                file.delete();
+            }
+            workingDir.delete();
+            workingDir = null;
+        }
+    }
+
+    public IdentityManager getIdentityManager() {
+        return identityManager;
+    }
+
+    public int getUserCount() {
+        return userCount;
+    }
+
+    /**
+     * Adds the users, their passwords and roles through the IdentityManager
+     */
+    private void populate(boolean grantMemberships) {
+        Group group = new SimpleGroup(GROUP_NAME);
+        identityManager.add(group);
+
+        List<Role> roles = new ArrayList<Role>();
+        for (int i = 0; i < ROLE_COUNT; i++) {
+            Role role = new SimpleRole(getRoleName(i));
+            identityManager.add(role);
+            roles.add(role);
+        }
+
+        List<User> users = new ArrayList<User>();
+        List<GroupRole> memberships = new ArrayList<GroupRole>();
+        for (int i = 0; i < userCount; i++) {
+            User user = new SimpleUser(getUserId(i));
+            users.add(user);
+            memberships.add(new SimpleGroupRole(user, roles.get(i % ROLE_COUNT), group));
+        }
+
+        identityManager.addAll(users);
+
+        for (User user : users) {
+            identityManager.updateCredential(user, new PasswordCredential(PASSWORD));
+        }
+
+        if (grantMemberships) {
+            identityManager.grantMemberships(memberships);
+        }
+    }
+
+    /**
+     * The JPA identity store doesn't implement membership or credential management yet, so the users and
+     * their roles are written to the database directly
+     */
+    private void populateDatabase() {
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+
+        SimpleGroup simpleGroup = new SimpleGroup(GROUP_NAME);
+        IdentityObject group = persistIdentity(em, "GROUP", simpleGroup.getId(), simpleGroup.getKey());
+
+        List<IdentityObject> roles = new ArrayList<IdentityObject>();
+        for (int i = 0; i < ROLE_COUNT; i++) {
+            SimpleRole role = new SimpleRole(getRoleName(i));
+            roles.add(persistIdentity(em, "ROLE", role.getName(), role.getKey()));
+        }
+
+        for (int i = 0; i < userCount; i++) {
+            SimpleUser user = new SimpleUser(getUserId(i));
+            IdentityObject member = persistIdentity(em, "USER", user.getId(), user.getKey());
+
+            IdentityMembership membership = new IdentityMembership();
+            membership.setMember(member);
+            membership.setGroup(group);
+            membership.setRole(roles.get(i % ROLE_COUNT));
+            em.persist(membership);
+
+            if (i % 1000 == 999) {
+                em.flush();
+                em.clear();
+                group = em.merge(group);
+                for (int j = 0; j < roles.size(); j++) {
+                    roles.set(j, em.merge(roles.get(j)));
+                }
+            }
+        }
+
+        em.getTransaction().commit();
+        em.close();
+    }
+
+    private IdentityObject persistIdentity(EntityManager em, String discriminator, String id, String key) {
+        IdentityObject identity = new IdentityObject();
+        identity.setDiscriminator(discriminator);
+        identity.setId(id);
+        identity.setName(id);
+        identity.setKey(key);
+        em.persist(identity);
+        return identity;
+    }
+
+    private IdentityManager createJPAIdentityManager() {
+        JPAIdentityStoreConfiguration config = new JPAIdentityStoreConfiguration();
+        config.setIdentityClass(IdentityObject.class);
+        config.setMembershipClass(IdentityMembership.class);
+        config.getFeatureSet().add(Feature.all);
+
+        IdentityConfiguration identityConfig = new IdentityConfiguration();
+        identityConfig.addStoreConfiguration(config);
+
+        DefaultIdentityManager identityManager = new DefaultIdentityManager();
+        identityManager.bootstrap(identityConfig, new DefaultIdentityStoreInvocationContextFactory(emf));
+        return identityManager;
+    }
+
+    private IdentityManager createLDAPIdentityManager() {
+        String fqn = LDAPConfigurationBuilder.class.getName();
+        LDAPConfiguration config = (LDAPConfiguration) IdentityStoreConfigurationBuilder.config(fqn);
+
+        config.setBindDN(ldapServer.getAdminDN()).setBindCredential(ldapServer.getAdminPassword())
+                .setLdapURL(EmbeddedLDAPServer.LDAP_URL);
+        config.setUserDNSuffix("ou=People,dc=jboss,dc=org").setRoleDNSuffix("ou=Roles,dc=jboss,dc=org");
+        config.setGroupDNSuffix("ou=Groups,dc=jboss,dc=org");
+
+        IdentityConfiguration identityConfig = new IdentityConfiguration();
+        identityConfig.addStoreConfiguration(config);
+
+        DefaultIdentityManager identityManager = new DefaultIdentityManager();
+        identityManager.bootstrap(identityConfig, new DefaultIdentityStoreInvocationContextFactory(null));
+        return identityManager;
+    }
+
+    /**
+     * There is no configuration for the file store yet, so it is mapped with a StoreFactory that always
+     * returns the same store instance
+     */
+    private IdentityManager createFileIdentityManager() throws Exception {
+        workingDir = File.createTempFile("pl-idm-benchmark", "");
+        workingDir.delete();
+        workingDir.mkdirs();
+
+        final FileBasedIdentityStore store = new FileBasedIdentityStore(workingDir.getPath(), true);
+
+        IdentityConfiguration identityConfig = new IdentityConfiguration();
+        identityConfig.addStoreConfiguration(new IdentityStoreConfiguration() {
+
+            @Override
+            public void init() throws SecurityConfigurationException {
+            }
+
+            @Override
+            public Set<Feature> getFeatureSet() {
+                return Collections.singleton(Feature.all);
+            }
+        });
+
+        DefaultIdentityManager identityManager = new DefaultIdentityManager();
+        identityManager.setIdentityStoreFactory(new StoreFactory() {
+
+            @Override
+            public IdentityStore createIdentityStore(IdentityStoreConfiguration config, IdentityStoreInvocationContext ctx) {
+                return store;
+            }
+
+            @Override
+            public void mapIdentityConfiguration(Class<? extends IdentityStoreConfiguration> configClass,
+                    Class<? extends IdentityStore> storeClass) {
+            }
+
+            @Override
+            public PartitionStore createPartitionStore(PartitionStoreConfiguration config) {
+                return null;
+            }
+
+            @Override
+            public void mapPartitionConfiguration(Class<? extends PartitionStoreConfiguration> configClass,
+                    Class<? extends PartitionStore> storeClass) {
+            }
+        });
+
+        identityManager.bootstrap(identityConfig, new DefaultIdentityStoreInvocationContextFactory(null));
+        return identityManager;
+    }
+}
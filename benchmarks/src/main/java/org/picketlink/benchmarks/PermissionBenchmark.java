@@ -0,0 +1,163 @@
+package org.picketlink.benchmarks;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.picketlink.Identity;
+import org.picketlink.benchmarks.IdentityStoreFixture.StoreType;
+import org.picketlink.benchmarks.jpa.Document;
+import org.picketlink.benchmarks.jpa.DocumentPermission;
+import org.picketlink.credential.LoginCredentials;
+import org.picketlink.idm.credential.PasswordCredential;
+import org.picketlink.idm.model.SimpleUser;
+import org.picketlink.permission.internal.PermissionDecisionCache;
+import org.picketlink.permission.internal.PermissionHandlerPolicy;
+
+/**
+ * Measures permission checks through {@link Identity}, resolved by the PermissionMapper and the
+ * PersistentPermissionResolver from the ACL entries held by the JPAPermissionStore.  Every thread logs in as
+ * its own user, which may read every other document.  The decision cache can be disabled to measure the
+ * store queries alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PermissionBenchmark {
+
+    public static final String OPERATION = "read";
+
+    /**
+     * The maximum number of threads, for which users and ACL entries are created
+     */
+    private static final int MAX_USERS = 64;
+
+    @Param({ "500" })
+    public int documentCount;
+
+    @Param({ "true", "false" })
+    public boolean cacheDecisions;
+
+    private IdentityStoreFixture fixture;
+
+    private CDIBenchmarkContainer container;
+
+    private List<Document> documents;
+
+    private final AtomicInteger sessions = new AtomicInteger();
+
+    /**
+     * The logged in session of each benchmark thread
+     */
+    @State(Scope.Thread)
+    public static class Session {
+        private final Random random = new Random();
+
+        private CDIBenchmarkContainer.Contexts contexts;
+
+        private Identity identity;
+
+        @Setup(Level.Trial)
+        public void setup(PermissionBenchmark benchmark) {
+            contexts = benchmark.container.activateContexts();
+            identity = benchmark.container.getReference(Identity.class);
+
+            LoginCredentials credentials = benchmark.container.getReference(LoginCredentials.class);
+            credentials.setUserId(IdentityStoreFixture.getUserId(benchmark.sessions.getAndIncrement() % MAX_USERS));
+            credentials.setCredential(new PasswordCredential(IdentityStoreFixture.PASSWORD));
+            identity.login();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            identity.logout();
+            contexts.end();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new IdentityStoreFixture(StoreType.FILE, MAX_USERS);
+        fixture.start();
+        BenchmarkAuthenticator.setIdentityManager(fixture.getIdentityManager());
+
+        container = new CDIBenchmarkContainer();
+        container.start();
+
+        PermissionDecisionCache decisionCache = container.getReference(PermissionDecisionCache.class);
+        decisionCache.setTimeout(cacheDecisions ? PermissionDecisionCache.DEFAULT_TIMEOUT : 0);
+
+        documents = new ArrayList<Document>();
+        for (long i = 0; i < documentCount; i++) {
+            documents.add(new Document(i));
+        }
+
+        populatePermissions(container.getReference(PermissionHandlerPolicy.class),
+                container.getReference(EntityManagerFactory.class));
+    }
+
+    private void populatePermissions(PermissionHandlerPolicy policy, EntityManagerFactory emf) {
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+
+        for (int user = 0; user < MAX_USERS; user++) {
+            String recipient = new SimpleUser(IdentityStoreFixture.getUserId(user)).getKey();
+
+            for (int i = 0; i < documents.size(); i += 2) {
+                DocumentPermission permission = new DocumentPermission();
+                permission.setResource(policy.getGeneratedIdentifier(documents.get(i)));
+                permission.setRecipient(recipient);
+                // the mask of the read permission
+                permission.setPermission("1");
+                em.persist(permission);
+            }
+
+            em.flush();
+            em.clear();
+        }
+
+        em.getTransaction().commit();
+        em.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        container.stop();
+        fixture.stop();
+    }
+
+    @Benchmark
+    public boolean hasPermission(Session session) {
+        return session.identity.hasPermission(documents.get(session.random.nextInt(documentCount)), OPERATION);
+    }
+
+    /**
+     * Filters all of the documents with a single bulk check
+     */
+    @Benchmark
+    public BitSet hasPermissions(Session session) {
+        return session.identity.hasPermissions(documents, OPERATION);
+    }
+}
@@ -0,0 +1,47 @@
+package org.picketlink.benchmarks.jpa;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+import org.picketlink.permission.annotations.AllowedPermission;
+import org.picketlink.permission.annotations.AllowedPermissions;
+
+/**
+ * The resource secured in the permission benchmarks.  Instances are never persisted, the permission
+ * handlers only need the identifier.
+ */
+@Entity
+@AllowedPermissions({
+    @AllowedPermission(name = "read", mask = 1),
+    @AllowedPermission(name = "write", mask = 2)
+})
+public class Document {
+
+    @Id
+    private Long id;
+
+    public Document() {
+    }
+
+    public Document(Long id) {
+        this.id = id;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Document && id.equals(((Document) obj).id);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+}
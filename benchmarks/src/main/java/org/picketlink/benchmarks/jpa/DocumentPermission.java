@@ -0,0 +1,63 @@
+package org.picketlink.benchmarks.jpa;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+
+import org.picketlink.permission.annotations.ACLIdentifier;
+import org.picketlink.permission.annotations.ACLPermission;
+import org.picketlink.permission.annotations.ACLRecipient;
+import org.picketlink.permission.annotations.ACLStore;
+
+/**
+ * General ACL store of the permission benchmarks
+ */
+@Entity
+@ACLStore
+public class DocumentPermission {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @ACLIdentifier
+    private String resource;
+
+    @ACLRecipient
+    private String recipient;
+
+    @ACLPermission
+    private String permission;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    public void setResource(String resource) {
+        this.resource = resource;
+    }
+
+    public String getRecipient() {
+        return recipient;
+    }
+
+    public void setRecipient(String recipient) {
+        this.recipient = recipient;
+    }
+
+    public String getPermission() {
+        return permission;
+    }
+
+    public void setPermission(String permission) {
+        this.permission = permission;
+    }
+}
@@ -0,0 +1,67 @@
+package org.picketlink.benchmarks.jpa;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+
+import org.picketlink.idm.jpa.annotations.EntityType;
+import org.picketlink.idm.jpa.annotations.IDMEntity;
+import org.picketlink.idm.jpa.annotations.IDMProperty;
+import org.picketlink.idm.jpa.annotations.PropertyType;
+
+/**
+ * Membership entity of the JPA identity store used by the benchmarks
+ */
+@IDMEntity(EntityType.IDENTITY_RELATIONSHIP)
+@Entity
+public class IdentityMembership {
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @ManyToOne
+    @IDMProperty(PropertyType.MEMBER)
+    private IdentityObject member;
+
+    @ManyToOne
+    @IDMProperty(PropertyType.GROUP)
+    private IdentityObject group;
+
+    @ManyToOne
+    @IDMProperty(PropertyType.ROLE)
+    private IdentityObject role;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public IdentityObject getMember() {
+        return member;
+    }
+
+    public void setMember(IdentityObject member) {
+        this.member = member;
+    }
+
+    public IdentityObject getGroup() {
+        return group;
+    }
+
+    public void setGroup(IdentityObject group) {
+        this.group = group;
+    }
+
+    public IdentityObject getRole() {
+        return role;
+    }
+
+    public void setRole(IdentityObject role) {
+        this.role = role;
+    }
+}
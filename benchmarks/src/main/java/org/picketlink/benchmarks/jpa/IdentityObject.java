@@ -0,0 +1,90 @@
+package org.picketlink.benchmarks.jpa;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+
+import org.picketlink.idm.jpa.annotations.EntityType;
+import org.picketlink.idm.jpa.annotations.IDMEntity;
+import org.picketlink.idm.jpa.annotations.IDMProperty;
+import org.picketlink.idm.jpa.annotations.PropertyType;
+
+/**
+ * Identity entity of the JPA identity store used by the benchmarks
+ */
+@IDMEntity(EntityType.IDENTITY_TYPE)
+@Entity
+public class IdentityObject {
+
+    @Id
+    @GeneratedValue
+    private Long internalId;
+
+    @IDMProperty(PropertyType.DISCRIMINATOR)
+    private String discriminator;
+
+    @IDMProperty(PropertyType.ID)
+    @Column(unique = true)
+    private String id;
+
+    @IDMProperty(PropertyType.KEY)
+    @Column(name = "identityKey", unique = true)
+    private String key;
+
+    @IDMProperty(PropertyType.NAME)
+    private String name;
+
+    @ManyToOne
+    @IDMProperty(PropertyType.PARENT_GROUP)
+    private IdentityObject parent;
+
+    public Long getInternalId() {
+        return internalId;
+    }
+
+    public void setInternalId(Long internalId) {
+        this.internalId = internalId;
+    }
+
+    public String getDiscriminator() {
+        return discriminator;
+    }
+
+    public void setDiscriminator(String discriminator) {
+        this.discriminator = discriminator;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public IdentityObject getParent() {
+        return parent;
+    }
+
+    public void setParent(IdentityObject parent) {
+        this.parent = parent;
+    }
+}
@@ -0,0 +1,27 @@
+package org.picketlink;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * Optional extension of Identity for implementations that can check a permission for a collection of 
+ * resources at once, for example when filtering the results of a query.
+ * 
+ * Identity implementations that don't implement this interface are checked one resource at a time 
+ * with hasPermission().
+ */
+public interface BulkPermissionIdentity extends Identity
+{
+    /**
+     * Tests if the currently authenticated user has permission to perform the specified operation on
+     * each of the specified resources.  This method should be preferred over invoking hasPermission() 
+     * for every resource when filtering a collection, as the permissions of all resources are resolved
+     * together.
+     * 
+     * @param resources The resources for which the permission is required
+     * @param operation The operation that the user wishes to perform on the resources
+     * @return A BitSet in which the bit at each index is set if the current user has the permission for the
+     * resource at the same index, in the iteration order of the collection
+     */
+    BitSet hasPermissions(Collection<?> resources, String operation);
+}
@@ -0,0 +1,39 @@
+package org.picketlink;
+
+import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.Role;
+
+/**
+ * Optional extension of Identity for implementations that check the roles and groups of the current
+ * user themselves.
+ * 
+ * Applications that need these checks for an Identity that doesn't implement this interface should
+ * ask the IdentityManager for the user returned by getUser().
+ */
+public interface MembershipIdentity extends Identity
+{
+    /**
+     * Checks if the currently authenticated user has been granted the specified role
+     * 
+     * @param role The role to check
+     * @return true if the current user has the role
+     */
+    boolean hasRole(Role role);
+
+    /**
+     * Checks if the currently authenticated user is a member of the specified group
+     * 
+     * @param group The group to check
+     * @return true if the current user is a member of the group
+     */
+    boolean isMember(Group group);
+
+    /**
+     * Checks if the currently authenticated user has been granted the specified role in the specified group
+     * 
+     * @param role The role to check
+     * @param group The group in which the role must have been granted
+     * @return true if the current user has the group role
+     */
+    boolean hasGroupRole(Role role, Group group);
+}
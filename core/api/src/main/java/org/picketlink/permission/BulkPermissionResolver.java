@@ -0,0 +1,24 @@
+package org.picketlink.permission;
+
+import java.util.Collection;
+
+import org.picketlink.permission.PermissionResolver.PermissionStatus;
+
+/**
+ * Optional extension of PermissionResolver for resolvers that can determine the permissions for many
+ * resources more efficiently than one at a time, for example with a single lookup.
+ * 
+ * The PermissionMapper falls back to the single resource hasPermission() method of PermissionResolver
+ * for resolvers that don't implement this interface.
+ */
+public interface BulkPermissionResolver
+{
+    /**
+     * Determines the status of the specified operation for each of the specified resources at once
+     * 
+     * @param resources The resources for which the permission is required
+     * @param operation The operation that the user wishes to perform on the resources
+     * @return An array containing the status for each resource, in the iteration order of the collection
+     */
+    PermissionStatus[] hasPermissions(Collection<?> resources, String operation);
+}
@@ -0,0 +1,15 @@
+package org.picketlink.permission;
+
+/**
+ * Optional marker for PermissionResolver implementations whose answers may be cached.
+ * 
+ * The PermissionMapper caches the combined status of these resolvers for each user, resource and
+ * operation, until the permissions for the resource change, the memberships of any identity change,
+ * or the cached decision expires.  A resolver should therefore only implement this interface if its
+ * answers depend on nothing else, and never on the time, the current request or other external state.
+ * 
+ * Resolvers that don't implement this interface are consulted for every permission check.
+ */
+public interface CacheablePermissionResolver
+{
+}
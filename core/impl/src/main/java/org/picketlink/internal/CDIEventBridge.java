@@ -0,0 +1,23 @@
+package org.picketlink.internal;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.inject.Inject;
+
+import org.picketlink.idm.event.EventBridge;
+
+/**
+ * An EventBridge that fires the events raised by the identity stores as CDI events
+ *
+ */
+@ApplicationScoped
+public class CDIEventBridge implements EventBridge
+{
+    @Inject
+    private BeanManager beanManager;
+
+    public void raiseEvent(Object event)
+    {
+        beanManager.fireEvent(event);
+    }
+}
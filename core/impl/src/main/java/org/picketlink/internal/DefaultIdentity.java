@@ -1,6 +1,8 @@
 package org.picketlink.internal;
 
 import java.io.Serializable;
+import java.util.BitSet;
+import java.util.Collection;
 
 import javax.enterprise.context.SessionScoped;
 import javax.enterprise.inject.spi.BeanManager;
@@ -9,7 +11,8 @@ import javax.inject.Named;
 
 import org.apache.deltaspike.core.util.ExceptionUtils;
 
-import org.picketlink.Identity;
+import org.picketlink.BulkPermissionIdentity;
+import org.picketlink.MembershipIdentity;
 import org.picketlink.authentication.AuthenticationException;
 import org.picketlink.authentication.Authenticator;
 import org.picketlink.authentication.AuthenticatorSelector;
@@ -23,7 +26,11 @@ import org.picketlink.authentication.event.PostLoggedOutEvent;
 import org.picketlink.authentication.event.PreAuthenticateEvent;
 import org.picketlink.authentication.event.PreLoggedOutEvent;
 import org.picketlink.credential.LoginCredentials;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.Role;
 import org.picketlink.idm.model.User;
+import org.picketlink.permission.internal.PermissionMapper;
 
 /**
  * Default Identity implementation
@@ -31,7 +38,7 @@ import org.picketlink.idm.model.User;
 @SuppressWarnings("UnusedDeclaration")
 @SessionScoped
 @Named("identity")
-public class DefaultIdentity implements Identity
+public class DefaultIdentity implements BulkPermissionIdentity, MembershipIdentity
 {
     private static final long serialVersionUID = 3696702275353144429L;
 
@@ -47,6 +54,18 @@ public class DefaultIdentity implements Identity
     @SuppressWarnings("NonSerializableFieldInSerializableClass")
     private LoginCredentials loginCredential;
 
+    @Inject
+    @SuppressWarnings("NonSerializableFieldInSerializableClass")
+    private PermissionMapper permissionMapper;
+
+    @Inject
+    @SuppressWarnings("NonSerializableFieldInSerializableClass")
+    private IdentityManager identityManager;
+
+    @Inject
+    @SuppressWarnings("NonSerializableFieldInSerializableClass")
+    private MembershipTracker membershipTracker;
+
     /**
      * Flag indicating whether we are currently authenticating
      */
@@ -54,6 +73,12 @@ public class DefaultIdentity implements Identity
 
     private User user;
 
+    /**
+     * The results of the membership checks made for the current user, so that repeated checks don't 
+     * go back to the IdentityManager.  Replaced lazily once it is no longer valid.
+     */
+    private transient volatile MembershipSnapshot membershipSnapshot;
+
     public boolean isLoggedIn() 
     {
         // If there is a user set, then the user is logged in.
@@ -148,6 +173,7 @@ public class DefaultIdentity implements Identity
             {
                 postAuthenticate(activeAuthenticator);
                 this.user = activeAuthenticator.getUser();
+                this.membershipSnapshot = createMembershipSnapshot();
                 return true;
             }
         } 
@@ -207,6 +233,7 @@ public class DefaultIdentity implements Identity
     private void unAuthenticate(boolean invalidateLoginCredential)
     {
         this.user = null;
+        this.membershipSnapshot = null;
 
         if (invalidateLoginCredential)
         {
@@ -214,15 +241,85 @@ public class DefaultIdentity implements Identity
         }
     }
     
+    public boolean hasRole(Role role)
+    {
+        return checkMembership(role.getKey(), role, null);
+    }
+
+    public boolean isMember(Group group)
+    {
+        return checkMembership(group.getKey(), null, group);
+    }
+
+    public boolean hasGroupRole(Role role, Group group)
+    {
+        return checkMembership(group.getKey() + "#" + role.getKey(), role, group);
+    }
+
+    private boolean checkMembership(String key, Role role, Group group)
+    {
+        if (!isLoggedIn())
+        {
+            return false;
+        }
+
+        MembershipSnapshot snapshot = getMembershipSnapshot();
+
+        Boolean granted = snapshot.lookup(key);
+        if (granted != null)
+        {
+            return granted;
+        }
+
+        if (group == null)
+        {
+            granted = identityManager.hasRole(this.user, role);
+        }
+        else if (role == null)
+        {
+            granted = identityManager.isMember(this.user, group);
+        }
+        else
+        {
+            granted = identityManager.hasGroupRole(this.user, role, group);
+        }
+
+        this.membershipSnapshot = snapshot.record(key, granted);
+        return granted;
+    }
+
+    private MembershipSnapshot getMembershipSnapshot()
+    {
+        MembershipSnapshot snapshot = this.membershipSnapshot;
+
+        if (snapshot == null || !snapshot.isValid(membershipTracker.getGeneration(), System.currentTimeMillis()))
+        {
+            snapshot = createMembershipSnapshot();
+            this.membershipSnapshot = snapshot;
+        }
+
+        return snapshot;
+    }
+
+    private MembershipSnapshot createMembershipSnapshot()
+    {
+        long timeout = membershipTracker.getSnapshotTimeout();
+        long expires = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        return new MembershipSnapshot(membershipTracker.getGeneration(), expires);
+    }
+    
     public boolean hasPermission(Object resource, String operation)
     {
-        // TODO Auto-generated method stub
-        return false;
+        return permissionMapper.resolvePermission(resource, operation);
     }
 
     public boolean hasPermission(Class<?> resourceClass, Serializable identifier, String operation)
     {
-        // TODO Auto-generated method stub
-        return false;
+        return permissionMapper.resolvePermission(resourceClass, identifier, operation);
+    }
+
+    public BitSet hasPermissions(Collection<?> resources, String operation)
+    {
+        return permissionMapper.resolvePermissions(resources, operation);
     }
 }
@@ -0,0 +1,98 @@
+package org.picketlink.internal;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An immutable record of the membership checks made for the current user.  The membership keys are
+ * held in a sorted array, with the result of each check held in a BitSet at the same index, so that a 
+ * lookup is a binary search.  Recording the result of a new check returns a copy of the snapshot 
+ * containing it.  A snapshot holds at most MAX_SIZE checks, further checks are not recorded and go to 
+ * the IdentityManager each time.
+ * 
+ * A snapshot belongs to the membership generation it was created in, and is no longer valid once the
+ * generation has changed or the snapshot has expired.
+ *
+ */
+class MembershipSnapshot
+{
+    /**
+     * The maximum number of membership checks recorded per session
+     */
+    static final int MAX_SIZE = 256;
+
+    private final String[] keys;
+    private final BitSet granted;
+    private final long generation;
+    private final long expires;
+
+    MembershipSnapshot(long generation, long expires)
+    {
+        this(new String[0], new BitSet(), generation, expires);
+    }
+
+    private MembershipSnapshot(String[] keys, BitSet granted, long generation, long expires)
+    {
+        this.keys = keys;
+        this.granted = granted;
+        this.generation = generation;
+        this.expires = expires;
+    }
+
+    boolean isValid(long currentGeneration, long now)
+    {
+        return generation == currentGeneration && now < expires;
+    }
+
+    /**
+     * Returns the recorded result for the membership key, or null if it hasn't been checked yet
+     */
+    Boolean lookup(String key)
+    {
+        int index = Arrays.binarySearch(keys, key);
+        return index >= 0 ? Boolean.valueOf(granted.get(index)) : null;
+    }
+
+    MembershipSnapshot record(String key, boolean isGranted)
+    {
+        int index = Arrays.binarySearch(keys, key);
+
+        if (index >= 0)
+        {
+            if (granted.get(index) == isGranted)
+            {
+                return this;
+            }
+
+            BitSet newGranted = (BitSet) granted.clone();
+            newGranted.set(index, isGranted);
+            return new MembershipSnapshot(keys, newGranted, generation, expires);
+        }
+
+        if (keys.length >= MAX_SIZE)
+        {
+            return this;
+        }
+
+        int insert = -(index + 1);
+
+        String[] newKeys = new String[keys.length + 1];
+        System.arraycopy(keys, 0, newKeys, 0, insert);
+        newKeys[insert] = key;
+        System.arraycopy(keys, insert, newKeys, insert + 1, keys.length - insert);
+
+        BitSet newGranted = new BitSet(newKeys.length);
+        for (int i = granted.nextSetBit(0); i >= 0; i = granted.nextSetBit(i + 1))
+        {
+            newGranted.set(i < insert ? i : i + 1);
+        }
+        newGranted.set(insert, isGranted);
+
+        return new MembershipSnapshot(newKeys, newGranted, generation, expires);
+    }
+
+    int size()
+    {
+        return keys.length;
+    }
+}
@@ -0,0 +1,80 @@
+package org.picketlink.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+
+import org.picketlink.idm.event.GroupDeletedEvent;
+import org.picketlink.idm.event.MembershipChangedEvent;
+import org.picketlink.idm.event.RoleDeletedEvent;
+import org.picketlink.idm.event.UserDeletedEvent;
+
+/**
+ * Tracks changes to identity memberships, so that the membership snapshots held by each session
+ * can be refreshed lazily.  Every membership change, and the deletion of any user, group or role,
+ * starts a new generation, which invalidates all of the snapshots created in earlier generations.
+ * A new generation only starts once the change has been committed, so that a snapshot taken while
+ * the change is in flight is still invalidated, and a change that is rolled back invalidates nothing.
+ * Snapshots also expire after the configured timeout, to pick up changes made outside of this
+ * application.
+ *
+ */
+@ApplicationScoped
+public class MembershipTracker
+{
+    public static final long DEFAULT_SNAPSHOT_TIMEOUT = 5 * 60 * 1000;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile long snapshotTimeout = DEFAULT_SNAPSHOT_TIMEOUT;
+
+    public void membershipChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) MembershipChangedEvent event)
+    {
+        invalidateSnapshots();
+    }
+
+    public void userDeleted(@Observes(during = TransactionPhase.AFTER_SUCCESS) UserDeletedEvent event)
+    {
+        invalidateSnapshots();
+    }
+
+    public void groupDeleted(@Observes(during = TransactionPhase.AFTER_SUCCESS) GroupDeletedEvent event)
+    {
+        invalidateSnapshots();
+    }
+
+    public void roleDeleted(@Observes(during = TransactionPhase.AFTER_SUCCESS) RoleDeletedEvent event)
+    {
+        invalidateSnapshots();
+    }
+
+    /**
+     * Invalidates the membership snapshots of all sessions
+     */
+    public void invalidateSnapshots()
+    {
+        generation.incrementAndGet();
+    }
+
+    public long getGeneration()
+    {
+        return generation.get();
+    }
+
+    public long getSnapshotTimeout()
+    {
+        return snapshotTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds after which a membership snapshot is rebuilt
+     * 
+     * @param snapshotTimeout
+     */
+    public void setSnapshotTimeout(long snapshotTimeout)
+    {
+        this.snapshotTimeout = snapshotTimeout;
+    }
+}
@@ -5,12 +5,15 @@ import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 
 /**
- * Utility class for working with JavaBean style properties
+ * Utility class for working with JavaBean style properties. Properties are
+ * immutable once created, so a single instance is created for each field or
+ * method and reused by all later calls.
  *
  * @see Property
  */
 public class Properties 
 {
+    private static final ReflectionCache<Member, Property<?>> properties = new ReflectionCache<Member, Property<?>>();
 
     private Properties() 
     {
@@ -23,9 +26,18 @@ public class Properties
      * @param field
      * @return
      */
+    @SuppressWarnings("unchecked")
     public static <V> FieldProperty<V> createProperty(Field field) 
     {
-        return new FieldPropertyImpl<V>(field);
+        FieldProperty<V> property = (FieldProperty<V>) properties.get(field);
+
+        if (property == null)
+        {
+            property = new FieldPropertyImpl<V>(field);
+            properties.putIfAbsent(field, property);
+        }
+
+        return property;
     }
 
     /**
@@ -37,9 +49,18 @@ public class Properties
      * @throws IllegalArgumentException if the method does not match JavaBean conventions
      * @see http://www.oracle.com/technetwork/java/javase/documentation/spec-136004.html
      */
+    @SuppressWarnings("unchecked")
     public static <V> MethodProperty<V> createProperty(Method method) 
     {
-        return new MethodPropertyImpl<V>(method);
+        MethodProperty<V> property = (MethodProperty<V>) properties.get(method);
+
+        if (property == null)
+        {
+            property = new MethodPropertyImpl<V>(method);
+            properties.putIfAbsent(method, property);
+        }
+
+        return property;
     }
 
     /**
@@ -55,11 +76,11 @@ public class Properties
     {
         if (member instanceof Method) 
         {
-            return new MethodPropertyImpl<V>(Method.class.cast(member));
+            return createProperty(Method.class.cast(member));
         } 
         else if (member instanceof Field) 
         {
-            return new FieldPropertyImpl<V>(Field.class.cast(member));
+            return createProperty(Field.class.cast(member));
         } 
         else 
         {
@@ -75,7 +96,7 @@ public class Properties
     {
         try 
         {
-            new MethodPropertyImpl<V>(method);
+            createProperty(method);
             return true;
         } 
         catch (IllegalArgumentException e) 
@@ -0,0 +1,46 @@
+package org.picketlink.internal.util.properties;
+
+import java.lang.ref.SoftReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A cache of metadata derived from classes and their members. Keys are held
+ * weakly and values softly, as the values usually reference the class of their
+ * key, so caching the metadata of a class never keeps its class loader from
+ * being garbage collected.
+ *
+ * @param <K> the class or member the metadata was derived from
+ * @param <V> the metadata
+ */
+public class ReflectionCache<K, V> 
+{
+    private final Map<K, SoftReference<V>> entries = new WeakHashMap<K, SoftReference<V>>();
+
+    /**
+     * Returns the cached value for the key, or null if there is none or it has
+     * been collected
+     */
+    public synchronized V get(K key) 
+    {
+        SoftReference<V> reference = entries.get(key);
+        return reference != null ? reference.get() : null;
+    }
+
+    /**
+     * Caches the value for the key, unless a value is already cached, and
+     * returns the cached value
+     */
+    public synchronized V putIfAbsent(K key, V value) 
+    {
+        V existing = get(key);
+
+        if (existing != null) 
+        {
+            return existing;
+        }
+
+        entries.put(key, new SoftReference<V>(value));
+        return value;
+    }
+}
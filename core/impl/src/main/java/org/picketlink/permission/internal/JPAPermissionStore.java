@@ -1,7 +1,9 @@
 package org.picketlink.permission.internal;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -10,6 +12,7 @@ import java.util.Set;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Instance;
+import javax.enterprise.inject.spi.BeanManager;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
@@ -23,6 +26,11 @@ import org.picketlink.permission.spi.PermissionStore;
 
 /**
  * A PermissionStore implementation backed by a JPA datasource
+ * 
+ * Permissions for several resources held by the same store are loaded with a single query, and the
+ * recipients and permission values of the results are only resolved once per distinct value.  Granting
+ * or revoking a permission invalidates the cached decisions for its resource once the transaction has
+ * committed.
  *
  */
 @ApplicationScoped
@@ -40,56 +48,37 @@ public class JPAPermissionStore implements PermissionStore
     @Inject
     private PermissionHandlerPolicy permissionHandlerPolicy;
 
+    @Inject
+    private BeanManager beanManager;
+
     @Override
     public List<Permission> getPermissions(PermissionQuery query)
     {
-        EntityManager em = entityManagerInstance.get();
-        
         Map<StoreMetadata, Set<Object>> resourceMetadata = new HashMap<StoreMetadata, Set<Object>>();                
                 
         if (query.getResources() != null)
         {            
             for (Object resource : query.getResources()) 
             {
-                Class<?> resourceClass = resource.getClass();
-                StoreMetadata meta = (config.getStores().containsKey(resourceClass)) ? 
-                        config.getStores().get(resourceClass) : config.getGeneralStore();
-                
-                if (!resourceMetadata.containsKey(meta))
-                {
-                    resourceMetadata.put(meta, new HashSet<Object>());
-                }
-                resourceMetadata.get(meta).add(resource);
+                addResource(resourceMetadata, resource);
             }
         }
         else if (query.getResource() != null)
         {
-            Class<?> resourceClass = query.getResource().getClass();
-            StoreMetadata meta = (config.getStores().containsKey(resourceClass)) ? 
-                    config.getStores().get(resourceClass) : config.getGeneralStore();
-            
-            if (!resourceMetadata.containsKey(meta))
-            {
-                resourceMetadata.put(meta, new HashSet<Object>());
-            }
-            resourceMetadata.get(meta).add(query.getResource());
+            addResource(resourceMetadata, query.getResource());
         }
         else
         {
             // TODO - we could probably do a reverse lookup of the resource if we had a ResourceLocator API or something like that
             throw new SecurityException("Invalid permission query - must specify resource or resources");
         }
+        
+        EntityManager em = getEntityManager();
                 
-        if (resourceMetadata.isEmpty())
+        if (resourceMetadata.isEmpty() || em == null)
         {
-            // No resources specified in query - we need to query every known permission store and retrieve
-            // all permissions for the specified query parameters
-            
-            for (StoreMetadata meta : config.getStores().values())
-            {
-                Query permissionQuery = buildPermissionQuery(meta, query, em);
-                
-            }
+            // None of the resources are held by a configured ACL store, or there is no datasource to query
+            return Collections.emptyList();
         }
         else
         {
@@ -107,25 +96,55 @@ public class JPAPermissionStore implements PermissionStore
                 knownResources.addAll(query.getResources());
             }            
             
-            // Iterate through each permission store and execute a separate query
+            // Recipients are resolved once per distinct key for the whole query
+            Map<String, IdentityType> recipients = new HashMap<String, IdentityType>();
+            if (query.getRecipient() != null)
+            {
+                recipients.put(query.getRecipient().getKey(), query.getRecipient());
+            }
+
+            // Permission values converted for each resource class
+            Map<Class<?>, Map<Object, Set<String>>> conversions = new HashMap<Class<?>, Map<Object, Set<String>>>();
+            
+            // Iterate through each permission store and execute a single query for all of its resources
             for (StoreMetadata meta : resourceMetadata.keySet())
             {
-                Query permissionQuery = buildPermissionQuery(meta, query, em);
+                Set<Object> storeResources = resourceMetadata.get(meta);
+                Query permissionQuery = buildPermissionQuery(meta, query, storeResources, em);
+                List<?> rows = permissionQuery.getResultList();
+
+                Map<String, Object> resources = lookupResources(meta, rows, storeResources, knownResources);
                                
-                for (Object result : permissionQuery.getResultList())
+                for (Object result : rows)
                 {
                     Object identifier = meta.getAclIdentifier().getValue(result);
                     
-                    Object resource = permissionHandlerPolicy.lookupResource(identifier.toString(), knownResources);
+                    Object resource = resources.get(identifier.toString());
+
+                    if (resource == null)
+                    {
+                        continue;
+                    }
                                         
-                    Set<String> resourcePermissions = permissionHandlerPolicy.convertResourcePermissions(
-                            resource, meta.getAclPermission().getValue(result));
+                    Set<String> resourcePermissions = convertResourcePermissions(resource, 
+                            meta.getAclPermission().getValue(result), conversions);
+
+                    if (resourcePermissions == null)
+                    {
+                        continue;
+                    }
                     
-                    IdentityType recipient = identityManager.lookupIdentityByKey(meta.getAclRecipient().getValue(result));
+                    String recipientKey = meta.getAclRecipient().getValue(result);
+                    IdentityType recipient = recipients.get(recipientKey);
+
+                    if (recipient == null && !recipients.containsKey(recipientKey))
+                    {
+                        recipient = identityManager.lookupIdentityByKey(recipientKey);
+                        recipients.put(recipientKey, recipient);
+                    }
                     
                     for (String permission : resourcePermissions)
                     {
-                     // TODO still need to add the recipient
                         results.add(new Permission(resource, recipient, permission));    
                     }
                 }               
@@ -133,62 +152,111 @@ public class JPAPermissionStore implements PermissionStore
             
             return results;
         }
-                
-        // TODO Auto-generated method stubobj
-        return null;
+    }
+
+    /**
+     * Adds the resource to the resources of its ACL store.  Resources for which no store has been 
+     * configured have no stored permissions, and are left out.
+     */
+    private void addResource(Map<StoreMetadata, Set<Object>> resourceMetadata, Object resource)
+    {
+        StoreMetadata meta = findStoreForResource(resource);
+
+        if (meta == null)
+        {
+            return;
+        }
+
+        if (!resourceMetadata.containsKey(meta))
+        {
+            resourceMetadata.put(meta, new HashSet<Object>());
+        }
+        resourceMetadata.get(meta).add(resource);
+    }
+
+    /**
+     * Returns the EntityManager, or null if the application doesn't produce one
+     */
+    private EntityManager getEntityManager()
+    {
+        return entityManagerInstance.isUnsatisfied() ? null : entityManagerInstance.get();
     }
     
-    private Query buildPermissionQuery(StoreMetadata meta, PermissionQuery query, EntityManager em)
-    {                
-        Map<String,Object> paramValues = new HashMap<String,Object>();
-        
-        StringBuilder queryText = new StringBuilder();
-        StringBuilder criteriaText = new StringBuilder();
-        
-        queryText.append("SELECT P FROM ");
-        queryText.append(meta.getStoreClass().getName());
-        queryText.append(" P WHERE ");
-        
-        if (query.getResource() != null)
+    /**
+     * Maps the identifiers stored in the permission records to the resources they belong to
+     */
+    private Map<String, Object> lookupResources(StoreMetadata meta, List<?> rows, Set<Object> storeResources, 
+            Collection<Object> knownResources)
+    {
+        if (meta.getResourceClass() != null)
         {
-            criteriaText.append("P.");
-            criteriaText.append(meta.getAclIdentifier().getName());
-            criteriaText.append(" = :IDENTIFIER");
-            
-            /*
-             * IF the resource has an exclusive ACLStore, then we will use the natural value of the identifier
-             * to set the parameter value.  If the resource permissions are stored in the general store, 
-             * then we'll use the general purpose "generated" identifier.
-             */
-            if (meta.getResourceClass() != null)
+            // An exclusive store holds the natural identifiers of the resources that were queried
+            Map<String, Object> resources = new HashMap<String, Object>();
+            for (Object resource : storeResources)
             {
-                paramValues.put("IDENTIFIER", permissionHandlerPolicy.getNaturalIdentifier(query.getResource()));   
-            }
-            else
-            {
-                paramValues.put("IDENTIFIER", permissionHandlerPolicy.getGeneratedIdentifier(query.getResource()));
+                resources.put(String.valueOf(permissionHandlerPolicy.getNaturalIdentifier(resource)), resource);
             }
+            return resources;
         }
-        else if (query.getResources() != null)
+
+        Set<String> identifiers = new HashSet<String>();
+        for (Object result : rows)
         {
-            
+            identifiers.add(meta.getAclIdentifier().getValue(result).toString());
+        }
+
+        return permissionHandlerPolicy.lookupResources(identifiers, knownResources);
+    }
+
+    private Set<String> convertResourcePermissions(Object resource, Object permissions, 
+            Map<Class<?>, Map<Object, Set<String>>> conversions)
+    {
+        Map<Object, Set<String>> classConversions = conversions.get(resource.getClass());
+
+        if (classConversions == null)
+        {
+            classConversions = new HashMap<Object, Set<String>>();
+            conversions.put(resource.getClass(), classConversions);
+        }
+
+        if (!classConversions.containsKey(permissions))
+        {
+            classConversions.put(permissions, permissionHandlerPolicy.convertResourcePermissions(resource, permissions));
         }
+
+        return classConversions.get(permissions);
+    }
+    
+    private Query buildPermissionQuery(StoreMetadata meta, PermissionQuery query, Set<Object> resources, 
+            EntityManager em)
+    {                
+        Map<String,Object> paramValues = new HashMap<String,Object>();
+        int criteria = 0;
         
-        if (query.getRecipient() != null)
+        if (resources != null && resources.size() == 1)
+        {
+            criteria |= StoreMetadata.BY_IDENTIFIER;
+            paramValues.put("IDENTIFIER", getStoredIdentifier(meta, resources.iterator().next()));
+        }
+        else if (resources != null && !resources.isEmpty())
         {
-            if (criteriaText.length() > 0)
+            List<Object> identifiers = new ArrayList<Object>(resources.size());
+            for (Object resource : resources)
             {
-                criteriaText.append(" AND ");
+                identifiers.add(getStoredIdentifier(meta, resource));
             }
-            criteriaText.append("P.");
-            criteriaText.append(meta.getAclRecipient().getName());
-            criteriaText.append(" = :RECIPIENT");      
-            paramValues.put("RECIPIENT", query.getRecipient().getKey());
+
+            criteria |= StoreMetadata.BY_IDENTIFIERS;
+            paramValues.put("IDENTIFIERS", identifiers);
         }
         
-        queryText.append(criteriaText);
+        if (query.getRecipient() != null)
+        {
+            criteria |= StoreMetadata.BY_RECIPIENT;
+            paramValues.put("RECIPIENT", query.getRecipient().getKey());
+        }
         
-        Query q = em.createQuery(queryText.toString());
+        Query q = em.createQuery(meta.getPermissionQuery(criteria));
         
         for (String param : paramValues.keySet())
         {
@@ -200,19 +268,69 @@ public class JPAPermissionStore implements PermissionStore
         return q;
     }
 
+    /**
+     * IF the resource has an exclusive ACLStore, then we will use the natural value of the identifier
+     * to set the parameter value.  If the resource permissions are stored in the general store, 
+     * then we'll use the general purpose "generated" identifier.
+     */
+    private Object getStoredIdentifier(StoreMetadata meta, Object resource)
+    {
+        if (meta.getResourceClass() != null)
+        {
+            return permissionHandlerPolicy.getNaturalIdentifier(resource);   
+        }
+        else
+        {
+            return permissionHandlerPolicy.getGeneratedIdentifier(resource);
+        }
+    }
+
+    /**
+     * Raises a PermissionChangedEvent for the resource, under both the identifiers used by the 
+     * PermissionMapper.  The cached decisions are only removed once the current transaction has 
+     * committed, so that no decision based on the previous permissions is cached afterwards.
+     */
+    private void invalidateDecisions(Object resource)
+    {
+        List<String> resourceIdentifiers = new ArrayList<String>();
+
+        String generatedIdentifier = permissionHandlerPolicy.getGeneratedIdentifier(resource);
+        if (generatedIdentifier != null)
+        {
+            resourceIdentifiers.add(generatedIdentifier);
+        }
+
+        Serializable naturalIdentifier = permissionHandlerPolicy.getNaturalIdentifier(resource);
+        if (naturalIdentifier != null)
+        {
+            resourceIdentifiers.add(PermissionMapper.getResourceIdentifier(resource.getClass(), naturalIdentifier));
+        }
+
+        if (!resourceIdentifiers.isEmpty())
+        {
+            beanManager.fireEvent(new PermissionChangedEvent(resourceIdentifiers));
+        }
+    }
+
     @Override
     public boolean grantPermission(Permission permission)
     {
-        EntityManager em = entityManagerInstance.get();
-        
+        EntityManager em = getEntityManager();
+
         StoreMetadata store = findStoreForResource(permission.getResource());
-        
+
+        if (store == null || em == null)
+        {
+            // There is nowhere to store the permission
+            return false;
+        }
+
         // First query for existing permission records
         PermissionQuery pq = new PermissionQuery(this);
         pq.setResource(permission.getResource());
         pq.setRecipient(permission.getRecipient());
         
-        Query q = buildPermissionQuery(store, pq, em);
+        Query q = buildPermissionQuery(store, pq, Collections.singleton(permission.getResource()), em);
         List<?> results = q.getResultList();
         
         if (results.isEmpty())
@@ -234,6 +352,7 @@ public class JPAPermissionStore implements PermissionStore
                 store.getAclPermission().setValue(p, permission.getPermission());                
                 
                 em.persist(p);
+                invalidateDecisions(permission.getResource());
                 
                 return true;
             }
@@ -264,15 +383,66 @@ public class JPAPermissionStore implements PermissionStore
     @Override
     public boolean revokePermission(Permission permission)
     {
-        // TODO Auto-generated method stub
-        return false;
+        Object resource = permission.getResource();
+
+        EntityManager em = getEntityManager();
+
+        StoreMetadata store = findStoreForResource(resource);
+
+        if (store == null || em == null)
+        {
+            return false;
+        }
+
+        PermissionQuery pq = new PermissionQuery(this);
+        pq.setResource(resource);
+        pq.setRecipient(permission.getRecipient());
+
+        boolean revoked = false;
+
+        for (Object row : buildPermissionQuery(store, pq, Collections.singleton(resource), em).getResultList())
+        {
+            Object storedPermissions = store.getAclPermission().getValue(row);
+            Set<String> permissions = permissionHandlerPolicy.convertResourcePermissions(resource, storedPermissions);
+
+            if (permissions == null || !permissions.contains(permission.getPermission()))
+            {
+                continue;
+            }
+
+            String remaining = permissionHandlerPolicy.removeResourcePermission(resource, storedPermissions, 
+                    permission.getPermission());
+
+            if (remaining == null)
+            {
+                em.remove(row);
+            }
+            else
+            {
+                store.getAclPermission().setValue(row, toStoredPermissions(store, remaining));
+            }
+            revoked = true;
+        }
+
+        if (revoked)
+        {
+            invalidateDecisions(resource);
+        }
+
+        return revoked;
     }
 
     @Override
     public boolean revokePermissions(Collection<Permission> permissions)
     {
-        // TODO Auto-generated method stub
-        return false;
+        boolean revoked = false;
+
+        for (Permission permission : permissions)
+        {
+            revoked |= revokePermission(permission);
+        }
+
+        return revoked;
     }
 
     @Override
@@ -285,19 +455,69 @@ public class JPAPermissionStore implements PermissionStore
     @Override
     public void clearPermissions(Object target)
     {
-        // TODO Auto-generated method stub
-        
+        EntityManager em = getEntityManager();
+
+        StoreMetadata store = findStoreForResource(target);
+
+        if (store == null || em == null)
+        {
+            return;
+        }
+
+        PermissionQuery pq = new PermissionQuery(this);
+        pq.setResource(target);
+
+        List<?> rows = buildPermissionQuery(store, pq, Collections.singleton(target), em).getResultList();
+
+        for (Object row : rows)
+        {
+            em.remove(row);
+        }
+
+        if (!rows.isEmpty())
+        {
+            invalidateDecisions(target);
+        }
+    }
+
+    /**
+     * Converts encoded permissions to the type of the store's ACLPermission property, which holds a
+     * bit mask for resource classes that use one
+     */
+    private Object toStoredPermissions(StoreMetadata meta, String permissions)
+    {
+        Class<?> type = meta.getAclPermission().getJavaClass();
+
+        if (Long.class.equals(type) || Long.TYPE.equals(type))
+        {
+            return Long.valueOf(permissions);
+        }
+        else if (Integer.class.equals(type) || Integer.TYPE.equals(type))
+        {
+            return Integer.valueOf(permissions);
+        }
+
+        return permissions;
     }
 
     @Override
     public boolean isEnabled()
     {
-        // TODO Auto-generated method stub
-        return false;
+        return (config.getGeneralStore() != null || !config.getStores().isEmpty()) && 
+                !entityManagerInstance.isUnsatisfied();
     }
     
+    /**
+     * Returns the store for the resource, or null if neither an exclusive nor a general ACL store 
+     * has been configured
+     */
     private StoreMetadata findStoreForResource(Object resource)
     {
+        if (config.getStores().containsKey(resource.getClass()))
+        {
+            return config.getStores().get(resource.getClass());
+        }
+
         for (Class<?> cls : config.getStores().keySet())
         {
             if (cls.isInstance(resource))
@@ -86,6 +86,13 @@ public class JPAPermissionStoreConfig implements Extension
     
     class StoreMetadata
     {
+        /**
+         * Criteria flags for getPermissionQuery()
+         */
+        static final int BY_IDENTIFIER = 1;
+        static final int BY_IDENTIFIERS = 2;
+        static final int BY_RECIPIENT = 4;
+
         private Class<?> storeClass;
         private Class<?> resourceClass;
         
@@ -93,12 +100,65 @@ public class JPAPermissionStoreConfig implements Extension
         private Property<Object> aclPermission;
         private Property<String> aclRecipient;
         private Property<String> aclResourceClass;
+
+        /**
+         * The permission queries for each combination of criteria, built once when the store is validated
+         */
+        private final String[] permissionQueries = new String[(BY_IDENTIFIER | BY_IDENTIFIERS | BY_RECIPIENT) + 1];
         
         public StoreMetadata(Class<?> storeClass, Class<?> resourceClass)
         {
             this.storeClass = storeClass;
             this.resourceClass = resourceClass;
             validateStore();             
+            buildPermissionQueries();
+        }
+
+        private void buildPermissionQueries()
+        {
+            for (int criteria = 0; criteria < permissionQueries.length; criteria++)
+            {
+                StringBuilder queryText = new StringBuilder();
+                StringBuilder criteriaText = new StringBuilder();
+
+                queryText.append("SELECT P FROM ");
+                queryText.append(storeClass.getName());
+                queryText.append(" P");
+
+                if ((criteria & BY_IDENTIFIER) != 0)
+                {
+                    criteriaText.append("P.").append(aclIdentifier.getName()).append(" = :IDENTIFIER");
+                }
+                else if ((criteria & BY_IDENTIFIERS) != 0)
+                {
+                    criteriaText.append("P.").append(aclIdentifier.getName()).append(" IN (:IDENTIFIERS)");
+                }
+
+                if ((criteria & BY_RECIPIENT) != 0)
+                {
+                    if (criteriaText.length() > 0)
+                    {
+                        criteriaText.append(" AND ");
+                    }
+                    criteriaText.append("P.").append(aclRecipient.getName()).append(" = :RECIPIENT");
+                }
+
+                if (criteriaText.length() > 0)
+                {
+                    queryText.append(" WHERE ").append(criteriaText);
+                }
+
+                permissionQueries[criteria] = queryText.toString();
+            }
+        }
+
+        /**
+         * Returns the JPQL query selecting the permission records that match the specified criteria,
+         * a combination of the BY_IDENTIFIER, BY_IDENTIFIERS and BY_RECIPIENT flags
+         */
+        public String getPermissionQuery(int criteria)
+        {
+            return permissionQueries[criteria];
         }
         
         private void validateStore()
@@ -0,0 +1,24 @@
+package org.picketlink.permission.internal;
+
+import java.util.Collection;
+
+/**
+ * Raised by the JPAPermissionStore when permissions for a resource are granted or revoked.  The
+ * PermissionDecisionCache observes it once the surrounding transaction has committed, and removes
+ * the cached decisions for the affected resource identifiers.
+ *
+ */
+public class PermissionChangedEvent
+{
+    private final Collection<String> resourceIdentifiers;
+
+    public PermissionChangedEvent(Collection<String> resourceIdentifiers)
+    {
+        this.resourceIdentifiers = resourceIdentifiers;
+    }
+
+    public Collection<String> getResourceIdentifiers()
+    {
+        return resourceIdentifiers;
+    }
+}
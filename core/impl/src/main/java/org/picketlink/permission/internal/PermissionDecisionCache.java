@@ -0,0 +1,254 @@
+package org.picketlink.permission.internal;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+
+import org.picketlink.idm.event.GroupDeletedEvent;
+import org.picketlink.idm.event.MembershipChangedEvent;
+import org.picketlink.idm.event.RoleDeletedEvent;
+import org.picketlink.idm.event.UserDeletedEvent;
+import org.picketlink.permission.PermissionResolver.PermissionStatus;
+
+/**
+ * Caches the combined status of the cacheable permission resolvers, keyed on the recipient, the resource
+ * identifier and the operation.  Entries expire after a configurable timeout.
+ * 
+ * All entries for a resource are removed once a transaction that granted or revoked a permission for
+ * that resource has committed.  Resolvers may base their decisions on the groups and roles of the
+ * recipient, so every membership change, and the deletion of any user, group or role, clears the whole
+ * cache.  Each invalidation starts a new generation, and decisions resolved in an earlier generation
+ * are not cached, so a check that overlaps with a change never caches the outdated outcome.
+ */
+@ApplicationScoped
+public class PermissionDecisionCache
+{
+    public static final long DEFAULT_TIMEOUT = 60 * 1000;
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private final ConcurrentMap<DecisionKey, Decision> decisions = new ConcurrentHashMap<DecisionKey, Decision>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile long timeout = DEFAULT_TIMEOUT;
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    /**
+     * Returns the cached status, or null if there is no valid entry
+     */
+    public PermissionStatus lookup(String recipient, String resourceIdentifier, String operation)
+    {
+        DecisionKey key = new DecisionKey(recipient, resourceIdentifier, operation);
+        Decision decision = decisions.get(key);
+
+        if (decision == null)
+        {
+            return null;
+        }
+
+        if (decision.isExpired(System.currentTimeMillis()))
+        {
+            decisions.remove(key, decision);
+            return null;
+        }
+
+        return decision.status;
+    }
+
+    /**
+     * Returns the current generation, which the caller passes back to put() once the decision was resolved
+     */
+    public long getGeneration()
+    {
+        return generation.get();
+    }
+
+    /**
+     * Caches a decision, unless the cache was invalidated since the specified generation
+     */
+    public void put(String recipient, String resourceIdentifier, String operation, PermissionStatus status,
+            long generation)
+    {
+        if (timeout <= 0 || generation != this.generation.get())
+        {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (decisions.size() >= maxEntries)
+        {
+            purge(now);
+
+            // still full of live entries, so rather skip caching than grow without bounds
+            if (decisions.size() >= maxEntries)
+            {
+                return;
+            }
+        }
+
+        DecisionKey key = new DecisionKey(recipient, resourceIdentifier, operation);
+        Decision decision = new Decision(status, now + timeout);
+
+        decisions.put(key, decision);
+
+        // an invalidation may have run while the entry was added
+        if (generation != this.generation.get())
+        {
+            decisions.remove(key, decision);
+        }
+    }
+
+    public void permissionChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) PermissionChangedEvent event)
+    {
+        for (String resourceIdentifier : event.getResourceIdentifiers())
+        {
+            invalidate(resourceIdentifier);
+        }
+    }
+
+    public void membershipChanged(@Observes(during = TransactionPhase.AFTER_SUCCESS) MembershipChangedEvent event)
+    {
+        clear();
+    }
+
+    public void userDeleted(@Observes(during = TransactionPhase.AFTER_SUCCESS) UserDeletedEvent event)
+    {
+        clear();
+    }
+
+    public void groupDeleted(@Observes(during = TransactionPhase.AFTER_SUCCESS) GroupDeletedEvent event)
+    {
+        clear();
+    }
+
+    public void roleDeleted(@Observes(during = TransactionPhase.AFTER_SUCCESS) RoleDeletedEvent event)
+    {
+        clear();
+    }
+
+    /**
+     * Removes the cached decisions of every recipient for the specified resource identifier
+     */
+    public void invalidate(String resourceIdentifier)
+    {
+        generation.incrementAndGet();
+
+        for (Iterator<DecisionKey> iterator = decisions.keySet().iterator(); iterator.hasNext();)
+        {
+            if (iterator.next().resourceIdentifier.equals(resourceIdentifier))
+            {
+                iterator.remove();
+            }
+        }
+    }
+
+    public void clear()
+    {
+        generation.incrementAndGet();
+        decisions.clear();
+    }
+
+    public int size()
+    {
+        return decisions.size();
+    }
+
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+    /**
+     * Sets the time in milliseconds that a decision is cached. A value of zero or less disables caching.
+     */
+    public void setTimeout(long timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries)
+    {
+        if (maxEntries <= 0)
+        {
+            throw new IllegalArgumentException("maxEntries must be greater than zero");
+        }
+
+        this.maxEntries = maxEntries;
+    }
+
+    private void purge(long now)
+    {
+        for (Iterator<Map.Entry<DecisionKey, Decision>> iterator = decisions.entrySet().iterator(); iterator.hasNext();)
+        {
+            if (iterator.next().getValue().isExpired(now))
+            {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class DecisionKey
+    {
+        private final String recipient;
+        private final String resourceIdentifier;
+        private final String operation;
+        private final int hashCode;
+
+        DecisionKey(String recipient, String resourceIdentifier, String operation)
+        {
+            this.recipient = recipient;
+            this.resourceIdentifier = resourceIdentifier;
+            this.operation = operation;
+            this.hashCode = (recipient.hashCode() * 31 + resourceIdentifier.hashCode()) * 31 + operation.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof DecisionKey))
+            {
+                return false;
+            }
+
+            DecisionKey other = (DecisionKey) obj;
+
+            return recipient.equals(other.recipient) && resourceIdentifier.equals(other.resourceIdentifier) &&
+                    operation.equals(other.operation);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+    }
+
+    private static class Decision
+    {
+        private final PermissionStatus status;
+        private final long expires;
+
+        Decision(PermissionStatus status, long expires)
+        {
+            this.status = status;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now)
+        {
+            return now >= expires;
+        }
+    }
+}
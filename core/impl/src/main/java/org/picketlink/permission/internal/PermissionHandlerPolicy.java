@@ -188,6 +188,33 @@ public class PermissionHandlerPolicy
         return handler != null ? handler.convertResourcePermissions(resource.getClass(), permissions) : null;
     }
 
+    /**
+     * Returns the stored permissions of the resource without the specified permission, encoded the way its
+     * PermissionHandler stores them, or null if no other permission remains
+     */
+    public String removeResourcePermission(Object resource, Object permissions, String permission)
+    {
+        PermissionHandler handler = getHandlerForResource(resource);
+
+        if (handler instanceof BaseAbstractPermissionHandler)
+        {
+            BaseAbstractPermissionHandler.PermissionSet permissionSet = ((BaseAbstractPermissionHandler) handler)
+                    .createPermissionSet(resource.getClass(), permissions.toString());
+            permissionSet.remove(permission);
+            return permissionSet.isEmpty() ? null : permissionSet.toString();
+        }
+
+        // Other handlers are expected to store a comma-separated list
+        StringBuilder sb = new StringBuilder();
+        for (String member : convertResourcePermissions(resource, permissions))
+        {
+            if (member.equals(permission)) continue;
+            if (sb.length() > 0) sb.append(',');
+            sb.append(member);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
     public Set<PermissionHandler> getRegisteredHandlers() {
         return registeredHandlers;
     }
@@ -1,60 +1,281 @@
 package org.picketlink.permission.internal;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
 
+import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 
+import org.picketlink.Identity;
+import org.picketlink.permission.BulkPermissionResolver;
+import org.picketlink.permission.CacheablePermissionResolver;
 import org.picketlink.permission.PermissionResolver;
 import org.picketlink.permission.PermissionResolver.PermissionStatus;
 
 /**
  * Uses the available PermissionResolver instances to determine whether an application permission
  * is to be allowed or denied. 
+ * 
+ * The combined status of the resolvers that implement CacheablePermissionResolver is cached for a 
+ * logged in user in the PermissionDecisionCache, keyed on the user, the resource identifier and the 
+ * operation, so that these resolvers are only consulted the first time a permission is checked.  The
+ * other resolvers are consulted for every check, unless a cacheable resolver already denied it.
+ * 
+ * The permissions for a collection of resources are resolved together, with each BulkPermissionResolver
+ * being consulted once for all of the resources that need its answer.  Other resolvers are consulted 
+ * for each of those resources in turn.
  *
  */
+@ApplicationScoped
 public class PermissionMapper
 {
     @Inject 
     private Instance<PermissionResolver> resolvers;
+
+    @Inject
+    private Identity identity;
+
+    @Inject
+    private PermissionDecisionCache decisionCache;
+
+    @Inject
+    private PermissionHandlerPolicy permissionHandlerPolicy;
     
     public boolean resolvePermission(Object resource, String operation)
     {
-        boolean permit = false;
-         
+        String recipient = getRecipient();
+        String resourceIdentifier = (recipient != null && operation != null) ? 
+                permissionHandlerPolicy.getGeneratedIdentifier(resource) : null;
+
+        PermissionStatus status = resourceIdentifier != null ? 
+                decisionCache.lookup(recipient, resourceIdentifier, operation) : null;
+
+        if (status == null)
+        {
+            long generation = decisionCache.getGeneration();
+            status = resolve(resource, operation, true, PermissionStatus.NOT_APPLICABLE);
+
+            if (resourceIdentifier != null)
+            {
+                decisionCache.put(recipient, resourceIdentifier, operation, status, generation);
+            }
+        }
+        
+        return PermissionStatus.ALLOW.equals(resolve(resource, operation, false, status));
+    }
+    
+    public boolean resolvePermission(Class<?> resourceClass, Serializable identifier, String operation)
+    {
+        String recipient = getRecipient();
+        String resourceIdentifier = (recipient != null && operation != null && identifier != null) ? 
+                getResourceIdentifier(resourceClass, identifier) : null;
+
+        PermissionStatus status = resourceIdentifier != null ? 
+                decisionCache.lookup(recipient, resourceIdentifier, operation) : null;
+
+        if (status == null)
+        {
+            long generation = decisionCache.getGeneration();
+            status = resolve(resourceClass, identifier, operation, true, PermissionStatus.NOT_APPLICABLE);
+
+            if (resourceIdentifier != null)
+            {
+                decisionCache.put(recipient, resourceIdentifier, operation, status, generation);
+            }
+        }
+        
+        return PermissionStatus.ALLOW.equals(resolve(resourceClass, identifier, operation, false, status));
+    }
+
+    public BitSet resolvePermissions(Collection<?> resources, String operation)
+    {
+        String recipient = getRecipient();
+
+        List<Object> resourceList = new ArrayList<Object>(resources);
+        PermissionStatus[] statuses = new PermissionStatus[resourceList.size()];
+        String[] resourceIdentifiers = new String[resourceList.size()];
+
+        List<Integer> pending = new ArrayList<Integer>();
+        
+        for (int i = 0; i < resourceList.size(); i++)
+        {
+            resourceIdentifiers[i] = (recipient != null && operation != null) ? 
+                    permissionHandlerPolicy.getGeneratedIdentifier(resourceList.get(i)) : null;
+            
+            statuses[i] = resourceIdentifiers[i] != null ? 
+                    decisionCache.lookup(recipient, resourceIdentifiers[i], operation) : null;
+            
+            if (statuses[i] == null)
+            {
+                statuses[i] = PermissionStatus.NOT_APPLICABLE;
+                pending.add(i);
+            }
+        }
+        
+        if (!pending.isEmpty())
+        {
+            long generation = decisionCache.getGeneration();
+            resolve(resourceList, pending, operation, true, statuses);
+            
+            for (int i : pending)
+            {
+                if (resourceIdentifiers[i] != null)
+                {
+                    decisionCache.put(recipient, resourceIdentifiers[i], operation, statuses[i], generation);
+                }
+            }
+        }
+
+        // the uncacheable resolvers can't change the outcome for the resources that were already denied
+        List<Integer> undecided = new ArrayList<Integer>();
+        for (int i = 0; i < statuses.length; i++)
+        {
+            if (!PermissionStatus.DENY.equals(statuses[i]))
+            {
+                undecided.add(i);
+            }
+        }
+        
+        resolve(resourceList, undecided, operation, false, statuses);
+        
+        BitSet permitted = new BitSet(resourceList.size());
+        for (int i = 0; i < statuses.length; i++)
+        {
+            permitted.set(i, PermissionStatus.ALLOW.equals(statuses[i]));
+        }
+        
+        return permitted;
+    }
+
+    /**
+     * Combines the specified status with the answers of either the cacheable or the uncacheable resolvers
+     */
+    private PermissionStatus resolve(Object resource, String operation, boolean cacheable, PermissionStatus status)
+    {
         for (PermissionResolver resolver : resolvers)
         {
-            PermissionStatus status = resolver.hasPermission(resource, operation);
-            if (PermissionStatus.ALLOW.equals(status))
+            if (PermissionStatus.DENY.equals(status))
             {
-                permit = true;
+                break;
             }
-            else if (PermissionStatus.DENY.equals(status))
+            
+            if (isCacheable(resolver) == cacheable)
             {
-                return false;
+                status = combine(status, resolver.hasPermission(resource, operation));
             }
         }
         
-        return permit;
+        return status;
     }
-    
-    public boolean resolvePermission(Class<?> resourceClass, Serializable identifier, String operation)
+
+    private PermissionStatus resolve(Class<?> resourceClass, Serializable identifier, String operation, 
+            boolean cacheable, PermissionStatus status)
     {
-        boolean permit = false;
+        for (PermissionResolver resolver : resolvers)
+        {
+            if (PermissionStatus.DENY.equals(status))
+            {
+                break;
+            }
+            
+            if (isCacheable(resolver) == cacheable)
+            {
+                status = combine(status, resolver.hasPermission(resourceClass, identifier, operation));
+            }
+        }
+        
+        return status;
+    }
+
+    /**
+     * Combines the statuses of the resources at the specified indexes with the answers of either the 
+     * cacheable or the uncacheable resolvers
+     */
+    private void resolve(List<Object> resources, List<Integer> indexes, String operation, boolean cacheable, 
+            PermissionStatus[] statuses)
+    {
+        if (indexes.isEmpty())
+        {
+            return;
+        }
+        
+        List<Object> subset = new ArrayList<Object>(indexes.size());
+        for (int i : indexes)
+        {
+            subset.add(resources.get(i));
+        }
         
         for (PermissionResolver resolver : resolvers)
         {
-            PermissionStatus status = resolver.hasPermission(resourceClass, identifier, operation);
-            if (PermissionStatus.ALLOW.equals(status))
+            if (isCacheable(resolver) != cacheable)
             {
-                permit = true;
+                continue;
             }
-            else if (PermissionStatus.DENY.equals(status))
+            
+            PermissionStatus[] results = getStatuses(resolver, subset, operation);
+            
+            for (int i = 0; i < indexes.size(); i++)
             {
-                return false;
+                statuses[indexes.get(i)] = combine(statuses[indexes.get(i)], results[i]);
             }
         }
+    }
+
+    /**
+     * A single DENY denies the permission, otherwise a single ALLOW allows it
+     */
+    private PermissionStatus combine(PermissionStatus status, PermissionStatus other)
+    {
+        if (PermissionStatus.DENY.equals(status) || PermissionStatus.DENY.equals(other))
+        {
+            return PermissionStatus.DENY;
+        }
         
-        return permit;        
+        return PermissionStatus.ALLOW.equals(other) ? PermissionStatus.ALLOW : status;
+    }
+
+    private boolean isCacheable(PermissionResolver resolver)
+    {
+        return resolver instanceof CacheablePermissionResolver;
+    }
+
+    /**
+     * Resolvers that don't implement BulkPermissionResolver are asked about each resource in turn
+     */
+    private PermissionStatus[] getStatuses(PermissionResolver resolver, List<Object> resources, String operation)
+    {
+        if (resolver instanceof BulkPermissionResolver)
+        {
+            return ((BulkPermissionResolver) resolver).hasPermissions(resources, operation);
+        }
+        
+        PermissionStatus[] statuses = new PermissionStatus[resources.size()];
+        for (int i = 0; i < resources.size(); i++)
+        {
+            statuses[i] = resolver.hasPermission(resources.get(i), operation);
+        }
+        
+        return statuses;
+    }
+
+    /**
+     * Returns the identifier under which decisions for a resource specified by its class and natural 
+     * identifier are cached.  The JPAPermissionStore uses the same identifier to invalidate them.
+     */
+    static String getResourceIdentifier(Class<?> resourceClass, Serializable identifier)
+    {
+        return resourceClass.getName() + ":" + identifier;
+    }
+
+    /**
+     * Decisions are only cached for logged in users
+     */
+    private String getRecipient()
+    {
+        return identity.isLoggedIn() ? identity.getUser().getKey() : null;
     }
 }
@@ -1,21 +1,46 @@
 package org.picketlink.permission.internal;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
+import javax.inject.Inject;
+
+import org.picketlink.Identity;
+import org.picketlink.permission.BulkPermissionResolver;
+import org.picketlink.permission.CacheablePermissionResolver;
+import org.picketlink.permission.Permission;
+import org.picketlink.permission.PermissionQuery;
 import org.picketlink.permission.PermissionResolver;
 import org.picketlink.permission.PermissionResolver.PermissionStatus;
+import org.picketlink.permission.spi.PermissionStore;
 
 /**
  * A PermissionResolver implementation that provides ACL-style object permissions, backed by a database.
+ * 
+ * The permissions for a collection of resources are loaded with a single PermissionQuery, which the
+ * PermissionStore executes once per store.
+ * 
+ * Its answers only depend on the stored permissions, so they are cached by the PermissionMapper until
+ * the permissions for the resource change.  If no ACL store or EntityManager is available, it doesn't 
+ * apply to any resource.
  *
  */
-public class PersistentPermissionResolver implements PermissionResolver
+public class PersistentPermissionResolver implements PermissionResolver, BulkPermissionResolver, 
+        CacheablePermissionResolver
 {
+    @Inject
+    private PermissionStore permissionStore;
+
+    @Inject
+    private Identity identity;
 
     public PermissionStatus hasPermission(Object resource, String operation)
     {
-        // TODO Auto-generated method stub
-        return null;
+        return hasPermissions(Collections.singleton(resource), operation)[0];
     }
 
 
@@ -25,4 +50,40 @@ public class PersistentPermissionResolver implements PermissionResolver
         return null;
     }
 
+    public PermissionStatus[] hasPermissions(Collection<?> resources, String operation)
+    {
+        PermissionStatus[] statuses = new PermissionStatus[resources.size()];
+        Arrays.fill(statuses, PermissionStatus.NOT_APPLICABLE);
+
+        // without a configured ACL store there are no stored permissions to grant anything
+        if (resources.isEmpty() || !identity.isLoggedIn() || !permissionStore.isEnabled())
+        {
+            return statuses;
+        }
+
+        PermissionQuery query = new PermissionQuery(permissionStore)
+                .setResources(new HashSet<Object>(resources))
+                .setRecipient(identity.getUser());
+
+        Set<Object> granted = new HashSet<Object>();
+        for (Permission permission : query.getResultList())
+        {
+            if (permission.getPermission().equals(operation))
+            {
+                granted.add(permission.getResource());
+            }
+        }
+
+        int index = 0;
+        for (Object resource : resources)
+        {
+            if (granted.contains(resource))
+            {
+                statuses[index] = PermissionStatus.ALLOW;
+            }
+            index++;
+        }
+
+        return statuses;
+    }
 }
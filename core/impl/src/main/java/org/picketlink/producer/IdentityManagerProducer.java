@@ -9,6 +9,7 @@ import org.picketlink.idm.IdentityManager;
 import org.picketlink.idm.config.IdentityConfiguration;
 import org.picketlink.idm.internal.DefaultIdentityManager;
 import org.picketlink.idm.internal.DefaultIdentityStoreInvocationContextFactory;
+import org.picketlink.internal.CDIEventBridge;
 
 
 /**
@@ -21,12 +22,18 @@ public class IdentityManagerProducer {
 
     @Inject IdentityCache identityCache;
 
+    @Inject CDIEventBridge eventBridge;
+
     @Produces @ApplicationScoped
     public IdentityManager createIdentityManager() {
         IdentityConfiguration identityConfig = new IdentityConfiguration();
 
+        DefaultIdentityStoreInvocationContextFactory contextFactory = 
+                new DefaultIdentityStoreInvocationContextFactory(null, identityCache);
+        contextFactory.setEventBridge(eventBridge);
+
         IdentityManager identityManager = new DefaultIdentityManager();
-        identityManager.bootstrap(identityConfig, new DefaultIdentityStoreInvocationContextFactory(null));
+        identityManager.bootstrap(identityConfig, contextFactory);
         return identityManager;
     }
 
@@ -0,0 +1,203 @@
+package org.picketlink.test.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.SimpleGroup;
+import org.picketlink.idm.model.SimpleRole;
+import org.picketlink.idm.model.SimpleUser;
+import org.picketlink.idm.model.User;
+import org.picketlink.internal.DefaultIdentity;
+import org.picketlink.internal.MembershipTracker;
+import org.picketlink.permission.PermissionResolver;
+import org.picketlink.permission.internal.PermissionDecisionCache;
+import org.picketlink.permission.internal.PermissionHandlerPolicy;
+import org.picketlink.permission.internal.PermissionMapper;
+import org.picketlink.test.util.Beans;
+
+/**
+ * <p>
+ * Unit test {@link DefaultIdentity} role, group and permission checks
+ * </p>
+ */
+public class DefaultIdentityTestCase
+{
+    private final User user = new SimpleUser("jdoe");
+
+    private final Role admin = new SimpleRole("admin");
+
+    private final Role manager = new SimpleRole("manager");
+
+    private final Group sales = new SimpleGroup("sales");
+
+    /**
+     * The membership checks that reached the IdentityManager
+     */
+    private final List<String> checks = new ArrayList<String>();
+
+    private MembershipTracker membershipTracker;
+
+    private DefaultIdentity identity;
+
+    @Before
+    public void createIdentity()
+    {
+        membershipTracker = new MembershipTracker();
+
+        identity = new DefaultIdentity();
+        Beans.inject(identity, "user", user);
+        Beans.inject(identity, "membershipTracker", membershipTracker);
+        Beans.inject(identity, "identityManager", Beans.stub(IdentityManager.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                assertEquals(user, args[0]);
+
+                if ("hasRole".equals(method.getName()))
+                {
+                    checks.add("hasRole " + ((Role) args[1]).getName());
+                    return admin.equals(args[1]);
+                }
+                else if ("isMember".equals(method.getName()))
+                {
+                    checks.add("isMember " + ((Group) args[1]).getName());
+                    return Boolean.FALSE;
+                }
+                else if ("hasGroupRole".equals(method.getName()))
+                {
+                    checks.add("hasGroupRole " + ((Role) args[1]).getName() + " " + ((Group) args[2]).getName());
+                    return Boolean.TRUE;
+                }
+                throw new UnsupportedOperationException(method.toString());
+            }
+        }));
+    }
+
+    @Test
+    public void testMembershipChecksDelegateToIdentityManager()
+    {
+        assertTrue(identity.hasRole(admin));
+        assertFalse(identity.hasRole(manager));
+        assertFalse(identity.isMember(sales));
+        assertTrue(identity.hasGroupRole(manager, sales));
+
+        assertEquals(Arrays.asList("hasRole admin", "hasRole manager", "isMember sales", "hasGroupRole manager sales"),
+                checks);
+    }
+
+    @Test
+    public void testMembershipCheckedOncePerSnapshot()
+    {
+        for (int i = 0; i < 3; i++)
+        {
+            assertTrue(identity.hasRole(admin));
+            assertFalse(identity.isMember(sales));
+        }
+
+        assertEquals(Arrays.asList("hasRole admin", "isMember sales"), checks);
+    }
+
+    @Test
+    public void testMembershipChangeStartsNewSnapshot()
+    {
+        identity.hasRole(admin);
+        membershipTracker.invalidateSnapshots();
+        identity.hasRole(admin);
+
+        assertEquals(Arrays.asList("hasRole admin", "hasRole admin"), checks);
+    }
+
+    @Test
+    public void testSnapshotExpires() throws Exception
+    {
+        membershipTracker.setSnapshotTimeout(1);
+
+        identity.hasRole(admin);
+        Thread.sleep(10);
+        identity.hasRole(admin);
+
+        assertEquals(2, checks.size());
+    }
+
+    @Test
+    public void testSnapshotSizeIsLimited()
+    {
+        List<Role> roles = new ArrayList<Role>();
+        for (int i = 0; i < 1000; i++)
+        {
+            roles.add(new SimpleRole("role" + i));
+            identity.hasRole(roles.get(i));
+        }
+
+        // the first roles are still recorded, the last one wasn't recorded any more
+        identity.hasRole(roles.get(0));
+        assertEquals(1000, checks.size());
+
+        identity.hasRole(roles.get(999));
+        assertEquals(1001, checks.size());
+    }
+
+    @Test
+    public void testNoMembershipWhenNotLoggedIn()
+    {
+        Beans.inject(identity, "user", null);
+
+        assertFalse(identity.hasRole(admin));
+        assertFalse(identity.hasGroupRole(manager, sales));
+        assertTrue(checks.isEmpty());
+    }
+
+    @Test
+    public void testPermissionChecksDelegateToPermissionMapper()
+    {
+        PermissionHandlerPolicy permissionHandlerPolicy = new PermissionHandlerPolicy();
+        permissionHandlerPolicy.create();
+
+        PermissionMapper permissionMapper = new PermissionMapper();
+        Beans.inject(permissionMapper, "resolvers", Beans.instance(new InvoiceResolver()));
+        Beans.inject(permissionMapper, "identity", identity);
+        Beans.inject(permissionMapper, "decisionCache", new PermissionDecisionCache());
+        Beans.inject(permissionMapper, "permissionHandlerPolicy", permissionHandlerPolicy);
+        Beans.inject(identity, "permissionMapper", permissionMapper);
+
+        assertTrue(identity.hasPermission("invoice", "read"));
+        assertFalse(identity.hasPermission("invoice", "delete"));
+        assertTrue(identity.hasPermission(String.class, "invoice", "read"));
+
+        BitSet permitted = identity.hasPermissions(Arrays.asList("invoice", "order", "invoice"), "read");
+        assertEquals(2, permitted.cardinality());
+        assertTrue(permitted.get(0));
+        assertTrue(permitted.get(2));
+    }
+
+    /**
+     * Allows reading the invoice
+     */
+    static class InvoiceResolver implements PermissionResolver
+    {
+        public PermissionStatus hasPermission(Object resource, String operation)
+        {
+            return "invoice".equals(resource) && "read".equals(operation) ? PermissionStatus.ALLOW :
+                    PermissionStatus.NOT_APPLICABLE;
+        }
+
+        public PermissionStatus hasPermission(Class<?> resourceClass, Serializable identifier, String operation)
+        {
+            return hasPermission(identifier, operation);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.picketlink.test.permission.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.enterprise.inject.spi.AnnotatedType;
+import javax.enterprise.inject.spi.BeanManager;
+import javax.enterprise.inject.spi.ProcessAnnotatedType;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.model.SimpleUser;
+import org.picketlink.permission.Permission;
+import org.picketlink.permission.annotations.ACLIdentifier;
+import org.picketlink.permission.annotations.ACLPermission;
+import org.picketlink.permission.annotations.ACLRecipient;
+import org.picketlink.permission.annotations.ACLStore;
+import org.picketlink.permission.internal.JPAPermissionStore;
+import org.picketlink.permission.internal.JPAPermissionStoreConfig;
+import org.picketlink.permission.internal.PermissionChangedEvent;
+import org.picketlink.permission.internal.PermissionHandlerPolicy;
+import org.picketlink.test.util.Beans;
+
+/**
+ * <p>
+ * Unit test {@link JPAPermissionStore} revoking and clearing stored permissions
+ * </p>
+ */
+public class JPAPermissionStoreTestCase
+{
+    private final List<AclEntry> rows = new ArrayList<AclEntry>();
+
+    private final List<Object> removed = new ArrayList<Object>();
+
+    private final List<Object> events = new ArrayList<Object>();
+
+    private JPAPermissionStore store;
+
+    @Before
+    public void createStore()
+    {
+        rows.add(new AclEntry("read,write"));
+        rows.add(new AclEntry("read"));
+        rows.add(new AclEntry("delete"));
+
+        JPAPermissionStoreConfig config = new JPAPermissionStoreConfig();
+        AnnotatedType<?> type = Beans.stub(AnnotatedType.class,
+                "isAnnotationPresent", Boolean.TRUE,
+                "getAnnotation", AclEntry.class.getAnnotation(ACLStore.class),
+                "getJavaClass", AclEntry.class);
+        config.processAnnotatedType(Beans.stub(ProcessAnnotatedType.class, "getAnnotatedType", type), null);
+
+        PermissionHandlerPolicy permissionHandlerPolicy = new PermissionHandlerPolicy();
+        permissionHandlerPolicy.create();
+
+        store = new JPAPermissionStore();
+        Beans.inject(store, "entityManagerInstance", Beans.instance(entityManager()));
+        Beans.inject(store, "config", config);
+        Beans.inject(store, "permissionHandlerPolicy", permissionHandlerPolicy);
+        Beans.inject(store, "beanManager", Beans.stub(BeanManager.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                assertEquals("fireEvent", method.getName());
+                events.add(args[0]);
+                return null;
+            }
+        }));
+    }
+
+    @Test
+    public void testRevokeKeepsRemainingPermissions()
+    {
+        assertTrue(store.revokePermission(new Permission(String.class, new SimpleUser("jdoe"), "read")));
+
+        assertEquals(Arrays.asList(rows.get(1)), removed);
+        assertEquals("write", rows.get(0).permission);
+        assertEquals("delete", rows.get(2).permission);
+
+        assertEquals(1, events.size());
+        assertTrue(((PermissionChangedEvent) events.get(0)).getResourceIdentifiers().contains("String"));
+    }
+
+    @Test
+    public void testRevokeWithoutMatchingPermission()
+    {
+        assertFalse(store.revokePermission(new Permission(String.class, new SimpleUser("jdoe"), "admin")));
+        assertFalse(store.revokePermissions(Arrays.asList(
+                new Permission(String.class, new SimpleUser("jdoe"), "admin"))));
+
+        assertTrue(removed.isEmpty());
+        assertEquals("read,write", rows.get(0).permission);
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void testClearPermissions()
+    {
+        store.clearPermissions(String.class);
+
+        assertEquals(rows, removed);
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    public void testClearWithoutPermissions()
+    {
+        rows.clear();
+
+        store.clearPermissions(String.class);
+
+        assertTrue(events.isEmpty());
+    }
+
+    /**
+     * Answers every permission query with the rows, as they all belong to the same resource and recipient
+     */
+    private EntityManager entityManager()
+    {
+        final Query query = Beans.stub(Query.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if ("setParameter".equals(method.getName()))
+                {
+                    return proxy;
+                }
+                else if ("getResultList".equals(method.getName()))
+                {
+                    return new ArrayList<AclEntry>(rows);
+                }
+                throw new UnsupportedOperationException(method.toString());
+            }
+        });
+
+        return Beans.stub(EntityManager.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if ("createQuery".equals(method.getName()))
+                {
+                    return query;
+                }
+                else if ("remove".equals(method.getName()))
+                {
+                    removed.add(args[0]);
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.toString());
+            }
+        });
+    }
+
+    @Entity
+    @ACLStore
+    public static class AclEntry
+    {
+        @ACLIdentifier
+        String resource = "String";
+
+        @ACLRecipient
+        String recipient = "jdoe";
+
+        @ACLPermission
+        String permission;
+
+        public AclEntry()
+        {
+        }
+
+        AclEntry(String permission)
+        {
+            this.permission = permission;
+        }
+    }
+}
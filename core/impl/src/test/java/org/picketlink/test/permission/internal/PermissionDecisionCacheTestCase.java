@@ -0,0 +1,155 @@
+package org.picketlink.test.permission.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.TransactionPhase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.event.MembershipChangedEvent;
+import org.picketlink.idm.event.UserDeletedEvent;
+import org.picketlink.idm.model.SimpleGroup;
+import org.picketlink.idm.model.SimpleUser;
+import org.picketlink.permission.PermissionResolver.PermissionStatus;
+import org.picketlink.permission.internal.PermissionChangedEvent;
+import org.picketlink.permission.internal.PermissionDecisionCache;
+
+/**
+ * <p>
+ * Unit test {@link PermissionDecisionCache}
+ * </p>
+ */
+public class PermissionDecisionCacheTestCase
+{
+    private PermissionDecisionCache cache;
+
+    @Before
+    public void createCache()
+    {
+        cache = new PermissionDecisionCache();
+    }
+
+    @Test
+    public void testLookupCachedDecision()
+    {
+        cache.put("jdoe", "invoice:1", "read", PermissionStatus.ALLOW, cache.getGeneration());
+
+        assertEquals(PermissionStatus.ALLOW, cache.lookup("jdoe", "invoice:1", "read"));
+        assertNull(cache.lookup("jdoe", "invoice:1", "write"));
+        assertNull(cache.lookup("asmith", "invoice:1", "read"));
+    }
+
+    @Test
+    public void testDecisionOfEarlierGenerationIsNotCached()
+    {
+        long generation = cache.getGeneration();
+
+        // the permissions changed while the decision was being resolved
+        cache.invalidate("invoice:2");
+        cache.put("jdoe", "invoice:1", "read", PermissionStatus.ALLOW, generation);
+
+        assertNull(cache.lookup("jdoe", "invoice:1", "read"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testPermissionChangeInvalidatesResource()
+    {
+        cache.put("jdoe", "invoice:1", "read", PermissionStatus.ALLOW, cache.getGeneration());
+        cache.put("asmith", "invoice:1", "read", PermissionStatus.DENY, cache.getGeneration());
+        cache.put("jdoe", "invoice:2", "read", PermissionStatus.ALLOW, cache.getGeneration());
+
+        cache.permissionChanged(new PermissionChangedEvent(Arrays.asList("invoice:1")));
+
+        assertNull(cache.lookup("jdoe", "invoice:1", "read"));
+        assertNull(cache.lookup("asmith", "invoice:1", "read"));
+        assertEquals(PermissionStatus.ALLOW, cache.lookup("jdoe", "invoice:2", "read"));
+    }
+
+    @Test
+    public void testMembershipChangeClearsCache()
+    {
+        cache.put("jdoe", "invoice:1", "read", PermissionStatus.ALLOW, cache.getGeneration());
+
+        cache.membershipChanged(new MembershipChangedEvent(new SimpleUser("jdoe"), new SimpleGroup("sales"), null));
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testUserDeletionClearsCache()
+    {
+        cache.put("jdoe", "invoice:1", "read", PermissionStatus.ALLOW, cache.getGeneration());
+
+        cache.userDeleted(new UserDeletedEvent(new SimpleUser("jdoe")));
+
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * A transaction that rolls back hasn't changed any permission or membership, so the cache must only
+     * be invalidated once the change has committed
+     */
+    @Test
+    public void testInvalidatedOnlyAfterSuccessfulCommit()
+    {
+        int observers = 0;
+
+        for (Method method : PermissionDecisionCache.class.getDeclaredMethods())
+        {
+            for (Annotation[] annotations : method.getParameterAnnotations())
+            {
+                for (Annotation annotation : annotations)
+                {
+                    if (annotation instanceof Observes)
+                    {
+                        assertEquals(method.getName(), TransactionPhase.AFTER_SUCCESS, ((Observes) annotation).during());
+                        observers++;
+                    }
+                }
+            }
+        }
+
+        assertEquals(5, observers);
+    }
+
+    @Test
+    public void testZeroTimeoutDisablesCaching()
+    {
+        cache.setTimeout(0);
+
+        cache.put("jdoe", "invoice:1", "read", PermissionStatus.ALLOW, cache.getGeneration());
+
+        assertNull(cache.lookup("jdoe", "invoice:1", "read"));
+    }
+
+    @Test
+    public void testExpiredDecision() throws Exception
+    {
+        cache.setTimeout(1);
+
+        cache.put("jdoe", "invoice:1", "read", PermissionStatus.ALLOW, cache.getGeneration());
+        Thread.sleep(10);
+
+        assertNull(cache.lookup("jdoe", "invoice:1", "read"));
+    }
+
+    @Test
+    public void testMaxEntries()
+    {
+        cache.setMaxEntries(2);
+
+        cache.put("jdoe", "invoice:1", "read", PermissionStatus.ALLOW, cache.getGeneration());
+        cache.put("jdoe", "invoice:2", "read", PermissionStatus.ALLOW, cache.getGeneration());
+        cache.put("jdoe", "invoice:3", "read", PermissionStatus.ALLOW, cache.getGeneration());
+
+        assertEquals(2, cache.size());
+        assertNull(cache.lookup("jdoe", "invoice:3", "read"));
+    }
+}
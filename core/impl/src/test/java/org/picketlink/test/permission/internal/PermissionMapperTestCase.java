@@ -0,0 +1,264 @@
+package org.picketlink.test.permission.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.picketlink.Identity;
+import org.picketlink.idm.model.SimpleUser;
+import org.picketlink.permission.BulkPermissionResolver;
+import org.picketlink.permission.CacheablePermissionResolver;
+import org.picketlink.permission.PermissionResolver;
+import org.picketlink.permission.PermissionResolver.PermissionStatus;
+import org.picketlink.permission.internal.PermissionChangedEvent;
+import org.picketlink.permission.internal.PermissionDecisionCache;
+import org.picketlink.permission.internal.PermissionHandlerPolicy;
+import org.picketlink.permission.internal.PermissionMapper;
+import org.picketlink.test.util.Beans;
+
+/**
+ * <p>
+ * Unit test {@link PermissionMapper}
+ * </p>
+ */
+public class PermissionMapperTestCase
+{
+    private final PermissionDecisionCache decisionCache = new PermissionDecisionCache();
+
+    @Test
+    public void testCacheableAnswerIsCached()
+    {
+        StaticResolver cacheable = new CacheableResolver(PermissionStatus.ALLOW);
+        StaticResolver uncacheable = new StaticResolver(PermissionStatus.NOT_APPLICABLE);
+        PermissionMapper mapper = createMapper(true, cacheable, uncacheable);
+
+        assertTrue(mapper.resolvePermission("invoice", "read"));
+        assertTrue(mapper.resolvePermission("invoice", "read"));
+
+        assertEquals(1, cacheable.checks);
+        assertEquals(2, uncacheable.checks);
+    }
+
+    @Test
+    public void testUncacheableAnswerIsNotCached()
+    {
+        StaticResolver uncacheable = new StaticResolver(PermissionStatus.ALLOW);
+        PermissionMapper mapper = createMapper(true, new CacheableResolver(PermissionStatus.NOT_APPLICABLE),
+                uncacheable);
+
+        assertTrue(mapper.resolvePermission("invoice", "read"));
+
+        uncacheable.status = PermissionStatus.NOT_APPLICABLE;
+
+        assertFalse(mapper.resolvePermission("invoice", "read"));
+    }
+
+    @Test
+    public void testCachedDenyIsFinal()
+    {
+        StaticResolver cacheable = new CacheableResolver(PermissionStatus.DENY);
+        StaticResolver uncacheable = new StaticResolver(PermissionStatus.ALLOW);
+        PermissionMapper mapper = createMapper(true, cacheable, uncacheable);
+
+        assertFalse(mapper.resolvePermission("invoice", "read"));
+        assertFalse(mapper.resolvePermission("invoice", "read"));
+
+        assertEquals(1, cacheable.checks);
+        assertEquals(0, uncacheable.checks);
+    }
+
+    @Test
+    public void testNotCachedForAnonymousUser()
+    {
+        StaticResolver cacheable = new CacheableResolver(PermissionStatus.ALLOW);
+        PermissionMapper mapper = createMapper(false, cacheable);
+
+        mapper.resolvePermission("invoice", "read");
+        mapper.resolvePermission("invoice", "read");
+
+        assertEquals(2, cacheable.checks);
+        assertEquals(0, decisionCache.size());
+    }
+
+    @Test
+    public void testPermissionChangeInvalidatesCachedAnswer()
+    {
+        StaticResolver cacheable = new CacheableResolver(PermissionStatus.ALLOW);
+        PermissionMapper mapper = createMapper(true, cacheable);
+
+        assertTrue(mapper.resolvePermission(String.class, "1", "read"));
+
+        cacheable.status = PermissionStatus.DENY;
+        assertTrue(mapper.resolvePermission(String.class, "1", "read"));
+
+        decisionCache.permissionChanged(new PermissionChangedEvent(Arrays.asList(String.class.getName() + ":1")));
+        assertFalse(mapper.resolvePermission(String.class, "1", "read"));
+        assertEquals(2, cacheable.checks);
+    }
+
+    @Test
+    public void testResolvePermissionsSetsBitOfEachPermittedResource()
+    {
+        PermissionMapper mapper = createMapper(true, new BulkResolver()
+                .allow("invoice:1", "invoice:3")
+                .deny("invoice:2"));
+
+        BitSet permitted = mapper.resolvePermissions(Arrays.asList("invoice:1", "invoice:2", "invoice:3", "invoice:4"), 
+                "read");
+
+        assertEquals(2, permitted.cardinality());
+        assertTrue(permitted.get(0));
+        assertTrue(permitted.get(2));
+    }
+
+    @Test
+    public void testBulkResolverOnlyAskedForUncachedResources()
+    {
+        BulkResolver bulk = new BulkResolver().allow("invoice:1", "invoice:2", "invoice:3");
+        PermissionMapper mapper = createMapper(true, bulk);
+
+        mapper.resolvePermissions(Arrays.asList("invoice:1", "invoice:2"), "read");
+        BitSet permitted = mapper.resolvePermissions(Arrays.asList("invoice:1", "invoice:2", "invoice:3"), "read");
+
+        assertEquals(3, permitted.cardinality());
+        assertEquals(2, bulk.requests.size());
+        assertEquals(Arrays.asList("invoice:1", "invoice:2"), bulk.requests.get(0));
+        assertEquals(Arrays.asList("invoice:3"), bulk.requests.get(1));
+    }
+
+    @Test
+    public void testUncacheableResolverAskedForUndeniedResources()
+    {
+        StaticResolver uncacheable = new StaticResolver(PermissionStatus.ALLOW);
+        PermissionMapper mapper = createMapper(true, new BulkResolver().deny("invoice:2"), uncacheable);
+
+        BitSet permitted = mapper.resolvePermissions(Arrays.asList("invoice:1", "invoice:2", "invoice:3"), "read");
+
+        assertTrue(permitted.get(0));
+        assertFalse(permitted.get(1));
+        assertTrue(permitted.get(2));
+        assertEquals(2, uncacheable.checks);
+    }
+
+    @Test
+    public void testResolvePermissionsAgreesWithResolvePermission()
+    {
+        BulkResolver bulk = new BulkResolver().allow("invoice:1").deny("invoice:2");
+        PermissionMapper mapper = createMapper(false, bulk, new StaticResolver(PermissionStatus.NOT_APPLICABLE));
+
+        BitSet permitted = mapper.resolvePermissions(Arrays.asList("invoice:1", "invoice:2", "invoice:3"), "read");
+
+        assertEquals(mapper.resolvePermission("invoice:1", "read"), permitted.get(0));
+        assertEquals(mapper.resolvePermission("invoice:2", "read"), permitted.get(1));
+        assertEquals(mapper.resolvePermission("invoice:3", "read"), permitted.get(2));
+    }
+
+    private PermissionMapper createMapper(boolean loggedIn, PermissionResolver... resolvers)
+    {
+        PermissionHandlerPolicy permissionHandlerPolicy = new PermissionHandlerPolicy();
+        permissionHandlerPolicy.create();
+
+        PermissionMapper mapper = new PermissionMapper();
+        Beans.inject(mapper, "resolvers", Beans.instance(resolvers));
+        Beans.inject(mapper, "identity", Beans.stub(Identity.class,
+                "isLoggedIn", loggedIn,
+                "getUser", new SimpleUser("jdoe")));
+        Beans.inject(mapper, "decisionCache", decisionCache);
+        Beans.inject(mapper, "permissionHandlerPolicy", permissionHandlerPolicy);
+        return mapper;
+    }
+
+    /**
+     * Answers every check with the same status, and counts the checks
+     */
+    static class StaticResolver implements PermissionResolver
+    {
+        PermissionStatus status;
+
+        int checks;
+
+        StaticResolver(PermissionStatus status)
+        {
+            this.status = status;
+        }
+
+        public PermissionStatus hasPermission(Object resource, String operation)
+        {
+            checks++;
+            return status;
+        }
+
+        public PermissionStatus hasPermission(Class<?> resourceClass, Serializable identifier, String operation)
+        {
+            checks++;
+            return status;
+        }
+    }
+
+    static class CacheableResolver extends StaticResolver implements CacheablePermissionResolver
+    {
+        CacheableResolver(PermissionStatus status)
+        {
+            super(status);
+        }
+    }
+
+    /**
+     * A cacheable resolver that answers for a collection of resources at once, and records the collections
+     */
+    static class BulkResolver implements PermissionResolver, BulkPermissionResolver, CacheablePermissionResolver
+    {
+        final Set<Object> allowed = new HashSet<Object>();
+
+        final Set<Object> denied = new HashSet<Object>();
+
+        final List<List<Object>> requests = new ArrayList<List<Object>>();
+
+        BulkResolver allow(Object... resources)
+        {
+            allowed.addAll(Arrays.asList(resources));
+            return this;
+        }
+
+        BulkResolver deny(Object... resources)
+        {
+            denied.addAll(Arrays.asList(resources));
+            return this;
+        }
+
+        public PermissionStatus hasPermission(Object resource, String operation)
+        {
+            return hasPermissions(Collections.singletonList(resource), operation)[0];
+        }
+
+        public PermissionStatus hasPermission(Class<?> resourceClass, Serializable identifier, String operation)
+        {
+            return PermissionStatus.NOT_APPLICABLE;
+        }
+
+        public PermissionStatus[] hasPermissions(Collection<?> resources, String operation)
+        {
+            requests.add(new ArrayList<Object>(resources));
+
+            PermissionStatus[] statuses = new PermissionStatus[resources.size()];
+            int index = 0;
+            for (Object resource : resources)
+            {
+                statuses[index++] = allowed.contains(resource) ? PermissionStatus.ALLOW :
+                        denied.contains(resource) ? PermissionStatus.DENY : PermissionStatus.NOT_APPLICABLE;
+            }
+            return statuses;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.picketlink.test.permission.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import javax.enterprise.inject.Instance;
+import javax.persistence.EntityManager;
+
+import org.junit.Test;
+import org.picketlink.Identity;
+import org.picketlink.idm.model.SimpleUser;
+import org.picketlink.permission.Permission;
+import org.picketlink.permission.PermissionQuery;
+import org.picketlink.permission.PermissionResolver.PermissionStatus;
+import org.picketlink.permission.internal.JPAPermissionStore;
+import org.picketlink.permission.internal.JPAPermissionStoreConfig;
+import org.picketlink.permission.internal.PersistentPermissionResolver;
+import org.picketlink.test.util.Beans;
+
+/**
+ * <p>
+ * Unit test {@link PersistentPermissionResolver} when no ACL store is available
+ * </p>
+ */
+public class PersistentPermissionResolverTestCase
+{
+    @Test
+    public void testNotApplicableWithoutStore()
+    {
+        JPAPermissionStore store = createStore(Beans.instance(unusedEntityManager()));
+
+        assertFalse(store.isEnabled());
+        assertNotApplicable(createResolver(store));
+        assertTrue(store.getPermissions(new PermissionQuery(store).setResource(String.class)).isEmpty());
+    }
+
+    @Test
+    public void testNothingRevokedWithoutStore()
+    {
+        // no BeanManager is injected, so raising a PermissionChangedEvent would fail
+        JPAPermissionStore store = createStore(Beans.instance(unusedEntityManager()));
+        Permission permission = new Permission(String.class, new SimpleUser("jdoe"), "read");
+
+        assertFalse(store.grantPermission(permission));
+        assertFalse(store.revokePermission(permission));
+        assertFalse(store.revokePermissions(Arrays.asList(permission)));
+        store.clearPermissions(String.class);
+    }
+
+    @Test
+    public void testNotApplicableWithoutEntityManager()
+    {
+        JPAPermissionStore store = createStore(Beans.<EntityManager>instance());
+
+        assertFalse(store.isEnabled());
+        assertNotApplicable(createResolver(store));
+        assertTrue(store.getPermissions(new PermissionQuery(store).setResource(String.class)).isEmpty());
+    }
+
+    private void assertNotApplicable(PersistentPermissionResolver resolver)
+    {
+        PermissionStatus[] statuses = resolver.hasPermissions(Arrays.asList(String.class, Integer.class), "read");
+
+        assertEquals(2, statuses.length);
+        assertEquals(PermissionStatus.NOT_APPLICABLE, statuses[0]);
+        assertEquals(PermissionStatus.NOT_APPLICABLE, statuses[1]);
+        assertEquals(PermissionStatus.NOT_APPLICABLE, resolver.hasPermission(String.class, "read"));
+    }
+
+    private JPAPermissionStore createStore(Instance<EntityManager> entityManagerInstance)
+    {
+        JPAPermissionStore store = new JPAPermissionStore();
+        Beans.inject(store, "entityManagerInstance", entityManagerInstance);
+        Beans.inject(store, "config", new JPAPermissionStoreConfig());
+        return store;
+    }
+
+    private PersistentPermissionResolver createResolver(JPAPermissionStore store)
+    {
+        PersistentPermissionResolver resolver = new PersistentPermissionResolver();
+        Beans.inject(resolver, "permissionStore", store);
+        Beans.inject(resolver, "identity", Beans.stub(Identity.class,
+                "isLoggedIn", Boolean.TRUE,
+                "getUser", new SimpleUser("jdoe")));
+        return resolver;
+    }
+
+    /**
+     * Without a store there is nothing to query, so the EntityManager must never be used
+     */
+    private EntityManager unusedEntityManager()
+    {
+        return Beans.stub(EntityManager.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                throw new AssertionError("Unexpected call to EntityManager." + method.getName());
+            }
+        });
+    }
+}
@@ -0,0 +1,165 @@
+package org.picketlink.test.util;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.enterprise.inject.Instance;
+import javax.enterprise.util.TypeLiteral;
+
+/**
+ * Wires beans together for tests that run without a CDI container
+ */
+public final class Beans
+{
+    private Beans()
+    {
+    }
+
+    /**
+     * Sets a field of the bean, as the container would inject it
+     */
+    public static void inject(Object bean, String name, Object value)
+    {
+        for (Class<?> cls = bean.getClass(); cls != null; cls = cls.getSuperclass())
+        {
+            try
+            {
+                Field field = cls.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(bean, value);
+                return;
+            }
+            catch (NoSuchFieldException ex)
+            {
+                // declared by a superclass
+            }
+            catch (IllegalAccessException ex)
+            {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        throw new IllegalArgumentException("No field " + name + " declared by " + bean.getClass().getName());
+    }
+
+    /**
+     * Returns an Instance that resolves the specified beans, which is unsatisfied if there are none
+     */
+    public static <T> Instance<T> instance(T... beans)
+    {
+        return new ListInstance<T>(Arrays.asList(beans));
+    }
+
+    /**
+     * Returns an implementation of the interface which answers the methods named in the specified name and
+     * value pairs with those values, and throws an UnsupportedOperationException for any other method
+     */
+    public static <T> T stub(Class<T> type, Object... answers)
+    {
+        final Map<String, Object> values = new HashMap<String, Object>();
+        for (int i = 0; i < answers.length; i += 2)
+        {
+            values.put((String) answers[i], answers[i + 1]);
+        }
+
+        return stub(type, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (values.containsKey(method.getName()))
+                {
+                    return values.get(method.getName());
+                }
+
+                throw new UnsupportedOperationException(method.toString());
+            }
+        });
+    }
+
+    /**
+     * Returns an implementation of the interface that passes every invocation, apart from those of the
+     * methods declared by Object, to the specified handler
+     */
+    public static <T> T stub(Class<T> type, final InvocationHandler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+                    {
+                        if (method.getDeclaringClass().equals(Object.class))
+                        {
+                            if ("equals".equals(method.getName()))
+                            {
+                                return proxy == args[0];
+                            }
+                            if ("hashCode".equals(method.getName()))
+                            {
+                                return System.identityHashCode(proxy);
+                            }
+                            return "Stub " + Arrays.toString(proxy.getClass().getInterfaces());
+                        }
+
+                        return handler.invoke(proxy, method, args);
+                    }
+                }));
+    }
+
+    private static class ListInstance<T> implements Instance<T>
+    {
+        private final List<T> beans;
+
+        ListInstance(List<T> beans)
+        {
+            this.beans = beans;
+        }
+
+        public T get()
+        {
+            if (beans.size() != 1)
+            {
+                throw new IllegalStateException("Expected a single bean, but there are " + beans.size());
+            }
+
+            return beans.get(0);
+        }
+
+        public Iterator<T> iterator()
+        {
+            return beans.iterator();
+        }
+
+        public boolean isUnsatisfied()
+        {
+            return beans.isEmpty();
+        }
+
+        public boolean isAmbiguous()
+        {
+            return beans.size() > 1;
+        }
+
+        public Instance<T> select(Annotation... qualifiers)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public <U extends T> Instance<U> select(Class<U> subtype, Annotation... qualifiers)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public <U extends T> Instance<U> select(TypeLiteral<U> subtype, Annotation... qualifiers)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -549,6 +549,17 @@ public class DefaultPicketLinkLogger implements PicketLinkLogger {
         logger.warn("Error instantiating token registry class - using default registry");
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.picketlink.identity.federation.PicketLinkLogger#stsTokenRegistryInvalidOverflowPolicy(java.lang.String)
+     */
+    @Override
+    public void stsTokenRegistryInvalidOverflowPolicy(String overflowPolicyOption) {
+        logger.error("Invalid token registry overflow policy " + overflowPolicyOption
+                + " - expected REJECT or EVICT_EARLIEST_EXPIRING, using EVICT_EARLIEST_EXPIRING");
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -946,6 +957,16 @@ public class DefaultPicketLinkLogger implements PicketLinkLogger {
         return new WebServiceException(ErrorCodes.STS_INVALID_TOKEN_REQUEST);
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.picketlink.identity.federation.PicketLinkLogger#stsWSBatchSizeExceededError(int)
+     */
+    @Override
+    public WebServiceException stsWSBatchSizeExceededError(int maxBatchSize) {
+        return new WebServiceException(ErrorCodes.STS_BATCH_SIZE_EXCEEDED + maxBatchSize);
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -331,6 +331,11 @@ public interface PicketLinkLogger {
      */
     void stsTokenRegistryInstantiationError();
 
+    /**
+     * @param overflowPolicyOption
+     */
+    void stsTokenRegistryInvalidOverflowPolicy(String overflowPolicyOption);
+
     /**
      * 
      */
@@ -579,6 +584,12 @@ public interface PicketLinkLogger {
      */
     WebServiceException stsWSInvalidTokenRequestError();
 
+    /**
+     * @param maxBatchSize
+     * @return
+     */
+    WebServiceException stsWSBatchSizeExceededError(int maxBatchSize);
+
     /**
      * @param t
      * @return
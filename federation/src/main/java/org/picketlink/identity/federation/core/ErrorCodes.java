@@ -150,6 +150,10 @@ public interface ErrorCodes {
 
     String STS_INVALID_REQUEST_TYPE = "PL00001: Invalid request type: ";
 
+    String STS_BATCH_SIZE_EXCEEDED = "PL00106: Number of requests in the batch exceeds the maximum of ";
+
+    String STS_TOKEN_REGISTRY_FULL = "PL00107: Token registry reached its maximum size of ";
+
     String STS_PUBLIC_KEY_ERROR = "PL00010: Error obtaining public key for service: ";
 
     String STS_PUBLIC_KEY_CERT = "PL00012: Error obtaining public key certificate:";
@@ -47,6 +47,9 @@ import javax.xml.crypto.dsig.CanonicalizationMethod;
  *       &lt;attribute name="EncryptToken" type="{http://www.w3.org/2001/XMLSchema}boolean" default="false" />
  *       &lt;attribute name="CanonicalizationMethod" default="http://www.w3.org/2001/10/xml-exc-c14n#WithComments"
  *             type="string" use="optional"/>
+ *       &lt;attribute name="DirectDOMProcessing" type="{http://www.w3.org/2001/XMLSchema}boolean" default="false" />
+ *       &lt;attribute name="BatchMaxSize" type="{http://www.w3.org/2001/XMLSchema}int" default="100" />
+ *       &lt;attribute name="BatchExecutor" type="{http://www.w3.org/2001/XMLSchema}string" />
  *     &lt;/restriction>
  *   &lt;/complexContent>
  * &lt;/complexType>
@@ -78,6 +81,12 @@ public class STSType {
 
     private Integer clockSkew;
 
+    protected Boolean directDOMProcessing;
+
+    protected Integer batchMaxSize;
+
+    protected String batchExecutor;
+
     /**
      * Gets the value of the keyProvider property.
      *
@@ -320,4 +329,72 @@ public class STSType {
             return clockSkew;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the value of the directDOMProcessing property.
+     *
+     * @return possible object is {@link Boolean }
+     *
+     */
+    public boolean isDirectDOMProcessing() {
+        if (directDOMProcessing == null) {
+            return false;
+        } else {
+            return directDOMProcessing;
+        }
+    }
+
+    /**
+     * Sets the value of the directDOMProcessing property.
+     *
+     * @param value allowed object is {@link Boolean }
+     *
+     */
+    public void setDirectDOMProcessing(Boolean value) {
+        this.directDOMProcessing = value;
+    }
+
+    /**
+     * Gets the value of the batchMaxSize property.
+     *
+     * @return possible object is {@link Integer }
+     *
+     */
+    public int getBatchMaxSize() {
+        if (batchMaxSize == null) {
+            return 100;
+        } else {
+            return batchMaxSize;
+        }
+    }
+
+    /**
+     * Sets the value of the batchMaxSize property.
+     *
+     * @param value allowed object is {@link Integer }
+     *
+     */
+    public void setBatchMaxSize(Integer value) {
+        this.batchMaxSize = value;
+    }
+
+    /**
+     * Gets the value of the batchExecutor property: the JNDI name of a container managed executor service.
+     *
+     * @return possible object is {@link String }
+     *
+     */
+    public String getBatchExecutor() {
+        return batchExecutor;
+    }
+
+    /**
+     * Sets the value of the batchExecutor property.
+     *
+     * @param value allowed object is {@link String }
+     *
+     */
+    public void setBatchExecutor(String value) {
+        this.batchExecutor = value;
+    }
+}
@@ -34,6 +34,8 @@ import org.picketlink.identity.federation.PicketLinkLogger;
 import org.picketlink.identity.federation.PicketLinkLoggerFactory;
 import org.picketlink.identity.federation.core.exceptions.ParsingException;
 import org.picketlink.identity.federation.core.parsers.util.StaxParserUtil;
+import org.picketlink.identity.federation.core.util.XMLRuntime;
+import org.w3c.dom.Node;
 
 /**
  * Base class for parsers
@@ -57,12 +59,29 @@ public abstract class AbstractParser implements ParserNamespaceSupport {
         if (configStream == null)
             throw logger.nullArgumentError("InputStream");
 
-        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+        return parse(filterWhiteSpaceCharacters(StaxParserUtil.getXMLEventReader(configStream)));
+    }
 
-        XMLEventReader xmlEventReader = StaxParserUtil.getXMLEventReader(configStream);
+    /**
+     * Parse a DOM node for payload, without serializing it first
+     *
+     * @param node
+     * @return
+     * @throws ParsingException
+     * @throws {@link IllegalArgumentException} when the node is null
+     */
+    public Object parse(Node node) throws ParsingException {
+        if (node == null)
+            throw logger.nullArgumentError("Node");
+
+        return parse(filterWhiteSpaceCharacters(StaxParserUtil.getXMLEventReader(node)));
+    }
+
+    private XMLEventReader filterWhiteSpaceCharacters(XMLEventReader xmlEventReader) throws ParsingException {
+        XMLInputFactory xmlInputFactory = XMLRuntime.getXMLInputFactory();
 
         try {
-            xmlEventReader = xmlInputFactory.createFilteredReader(xmlEventReader, new EventFilter() {
+            return xmlInputFactory.createFilteredReader(xmlEventReader, new EventFilter() {
                 public boolean accept(XMLEvent xmlEvent) {
                     // We are going to disregard characters that are new line and whitespace
                     if (xmlEvent.isCharacters()) {
@@ -82,8 +101,6 @@ public abstract class AbstractParser implements ParserNamespaceSupport {
         } catch (XMLStreamException e) {
             throw logger.parserException(e);
         }
-
-        return parse(xmlEventReader);
     }
 
 }
\ No newline at end of file
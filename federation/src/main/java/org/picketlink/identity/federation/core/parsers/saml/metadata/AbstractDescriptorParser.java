@@ -24,6 +24,7 @@
 package org.picketlink.identity.federation.core.parsers.saml.metadata;
 
 import org.picketlink.identity.federation.core.exceptions.ParsingException;
+import org.picketlink.identity.federation.core.util.XMLRuntime;
 
 import javax.xml.stream.EventFilter;
 import javax.xml.stream.XMLEventReader;
@@ -40,7 +41,7 @@ public class AbstractDescriptorParser {
 
     protected XMLEventReader filterWhiteSpaceCharacters(XMLEventReader xmlEventReader) throws ParsingException {
 
-        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+        XMLInputFactory xmlInputFactory = XMLRuntime.getXMLInputFactory();
 
         try {
             xmlEventReader = xmlInputFactory.createFilteredReader(xmlEventReader, new EventFilter() {
@@ -89,6 +89,12 @@ public class STSConfigParser extends AbstractParser {
 
     private static final String CANON_METHOD_ATTRIB = "CanonicalizationMethod";
 
+    private static final String DIRECT_DOM_PROCESSING_ATTRIB = "DirectDOMProcessing";
+
+    private static final String BATCH_MAX_SIZE_ATTRIB = "BatchMaxSize";
+
+    private static final String BATCH_EXECUTOR_ATTRIB = "BatchExecutor";
+
     private static final String CLASS_NAME_ATTRIB = "ClassName";
 
     private static final String KEY_ATTRIB = "Key";
@@ -152,6 +158,21 @@ public class STSConfigParser extends AbstractParser {
         if (attribute != null)
             configType.setCanonicalizationMethod(StaxParserUtil.getAttributeValue(attribute));
 
+        attributeQName = new QName("", DIRECT_DOM_PROCESSING_ATTRIB);
+        attribute = startElement.getAttributeByName(attributeQName);
+        if (attribute != null)
+            configType.setDirectDOMProcessing(Boolean.valueOf(StaxParserUtil.getAttributeValue(attribute)));
+
+        attributeQName = new QName("", BATCH_MAX_SIZE_ATTRIB);
+        attribute = startElement.getAttributeByName(attributeQName);
+        if (attribute != null)
+            configType.setBatchMaxSize(Integer.valueOf(StaxParserUtil.getAttributeValue(attribute)));
+
+        attributeQName = new QName("", BATCH_EXECUTOR_ATTRIB);
+        attribute = startElement.getAttributeByName(attributeQName);
+        if (attribute != null)
+            configType.setBatchExecutor(StaxParserUtil.getAttributeValue(attribute));
+
         // parse the inner elements.
         while (xmlEventReader.hasNext()) {
             XMLEvent xmlEvent = StaxParserUtil.peek(xmlEventReader);
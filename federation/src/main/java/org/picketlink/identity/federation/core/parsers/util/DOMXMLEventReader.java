@@ -0,0 +1,426 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.parsers.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.XMLEvent;
+
+import org.picketlink.identity.federation.core.util.XMLRuntime;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+/**
+ * <p>
+ * An {@link XMLEventReader} that walks a DOM tree, so that the StAX parsers can read a DOM node without serializing it
+ * and parsing the bytes again.
+ * </p>
+ * <p>
+ * The events match those of a coalescing reader over the serialized node: adjacent text and CDATA nodes are reported as
+ * one {@link Characters} event, and the namespace bindings in scope on the ancestors of the node are declared on the node
+ * itself, so that prefixes used in content, such as the value of an {@code xsi:type} attribute, can be resolved through
+ * its namespace context. The events carry no {@code Location}.
+ * </p>
+ *
+ * @since Mar 4, 2013
+ */
+public class DOMXMLEventReader implements XMLEventReader {
+
+    private final XMLEventFactory eventFactory = XMLRuntime.getXMLEventFactory();
+
+    private final Node root;
+
+    /**
+     * The node the walk is positioned on, or null when the whole tree was visited
+     */
+    private Node current;
+
+    /**
+     * Whether the walk is leaving the current element, that is, its end element is next
+     */
+    private boolean leaving;
+
+    private boolean startDocument = true;
+
+    private boolean endDocument;
+
+    private XMLEvent peeked;
+
+    private ScopeContext scope;
+
+    public DOMXMLEventReader(Node node) {
+        if (node == null)
+            throw new IllegalArgumentException("node");
+
+        this.root = node instanceof Document ? ((Document) node).getDocumentElement() : node;
+        this.current = this.root;
+    }
+
+    public XMLEvent nextEvent() throws XMLStreamException {
+        XMLEvent event = peek();
+
+        if (event == null)
+            throw new NoSuchElementException();
+
+        peeked = null;
+        return event;
+    }
+
+    public boolean hasNext() {
+        try {
+            return peek() != null;
+        } catch (XMLStreamException e) {
+            return false;
+        }
+    }
+
+    public XMLEvent peek() throws XMLStreamException {
+        if (peeked == null) {
+            peeked = readEvent();
+        }
+        return peeked;
+    }
+
+    public Object next() {
+        try {
+            return nextEvent();
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String getElementText() throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+
+        while (true) {
+            XMLEvent event = nextEvent();
+
+            if (event.isEndElement()) {
+                return text.toString();
+            } else if (event.isCharacters()) {
+                text.append(event.asCharacters().getData());
+            } else if (event.isStartElement()) {
+                throw new XMLStreamException("Element text contains a start element: " + event.asStartElement().getName());
+            }
+        }
+    }
+
+    public XMLEvent nextTag() throws XMLStreamException {
+        while (true) {
+            XMLEvent event = nextEvent();
+
+            if (event.isStartElement() || event.isEndElement()) {
+                return event;
+            } else if (event.isCharacters() && !event.asCharacters().isWhiteSpace()) {
+                throw new XMLStreamException("Expected a start or end element, found text: " + event.asCharacters().getData());
+            } else if (event.isStartDocument() || event.isEndDocument()) {
+                throw new XMLStreamException("Expected a start or end element");
+            }
+        }
+    }
+
+    public Object getProperty(String name) throws IllegalArgumentException {
+        throw new IllegalArgumentException(name);
+    }
+
+    public void close() throws XMLStreamException {
+        current = null;
+        endDocument = true;
+        peeked = null;
+    }
+
+    private XMLEvent readEvent() {
+        if (startDocument) {
+            startDocument = false;
+            return eventFactory.createStartDocument();
+        }
+
+        while (current != null) {
+            Node node = current;
+
+            if (leaving) {
+                QName name = getName(node);
+
+                scope = scope.parent;
+                advance(node);
+                return eventFactory.createEndElement(name.getPrefix(), name.getNamespaceURI(), name.getLocalPart());
+            }
+
+            switch (node.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    XMLEvent start = createStartElement((Element) node);
+
+                    if (node.getFirstChild() != null) {
+                        current = node.getFirstChild();
+                    } else {
+                        leaving = true;
+                    }
+                    return start;
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                case Node.ENTITY_REFERENCE_NODE:
+                    return readCharacters(node);
+                case Node.COMMENT_NODE:
+                    advance(node);
+                    return eventFactory.createComment(node.getNodeValue());
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    ProcessingInstruction pi = (ProcessingInstruction) node;
+                    advance(node);
+                    return eventFactory.createProcessingInstruction(pi.getTarget(), pi.getData());
+                default:
+                    advance(node);
+            }
+        }
+
+        if (!endDocument) {
+            endDocument = true;
+            return eventFactory.createEndDocument();
+        }
+        return null;
+    }
+
+    /**
+     * Moves the walk past the given node, to its next sibling or to the end of its parent
+     */
+    private void advance(Node node) {
+        if (node == root) {
+            current = null;
+            leaving = false;
+        } else if (node.getNextSibling() != null) {
+            current = node.getNextSibling();
+            leaving = false;
+        } else {
+            current = node.getParentNode();
+            leaving = true;
+        }
+    }
+
+    /**
+     * Reads the text of the node and of the text nodes that follow it as one event
+     */
+    private XMLEvent readCharacters(Node node) {
+        StringBuilder text = new StringBuilder();
+        Node last = node;
+
+        for (Node sibling = node; sibling != null && isText(sibling); sibling = sibling.getNextSibling()) {
+            text.append(sibling.getTextContent());
+            last = sibling;
+
+            if (sibling == root)
+                break;
+        }
+
+        advance(last);
+        return eventFactory.createCharacters(text.toString());
+    }
+
+    private boolean isText(Node node) {
+        short type = node.getNodeType();
+        return type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE || type == Node.ENTITY_REFERENCE_NODE;
+    }
+
+    private XMLEvent createStartElement(Element element) {
+        Map<String, String> declared = new LinkedHashMap<String, String>();
+        List<Attribute> attributes = new ArrayList<Attribute>();
+
+        NamedNodeMap attributeNodes = element.getAttributes();
+        int length = attributeNodes != null ? attributeNodes.getLength() : 0;
+
+        for (int i = 0; i < length; i++) {
+            Attr attr = (Attr) attributeNodes.item(i);
+
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())) {
+                String prefix = XMLConstants.XMLNS_ATTRIBUTE.equals(attr.getNodeName()) ? XMLConstants.DEFAULT_NS_PREFIX
+                        : attr.getLocalName();
+                declared.put(prefix, attr.getValue());
+            } else {
+                attributes.add(eventFactory.createAttribute(getName(attr), attr.getValue()));
+            }
+        }
+
+        ScopeContext parentScope = scope;
+        QName name = getName(element);
+
+        declareIfUnbound(declared, parentScope, name.getPrefix(), name.getNamespaceURI());
+
+        for (Attribute attribute : attributes) {
+            QName attributeName = attribute.getName();
+
+            // unprefixed attributes are not in the default namespace
+            if (attributeName.getPrefix().length() > 0) {
+                declareIfUnbound(declared, parentScope, attributeName.getPrefix(), attributeName.getNamespaceURI());
+            }
+        }
+
+        // the root scope also holds the bindings of the ancestors, unless the element binds their prefix itself
+        if (element == root) {
+            declareAncestorBindings(declared, element.getParentNode());
+        }
+
+        List<Namespace> namespaces = new ArrayList<Namespace>(declared.size());
+        for (Map.Entry<String, String> entry : declared.entrySet()) {
+            if (entry.getKey().length() == 0) {
+                namespaces.add(eventFactory.createNamespace(entry.getValue()));
+            } else {
+                namespaces.add(eventFactory.createNamespace(entry.getKey(), entry.getValue()));
+            }
+        }
+
+        scope = new ScopeContext(declared, parentScope);
+
+        return eventFactory.createStartElement(name.getPrefix(), name.getNamespaceURI(), name.getLocalPart(),
+                attributes.iterator(), namespaces.iterator(), scope);
+    }
+
+    /**
+     * Adds the namespace bindings in scope on the given node whose prefix is not declared yet, an inner binding hiding the
+     * outer ones of its prefix
+     */
+    private void declareAncestorBindings(Map<String, String> declared, Node node) {
+        for (Node ancestor = node; ancestor != null && ancestor.getNodeType() == Node.ELEMENT_NODE; ancestor = ancestor
+                .getParentNode()) {
+            NamedNodeMap attributeNodes = ancestor.getAttributes();
+            int length = attributeNodes != null ? attributeNodes.getLength() : 0;
+
+            for (int i = 0; i < length; i++) {
+                Attr attr = (Attr) attributeNodes.item(i);
+
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())) {
+                    String prefix = XMLConstants.XMLNS_ATTRIBUTE.equals(attr.getNodeName()) ? XMLConstants.DEFAULT_NS_PREFIX
+                            : attr.getLocalName();
+
+                    if (!declared.containsKey(prefix)) {
+                        declared.put(prefix, attr.getValue());
+                    }
+                }
+            }
+
+            // elements created without namespace declarations still bind the prefix of their own name
+            QName name = getName(ancestor);
+            if (name.getPrefix().length() > 0 && !XMLConstants.XML_NS_PREFIX.equals(name.getPrefix())
+                    && !declared.containsKey(name.getPrefix())) {
+                declared.put(name.getPrefix(), name.getNamespaceURI());
+            }
+        }
+    }
+
+    private void declareIfUnbound(Map<String, String> declared, ScopeContext parentScope, String prefix, String uri) {
+        if (declared.containsKey(prefix) || XMLConstants.XML_NS_PREFIX.equals(prefix))
+            return;
+
+        String bound = parentScope != null ? parentScope.getNamespaceURI(prefix) : XMLConstants.NULL_NS_URI;
+        if (!uri.equals(bound)) {
+            declared.put(prefix, uri);
+        }
+    }
+
+    private QName getName(Node node) {
+        String localName = node.getLocalName();
+
+        // nodes created without namespace support only have a node name
+        if (localName == null)
+            return new QName(node.getNodeName());
+
+        String uri = node.getNamespaceURI();
+        String prefix = node.getPrefix();
+
+        return new QName(uri != null ? uri : XMLConstants.NULL_NS_URI, localName,
+                prefix != null ? prefix : XMLConstants.DEFAULT_NS_PREFIX);
+    }
+
+    /**
+     * The namespace bindings in scope of an element. It stays valid after the reader moved past the element.
+     */
+    private static class ScopeContext implements NamespaceContext {
+        private final Map<String, String> declared;
+
+        private final ScopeContext parent;
+
+        ScopeContext(Map<String, String> declared, ScopeContext parent) {
+            this.declared = declared.isEmpty() ? Collections.<String, String> emptyMap() : declared;
+            this.parent = parent;
+        }
+
+        public String getNamespaceURI(String prefix) {
+            if (prefix == null)
+                throw new IllegalArgumentException("prefix");
+            if (XMLConstants.XML_NS_PREFIX.equals(prefix))
+                return XMLConstants.XML_NS_URI;
+            if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix))
+                return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+
+            for (ScopeContext context = this; context != null; context = context.parent) {
+                String uri = context.declared.get(prefix);
+                if (uri != null)
+                    return uri;
+            }
+            return XMLConstants.NULL_NS_URI;
+        }
+
+        public String getPrefix(String namespaceURI) {
+            Iterator<?> prefixes = getPrefixes(namespaceURI);
+            return prefixes.hasNext() ? (String) prefixes.next() : null;
+        }
+
+        public Iterator<?> getPrefixes(String namespaceURI) {
+            if (namespaceURI == null)
+                throw new IllegalArgumentException("namespaceURI");
+
+            Map<String, Boolean> seen = new HashMap<String, Boolean>();
+            List<String> prefixes = new ArrayList<String>();
+
+            for (ScopeContext context = this; context != null; context = context.parent) {
+                for (Map.Entry<String, String> entry : context.declared.entrySet()) {
+                    // an inner declaration hides the outer declarations of the same prefix
+                    if (seen.put(entry.getKey(), Boolean.TRUE) == null && namespaceURI.equals(entry.getValue())) {
+                        prefixes.add(entry.getKey());
+                    }
+                }
+            }
+            return prefixes.iterator();
+        }
+    }
+}
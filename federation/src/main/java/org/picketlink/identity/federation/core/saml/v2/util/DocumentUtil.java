@@ -32,11 +32,9 @@ import java.io.StringWriter;
 
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactoryConfigurationError;
 import javax.xml.transform.dom.DOMResult;
@@ -49,7 +47,7 @@ import org.picketlink.identity.federation.PicketLinkLoggerFactory;
 import org.picketlink.identity.federation.core.exceptions.ConfigurationException;
 import org.picketlink.identity.federation.core.exceptions.ParsingException;
 import org.picketlink.identity.federation.core.exceptions.ProcessingException;
-import org.picketlink.identity.federation.core.util.TransformerUtil;
+import org.picketlink.identity.federation.core.util.XMLRuntime;
 import org.w3c.dom.DOMConfiguration;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
@@ -69,8 +67,6 @@ public class DocumentUtil {
     
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
     
-    private static DocumentBuilderFactory documentBuilderFactory;
-
     /**
      * Check whether a node belongs to a document
      *
@@ -97,14 +93,12 @@ public class DocumentUtil {
      * @throws ParserConfigurationException
      */
     public static Document createDocument() throws ConfigurationException {
-        DocumentBuilderFactory factory = getDocumentBuilderFactory();
-        DocumentBuilder builder;
+        DocumentBuilder builder = XMLRuntime.borrowDocumentBuilder();
         try {
-            builder = factory.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            throw new ConfigurationException(e);
+            return builder.newDocument();
+        } finally {
+            XMLRuntime.releaseDocumentBuilder(builder);
         }
-        return builder.newDocument();
     }
 
     /**
@@ -115,14 +109,16 @@ public class DocumentUtil {
      * @throws ProcessingException
      */
     public static Document createDocumentWithBaseNamespace(String baseNamespace, String localPart) throws ProcessingException {
+        DocumentBuilder builder = null;
         try {
-            DocumentBuilderFactory factory = getDocumentBuilderFactory();
-            DocumentBuilder builder = factory.newDocumentBuilder();
+            builder = XMLRuntime.borrowDocumentBuilder();
             return builder.getDOMImplementation().createDocument(baseNamespace, localPart, null);
         } catch (DOMException e) {
             throw logger.processingError(e);
-        } catch (ParserConfigurationException e) {
+        } catch (ConfigurationException e) {
             throw logger.processingError(e);
+        } finally {
+            XMLRuntime.releaseDocumentBuilder(builder);
         }
     }
 
@@ -150,16 +146,15 @@ public class DocumentUtil {
      * @throws SAXException
      */
     public static Document getDocument(Reader reader) throws ConfigurationException, ProcessingException, ParsingException {
+        DocumentBuilder builder = XMLRuntime.borrowDocumentBuilder();
         try {
-            DocumentBuilderFactory factory = getDocumentBuilderFactory();
-            DocumentBuilder builder = factory.newDocumentBuilder();
             return builder.parse(new InputSource(reader));
-        } catch (ParserConfigurationException e) {
-            throw logger.configurationError(e);
         } catch (SAXException e) {
             throw logger.parserError(e);
         } catch (IOException e) {
             throw logger.processingError(e);
+        } finally {
+            XMLRuntime.releaseDocumentBuilder(builder);
         }
     }
 
@@ -173,16 +168,15 @@ public class DocumentUtil {
      * @throws SAXException
      */
     public static Document getDocument(File file) throws ConfigurationException, ProcessingException, ParsingException {
-        DocumentBuilderFactory factory = getDocumentBuilderFactory();
+        DocumentBuilder builder = XMLRuntime.borrowDocumentBuilder();
         try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
             return builder.parse(file);
-        } catch (ParserConfigurationException e) {
-            throw logger.configurationError(e);
         } catch (SAXException e) {
             throw logger.parserError(e);
         } catch (IOException e) {
             throw logger.processingError(e);
+        } finally {
+            XMLRuntime.releaseDocumentBuilder(builder);
         }
     }
 
@@ -196,16 +190,15 @@ public class DocumentUtil {
      * @throws SAXException
      */
     public static Document getDocument(InputStream is) throws ConfigurationException, ProcessingException, ParsingException {
-        DocumentBuilderFactory factory = getDocumentBuilderFactory();
+        DocumentBuilder builder = XMLRuntime.borrowDocumentBuilder();
         try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
             return builder.parse(is);
-        } catch (ParserConfigurationException e) {
-            throw logger.configurationError(e);
         } catch (SAXException e) {
             throw logger.parserError(e);
         } catch (IOException e) {
             throw logger.processingError(e);
+        } finally {
+            XMLRuntime.releaseDocumentBuilder(builder);
         }
     }
 
@@ -223,12 +216,7 @@ public class DocumentUtil {
 
         Result streamResult = new StreamResult(sw);
         // Write the DOM document to the stream
-        Transformer xformer = TransformerUtil.getTransformer();
-        try {
-            xformer.transform(source, streamResult);
-        } catch (TransformerException e) {
-            throw logger.processingError(e);
-        }
+        XMLRuntime.transform(source, streamResult);
 
         return sw.toString();
     }
@@ -247,12 +235,7 @@ public class DocumentUtil {
 
         Result streamResult = new StreamResult(sw);
         // Write the DOM document to the file
-        Transformer xformer = TransformerUtil.getTransformer();
-        try {
-            xformer.transform(source, streamResult);
-        } catch (TransformerException e) {
-            throw logger.processingError(e);
-        }
+        XMLRuntime.transform(source, streamResult);
 
         return sw.toString();
     }
@@ -331,12 +314,7 @@ public class DocumentUtil {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         Result streamResult = new StreamResult(baos);
         // Write the DOM document to the stream
-        Transformer transformer = TransformerUtil.getTransformer();
-        try {
-            transformer.transform(source, streamResult);
-        } catch (TransformerException e) {
-            throw logger.processingError(e);
-        }
+        XMLRuntime.transform(source, streamResult);
 
         return new ByteArrayInputStream(baos.toByteArray());
     }
@@ -356,12 +334,7 @@ public class DocumentUtil {
 
         Result streamResult = new StreamResult(baos);
         // Write the DOM document to the stream
-        Transformer transformer = TransformerUtil.getTransformer();
-        try {
-            transformer.transform(source, streamResult);
-        } catch (TransformerException e) {
-            throw logger.processingError(e);
-        }
+        XMLRuntime.transform(source, streamResult);
 
         return new String(baos.toByteArray());
     }
@@ -449,25 +422,15 @@ public class DocumentUtil {
     }
 
     public static Node getNodeFromSource(Source source) throws ProcessingException, ConfigurationException {
-        try {
-            Transformer transformer = TransformerUtil.getTransformer();
-            DOMResult result = new DOMResult();
-            transformer.transform(source, result);
-            return result.getNode();
-        } catch (TransformerException te) {
-            throw logger.processingError(te);
-        }
+        DOMResult result = new DOMResult();
+        XMLRuntime.transform(source, result);
+        return result.getNode();
     }
 
     public static Document getDocumentFromSource(Source source) throws ProcessingException, ConfigurationException {
-        try {
-            Transformer transformer = TransformerUtil.getTransformer();
-            DOMResult result = new DOMResult();
-            transformer.transform(source, result);
-            return (Document) result.getNode();
-        } catch (TransformerException te) {
-            throw logger.processingError(te);
-        }
+        DOMResult result = new DOMResult();
+        XMLRuntime.transform(source, result);
+        return (Document) result.getNode();
     }
 
     private static void visit(Node node, int level) {
@@ -483,19 +446,4 @@ public class DocumentUtil {
             visit(childNode, level + 1);
         }
     }
-
-    /**
-     * <p>Creates a namespace aware {@link DocumentBuilderFactory}. The returned instance is cached and shared between different threads.</p>
-     *
-     * @return
-     */
-    private static DocumentBuilderFactory getDocumentBuilderFactory() {
-        if (documentBuilderFactory == null) {
-            documentBuilderFactory = DocumentBuilderFactory.newInstance();
-            documentBuilderFactory.setNamespaceAware(true);
-            documentBuilderFactory.setXIncludeAware(true);
-        }
-        
-        return documentBuilderFactory;
-    }
 }
\ No newline at end of file
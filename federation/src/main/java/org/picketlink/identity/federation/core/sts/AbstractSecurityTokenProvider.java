@@ -28,6 +28,7 @@ import org.picketlink.identity.federation.PicketLinkLoggerFactory;
 import org.picketlink.identity.federation.core.interfaces.SecurityTokenProvider;
 import org.picketlink.identity.federation.core.sts.registry.DefaultRevocationRegistry;
 import org.picketlink.identity.federation.core.sts.registry.DefaultTokenRegistry;
+import org.picketlink.identity.federation.core.sts.registry.DefaultTokenRegistry.OverflowPolicy;
 import org.picketlink.identity.federation.core.sts.registry.FileBasedRevocationRegistry;
 import org.picketlink.identity.federation.core.sts.registry.FileBasedTokenRegistry;
 import org.picketlink.identity.federation.core.sts.registry.JPABasedRevocationRegistry;
@@ -49,6 +50,10 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
 
     protected static final String TOKEN_REGISTRY_FILE = "TokenRegistryFile";
 
+    protected static final String TOKEN_REGISTRY_MAX_SIZE = "TokenRegistryMaxSize";
+
+    protected static final String TOKEN_REGISTRY_OVERFLOW_POLICY = "TokenRegistryOverflowPolicy";
+
     protected static final String REVOCATION_REGISTRY = "RevocationRegistry";
 
     protected static final String REVOCATION_REGISTRY_FILE = "RevocationRegistryFile";
@@ -70,6 +75,7 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
         String tokenRegistryOption = this.properties.get(TOKEN_REGISTRY);
         if (tokenRegistryOption == null) {
             logger.stsTokenRegistryNotSpecified();
+            this.tokenRegistry = this.createDefaultTokenRegistry();
         } else {
             // if a file is to be used as registry, check if the user has specified the file name.
             if ("FILE".equalsIgnoreCase(tokenRegistryOption)) {
@@ -98,7 +104,7 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
             }
         }
         if (this.tokenRegistry == null)
-            tokenRegistry = new DefaultTokenRegistry();
+            tokenRegistry = this.createDefaultTokenRegistry();
 
         // check if a revocation registry option has been set.
         String registryOption = this.properties.get(REVOCATION_REGISTRY);
@@ -143,4 +149,29 @@ public abstract class AbstractSecurityTokenProvider implements SecurityTokenProv
         if (this.revocationRegistry == null)
             this.revocationRegistry = new DefaultRevocationRegistry();
     }
+
+    /**
+     * Creates the in-memory token registry, bounded by the {@code TokenRegistryMaxSize} property if it is set. The
+     * {@code TokenRegistryOverflowPolicy} property defines what happens when the registry is full: {@code REJECT} or
+     * {@code EVICT_EARLIEST_EXPIRING} (default). An unknown policy is logged and the default is used instead.
+     *
+     * @return
+     */
+    private SecurityTokenRegistry createDefaultTokenRegistry() {
+        String maxSize = this.properties.get(TOKEN_REGISTRY_MAX_SIZE);
+        if (maxSize == null)
+            return new DefaultTokenRegistry();
+
+        OverflowPolicy overflowPolicy = OverflowPolicy.EVICT_EARLIEST_EXPIRING;
+        String overflowPolicyOption = this.properties.get(TOKEN_REGISTRY_OVERFLOW_POLICY);
+        if (overflowPolicyOption != null) {
+            try {
+                overflowPolicy = OverflowPolicy.valueOf(overflowPolicyOption.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                logger.stsTokenRegistryInvalidOverflowPolicy(overflowPolicyOption);
+            }
+        }
+
+        return new DefaultTokenRegistry(Integer.parseInt(maxSize.trim()), overflowPolicy);
+    }
 }
\ No newline at end of file
@@ -24,18 +24,111 @@ package org.picketlink.identity.federation.core.sts.registry;
 import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.picketlink.identity.federation.PicketLinkLogger;
+import org.picketlink.identity.federation.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.core.ErrorCodes;
 import org.picketlink.identity.federation.core.sts.PicketLinkCoreSTS;
+import org.picketlink.identity.federation.saml.common.CommonConditionsType;
+import org.picketlink.identity.federation.saml.v1.assertion.SAML11AssertionType;
+import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
 
 /**
+ * <p>
  * Hashmap based token registry
+ * </p>
+ * <p>
+ * Tokens are evicted once their {@code NotOnOrAfter} condition has passed, so that the registry doesn't grow with every
+ * token ever issued. The expired tokens are evicted when new tokens are added, or by calling
+ * {@link #evictExpiredTokens()}. Tokens without conditions never expire.
+ * </p>
+ * <p>
+ * The registry can also be bounded, in which case the {@link OverflowPolicy} defines what happens to a token added to a
+ * full registry.
+ * </p>
  *
  * @author Anil.Saldhana@redhat.com
  * @since Jan 4, 2011
  */
 public class DefaultTokenRegistry implements SecurityTokenRegistry {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    /**
+     * Orders before any expiry, to read the first expiry of the schedule without failing when it's empty
+     */
+    private static final Expiry FIRST = new Expiry(Long.MIN_VALUE, Long.MIN_VALUE, null, null);
+
+    /**
+     * What to do when a token is added to a registry that reached its maximum size
+     */
+    public enum OverflowPolicy {
+        /**
+         * The token is not added and {@link DefaultTokenRegistry#addToken(String, Object)} fails
+         */
+        REJECT,
+
+        /**
+         * The token that expires first is evicted to make room for the new token
+         */
+        EVICT_EARLIEST_EXPIRING
+    }
+
     protected Map<String, Object> tokens = new ConcurrentHashMap<String, Object>();
 
+    /**
+     * The expiry of the registered tokens, by token id
+     */
+    private final ConcurrentMap<String, Expiry> expiries = new ConcurrentHashMap<String, Expiry>();
+
+    /**
+     * The expiry of the registered tokens, the earliest first
+     */
+    private final ConcurrentSkipListSet<Expiry> schedule = new ConcurrentSkipListSet<Expiry>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    private final AtomicLong evictedCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final int maxSize;
+
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * Creates an unbounded registry
+     */
+    public DefaultTokenRegistry() {
+        this(Integer.MAX_VALUE, OverflowPolicy.EVICT_EARLIEST_EXPIRING);
+    }
+
+    /**
+     * Creates a registry that holds up to {@code maxSize} tokens
+     *
+     * @param maxSize the maximum number of tokens
+     * @param overflowPolicy what to do when a token is added to a full registry
+     */
+    public DefaultTokenRegistry(int maxSize, OverflowPolicy overflowPolicy) {
+        if (maxSize < 1)
+            throw logger.invalidArgumentError("maxSize must be positive: " + maxSize);
+        if (overflowPolicy == null)
+            throw logger.nullArgumentError("overflowPolicy");
+
+        this.maxSize = maxSize;
+        this.overflowPolicy = overflowPolicy;
+    }
+
     /**
      * @see org.picketlink.identity.federation.core.sts.registry.SecurityTokenRegistry#addToken(java.lang.String,
      *      java.lang.Object)
@@ -45,7 +138,26 @@ public class DefaultTokenRegistry implements SecurityTokenRegistry {
         if (sm != null)
             sm.checkPermission(PicketLinkCoreSTS.rte);
 
-        tokens.put(tokenID, token);
+        evictExpiredTokens();
+
+        Object previous = tokens.put(tokenID, token);
+
+        if (previous == null && size.incrementAndGet() > maxSize) {
+            if (overflowPolicy == OverflowPolicy.REJECT) {
+                if (tokens.remove(tokenID, token))
+                    size.decrementAndGet();
+                rejectedCount.incrementAndGet();
+                throw new IOException(ErrorCodes.STS_TOKEN_REGISTRY_FULL + maxSize);
+            }
+            evictEarliestExpiring();
+        }
+
+        // the token is scheduled last, so that it is not the one evicted to make room for itself.
+        Expiry expiry = new Expiry(getExpiry(token), sequence.getAndIncrement(), tokenID, token);
+        Expiry previousExpiry = expiries.put(tokenID, expiry);
+        if (previousExpiry != null)
+            schedule.remove(previousExpiry);
+        schedule.add(expiry);
     }
 
     /**
@@ -56,6 +168,11 @@ public class DefaultTokenRegistry implements SecurityTokenRegistry {
         if (sm != null)
             sm.checkPermission(PicketLinkCoreSTS.rte);
 
+        // an expired token that was not evicted yet is not returned.
+        Expiry expiry = expiries.get(tokenID);
+        if (expiry != null && expiry.time <= System.currentTimeMillis())
+            return null;
+
         return tokens.get(tokenID);
     }
 
@@ -66,6 +183,170 @@ public class DefaultTokenRegistry implements SecurityTokenRegistry {
         SecurityManager sm = System.getSecurityManager();
         if (sm != null)
             sm.checkPermission(PicketLinkCoreSTS.rte);
-        tokens.remove(tokenID);
+
+        if (tokens.remove(tokenID) != null)
+            size.decrementAndGet();
+
+        Expiry expiry = expiries.remove(tokenID);
+        if (expiry != null)
+            schedule.remove(expiry);
+    }
+
+    /**
+     * Evicts the tokens whose {@code NotOnOrAfter} condition has passed
+     *
+     * @return the number of evicted tokens
+     */
+    public int evictExpiredTokens() {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+
+        while (true) {
+            Expiry first = schedule.ceiling(FIRST);
+            if (first == null || first.time > now)
+                break;
+
+            // another thread may be evicting the same token.
+            if (schedule.remove(first) && evict(first))
+                evicted++;
+        }
+
+        if (evicted > 0) {
+            expiredCount.addAndGet(evicted);
+            logger.trace("Evicted " + evicted + " expired tokens from the token registry");
+        }
+        return evicted;
+    }
+
+    /**
+     * Returns the number of tokens in the registry
+     *
+     * @return
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the maximum number of tokens in the registry
+     *
+     * @return
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of tokens evicted because they expired
+     *
+     * @return
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Returns the number of tokens evicted to make room for new tokens
+     *
+     * @return
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * Returns the number of tokens that were not added because the registry was full
+     *
+     * @return
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns the time in milliseconds after which the token expires. The {@code NotOnOrAfter} condition of SAML
+     * assertions is used, and other tokens never expire.
+     *
+     * @param token
+     * @return
+     */
+    protected long getExpiry(Object token) {
+        return getNotOnOrAfter(token);
+    }
+
+    /**
+     * Returns the {@code NotOnOrAfter} condition of a SAML assertion in milliseconds, or {@link Long#MAX_VALUE} for other
+     * tokens. Also used by the file and JPA based registries to expire their tokens.
+     *
+     * @param token
+     * @return
+     */
+    static long getNotOnOrAfter(Object token) {
+        CommonConditionsType conditions = null;
+
+        if (token instanceof AssertionType) {
+            conditions = ((AssertionType) token).getConditions();
+        } else if (token instanceof SAML11AssertionType) {
+            conditions = ((SAML11AssertionType) token).getConditions();
+        }
+
+        if (conditions != null) {
+            XMLGregorianCalendar notOnOrAfter = conditions.getNotOnOrAfter();
+            if (notOnOrAfter != null)
+                return notOnOrAfter.toGregorianCalendar().getTimeInMillis();
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private void evictEarliestExpiring() {
+        while (size.get() > maxSize) {
+            Expiry first = schedule.pollFirst();
+            if (first == null)
+                break;
+
+            if (evict(first)) {
+                evictedCount.incrementAndGet();
+                logger.trace("Evicted token " + first.tokenID + " from the full token registry");
+            }
+        }
+    }
+
+    private boolean evict(Expiry expiry) {
+        expiries.remove(expiry.tokenID, expiry);
+
+        // the token is only removed if it was not replaced in the meantime.
+        if (tokens.remove(expiry.tokenID, expiry.token)) {
+            size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The expiry of a token. Expiries are ordered by time, and by the order the tokens were added.
+     */
+    private static class Expiry implements Comparable<Expiry> {
+        private final long time;
+
+        private final long sequence;
+
+        private final String tokenID;
+
+        private final Object token;
+
+        Expiry(long time, long sequence, String tokenID, Object token) {
+            this.time = time;
+            this.sequence = sequence;
+            this.tokenID = tokenID;
+            this.token = token;
+        }
+
+        public int compareTo(Expiry other) {
+            if (time != other.time)
+                return time < other.time ? -1 : 1;
+            if (sequence != other.sequence)
+                return sequence < other.sequence ? -1 : 1;
+            return 0;
+        }
     }
 }
\ No newline at end of file
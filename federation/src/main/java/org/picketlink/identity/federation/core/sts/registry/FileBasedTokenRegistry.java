@@ -29,12 +29,18 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 import org.picketlink.identity.federation.core.sts.PicketLinkCoreSTS;
 
 /**
  * A File based implementation of the {@code SecurityTokenRegistry}
+ * <p>
+ * Tokens are evicted once their {@code NotOnOrAfter} condition has passed, like in the {@link DefaultTokenRegistry}, so
+ * that the registry file doesn't grow with every token ever issued. The expired tokens are evicted when new tokens are
+ * added, or by calling {@link #evictExpiredTokens()}.
+ * </p>
  *
  * @author Anil.Saldhana@redhat.com
  * @since Jan 4, 2011
@@ -70,7 +76,7 @@ public class FileBasedTokenRegistry extends FileBasedSTSOperations implements Se
      * @see org.picketlink.identity.federation.core.sts.registry.SecurityTokenRegistry#addToken(java.lang.String,
      *      java.lang.Object)
      */
-    public void addToken(String tokenID, Object token) throws IOException {
+    public synchronized void addToken(String tokenID, Object token) throws IOException {
         SecurityManager sm = System.getSecurityManager();
         if (sm != null)
             sm.checkPermission(PicketLinkCoreSTS.rte);
@@ -78,6 +84,9 @@ public class FileBasedTokenRegistry extends FileBasedSTSOperations implements Se
         if (!(token instanceof Serializable))
             throw logger.notSerializableError("Token");
 
+        // the file is written below anyway, so the expired tokens are only dropped from the map here.
+        removeExpiredTokens();
+
         holders.put(tokenID, new TokenHolder(tokenID, token));
         flush();
     }
@@ -85,7 +94,7 @@ public class FileBasedTokenRegistry extends FileBasedSTSOperations implements Se
     /**
      * @see org.picketlink.identity.federation.core.sts.registry.SecurityTokenRegistry#removeToken(java.lang.String)
      */
-    public void removeToken(String tokenID) throws IOException {
+    public synchronized void removeToken(String tokenID) throws IOException {
         SecurityManager sm = System.getSecurityManager();
         if (sm != null)
             sm.checkPermission(PicketLinkCoreSTS.rte);
@@ -97,18 +106,53 @@ public class FileBasedTokenRegistry extends FileBasedSTSOperations implements Se
     /**
      * @see org.picketlink.identity.federation.core.sts.registry.SecurityTokenRegistry#getToken(java.lang.String)
      */
-    public Object getToken(String tokenID) {
+    public synchronized Object getToken(String tokenID) {
         SecurityManager sm = System.getSecurityManager();
         if (sm != null)
             sm.checkPermission(PicketLinkCoreSTS.rte);
 
+        // an expired token that was not evicted yet is not returned.
         TokenHolder holder = holders.get(tokenID);
-        if (holder != null)
+        if (holder != null && !holder.isExpired(System.currentTimeMillis()))
             return holder.token;
 
         return null;
     }
 
+    /**
+     * Evicts the tokens whose {@code NotOnOrAfter} condition has passed, and writes the registry file if any token was
+     * evicted
+     *
+     * @return the number of evicted tokens
+     * @throws IOException if the registry file could not be written
+     */
+    public synchronized int evictExpiredTokens() throws IOException {
+        SecurityManager sm = System.getSecurityManager();
+        if (sm != null)
+            sm.checkPermission(PicketLinkCoreSTS.rte);
+
+        int evicted = removeExpiredTokens();
+        if (evicted > 0)
+            flush();
+        return evicted;
+    }
+
+    private int removeExpiredTokens() {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+
+        for (Iterator<TokenHolder> iterator = holders.values().iterator(); iterator.hasNext();) {
+            if (iterator.next().isExpired(now)) {
+                iterator.remove();
+                evicted++;
+            }
+        }
+
+        if (evicted > 0)
+            logger.trace("Evicted " + evicted + " expired tokens from the token registry");
+        return evicted;
+    }
+
     protected synchronized void flush() throws IOException {
         FileOutputStream fos = new FileOutputStream(registryFile);
         ObjectOutputStream oos = new ObjectOutputStream(fos);
@@ -122,6 +166,10 @@ public class FileBasedTokenRegistry extends FileBasedSTSOperations implements Se
         if (sm != null)
             sm.checkPermission(PicketLinkCoreSTS.rte);
 
+        // a registry file that was just created has no tokens yet.
+        if (registryFile.length() == 0)
+            return;
+
         FileInputStream fis = new FileInputStream(registryFile);
         ObjectInputStream ois = new ObjectInputStream(fis);
         try {
@@ -140,10 +188,23 @@ public class FileBasedTokenRegistry extends FileBasedSTSOperations implements Se
 
         Object token;
 
+        // transient, so that registry files written before tokens expired can still be read.
+        transient long expiry;
+
         public TokenHolder(String id, Object token) {
             super();
             this.id = id;
             this.token = token;
+            this.expiry = DefaultTokenRegistry.getNotOnOrAfter(token);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            this.expiry = DefaultTokenRegistry.getNotOnOrAfter(token);
+        }
+
+        boolean isExpired(long now) {
+            return expiry <= now;
         }
 
         public String getId() {
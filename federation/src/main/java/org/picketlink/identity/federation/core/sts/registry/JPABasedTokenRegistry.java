@@ -23,6 +23,8 @@
 package org.picketlink.identity.federation.core.sts.registry;
 
 import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
@@ -33,6 +35,24 @@ import javax.persistence.EntityTransaction;
  * {@code picketlink-sts} but a different configuration name can be specified through the constructor that takes a
  * {@code String} as a parameter.
  * </p>
+ * <p>
+ * Tokens are evicted once their {@code NotOnOrAfter} condition has passed, so that the table doesn't grow with every token
+ * ever issued. The expired tokens are deleted by {@link #evictExpiredTokens()}, which is also called when tokens are added,
+ * at most once per sweep interval.
+ * </p>
+ * <p>
+ * The expiry is stored in the {@code tokenExpiryDate} column of the {@link SecurityToken} table. Schemas that are not
+ * generated by the JPA provider need the column added before upgrading, for example:
+ * </p>
+ * 
+ * <pre>
+ * ALTER TABLE SecurityToken ADD tokenExpiryDate TIMESTAMP NULL
+ * </pre>
+ * <p>
+ * Tokens stored before the column existed have no expiry and are kept until they are cancelled, as they were before. If
+ * the sweep fails, for example because the column is missing, a warning is logged and {@link #addToken(String, Object)}
+ * stops sweeping, so that tokens can still be added.
+ * </p>
  * 
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  * 
@@ -40,6 +60,12 @@ import javax.persistence.EntityTransaction;
  */
 public class JPABasedTokenRegistry extends AbstractJPARegistry implements SecurityTokenRegistry {
 
+    public static final long DEFAULT_SWEEP_INTERVAL = 60 * 1000;
+
+    private volatile long sweepInterval = DEFAULT_SWEEP_INTERVAL;
+
+    private final AtomicLong nextSweep = new AtomicLong();
+
     public JPABasedTokenRegistry() {
         super();
     }
@@ -68,6 +94,22 @@ public class JPABasedTokenRegistry extends AbstractJPARegistry implements Securi
                 }
             }
         });
+
+        long now = System.currentTimeMillis();
+        long sweep = nextSweep.get();
+
+        // only one of the threads adding tokens runs the sweep.
+        if (now >= sweep && nextSweep.compareAndSet(sweep, now + sweepInterval)) {
+            try {
+                evictExpiredTokens();
+            } catch (RuntimeException e) {
+                // the token was added, don't fail because of a schema without the expiry column.
+                nextSweep.set(Long.MAX_VALUE);
+                logger.warn("Unable to evict expired tokens, the automatic sweep is disabled. "
+                        + "Check that the SecurityToken table has a tokenExpiryDate column.");
+                logger.trace("Error evicting expired tokens", e);
+            }
+        }
     }
 
     /*
@@ -99,7 +141,11 @@ public class JPABasedTokenRegistry extends AbstractJPARegistry implements Securi
     public Object getToken(final String id) {
         SecurityToken token = getEntityManagerFactory().createEntityManager().find(SecurityToken.class, id);
 
+        // an expired token that was not evicted yet is not returned.
         if (token != null) {
+            if (token.getTokenExpiryDate() != null && token.getTokenExpiryDate().getTime() <= System.currentTimeMillis())
+                return null;
+
             return token.unmarshalToken();
         }
 
@@ -108,6 +154,47 @@ public class JPABasedTokenRegistry extends AbstractJPARegistry implements Securi
         return null;
     }
 
+    /**
+     * <p>
+     * Deletes the tokens whose {@code NotOnOrAfter} condition has passed.
+     * </p>
+     * 
+     * @return the number of evicted tokens
+     */
+    public int evictExpiredTokens() {
+        final int[] evicted = new int[1];
+
+        executeInTransaction(new TransactionCallback() {
+
+            @Override
+            public void executeInTransaction(EntityManager entityManager) {
+                evicted[0] = entityManager
+                        .createQuery("DELETE FROM SecurityToken t WHERE t.tokenExpiryDate <= :now")
+                        .setParameter("now", new Date()).executeUpdate();
+            }
+        });
+
+        if (evicted[0] > 0)
+            logger.trace("Evicted " + evicted[0] + " expired tokens from the token registry");
+        return evicted[0];
+    }
+
+    public long getSweepInterval() {
+        return this.sweepInterval;
+    }
+
+    /**
+     * <p>
+     * Sets the minimum time in milliseconds between two sweeps of the expired tokens triggered by
+     * {@link #addToken(String, Object)}.
+     * </p>
+     * 
+     * @param sweepInterval
+     */
+    public void setSweepInterval(long sweepInterval) {
+        this.sweepInterval = sweepInterval;
+    }
+
     /**
      * <p>
      * This method expects a {@link TransactionCallback} to execute some logic inside a managed transaction.
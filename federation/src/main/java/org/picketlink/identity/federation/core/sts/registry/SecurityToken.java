@@ -39,6 +39,10 @@ import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
  * <p>
  * {@code SecurityToken} is a simple JPA entity used by the {@code JPABasedTokenRegistry} to persist tokens.
  * </p>
+ * <p>
+ * The {@code tokenExpiryDate} column was added to evict expired tokens. Existing tables need it added, for example with
+ * {@code ALTER TABLE SecurityToken ADD tokenExpiryDate TIMESTAMP NULL}, unless the JPA provider updates the schema.
+ * </p>
  * 
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  */
@@ -51,6 +55,9 @@ public class SecurityToken {
     @Column
     private Date tokenCreationDate = Calendar.getInstance().getTime();
 
+    @Column
+    private Date tokenExpiryDate;
+
     @Lob
     private byte[] token;
 
@@ -65,6 +72,10 @@ public class SecurityToken {
     public SecurityToken(String tokenId, Object token) {
         this.tokenId = tokenId;
         marshallAndSetToken(token);
+
+        long expiry = DefaultTokenRegistry.getNotOnOrAfter(token);
+        if (expiry != Long.MAX_VALUE)
+            this.tokenExpiryDate = new Date(expiry);
     }
 
     /**
@@ -106,6 +117,23 @@ public class SecurityToken {
         this.tokenCreationDate = tokenCreationDate;
     }
 
+    /**
+     * <p>Gets the {@link Date} from which this token is no longer valid, or null if it never expires.</p>
+     * 
+     * @return
+     */
+    public Date getTokenExpiryDate() {
+        return this.tokenExpiryDate;
+    }
+
+    /**
+     * <p>Sets the {@link Date} from which this token is no longer valid.</p>
+     * @param tokenExpiryDate
+     */
+    public void setTokenExpiryDate(Date tokenExpiryDate) {
+        this.tokenExpiryDate = tokenExpiryDate;
+    }
+
     /**
      * <p>Sets the byte array representation of the token object.</p>
      * 
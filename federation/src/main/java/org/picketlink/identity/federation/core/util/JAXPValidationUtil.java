@@ -25,8 +25,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
@@ -35,14 +38,15 @@ import javax.xml.validation.Validator;
 import org.picketlink.identity.federation.PicketLinkLogger;
 import org.picketlink.identity.federation.PicketLinkLoggerFactory;
 import org.picketlink.identity.federation.core.exceptions.ProcessingException;
-import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
 import org.w3c.dom.Node;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
 /**
- * Utility class associated with JAXP Validation
+ * Utility class associated with JAXP Validation. The {@link Schema} is compiled once and shared. Validators are not thread
+ * safe, so each validation borrows one from a small pool and returns it once done. The pool is bounded and kept by this
+ * class rather than by the calling threads, so that pooled threads never hold on to it.
  *
  * @author Anil.Saldhana@redhat.com
  * @since Jun 30, 2011
@@ -51,16 +55,55 @@ public class JAXPValidationUtil {
     
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
     
+    /**
+     * @deprecated Validators are not thread safe, so this field is no longer used. Use {@link #validator()} to get a
+     *             validator of your own.
+     */
+    @Deprecated
     protected static Validator validator;
 
     protected static SchemaFactory schemaFactory;
 
+    protected static volatile Schema schema;
+
+    private static final int POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final BlockingQueue<Validator> validators = new ArrayBlockingQueue<Validator>(POOL_SIZE);
+
     public static void validate(String str) throws SAXException, IOException {
-        validator().validate(new StreamSource(str));
+        validate(new StreamSource(str));
     }
 
     public static void validate(InputStream stream) throws SAXException, IOException {
-        validator().validate(new StreamSource(stream));
+        validate(new StreamSource(stream));
+    }
+
+    /**
+     * Validate a DOM node in place, without serializing it first
+     *
+     * @param node
+     * @throws SAXException
+     * @throws IOException
+     */
+    public static void validate(Node node) throws SAXException, IOException {
+        validate(new DOMSource(node));
+    }
+
+    private static void validate(Source source) throws SAXException, IOException {
+        Validator current = validators.poll();
+
+        if (current == null) {
+            current = validator();
+        }
+
+        try {
+            current.validate(source);
+        } finally {
+            // a validator that doesn't fit in the pool is left to the garbage collector
+            current.reset();
+            current.setErrorHandler(new CustomErrorHandler());
+            validators.offer(current);
+        }
     }
 
     /**
@@ -72,28 +115,56 @@ public class JAXPValidationUtil {
     public static void checkSchemaValidation(Node samlDocument) throws ProcessingException {
         if (SecurityActions.getSystemProperty("picketlink.schema.validate", "false").equalsIgnoreCase("true")) {
             try {
-                JAXPValidationUtil.validate(DocumentUtil.getNodeAsStream(samlDocument));
+                JAXPValidationUtil.validate(samlDocument);
             } catch (Exception e) {
                 throw logger.processingError(e);
             }
         }
     }
 
+    /**
+     * Get a new {@link Validator} for the compiled schema. It belongs to the caller, and must not be used by several
+     * threads at once.
+     *
+     * @return
+     * @throws SAXException
+     * @throws IOException
+     */
     public static Validator validator() throws SAXException, IOException {
-        SystemPropertiesUtil.ensure();
+        Validator validator = getSchema().newValidator();
+        validator.setErrorHandler(new CustomErrorHandler());
+        return validator;
+    }
 
-        if (validator == null) {
-            Schema schema = getSchema();
-            if (schema == null)
-                throw logger.nullValueError("schema");
+    /**
+     * Get the compiled {@link Schema} of all the schemas known to the {@link SchemaManagerUtil}. It is compiled on first
+     * use and shared afterwards.
+     *
+     * @return
+     * @throws IOException
+     */
+    public static Schema getSchema() throws IOException {
+        Schema result = schema;
+
+        if (result == null) {
+            synchronized (JAXPValidationUtil.class) {
+                result = schema;
+
+                if (result == null) {
+                    SystemPropertiesUtil.ensure();
 
-            validator = schema.newValidator();
-            validator.setErrorHandler(new CustomErrorHandler());
+                    result = compileSchema();
+                    if (result == null)
+                        throw logger.nullValueError("schema");
+
+                    schema = result;
+                }
+            }
         }
-        return validator;
+        return result;
     }
 
-    private static Schema getSchema() throws IOException {
+    private static Schema compileSchema() throws IOException {
         schemaFactory = SchemaFactory.newInstance("http://www.w3.org/2001/XMLSchema");
 
         schemaFactory.setResourceResolver(new IDFedLSInputResolver());
@@ -113,10 +184,10 @@ public class JAXPValidationUtil {
         Source[] sourceArr = new Source[schemas.size()];
 
         int i = 0;
-        for (String schema : schemas) {
-            URL url = SecurityActions.loadResource(JAXPValidationUtil.class, schema);
+        for (String schemaLocation : schemas) {
+            URL url = SecurityActions.loadResource(JAXPValidationUtil.class, schemaLocation);
             if (url == null)
-                throw logger.nullValueError("schema url:" + schema);
+                throw logger.nullValueError("schema url:" + schemaLocation);
             sourceArr[i++] = new StreamSource(url.openStream());
         }
         return sourceArr;
@@ -54,7 +54,7 @@ public class SOAPUtil {
      * @throws SOAPException
      */
     public static SOAPMessage create() throws SOAPException {
-        MessageFactory messageFactory = MessageFactory.newInstance();
+        MessageFactory messageFactory = XMLRuntime.getMessageFactory();
 
         SOAPMessage soapMessage = messageFactory.createMessage();
         return soapMessage;
@@ -67,7 +67,7 @@ public class SOAPUtil {
      * @throws SOAPException
      */
     public static SOAPMessage createSOAP12() throws SOAPException {
-        MessageFactory messageFactory = MessageFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL);
+        MessageFactory messageFactory = XMLRuntime.getSOAP12MessageFactory();
         SOAPMessage soapMessage = messageFactory.createMessage();
         return soapMessage;
     }
@@ -81,7 +81,7 @@ public class SOAPUtil {
      * @throws SOAPException
      */
     public static SOAPMessage getSOAPMessage(InputStream is) throws IOException, SOAPException {
-        MessageFactory messageFactory = MessageFactory.newInstance();
+        MessageFactory messageFactory = XMLRuntime.getMessageFactory();
         return messageFactory.createMessage(null, is);
     }
 
@@ -94,7 +94,7 @@ public class SOAPUtil {
      * @throws SOAPException
      */
     public static SOAPMessage getSOAP12Message(InputStream is) throws IOException, SOAPException {
-        MessageFactory messageFactory = MessageFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL);
+        MessageFactory messageFactory = XMLRuntime.getSOAP12MessageFactory();
         return messageFactory.createMessage(null, is);
     }
 
@@ -106,7 +106,7 @@ public class SOAPUtil {
      * @throws SOAPException
      */
     public static SOAPMessage createFault(String message) throws SOAPException {
-        MessageFactory messageFactory = MessageFactory.newInstance();
+        MessageFactory messageFactory = XMLRuntime.getMessageFactory();
         SOAPMessage msg = messageFactory.createMessage();
         SOAPEnvelope envelope = msg.getSOAPPart().getEnvelope();
         SOAPBody body = envelope.getBody();
@@ -125,7 +125,7 @@ public class SOAPUtil {
      * @throws SOAPException
      */
     public static SOAPMessage createFault12(String message) throws SOAPException {
-        MessageFactory messageFactory = MessageFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL);
+        MessageFactory messageFactory = XMLRuntime.getSOAP12MessageFactory();
         SOAPMessage msg = messageFactory.createMessage();
         SOAPEnvelope envelope = msg.getSOAPPart().getEnvelope();
         SOAPBody body = envelope.getBody();
@@ -72,10 +72,9 @@ public class TransformerUtil {
     
     private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
     
-    private static TransformerFactory transformerFactory;
-    
     /**
-     * Get the Default Transformer
+     * Get the Default Transformer. The caller owns the returned instance; code that only needs a transformer for the
+     * duration of a call should use {@link XMLRuntime#transform(Source, Result)} instead.
      *
      * @return
      * @throws ConfigurationException
@@ -83,7 +82,12 @@ public class TransformerUtil {
     public static Transformer getTransformer() throws ConfigurationException {
         Transformer transformer;
         try {
-            transformer = getTransformerFactory().newTransformer();
+            TransformerFactory factory = getTransformerFactory();
+
+            // the factory is shared and not guaranteed to be thread safe
+            synchronized (factory) {
+                transformer = factory.newTransformer();
+            }
         } catch (TransformerConfigurationException e) {
             throw logger.configurationError(e);
         } catch (TransformerFactoryConfigurationError e) {
@@ -97,17 +101,13 @@ public class TransformerUtil {
     }
 
     /**
-     * <p>Creates a {@link TransformerFactory}. The returned instance is cached and shared between different threads.</p>
+     * <p>Returns the {@link TransformerFactory} shared by the {@link XMLRuntime}.</p>
      * 
      * @return
      * @throws TransformerFactoryConfigurationError
      */
     private static TransformerFactory getTransformerFactory() throws TransformerFactoryConfigurationError {
-        if (transformerFactory == null) {
-            transformerFactory = TransformerFactory.newInstance();
-        }
-
-        return transformerFactory;
+        return XMLRuntime.getTransformerFactory();
     }
 
     /**
@@ -139,10 +139,7 @@ public class TransformerUtil {
 
     public static void transform(JAXBContext context, JAXBElement<?> jaxb, Result result) throws ParsingException {
         try {
-            Transformer transformer = getTransformer();
-            JAXBSource jaxbSource = new JAXBSource(context, jaxb);
-
-            transformer.transform(jaxbSource, result);
+            XMLRuntime.transform(new JAXBSource(context, jaxb), result);
         } catch (Exception e) {
             throw logger.parserError(e);
         }
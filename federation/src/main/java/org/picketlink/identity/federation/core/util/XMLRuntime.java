@@ -0,0 +1,462 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.identity.federation.core.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.soap.MessageFactory;
+import javax.xml.soap.SOAPConstants;
+import javax.xml.soap.SOAPException;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.TransformerFactoryConfigurationError;
+
+import org.picketlink.identity.federation.PicketLinkLogger;
+import org.picketlink.identity.federation.PicketLinkLoggerFactory;
+import org.picketlink.identity.federation.core.exceptions.ConfigurationException;
+import org.picketlink.identity.federation.core.exceptions.ProcessingException;
+
+/**
+ * <p>
+ * Owns the JAXP, StAX and SAAJ factories used by the federation module. The factories are looked up once, configured
+ * and shared between threads, so that parsing and writing a message does not go through the service loader.
+ * </p>
+ * <p>
+ * {@link DocumentBuilder} and {@link Transformer} instances are not thread safe and are kept in pools instead. Use
+ * {@link #borrowDocumentBuilder()} and {@link #borrowTransformer()} together with the matching release method in a
+ * finally block. The number of idle instances kept by each pool is set with the <code>picketlink.xml.pool.size</code>
+ * system property.
+ * </p>
+ *
+ * @since Mar 4, 2013
+ */
+public class XMLRuntime {
+
+    private static final PicketLinkLogger logger = PicketLinkLoggerFactory.getLogger();
+
+    /**
+     * System property holding the maximum number of idle instances kept by each pool
+     */
+    public static final String POOL_SIZE_PROPERTY = "picketlink.xml.pool.size";
+
+    private static final int POOL_SIZE = Integer.parseInt(SecurityActions.getSystemProperty(POOL_SIZE_PROPERTY,
+            String.valueOf(Runtime.getRuntime().availableProcessors() * 2)));
+
+    private static volatile XMLInputFactory xmlInputFactory;
+
+    private static volatile XMLOutputFactory xmlOutputFactory;
+
+    private static volatile XMLEventFactory xmlEventFactory;
+
+    private static volatile DocumentBuilderFactory documentBuilderFactory;
+
+    private static volatile TransformerFactory transformerFactory;
+
+    private static volatile MessageFactory soap11MessageFactory;
+
+    private static volatile MessageFactory soap12MessageFactory;
+
+    private static final Pool<DocumentBuilder> documentBuilders = new Pool<DocumentBuilder>(POOL_SIZE) {
+        @Override
+        protected DocumentBuilder create() throws ConfigurationException {
+            DocumentBuilderFactory factory = getDocumentBuilderFactory();
+
+            // DocumentBuilderFactory is not guaranteed to be thread safe
+            synchronized (factory) {
+                try {
+                    return factory.newDocumentBuilder();
+                } catch (ParserConfigurationException e) {
+                    throw logger.configurationError(e);
+                }
+            }
+        }
+
+        @Override
+        protected void reset(DocumentBuilder builder) {
+            builder.reset();
+        }
+    };
+
+    private static final Pool<Transformer> transformers = new Pool<Transformer>(POOL_SIZE) {
+        @Override
+        protected Transformer create() throws ConfigurationException {
+            TransformerFactory factory = getTransformerFactory();
+            Transformer transformer;
+
+            // TransformerFactory is not guaranteed to be thread safe
+            synchronized (factory) {
+                try {
+                    transformer = factory.newTransformer();
+                } catch (TransformerConfigurationException e) {
+                    throw logger.configurationError(e);
+                }
+            }
+
+            setDefaultOutputProperties(transformer);
+            return transformer;
+        }
+
+        @Override
+        protected void reset(Transformer transformer) {
+            transformer.reset();
+            setDefaultOutputProperties(transformer);
+        }
+    };
+
+    private XMLRuntime() {
+    }
+
+    /**
+     * Get the shared {@link XMLInputFactory}. It is namespace aware, coalescing, and does not resolve external entities.
+     *
+     * @return
+     */
+    public static XMLInputFactory getXMLInputFactory() {
+        XMLInputFactory factory = xmlInputFactory;
+
+        if (factory == null) {
+            factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            xmlInputFactory = factory;
+        }
+
+        return factory;
+    }
+
+    /**
+     * Get the shared {@link XMLOutputFactory}
+     *
+     * @return
+     */
+    public static XMLOutputFactory getXMLOutputFactory() {
+        XMLOutputFactory factory = xmlOutputFactory;
+
+        if (factory == null) {
+            factory = XMLOutputFactory.newInstance();
+            xmlOutputFactory = factory;
+        }
+
+        return factory;
+    }
+
+    /**
+     * Get the shared {@link XMLEventFactory}. Callers must not set a location on it, since it is shared.
+     *
+     * @return
+     */
+    public static XMLEventFactory getXMLEventFactory() {
+        XMLEventFactory factory = xmlEventFactory;
+
+        if (factory == null) {
+            factory = XMLEventFactory.newInstance();
+            xmlEventFactory = factory;
+        }
+
+        return factory;
+    }
+
+    /**
+     * Get the shared {@link DocumentBuilderFactory}. It is namespace aware and neither loads external DTDs nor resolves
+     * external entities or XIncludes. Prefer {@link #borrowDocumentBuilder()} over creating builders from it.
+     *
+     * @return
+     */
+    public static DocumentBuilderFactory getDocumentBuilderFactory() {
+        DocumentBuilderFactory factory = documentBuilderFactory;
+
+        if (factory == null) {
+            factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setXIncludeAware(false);
+
+            setFeature(factory, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            setFeature(factory, "http://xml.org/sax/features/external-general-entities", false);
+            setFeature(factory, "http://xml.org/sax/features/external-parameter-entities", false);
+            setFeature(factory, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+
+            documentBuilderFactory = factory;
+        }
+
+        return factory;
+    }
+
+    /**
+     * Get the shared {@link TransformerFactory}, with secure processing enabled. Prefer {@link #borrowTransformer()}
+     * over creating transformers from it.
+     *
+     * @return
+     * @throws TransformerFactoryConfigurationError
+     */
+    public static TransformerFactory getTransformerFactory() throws TransformerFactoryConfigurationError {
+        TransformerFactory factory = transformerFactory;
+
+        if (factory == null) {
+            factory = TransformerFactory.newInstance();
+
+            try {
+                factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            } catch (TransformerConfigurationException e) {
+                logger.debug("TransformerFactory does not support secure processing: " + e.getMessage());
+            }
+
+            transformerFactory = factory;
+        }
+
+        return factory;
+    }
+
+    /**
+     * Get the shared SOAP 1.1 {@link MessageFactory}
+     *
+     * @return
+     * @throws SOAPException
+     */
+    public static MessageFactory getMessageFactory() throws SOAPException {
+        MessageFactory factory = soap11MessageFactory;
+
+        if (factory == null) {
+            factory = MessageFactory.newInstance();
+            soap11MessageFactory = factory;
+        }
+
+        return factory;
+    }
+
+    /**
+     * Get the shared SOAP 1.2 {@link MessageFactory}
+     *
+     * @return
+     * @throws SOAPException
+     */
+    public static MessageFactory getSOAP12MessageFactory() throws SOAPException {
+        MessageFactory factory = soap12MessageFactory;
+
+        if (factory == null) {
+            factory = MessageFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL);
+            soap12MessageFactory = factory;
+        }
+
+        return factory;
+    }
+
+    /**
+     * Take a {@link DocumentBuilder} from the pool. It must be given back with
+     * {@link #releaseDocumentBuilder(DocumentBuilder)} and not be used after that.
+     *
+     * @return
+     * @throws ConfigurationException
+     */
+    public static DocumentBuilder borrowDocumentBuilder() throws ConfigurationException {
+        return documentBuilders.borrow();
+    }
+
+    public static void releaseDocumentBuilder(DocumentBuilder builder) {
+        documentBuilders.release(builder);
+    }
+
+    /**
+     * Take a {@link Transformer} from the pool. It omits the XML declaration and does not indent, and must be given back
+     * with {@link #releaseTransformer(Transformer)} and not be used after that.
+     *
+     * @return
+     * @throws ConfigurationException
+     */
+    public static Transformer borrowTransformer() throws ConfigurationException {
+        return transformers.borrow();
+    }
+
+    public static void releaseTransformer(Transformer transformer) {
+        transformers.release(transformer);
+    }
+
+    /**
+     * Transform the source into the result with a pooled {@link Transformer}
+     *
+     * @param source
+     * @param result
+     * @throws ConfigurationException
+     * @throws ProcessingException
+     */
+    public static void transform(Source source, Result result) throws ConfigurationException, ProcessingException {
+        Transformer transformer = borrowTransformer();
+
+        try {
+            transformer.transform(source, result);
+        } catch (TransformerException e) {
+            throw logger.processingError(e);
+        } finally {
+            releaseTransformer(transformer);
+        }
+    }
+
+    /**
+     * Get the counters of the {@link DocumentBuilder} pool
+     *
+     * @return
+     */
+    public static PoolStatistics getDocumentBuilderStatistics() {
+        return documentBuilders.getStatistics();
+    }
+
+    /**
+     * Get the counters of the {@link Transformer} pool
+     *
+     * @return
+     */
+    public static PoolStatistics getTransformerStatistics() {
+        return transformers.getStatistics();
+    }
+
+    private static void setDefaultOutputProperties(Transformer transformer) {
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        transformer.setOutputProperty(OutputKeys.INDENT, "no");
+    }
+
+    private static void setFeature(DocumentBuilderFactory factory, String feature, boolean value) {
+        try {
+            factory.setFeature(feature, value);
+        } catch (ParserConfigurationException e) {
+            logger.debug("DocumentBuilderFactory does not support feature " + feature + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * A snapshot of the counters of a pool
+     */
+    public static class PoolStatistics {
+        private final long hits;
+
+        private final long misses;
+
+        private final int idle;
+
+        PoolStatistics(long hits, long misses, int idle) {
+            this.hits = hits;
+            this.misses = misses;
+            this.idle = idle;
+        }
+
+        /**
+         * The number of times an idle instance was reused
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * The number of times a new instance had to be created
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * The number of idle instances currently in the pool
+         */
+        public int getIdle() {
+            return idle;
+        }
+
+        @Override
+        public String toString() {
+            return "PoolStatistics[hits=" + hits + ", misses=" + misses + ", idle=" + idle + "]";
+        }
+    }
+
+    /**
+     * A bounded pool of instances that are not thread safe. Instances are reset when they are released, and dropped when
+     * the pool already holds the maximum number of idle instances.
+     */
+    private abstract static class Pool<T> {
+        private final Queue<T> idle = new ConcurrentLinkedQueue<T>();
+
+        private final AtomicInteger idleCount = new AtomicInteger();
+
+        private final AtomicLong hits = new AtomicLong();
+
+        private final AtomicLong misses = new AtomicLong();
+
+        private final int maxIdle;
+
+        Pool(int maxIdle) {
+            this.maxIdle = maxIdle;
+        }
+
+        protected abstract T create() throws ConfigurationException;
+
+        protected abstract void reset(T instance);
+
+        T borrow() throws ConfigurationException {
+            T instance = idle.poll();
+
+            if (instance != null) {
+                idleCount.decrementAndGet();
+                hits.incrementAndGet();
+                return instance;
+            }
+
+            misses.incrementAndGet();
+            return create();
+        }
+
+        void release(T instance) {
+            if (instance == null) {
+                return;
+            }
+
+            try {
+                reset(instance);
+            } catch (RuntimeException e) {
+                // an instance that cannot be reset is not reused
+                return;
+            }
+
+            if (idleCount.incrementAndGet() <= maxIdle) {
+                idle.offer(instance);
+            } else {
+                idleCount.decrementAndGet();
+            }
+        }
+
+        PoolStatistics getStatistics() {
+            return new PoolStatistics(hits.get(), misses.get(), idleCount.get());
+        }
+    }
+}
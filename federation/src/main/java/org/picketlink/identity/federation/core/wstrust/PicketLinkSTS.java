@@ -23,9 +23,21 @@ import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
 import java.security.AccessController;
+import java.security.Principal;
 import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.Resource;
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
 import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPHeader;
 import javax.xml.soap.SOAPMessage;
@@ -55,7 +67,9 @@ import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityT
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenResponse;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenResponseCollection;
 import org.picketlink.identity.federation.core.wstrust.writers.WSTrustResponseWriter;
+import org.picketlink.identity.federation.ws.trust.StatusType;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -83,11 +97,28 @@ public class PicketLinkSTS implements Provider<SOAPMessage>// SecurityTokenServi
 
     private static final String STS_CONFIG_DIR = "picketlink-store" + SEPARATOR + "sts" + SEPARATOR;
 
+    private static final int DEFAULT_BATCH_MAX_SIZE = 100;
+
+    private static final String BATCH_REQUEST_FAILURE = "Request failure: the request could not be processed";
+
+    private static final Map<String, String> BATCH_REQUEST_TYPES = new HashMap<String, String>();
+
+    static {
+        BATCH_REQUEST_TYPES.put(WSTrustConstants.BATCH_ISSUE_REQUEST, WSTrustConstants.ISSUE_REQUEST);
+        BATCH_REQUEST_TYPES.put(WSTrustConstants.BATCH_RENEW_REQUEST, WSTrustConstants.RENEW_REQUEST);
+        BATCH_REQUEST_TYPES.put(WSTrustConstants.BATCH_CANCEL_REQUEST, WSTrustConstants.CANCEL_REQUEST);
+        BATCH_REQUEST_TYPES.put(WSTrustConstants.BATCH_VALIDATE_REQUEST, WSTrustConstants.VALIDATE_REQUEST);
+    }
+
     @Resource
     protected WebServiceContext context;
 
     protected STSConfiguration config;
 
+    private ExecutorService batchExecutor;
+
+    private boolean batchExecutorResolved;
+
     // If the SOAP Message contained a wsse:binaryToken, all the providers can have access to it
     public static ThreadLocal<BinaryToken> binaryToken = new InheritableThreadLocal<BinaryToken>();
 
@@ -119,6 +150,8 @@ public class PicketLinkSTS implements Provider<SOAPMessage>// SecurityTokenServi
         } catch (SOAPException e) {
             throw logger.stsWSError(e);
         }
+        boolean directDOMProcessing = this.isDirectDOMProcessing(this.loadConfiguration());
+
         Node payLoad;
         BaseRequestSecurityToken baseRequest;
         try {
@@ -126,7 +159,11 @@ public class PicketLinkSTS implements Provider<SOAPMessage>// SecurityTokenServi
 
             WSTrustParser parser = new WSTrustParser();
 
-            baseRequest = (BaseRequestSecurityToken) parser.parse(DocumentUtil.getNodeAsStream(payLoad));
+            if (directDOMProcessing) {
+                baseRequest = (BaseRequestSecurityToken) parser.parse(payLoad);
+            } else {
+                baseRequest = (BaseRequestSecurityToken) parser.parse(DocumentUtil.getNodeAsStream(payLoad));
+            }
         } catch (Exception e) {
             throw logger.stsWSError(e);
         }
@@ -147,14 +184,77 @@ public class PicketLinkSTS implements Provider<SOAPMessage>// SecurityTokenServi
                 req.setBinaryValueType(URI.create(valueType));
             }
             Source theResponse = this.handleTokenRequest(req);
-            return convert(theResponse, soap12);
+            return convert(theResponse, soap12, directDOMProcessing);
         } else if (baseRequest instanceof RequestSecurityTokenCollection) {
-            return convert(this.handleTokenRequestCollection((RequestSecurityTokenCollection) baseRequest), soap12);
+            RequestSecurityTokenCollection requestCollection = (RequestSecurityTokenCollection) baseRequest;
+            List<Document> rstDocuments = this.getRSTDocuments((Document) payLoad);
+            int index = 0;
+
+            for (RequestSecurityToken req : requestCollection.getRequestSecurityTokens()) {
+                // each request gets a document of its own, so that its targets are not looked up in the other requests.
+                if (index < rstDocuments.size())
+                    req.setRSTDocument(rstDocuments.get(index++));
+
+                // the requests may be handled in parallel, so each one gets its own copy of the token.
+                if (binaryToken != null) {
+                    req.setBinaryToken(this.copyNode(binaryToken));
+                }
+
+                if (valueType != null) {
+                    req.setBinaryValueType(URI.create(valueType));
+                }
+            }
+            return convert(this.handleTokenRequestCollection(requestCollection), soap12, directDOMProcessing);
         } else
             throw logger.stsWSInvalidTokenRequestError();
     }
 
-    private SOAPMessage convert(Source theResponse, boolean wantSOAP12) {
+    /**
+     * <p>
+     * Copies each {@code RequestSecurityToken} element of a {@code RequestSecurityTokenCollection} to a document of its own.
+     * </p>
+     * 
+     * @param collection the document holding the {@code RequestSecurityTokenCollection}.
+     * @return the documents of the requests, in document order.
+     */
+    private List<Document> getRSTDocuments(Document collection) {
+        List<Document> documents = new ArrayList<Document>();
+
+        try {
+            for (Node child = collection.getDocumentElement().getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE && WSTrustConstants.BASE_NAMESPACE.equals(child.getNamespaceURI())
+                        && "RequestSecurityToken".equals(child.getLocalName())) {
+                    Document document = DocumentUtil.createDocument();
+                    document.appendChild(document.importNode(child, true));
+                    documents.add(document);
+                }
+            }
+        } catch (ConfigurationException e) {
+            throw logger.stsWSError(e);
+        }
+        return documents;
+    }
+
+    /**
+     * <p>
+     * Copies a node to a document of its own. A DOM is not thread safe, so the requests of a collection that are handled in
+     * parallel must not share the nodes of the SOAP message.
+     * </p>
+     * 
+     * @param node the node to be copied.
+     * @return the copy of the node, as the document element of a new document.
+     */
+    private Node copyNode(Node node) {
+        try {
+            Document document = DocumentUtil.createDocument();
+            document.appendChild(document.importNode(node, true));
+            return document.getDocumentElement();
+        } catch (ConfigurationException e) {
+            throw logger.stsWSError(e);
+        }
+    }
+
+    private SOAPMessage convert(Source theResponse, boolean wantSOAP12, boolean directDOMProcessing) {
         try {
             SOAPMessage response = null;
 
@@ -163,7 +263,17 @@ public class PicketLinkSTS implements Provider<SOAPMessage>// SecurityTokenServi
             } else {
                 response = SOAPUtil.create();
             }
-            Document theResponseDoc = (Document) DocumentUtil.getNodeFromSource(theResponse);
+
+            Document theResponseDoc;
+
+            // the marshalled responses are already DOM documents, which can be added to the body as they are
+            if (directDOMProcessing && theResponse instanceof DOMSource
+                    && ((DOMSource) theResponse).getNode() instanceof Document) {
+                theResponseDoc = (Document) ((DOMSource) theResponse).getNode();
+            } else {
+                theResponseDoc = (Document) DocumentUtil.getNodeFromSource(theResponse);
+            }
+
             response.getSOAPBody().addDocument(theResponseDoc);
             return response;
         } catch (Exception e) {
@@ -197,36 +307,33 @@ public class PicketLinkSTS implements Provider<SOAPMessage>// SecurityTokenServi
     protected Source handleTokenRequest(RequestSecurityToken request) {
         if (context == null)
             throw new IllegalStateException(ErrorCodes.NULL_VALUE + "WebServiceContext");
-        if (this.config == null)
-            try {
-                logger.info("Loading STS configuration");
-                this.config = this.getConfiguration();
-            } catch (ConfigurationException e) {
-                throw logger.stsWSConfigurationError(e);
-            }
 
-        WSTrustRequestHandler handler = this.config.getRequestHandler();
+        WSTrustRequestHandler handler = this.loadConfiguration().getRequestHandler();
         if (handler == null)
             throw logger.nullValueError("WSTrustRequestHandler");
 
+        return this.handleTokenRequest(handler, request, this.context.getUserPrincipal());
+    }
+
+    private Source handleTokenRequest(WSTrustRequestHandler handler, RequestSecurityToken request, Principal callerPrincipal) {
         String requestType = request.getRequestType().toString();
         
         logger.trace("STS received request of type " + requestType);
 
         try {
             if (requestType.equals(WSTrustConstants.ISSUE_REQUEST)) {
-                Source source = this.marshallResponse(handler.issue(request, this.context.getUserPrincipal()));
+                Source source = this.marshallResponse(handler.issue(request, callerPrincipal));
                 Document doc = handler.postProcess((Document) ((DOMSource) source).getNode(), request);
                 return new DOMSource(doc);
             } else if (requestType.equals(WSTrustConstants.RENEW_REQUEST)) {
-                Source source = this.marshallResponse(handler.renew(request, this.context.getUserPrincipal()));
+                Source source = this.marshallResponse(handler.renew(request, callerPrincipal));
                 // we need to sign/encrypt renewed tokens.
                 Document document = handler.postProcess((Document) ((DOMSource) source).getNode(), request);
                 return new DOMSource(document);
             } else if (requestType.equals(WSTrustConstants.CANCEL_REQUEST))
-                return this.marshallResponse(handler.cancel(request, this.context.getUserPrincipal()));
+                return this.marshallResponse(handler.cancel(request, callerPrincipal));
             else if (requestType.equals(WSTrustConstants.VALIDATE_REQUEST))
-                return this.marshallResponse(handler.validate(request, this.context.getUserPrincipal()));
+                return this.marshallResponse(handler.validate(request, callerPrincipal));
             else
                 throw logger.stsWSInvalidRequestTypeError(requestType);
         } catch (WSTrustException we) {
@@ -241,9 +348,157 @@ public class PicketLinkSTS implements Provider<SOAPMessage>// SecurityTokenServi
      * 
      * @param requestCollection a {@code RequestSecurityTokenCollection} containing the various requests information.
      * @return a {@code Source} instance representing the marshalled response.
+     * @throws WebServiceException if the collection is empty or larger than the configured maximum batch size.
      */
     protected Source handleTokenRequestCollection(RequestSecurityTokenCollection requestCollection) {
-        throw new UnsupportedOperationException();
+        if (context == null)
+            throw new IllegalStateException(ErrorCodes.NULL_VALUE + "WebServiceContext");
+
+        STSConfiguration configuration = this.loadConfiguration();
+        final WSTrustRequestHandler handler = configuration.getRequestHandler();
+        if (handler == null)
+            throw logger.nullValueError("WSTrustRequestHandler");
+
+        List<RequestSecurityToken> requests = requestCollection.getRequestSecurityTokens();
+        if (requests.isEmpty())
+            throw logger.stsWSInvalidTokenRequestError();
+        int batchMaxSize = this.getBatchMaxSize(configuration);
+        if (requests.size() > batchMaxSize)
+            throw logger.stsWSBatchSizeExceededError(batchMaxSize);
+
+        // the web service context is bound to the calling thread, so the caller is obtained before dispatching the requests.
+        final Principal callerPrincipal = this.context.getUserPrincipal();
+
+        List<Document> responses = null;
+        ExecutorService executor = requests.size() > 1 ? this.getBatchExecutor(configuration) : null;
+
+        if (executor != null) {
+            // the tasks run on container threads, so they are given the class loader of the calling thread.
+            final ClassLoader classLoader = SecurityActions.getContextClassLoader();
+            List<Callable<Document>> tasks = new ArrayList<Callable<Document>>(requests.size());
+
+            for (final RequestSecurityToken request : requests) {
+                tasks.add(new Callable<Document>() {
+                    public Document call() {
+                        ClassLoader previous = SecurityActions.getContextClassLoader();
+                        SecurityActions.setContextClassLoader(classLoader);
+                        try {
+                            return handleBatchRequest(handler, request, callerPrincipal);
+                        } finally {
+                            SecurityActions.setContextClassLoader(previous);
+                        }
+                    }
+                });
+            }
+
+            try {
+                responses = new ArrayList<Document>(requests.size());
+                for (Future<Document> future : executor.invokeAll(tasks))
+                    responses.add(future.get());
+            } catch (RejectedExecutionException e) {
+                // the executor is saturated or shutting down, so the requests are processed in the calling thread.
+                responses = null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw logger.stsWSError(e);
+            } catch (ExecutionException e) {
+                throw logger.stsWSError(e.getCause());
+            }
+        }
+
+        if (responses == null) {
+            responses = new ArrayList<Document>(requests.size());
+            for (RequestSecurityToken request : requests)
+                responses.add(this.handleBatchRequest(handler, request, callerPrincipal));
+        }
+
+        // each response is a collection with a single response, so they are all moved to the first collection.
+        Document responseCollection = responses.get(0);
+        Element root = responseCollection.getDocumentElement();
+
+        for (Document response : responses.subList(1, responses.size())) {
+            for (Node child = response.getDocumentElement().getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE)
+                    root.appendChild(responseCollection.importNode(child, true));
+            }
+        }
+        return new DOMSource(responseCollection);
+    }
+
+    /**
+     * <p>
+     * Process one request of a batch. A request that fails is answered with an invalid status, so that it doesn't fail the
+     * other requests of the batch.
+     * </p>
+     */
+    private Document handleBatchRequest(WSTrustRequestHandler handler, RequestSecurityToken request, Principal callerPrincipal) {
+        try {
+            if (request.getRequestType() != null) {
+                String requestType = BATCH_REQUEST_TYPES.get(request.getRequestType().toString());
+                if (requestType != null)
+                    request.setRequestType(URI.create(requestType));
+            }
+
+            Source source = this.handleTokenRequest(handler, request, callerPrincipal);
+            return (Document) ((DOMSource) source).getNode();
+        } catch (RuntimeException e) {
+            // the details stay in the log, as they may reveal the internals of the STS to the client.
+            logger.error(e);
+
+            StatusType status = new StatusType();
+            status.setCode(WSTrustConstants.STATUS_CODE_INVALID);
+            status.setReason(BATCH_REQUEST_FAILURE);
+
+            RequestSecurityTokenResponse response = new RequestSecurityTokenResponse();
+            if (request.getContext() != null)
+                response.setContext(request.getContext());
+            response.setTokenType(URI.create(WSTrustConstants.STATUS_TYPE));
+            response.setStatus(status);
+
+            return (Document) ((DOMSource) this.marshallResponse(response)).getNode();
+        }
+    }
+
+    /**
+     * <p>
+     * Sets the executor that processes the requests of a {@code RequestSecurityTokenCollection} concurrently. It must be
+     * managed by the container, which owns its threads and shuts it down, such as a {@code ManagedExecutorService}.
+     * Setting it overrides the {@code BatchExecutor} of the configuration, and {@code null} processes the requests one
+     * after the other in the calling thread.
+     * </p>
+     * 
+     * @param batchExecutor the container managed executor.
+     */
+    public synchronized void setBatchExecutor(ExecutorService batchExecutor) {
+        this.batchExecutor = batchExecutor;
+        this.batchExecutorResolved = true;
+    }
+
+    /**
+     * <p>
+     * Returns the executor that processes the requests of a batch, looking up the {@code BatchExecutor} of the
+     * configuration on first use. The STS never creates threads of its own, so {@code null} is returned if no executor is
+     * set or configured, or if it can't be looked up.
+     * </p>
+     */
+    private synchronized ExecutorService getBatchExecutor(STSConfiguration configuration) {
+        if (!this.batchExecutorResolved) {
+            this.batchExecutorResolved = true;
+
+            String jndiName = configuration instanceof PicketLinkSTSConfiguration ? ((PicketLinkSTSConfiguration) configuration)
+                    .getBatchExecutor() : null;
+
+            if (jndiName != null) {
+                try {
+                    this.batchExecutor = (ExecutorService) new InitialContext().lookup(jndiName);
+                } catch (NamingException e) {
+                    logger.warn("Batch executor " + jndiName + " not found, batch requests are processed sequentially");
+                } catch (ClassCastException e) {
+                    logger.warn("Batch executor " + jndiName + " is not an ExecutorService, batch requests are processed sequentially");
+                }
+            }
+        }
+        return this.batchExecutor;
     }
 
     /**
@@ -269,6 +524,53 @@ public class PicketLinkSTS implements Provider<SOAPMessage>// SecurityTokenServi
         }
     }
 
+    /**
+     * <p>
+     * Obtains the maximum number of requests accepted in a batch. Only the {@code PicketLinkSTSConfiguration} has this
+     * setting, other configurations accept up to 100 requests.
+     * </p>
+     * 
+     * @param configuration the STS configuration.
+     * @return the maximum number of requests in a batch.
+     */
+    private int getBatchMaxSize(STSConfiguration configuration) {
+        if (configuration instanceof PicketLinkSTSConfiguration)
+            return ((PicketLinkSTSConfiguration) configuration).getBatchMaxSize();
+        return DEFAULT_BATCH_MAX_SIZE;
+    }
+
+    /**
+     * <p>
+     * Indicates whether SOAP messages are processed as DOM nodes. Only the {@code PicketLinkSTSConfiguration} has this
+     * setting, other configurations always use the serializing path.
+     * </p>
+     * 
+     * @param configuration the STS configuration.
+     * @return {@code true} if the SOAP messages are processed as DOM nodes; {@code false} otherwise.
+     */
+    private boolean isDirectDOMProcessing(STSConfiguration configuration) {
+        return configuration instanceof PicketLinkSTSConfiguration
+                && ((PicketLinkSTSConfiguration) configuration).isDirectDOMProcessing();
+    }
+
+    /**
+     * <p>
+     * Returns the STS configuration, loading it on first use.
+     * </p>
+     * 
+     * @return the {@code STSConfiguration} of this endpoint.
+     */
+    private STSConfiguration loadConfiguration() {
+        if (this.config == null)
+            try {
+                logger.info("Loading STS configuration");
+                this.config = this.getConfiguration();
+            } catch (ConfigurationException e) {
+                throw logger.stsWSConfigurationError(e);
+            }
+        return this.config;
+    }
+
     /**
      * <p>
      * Obtains the STS configuration options.
@@ -305,4 +607,4 @@ public class PicketLinkSTS implements Provider<SOAPMessage>// SecurityTokenServi
             throw logger.stsConfigurationFileParsingError(e);
         }
     }
-}
\ No newline at end of file
+}
@@ -354,6 +354,51 @@ public class PicketLinkSTSConfiguration implements STSConfiguration {
         return delegate.getCanonicalizationMethod();
     }
 
+    /**
+     * <p>
+     * Indicates whether the STS parses the SOAP body and adds the response to it as DOM nodes, instead of serializing
+     * them and parsing the bytes again.
+     * </p>
+     * <p>
+     * <b>NOTE:</b> Defaults to false
+     * </p>
+     *
+     * @return {@code true} if the SOAP messages are processed as DOM nodes; {@code false} otherwise.
+     */
+    public boolean isDirectDOMProcessing() {
+        return delegate.isDirectDOMProcessing();
+    }
+
+    /**
+     * <p>
+     * Obtains the maximum number of requests accepted in a {@code RequestSecurityTokenCollection}. Larger batches are
+     * rejected as a whole.
+     * </p>
+     * <p>
+     * <b>NOTE:</b> Defaults to 100
+     * </p>
+     *
+     * @return the maximum number of requests in a batch.
+     */
+    public int getBatchMaxSize() {
+        return delegate.getBatchMaxSize();
+    }
+
+    /**
+     * <p>
+     * Obtains the JNDI name of the container managed executor service that processes the requests of a
+     * {@code RequestSecurityTokenCollection} concurrently.
+     * </p>
+     * <p>
+     * <b>NOTE:</b> Defaults to none, in which case the requests are processed one after the other in the calling thread
+     * </p>
+     *
+     * @return the JNDI name of the batch executor, or {@code null} if none is configured.
+     */
+    public String getBatchExecutor() {
+        return delegate.getBatchExecutor();
+    }
+
     /**
      * @see {@code STSCoreConfig#addTokenProvider(String, SecurityTokenProvider)}
      */
@@ -141,5 +141,47 @@ class SecurityActions {
             return url;
         }
     }
-    
-}
\ No newline at end of file
+
+    /**
+     * <p>
+     * Returns the context class loader of the current thread.
+     * </p>
+     *
+     * @return
+     */
+    static ClassLoader getContextClassLoader() {
+        SecurityManager sm = System.getSecurityManager();
+
+        if (sm != null) {
+            return AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
+                public ClassLoader run() {
+                    return Thread.currentThread().getContextClassLoader();
+                }
+            });
+        } else {
+            return Thread.currentThread().getContextClassLoader();
+        }
+    }
+
+    /**
+     * <p>
+     * Sets the context class loader of the current thread.
+     * </p>
+     *
+     * @param classLoader
+     */
+    static void setContextClassLoader(final ClassLoader classLoader) {
+        SecurityManager sm = System.getSecurityManager();
+
+        if (sm != null) {
+            AccessController.doPrivileged(new PrivilegedAction<Void>() {
+                public Void run() {
+                    Thread.currentThread().setContextClassLoader(classLoader);
+                    return null;
+                }
+            });
+        } else {
+            Thread.currentThread().setContextClassLoader(classLoader);
+        }
+    }
+}
@@ -49,6 +49,10 @@ public interface WSTrustConstants {
 
     String BATCH_VALIDATE_REQUEST = BASE_NAMESPACE + "/BatchValidate";
 
+    String BATCH_RENEW_REQUEST = BASE_NAMESPACE + "/BatchRenew";
+
+    String BATCH_CANCEL_REQUEST = BASE_NAMESPACE + "/BatchCancel";
+
     // WS-Trust validation constants.
     String STATUS_TYPE = BASE_NAMESPACE + "/RSTR/Status";
 
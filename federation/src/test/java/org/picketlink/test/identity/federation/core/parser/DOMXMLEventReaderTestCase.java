@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.junit.Test;
+import org.picketlink.identity.federation.core.parsers.util.DOMXMLEventReader;
+import org.picketlink.identity.federation.core.parsers.util.StaxParserUtil;
+import org.picketlink.identity.federation.core.parsers.wst.WSTrustParser;
+import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.identity.federation.core.wstrust.WSTrustConstants;
+import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityToken;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Unit test the {@link DOMXMLEventReader}
+ *
+ * @since Mar 4, 2013
+ */
+public class DOMXMLEventReaderTestCase {
+
+    private static final String[] RESOURCES = { "parser/wst/wst-issue.xml", "parser/wst/wst-batch-issue.xml",
+            "parser/wst/wst-issue-public-key.xml", "parser/wst/wst-validate-saml.xml",
+            "parser/wst/wst-response-assertion-hok-combined.xml" };
+
+    @Test
+    public void testSameEventsAsStreamReader() throws Exception {
+        for (String resource : RESOURCES) {
+            List<String> expected = describe(StaxParserUtil.getXMLEventReader(getResource(resource)));
+            List<String> actual = describe(StaxParserUtil.getXMLEventReader(DocumentUtil.getDocument(getResource(resource))));
+
+            assertEquals(resource, expected, actual);
+        }
+    }
+
+    @Test
+    public void testNamespacesDeclaredOnAncestors() throws Exception {
+        Document document = DocumentUtil.getDocument("<a xmlns:p=\"urn:p\" xmlns=\"urn:default\"><p:b p:c=\"1\" d=\"2\">text</p:b></a>");
+        Element child = (Element) document.getDocumentElement().getFirstChild();
+
+        XMLEventReader reader = new DOMXMLEventReader(child);
+        StartElement startElement = StaxParserUtil.getNextStartElement(reader);
+
+        assertEquals("urn:p", startElement.getName().getNamespaceURI());
+        assertEquals("urn:p", startElement.getNamespaceContext().getNamespaceURI("p"));
+        assertEquals("urn:default", startElement.getNamespaceContext().getNamespaceURI(""));
+
+        Namespace namespace = (Namespace) startElement.getNamespaces().next();
+        assertEquals("p", namespace.getPrefix());
+        assertEquals("text", StaxParserUtil.getElementText(reader));
+        assertTrue(reader.nextEvent().isEndDocument());
+    }
+
+    @Test
+    public void testAncestorBindingsResolveQNameContent() throws Exception {
+        Document document = DocumentUtil.getDocument("<e:Envelope xmlns:e=\"urn:envelope\" "
+                + "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns:t=\"urn:types\">"
+                + "<e:Body><b xmlns:t=\"urn:inner\"><c xsi:type=\"t:Custom\"/></b></e:Body></e:Envelope>");
+        Element body = (Element) document.getDocumentElement().getFirstChild();
+        Element b = (Element) body.getFirstChild();
+
+        XMLEventReader reader = new DOMXMLEventReader(b.getFirstChild());
+        StartElement startElement = StaxParserUtil.getNextStartElement(reader);
+        NamespaceContext context = startElement.getNamespaceContext();
+
+        // the prefix of the xsi:type value is only declared on the ancestors, the closest declaration wins
+        assertEquals("urn:inner", context.getNamespaceURI("t"));
+        assertEquals("urn:envelope", context.getNamespaceURI("e"));
+        assertEquals("http://www.w3.org/2001/XMLSchema-instance", context.getNamespaceURI("xsi"));
+        assertEquals("t:Custom", startElement.getAttributeByName(
+                new QName("http://www.w3.org/2001/XMLSchema-instance", "type")).getValue());
+    }
+
+    @Test
+    public void testParseFromDOM() throws Exception {
+        Document document = DocumentUtil.getDocument(getResource("parser/wst/wst-issue.xml"));
+
+        RequestSecurityToken requestToken = (RequestSecurityToken) new WSTrustParser().parse(document);
+
+        assertEquals("testcontext", requestToken.getContext());
+        assertEquals(WSTrustConstants.ISSUE_REQUEST, requestToken.getRequestType().toASCIIString());
+    }
+
+    private InputStream getResource(String resource) {
+        return Thread.currentThread().getContextClassLoader().getResourceAsStream(resource);
+    }
+
+    /**
+     * Describes the elements, attributes and text of the events, leaving out whitespace and the namespace declarations
+     */
+    private List<String> describe(XMLEventReader reader) throws Exception {
+        List<String> events = new ArrayList<String>();
+
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+
+            if (event.isStartElement()) {
+                StartElement startElement = event.asStartElement();
+                Set<String> attributes = new TreeSet<String>();
+
+                for (Iterator<?> iterator = startElement.getAttributes(); iterator.hasNext();) {
+                    Attribute attribute = (Attribute) iterator.next();
+                    attributes.add(attribute.getName() + "=" + attribute.getValue());
+                }
+                events.add("start " + startElement.getName() + " " + attributes);
+            } else if (event.isEndElement()) {
+                events.add("end " + event.asEndElement().getName());
+            } else if (event.isCharacters() && event.asCharacters().getData().trim().length() > 0) {
+                events.add("text " + event.asCharacters().getData().trim());
+            }
+        }
+        return events;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.sts.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.junit.Test;
+import org.picketlink.identity.federation.core.ErrorCodes;
+import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
+import org.picketlink.identity.federation.core.sts.registry.DefaultTokenRegistry;
+import org.picketlink.identity.federation.core.sts.registry.DefaultTokenRegistry.OverflowPolicy;
+import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
+import org.picketlink.identity.federation.saml.v2.assertion.ConditionsType;
+
+/**
+ * Unit test the {@link DefaultTokenRegistry}
+ *
+ * @since Mar 4, 2013
+ */
+public class DefaultTokenRegistryUnitTestCase {
+
+    @Test
+    public void testExpiredTokensAreEvicted() throws Exception {
+        DefaultTokenRegistry registry = new DefaultTokenRegistry();
+
+        registry.addToken("everlasting", "token without conditions");
+        registry.addToken("expired", createAssertion("expired", -1000));
+
+        // the expired token is no longer returned, even before it is evicted.
+        assertNull(registry.getToken("expired"));
+        assertNotNull(registry.getToken("everlasting"));
+        assertEquals(2, registry.size());
+
+        assertEquals(1, registry.evictExpiredTokens());
+        assertEquals(1, registry.size());
+        assertEquals(1, registry.getExpiredCount());
+
+        // adding a token also evicts the expired tokens.
+        registry.addToken("expired2", createAssertion("expired2", -1000));
+        registry.addToken("valid", createAssertion("valid", 60000));
+        assertNotNull(registry.getToken("valid"));
+        assertEquals(2, registry.size());
+        assertEquals(2, registry.getExpiredCount());
+    }
+
+    @Test
+    public void testRenewedTokenIsRescheduled() throws Exception {
+        DefaultTokenRegistry registry = new DefaultTokenRegistry();
+        AssertionType assertion = createAssertion("renewed", -1000);
+
+        registry.addToken("renewed", assertion);
+
+        // renewing updates the conditions of the assertion and adds it again.
+        assertion.setConditions(createAssertion("renewed", 60000).getConditions());
+        registry.addToken("renewed", assertion);
+
+        assertEquals(0, registry.evictExpiredTokens());
+        assertEquals(1, registry.size());
+        assertNotNull(registry.getToken("renewed"));
+    }
+
+    @Test
+    public void testRemoveToken() throws Exception {
+        DefaultTokenRegistry registry = new DefaultTokenRegistry();
+
+        registry.addToken("removed", createAssertion("removed", -1000));
+        registry.removeToken("removed");
+
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.evictExpiredTokens());
+        assertEquals(0, registry.getExpiredCount());
+    }
+
+    @Test
+    public void testEvictEarliestExpiringWhenFull() throws Exception {
+        DefaultTokenRegistry registry = new DefaultTokenRegistry(2, OverflowPolicy.EVICT_EARLIEST_EXPIRING);
+
+        registry.addToken("late", createAssertion("late", 120000));
+        registry.addToken("early", createAssertion("early", 60000));
+        registry.addToken("new", createAssertion("new", 30000));
+
+        assertEquals(2, registry.size());
+        assertEquals(1, registry.getEvictedCount());
+        assertNull(registry.getToken("early"));
+        assertNotNull(registry.getToken("late"));
+        assertNotNull(registry.getToken("new"));
+    }
+
+    @Test
+    public void testRejectWhenFull() throws Exception {
+        DefaultTokenRegistry registry = new DefaultTokenRegistry(2, OverflowPolicy.REJECT);
+
+        registry.addToken("first", createAssertion("first", 60000));
+        registry.addToken("second", createAssertion("second", 60000));
+
+        try {
+            registry.addToken("third", createAssertion("third", 60000));
+            fail("The full registry should have rejected the token");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith(ErrorCodes.STS_TOKEN_REGISTRY_FULL));
+        }
+
+        assertEquals(2, registry.size());
+        assertEquals(1, registry.getRejectedCount());
+        assertNull(registry.getToken("third"));
+
+        // replacing a registered token doesn't need room.
+        registry.addToken("first", createAssertion("first", 60000));
+        assertEquals(2, registry.size());
+    }
+
+    private AssertionType createAssertion(String id, long validity) throws Exception {
+        XMLGregorianCalendar now = XMLTimeUtil.getIssueInstant();
+
+        AssertionType assertion = new AssertionType(id, now);
+        ConditionsType conditions = new ConditionsType();
+        conditions.setNotBefore(now);
+        conditions.setNotOnOrAfter(XMLTimeUtil.add(now, validity));
+        assertion.setConditions(conditions);
+        return assertion;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.sts.registry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.junit.After;
+import org.junit.Test;
+import org.picketlink.identity.federation.core.saml.v2.util.XMLTimeUtil;
+import org.picketlink.identity.federation.core.sts.registry.FileBasedTokenRegistry;
+import org.picketlink.identity.federation.saml.v2.assertion.AssertionType;
+import org.picketlink.identity.federation.saml.v2.assertion.ConditionsType;
+
+/**
+ * Unit test the {@link FileBasedTokenRegistry}
+ *
+ * @since Mar 4, 2013
+ */
+public class FileBasedTokenRegistryUnitTestCase {
+
+    private final String fileName = "token-" + System.nanoTime() + ".registry";
+
+    private TestRegistry registry;
+
+    @After
+    public void tearDown() {
+        if (registry != null)
+            registry.getRegistryFile().delete();
+    }
+
+    @Test
+    public void testExpiredTokensAreEvicted() throws Exception {
+        registry = new TestRegistry(fileName);
+
+        registry.addToken("everlasting", "token without conditions");
+        registry.addToken("expired", createAssertion("expired", -1000));
+
+        // the expired token is no longer returned, even before it is evicted.
+        assertNull(registry.getToken("expired"));
+        assertNotNull(registry.getToken("everlasting"));
+
+        assertEquals(1, registry.evictExpiredTokens());
+        assertEquals(0, registry.evictExpiredTokens());
+
+        // adding a token also evicts the expired tokens.
+        registry.addToken("expired2", createAssertion("expired2", -1000));
+        registry.addToken("valid", createAssertion("valid", 60000));
+        assertEquals(0, registry.evictExpiredTokens());
+
+        // the expiry is restored when the registry file is read again.
+        registry.addToken("expired3", createAssertion("expired3", -1000));
+        TestRegistry reloaded = new TestRegistry(fileName);
+        assertNotNull(reloaded.getToken("valid"));
+        assertNotNull(reloaded.getToken("everlasting"));
+        assertNull(reloaded.getToken("expired3"));
+        assertEquals(1, reloaded.evictExpiredTokens());
+    }
+
+    private AssertionType createAssertion(String id, long validity) throws Exception {
+        XMLGregorianCalendar now = XMLTimeUtil.getIssueInstant();
+
+        AssertionType assertion = new AssertionType(id, now);
+        ConditionsType conditions = new ConditionsType();
+        conditions.setNotBefore(now);
+        conditions.setNotOnOrAfter(XMLTimeUtil.add(now, validity));
+        assertion.setConditions(conditions);
+        return assertion;
+    }
+
+    private static class TestRegistry extends FileBasedTokenRegistry {
+
+        TestRegistry(String fileName) {
+            super(fileName);
+        }
+
+        File getRegistryFile() {
+            return registryFile;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.util;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.identity.federation.core.util.JAXPValidationUtil;
+import org.picketlink.identity.federation.core.util.SchemaManagerUtil;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+/**
+ * Unit test the {@link JAXPValidationUtil}
+ *
+ * @since Mar 4, 2013
+ */
+public class JAXPValidationUtilUnitTestCase {
+
+    /**
+     * The validation schema includes the XACML schemas, which are shipped with the XACML library rather than with this
+     * module. Without them on the classpath the schema can't be compiled, so the tests are skipped.
+     */
+    @Before
+    public void checkSchemasAvailable() {
+        for (String schema : SchemaManagerUtil.getSchemas()) {
+            assumeTrue(Thread.currentThread().getContextClassLoader().getResource(schema) != null);
+        }
+    }
+
+    @Test
+    public void testValidatorNotShared() throws Exception {
+        assertNotSame(JAXPValidationUtil.validator(), JAXPValidationUtil.validator());
+        assertSame(JAXPValidationUtil.getSchema(), JAXPValidationUtil.getSchema());
+    }
+
+    @Test
+    public void testConcurrentValidation() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+
+            // more tasks than the pool holds validators
+            for (int i = 0; i < 40; i++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        // DOM implementations are not thread safe, not even for reading, so each task parses its own
+                        JAXPValidationUtil.validate(getDocument("parser/saml2/saml2-logout-request-2.xml"));
+                        return Boolean.TRUE;
+                    }
+                }));
+            }
+
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testInvalidDocument() throws Exception {
+        Document document = DocumentUtil.getDocument("<samlp:LogoutRequest xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" "
+                + "Unknown=\"x\"/>");
+
+        try {
+            JAXPValidationUtil.validate(document);
+            fail("The document should not be valid");
+        } catch (SAXException expected) {
+        }
+
+        // the validator that failed went back to the pool, and still reports errors
+        for (int i = 0; i < 4; i++) {
+            try {
+                JAXPValidationUtil.validate(document);
+                fail("The document should not be valid");
+            } catch (SAXException expected) {
+            }
+        }
+    }
+
+    private Document getDocument(String resource) throws Exception {
+        InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(resource);
+        try {
+            return DocumentUtil.getDocument(is);
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2008, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.identity.federation.core.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+
+import org.junit.Test;
+import org.picketlink.identity.federation.core.saml.v2.util.DocumentUtil;
+import org.picketlink.identity.federation.core.util.XMLRuntime;
+import org.picketlink.identity.federation.core.util.XMLRuntime.PoolStatistics;
+import org.w3c.dom.Document;
+
+/**
+ * Unit test the {@link XMLRuntime}
+ *
+ * @since Mar 4, 2013
+ */
+public class XMLRuntimeUnitTestCase {
+
+    @Test
+    public void testFactoriesAreShared() throws Exception {
+        assertSame(XMLRuntime.getXMLInputFactory(), XMLRuntime.getXMLInputFactory());
+        assertSame(XMLRuntime.getXMLOutputFactory(), XMLRuntime.getXMLOutputFactory());
+        assertSame(XMLRuntime.getDocumentBuilderFactory(), XMLRuntime.getDocumentBuilderFactory());
+        assertSame(XMLRuntime.getTransformerFactory(), XMLRuntime.getTransformerFactory());
+        assertSame(XMLRuntime.getMessageFactory(), XMLRuntime.getMessageFactory());
+        assertSame(XMLRuntime.getSOAP12MessageFactory(), XMLRuntime.getSOAP12MessageFactory());
+    }
+
+    @Test
+    public void testDocumentBuilderIsReused() throws Exception {
+        DocumentBuilder builder = XMLRuntime.borrowDocumentBuilder();
+        XMLRuntime.releaseDocumentBuilder(builder);
+
+        long hits = XMLRuntime.getDocumentBuilderStatistics().getHits();
+
+        Document document = DocumentUtil.getDocument("<a xmlns=\"urn:test\"><b>text</b></a>");
+        assertEquals("urn:test", document.getDocumentElement().getNamespaceURI());
+
+        assertTrue(XMLRuntime.getDocumentBuilderStatistics().getHits() > hits);
+    }
+
+    @Test
+    public void testTransformerIsResetOnRelease() throws Exception {
+        Transformer transformer = XMLRuntime.borrowTransformer();
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        XMLRuntime.releaseTransformer(transformer);
+
+        String xml = DocumentUtil.getDocumentAsString(DocumentUtil.getDocument("<a><b>text</b></a>"));
+        assertEquals("<a><b>text</b></a>", xml);
+
+        PoolStatistics statistics = XMLRuntime.getTransformerStatistics();
+        assertNotNull(statistics);
+        assertTrue(statistics.getHits() > 0);
+    }
+
+    @Test
+    public void testExternalEntitiesAreNotResolved() throws Exception {
+        String xml = "<!DOCTYPE a [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><a>&e;</a>";
+
+        Document document = null;
+        try {
+            document = DocumentUtil.getDocument(xml);
+        } catch (Exception expected) {
+            // rejecting the document is as good as not resolving the entity
+            return;
+        }
+
+        assertFalse(document.getDocumentElement().getTextContent().contains("root:"));
+    }
+}
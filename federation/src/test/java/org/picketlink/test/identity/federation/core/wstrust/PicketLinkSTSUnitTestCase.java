@@ -26,9 +26,14 @@ import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.math.BigInteger;
 import java.net.URI;
 import java.net.URL;
+import java.net.URLClassLoader;
 import java.security.KeyFactory;
 import java.security.KeyStore;
 import java.security.Principal;
@@ -36,8 +41,13 @@ import java.security.cert.Certificate;
 import java.security.cert.CertificateFactory;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.xml.datatype.DatatypeConstants;
 import javax.xml.namespace.QName;
@@ -81,6 +91,7 @@ import org.picketlink.identity.federation.core.wstrust.plugins.saml.SAMLUtil;
 import org.picketlink.identity.federation.core.wstrust.wrappers.BaseRequestSecurityTokenResponse;
 import org.picketlink.identity.federation.core.wstrust.wrappers.Lifetime;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityToken;
+import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenCollection;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenResponse;
 import org.picketlink.identity.federation.core.wstrust.wrappers.RequestSecurityTokenResponseCollection;
 import org.picketlink.identity.federation.core.wstrust.writers.WSTrustRequestWriter;
@@ -794,6 +805,73 @@ public class PicketLinkSTSUnitTestCase {
         assertEquals("Unexpected status reason", "Validation failure: digital signature is invalid", status.getReason());
     }
 
+    /**
+     * <p>
+     * This test case issues a SAMLV2.0 assertion and validates it with {@code DirectDOMProcessing} enabled, so that the
+     * requests are parsed from the SOAP body DOM. The signature of the assertion must still verify, and must fail once the
+     * assertion is tampered with.
+     * </p>
+     *
+     * @throws Exception if an error occurs while running the test.
+     */
+    @Test
+    public void testInvokeSAML20ValidateWithDirectDOMProcessing() throws Exception {
+        TestSTS domService = new TestSTS() {
+            @Override
+            public STSConfiguration getConfiguration() throws ConfigurationException {
+                URL configURL = Thread.currentThread().getContextClassLoader().getResource("sts/picketlink-sts.xml");
+                STSType stsConfig;
+                try {
+                    stsConfig = (STSType) new STSConfigParser().parse(configURL.openStream());
+                } catch (Exception e) {
+                    throw new ConfigurationException(e);
+                }
+                stsConfig.setDirectDOMProcessing(true);
+                return new PicketLinkSTSConfiguration(stsConfig);
+            }
+        };
+        TestContext context = new TestContext();
+        context.setUserPrincipal(new TestPrincipal("jduke"));
+        domService.setContext(context);
+
+        // issue a signed assertion.
+        RequestSecurityToken request = this.createRequest("testcontext", WSTrustConstants.ISSUE_REQUEST,
+                SAMLUtil.SAML2_TOKEN_TYPE, null);
+        Source responseMessage = domService.invoke(this.createSourceFromRequest(request));
+        WSTrustParser parser = new WSTrustParser();
+        BaseRequestSecurityTokenResponse baseResponse = (BaseRequestSecurityTokenResponse) parser.parse(DocumentUtil
+                .getSourceAsStream(responseMessage));
+
+        this.validateSAMLAssertionResponse(baseResponse, "testcontext", "jduke", SAMLUtil.SAML2_BEARER_URI);
+        Element assertion = (Element) ((RequestSecurityTokenResponseCollection) baseResponse).getRequestSecurityTokenResponses()
+                .get(0).getRequestedSecurityToken().getAny().get(0);
+        assertNotNull("Assertion not signed", DocumentUtil.getChildElement(assertion, new QName(
+                JBossSAMLURIConstants.XMLDSIG_NSURI.get(), "Signature")));
+
+        // validate the signed assertion.
+        request = this.createRequest("validatecontext", WSTrustConstants.VALIDATE_REQUEST, WSTrustConstants.STATUS_TYPE, null);
+        ValidateTargetType validateTarget = new ValidateTargetType();
+        validateTarget.add(assertion);
+        request.setValidateTarget(validateTarget);
+
+        responseMessage = domService.invoke(this.createSourceFromRequest(request));
+        RequestSecurityTokenResponseCollection collection = (RequestSecurityTokenResponseCollection) parser.parse(DocumentUtil
+                .getSourceAsStream(responseMessage));
+        RequestSecurityTokenResponse response = collection.getRequestSecurityTokenResponses().get(0);
+        assertEquals("Unexpected response context", "validatecontext", response.getContext());
+        assertEquals("Unexpected status code", WSTrustConstants.STATUS_CODE_VALID, response.getStatus().getCode());
+
+        // tamper with the assertion, its signature must no longer verify.
+        assertion.setAttribute("Version", "X");
+        request.getValidateTarget().add(assertion);
+        responseMessage = domService.invoke(this.createSourceFromRequest(request));
+        collection = (RequestSecurityTokenResponseCollection) parser.parse(DocumentUtil.getSourceAsStream(responseMessage));
+        response = collection.getRequestSecurityTokenResponses().get(0);
+        assertEquals("Unexpected status code", WSTrustConstants.STATUS_CODE_INVALID, response.getStatus().getCode());
+        assertEquals("Unexpected status reason", "Validation failure: digital signature is invalid", response.getStatus()
+                .getReason());
+    }
+
     /**
      * <p>
      * This test case first generates a SAMLV1.1 assertion and then sends a WS-Trust renew message to the STS to get the
@@ -1326,6 +1404,180 @@ public class PicketLinkSTSUnitTestCase {
         }
     }
 
+    /**
+     * <p>
+     * This test case sends a WS-Trust batch issue request for two SAMLV2.0 assertions and then a batch validate request
+     * for the issued assertions, checking that a request of the batch that fails doesn't fail the other requests.
+     * </p>
+     *
+     * @throws Exception if an error occurs while running the test.
+     */
+    @Test
+    public void testInvokeBatchIssueAndValidate() throws Exception {
+        TestSTS batchService = this.createBatchService();
+
+        // create a batch issue request for two assertions.
+        RequestSecurityTokenCollection requestCollection = new RequestSecurityTokenCollection();
+        requestCollection.addRequestSecurityToken(this.createRequest("issuecontext1", WSTrustConstants.BATCH_ISSUE_REQUEST,
+                SAMLUtil.SAML2_TOKEN_TYPE, null));
+        requestCollection.addRequestSecurityToken(this.createRequest("issuecontext2", WSTrustConstants.BATCH_ISSUE_REQUEST,
+                SAMLUtil.SAML2_TOKEN_TYPE, null));
+
+        // invoke the token service.
+        Source responseMessage = batchService.invoke(this.createSourceFromRequest(requestCollection));
+        WSTrustParser parser = new WSTrustParser();
+        RequestSecurityTokenResponseCollection collection = (RequestSecurityTokenResponseCollection) parser.parse(DocumentUtil
+                .getSourceAsStream(responseMessage));
+        assertEquals("Unexpected number of responses", 2, collection.getRequestSecurityTokenResponses().size());
+
+        // now construct a batch validate request with the generated assertions and a request without a validate target.
+        requestCollection = new RequestSecurityTokenCollection();
+        for (int i = 0; i < 2; i++) {
+            RequestSecurityTokenResponse response = collection.getRequestSecurityTokenResponses().get(i);
+            assertEquals("Unexpected response context", "issuecontext" + (i + 1), response.getContext());
+            Element assertion = (Element) response.getRequestedSecurityToken().getAny().get(0);
+
+            RequestSecurityToken request = this.createRequest("validatecontext" + (i + 1),
+                    WSTrustConstants.BATCH_VALIDATE_REQUEST, WSTrustConstants.STATUS_TYPE, null);
+            ValidateTargetType validateTarget = new ValidateTargetType();
+            validateTarget.add(assertion);
+            request.setValidateTarget(validateTarget);
+            requestCollection.addRequestSecurityToken(request);
+        }
+        requestCollection.addRequestSecurityToken(this.createRequest("validatecontext3",
+                WSTrustConstants.BATCH_VALIDATE_REQUEST, WSTrustConstants.STATUS_TYPE, null));
+
+        // invoke the token service.
+        responseMessage = batchService.invoke(this.createSourceFromRequest(requestCollection));
+        collection = (RequestSecurityTokenResponseCollection) parser.parse(DocumentUtil.getSourceAsStream(responseMessage));
+
+        // validate the response contents: the responses follow the order of the requests.
+        assertEquals("Unexpected number of responses", 3, collection.getRequestSecurityTokenResponses().size());
+        for (int i = 0; i < 2; i++) {
+            RequestSecurityTokenResponse response = collection.getRequestSecurityTokenResponses().get(i);
+            assertEquals("Unexpected response context", "validatecontext" + (i + 1), response.getContext());
+            assertEquals("Unexpected token type", WSTrustConstants.STATUS_TYPE, response.getTokenType().toString());
+            assertEquals("Unexpected status code", WSTrustConstants.STATUS_CODE_VALID, response.getStatus().getCode());
+        }
+        RequestSecurityTokenResponse response = collection.getRequestSecurityTokenResponses().get(2);
+        assertEquals("Unexpected response context", "validatecontext3", response.getContext());
+        StatusType status = response.getStatus();
+        assertNotNull("Unexpected null status", status);
+        assertEquals("Unexpected status code", WSTrustConstants.STATUS_CODE_INVALID, status.getCode());
+        assertEquals("Unexpected status reason", "Request failure: the request could not be processed", status.getReason());
+    }
+
+    /**
+     * <p>
+     * This test case verifies that a batch with more requests than the configured maximum batch size is rejected.
+     * </p>
+     *
+     * @throws Exception if an error occurs while running the test.
+     */
+    @Test
+    public void testInvokeBatchSizeExceeded() throws Exception {
+        RequestSecurityTokenCollection requestCollection = new RequestSecurityTokenCollection();
+        for (int i = 0; i < 4; i++)
+            requestCollection.addRequestSecurityToken(this.createRequest("issuecontext" + i,
+                    WSTrustConstants.BATCH_ISSUE_REQUEST, SAMLUtil.SAML2_TOKEN_TYPE, null));
+
+        try {
+            this.createBatchService().invoke(this.createSourceFromRequest(requestCollection));
+            fail("An exception should have been raised by the security token service");
+        } catch (WebServiceException we) {
+            assertEquals("Unexpected exception message", ErrorCodes.STS_BATCH_SIZE_EXCEEDED + 3, we.getMessage());
+        }
+    }
+
+    /**
+     * <p>
+     * This test case verifies that the requests of a batch are processed by the executor set on the token service, with the
+     * context class loader of the calling thread.
+     * </p>
+     *
+     * @throws Exception if an error occurs while running the test.
+     */
+    @Test
+    public void testInvokeBatchOnExecutor() throws Exception {
+        final List<Thread> handlerThreads = Collections.synchronizedList(new ArrayList<Thread>());
+        final List<ClassLoader> handlerClassLoaders = Collections.synchronizedList(new ArrayList<ClassLoader>());
+
+        TestSTS batchService = new TestSTS("sts/picketlink-sts-batch.xml") {
+            @Override
+            public STSConfiguration getConfiguration() throws ConfigurationException {
+                URL configURL = Thread.currentThread().getContextClassLoader().getResource("sts/picketlink-sts-batch.xml");
+                STSType stsConfig;
+                try {
+                    stsConfig = (STSType) new STSConfigParser().parse(configURL.openStream());
+                } catch (Exception e) {
+                    throw new ConfigurationException(e);
+                }
+
+                return new PicketLinkSTSConfiguration(stsConfig) {
+                    @Override
+                    public WSTrustRequestHandler getRequestHandler() {
+                        final WSTrustRequestHandler handler = super.getRequestHandler();
+                        return (WSTrustRequestHandler) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                new Class<?>[] { WSTrustRequestHandler.class }, new InvocationHandler() {
+                                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                                        if ("issue".equals(method.getName())) {
+                                            handlerThreads.add(Thread.currentThread());
+                                            handlerClassLoaders.add(Thread.currentThread().getContextClassLoader());
+                                        }
+                                        try {
+                                            return method.invoke(handler, args);
+                                        } catch (InvocationTargetException e) {
+                                            throw e.getCause();
+                                        }
+                                    }
+                                });
+                    }
+                };
+            }
+        };
+        TestContext context = new TestContext();
+        context.setUserPrincipal(new TestPrincipal("jduke"));
+        batchService.setContext(context);
+
+        // the executor threads have no context class loader of their own.
+        ExecutorService executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable);
+                thread.setContextClassLoader(null);
+                return thread;
+            }
+        });
+        batchService.setBatchExecutor(executor);
+
+        RequestSecurityTokenCollection requestCollection = new RequestSecurityTokenCollection();
+        requestCollection.addRequestSecurityToken(this.createRequest("issuecontext1", WSTrustConstants.BATCH_ISSUE_REQUEST,
+                SAMLUtil.SAML2_TOKEN_TYPE, null));
+        requestCollection.addRequestSecurityToken(this.createRequest("issuecontext2", WSTrustConstants.BATCH_ISSUE_REQUEST,
+                SAMLUtil.SAML2_TOKEN_TYPE, null));
+
+        ClassLoader original = Thread.currentThread().getContextClassLoader();
+        ClassLoader callerClassLoader = new URLClassLoader(new URL[0], original);
+        Thread.currentThread().setContextClassLoader(callerClassLoader);
+        Source responseMessage;
+        try {
+            responseMessage = batchService.invoke(this.createSourceFromRequest(requestCollection));
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+            executor.shutdown();
+        }
+
+        RequestSecurityTokenResponseCollection collection = (RequestSecurityTokenResponseCollection) new WSTrustParser()
+                .parse(DocumentUtil.getSourceAsStream(responseMessage));
+        assertEquals("Unexpected number of responses", 2, collection.getRequestSecurityTokenResponses().size());
+        assertEquals("Unexpected response context", "issuecontext1", collection.getRequestSecurityTokenResponses().get(0)
+                .getContext());
+
+        assertEquals("Unexpected number of issued tokens", 2, handlerThreads.size());
+        assertFalse("Request processed by the calling thread", handlerThreads.contains(Thread.currentThread()));
+        for (ClassLoader classLoader : handlerClassLoaders)
+            assertEquals("Unexpected context class loader", callerClassLoader, classLoader);
+    }
+
     /**
      * <p>
      * Validates the contents of a WS-Trust response message that contains a custom token issued by the test
@@ -1654,6 +1906,29 @@ public class PicketLinkSTSUnitTestCase {
         return new DOMSource(result.getNode());
     }
 
+    private Source createSourceFromRequest(RequestSecurityTokenCollection requestCollection) throws Exception {
+        // write the request collection XML to a DOMResult
+        DOMResult result = new DOMResult(DocumentUtil.createDocument());
+        WSTrustRequestWriter writer = new WSTrustRequestWriter(result);
+        writer.write(requestCollection);
+        return new DOMSource(result.getNode());
+    }
+
+    /**
+     * <p>
+     * Creates a token service that uses the configuration with the batch settings.
+     * </p>
+     *
+     * @return the {@code TestSTS} instance.
+     */
+    private TestSTS createBatchService() {
+        TestSTS batchService = new TestSTS("sts/picketlink-sts-batch.xml");
+        TestContext context = new TestContext();
+        context.setUserPrincipal(new TestPrincipal("jduke"));
+        batchService.setContext(context);
+        return batchService;
+    }
+
     /**
      * <p>
      * Helper class that exposes the PicketLinkSTS methods as public for the tests to work.
@@ -1,6 +1,7 @@
 package org.picketlink.idm;
 
 import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.Partition;
 import org.picketlink.idm.model.Realm;
 import org.picketlink.idm.model.Role;
@@ -9,6 +10,10 @@ import org.picketlink.idm.model.User;
 /**
  * Storage for User, Group and Role instances to enable quick resolution of identity memberships.
  * 
+ * The lookup methods return instances that are not shared with the cache or with other callers,
+ * so that modifying a looked up instance never changes the cached entry.  Changes made through the
+ * IdentityManager invalidate the cached entry.
+ * 
  * @author Shane Bryzak
  */
 public interface IdentityCache {
@@ -67,8 +72,11 @@ public interface IdentityCache {
     void putRole(Partition partition, Role role);
 
     /**
+     * Removes the specified identity from the cache, so that the next lookup for it will be resolved
+     * by the identity store.  If the identity does not have a Partition set, it is removed from
+     * every Partition in which it has been cached.
      * 
      * @param identity
      */
-    //void invalidate(IdentityType identity);
+    void invalidate(IdentityType identity);
 }
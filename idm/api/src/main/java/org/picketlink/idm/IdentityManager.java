@@ -21,9 +21,12 @@
  */
 package org.picketlink.idm;
 
+import java.util.Collection;
+
 import org.picketlink.idm.config.IdentityConfiguration;
 import org.picketlink.idm.credential.Credential;
 import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.GroupRole;
 import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.Realm;
 import org.picketlink.idm.model.Role;
@@ -63,6 +66,30 @@ public interface IdentityManager {
 
     void remove(IdentityType identityType);
 
+    // Bulk operations
+
+    /**
+     * Persists all of the specified IdentityTypes. Stores that implement BulkIdentityStore
+     * persist them in a single batch, other stores persist them one at a time.
+     * 
+     * @param identityTypes
+     */
+    void addAll(Collection<? extends IdentityType> identityTypes);
+
+    /**
+     * Creates all of the specified memberships, each linking its member to its group and/or role.
+     * 
+     * @param memberships
+     */
+    void grantMemberships(Collection<? extends GroupRole> memberships);
+
+    /**
+     * Removes all of the specified memberships.
+     * 
+     * @param memberships
+     */
+    void revokeMemberships(Collection<? extends GroupRole> memberships);
+
     // User
 
     User getUser(String name);
@@ -97,7 +124,7 @@ public interface IdentityManager {
 
     // Query API
 
-    <T extends IdentityType> IdentityQuery<T> createQuery();
+    <T extends IdentityType> IdentityQuery<T> createQuery(Class<T> identityType);
 
     // Credential management
 
@@ -0,0 +1,21 @@
+package org.picketlink.idm.event;
+
+import java.util.List;
+
+/**
+ * Optional extension of EventBridge for receivers that can handle many events more efficiently
+ * than one at a time, for example by coalescing several cache invalidations into one or by
+ * writing a single audit record for a bulk import.
+ * 
+ * Asynchronous bridges deliver events to receivers implementing this interface in batches, and
+ * fall back to raiseEvent() for every other receiver.
+ */
+public interface BulkEventBridge extends EventBridge {
+
+    /**
+     * Raises all of the specified events, in the order in which they were raised
+     *
+     * @param events
+     */
+    void raiseEvents(List<Object> events);
+}
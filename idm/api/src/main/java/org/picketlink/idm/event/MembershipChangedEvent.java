@@ -0,0 +1,33 @@
+package org.picketlink.idm.event;
+
+import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Role;
+
+/**
+ * This event is raised when a membership is granted or revoked.  Either the group or the role
+ * may be null, depending on the kind of membership.
+ */
+public class MembershipChangedEvent extends AbstractBaseEvent {
+    private IdentityType member;
+    private Group group;
+    private Role role;
+
+    public MembershipChangedEvent(IdentityType member, Group group, Role role) {
+        this.member = member;
+        this.group = group;
+        this.role = role;
+    }
+
+    public IdentityType getMember() {
+        return member;
+    }
+
+    public Group getGroup() {
+        return group;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+}
@@ -32,7 +32,7 @@ import java.util.Map;
  * 
  * @author Shane Bryzak
  */
-public abstract class AbstractIdentityType implements IdentityType {
+public abstract class AbstractIdentityType implements IdentityType, Cloneable {
 
     private static final long serialVersionUID = 1L;
 
@@ -91,4 +91,35 @@ public abstract class AbstractIdentityType implements IdentityType {
     public void setPartition(Partition partition) {
         this.partition = partition;
     }
+
+    /**
+     * Returns a copy of this identity, including its creation date.  The dates and attributes of the copy may
+     * be changed without affecting this identity, although the attribute values themselves are shared.
+     */
+    @Override
+    public AbstractIdentityType clone() {
+        AbstractIdentityType copy;
+
+        try {
+            copy = (AbstractIdentityType) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+
+        copy.createdDate = this.createdDate != null ? new Date(this.createdDate.getTime()) : null;
+        copy.expirationDate = this.expirationDate != null ? new Date(this.expirationDate.getTime()) : null;
+        copy.attributes = new HashMap<String, Attribute<? extends Serializable>>();
+
+        for (Attribute<? extends Serializable> attribute : this.attributes.values()) {
+            copy.setAttributeCopy(attribute);
+        }
+
+        return copy;
+    }
+
+    private <T extends Serializable> void setAttributeCopy(Attribute<T> attribute) {
+        Attribute<T> copy = new Attribute<T>(attribute.getName(), attribute.getValue(), attribute.isReadOnly());
+        copy.setLoaded(attribute.isLoaded());
+        this.attributes.put(copy.getName(), copy);
+    }
 }
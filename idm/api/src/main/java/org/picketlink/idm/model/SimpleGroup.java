@@ -71,6 +71,17 @@ public class SimpleGroup extends AbstractIdentityType implements Group {
         return String.format("%s%s", KEY_PREFIX, getId());
     }
 
+    @Override
+    public SimpleGroup clone() {
+        SimpleGroup copy = (SimpleGroup) super.clone();
+
+        if (this.parentGroup instanceof AbstractIdentityType) {
+            copy.parentGroup = (Group) ((AbstractIdentityType) this.parentGroup).clone();
+        }
+
+        return copy;
+    }
+
     @Override
     public int hashCode() {
         return super.hashCode();
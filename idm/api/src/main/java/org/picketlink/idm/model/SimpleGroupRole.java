@@ -41,12 +41,9 @@ public class SimpleGroupRole implements GroupRole {
             throw new IllegalStateException("Member may not be null.");
         }
 
-        if (role == null) {
-            throw new IllegalStateException("Role may not be null.");
-        }
-
-        if (group == null) {
-            throw new IllegalStateException("Group may not be null.");
+        // a membership may be of a group only or of a role only
+        if (role == null && group == null) {
+            throw new IllegalStateException("Role and Group may not both be null.");
         }
 
         this.member = member;
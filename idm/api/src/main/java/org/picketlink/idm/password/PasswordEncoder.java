@@ -28,6 +28,10 @@ import org.picketlink.idm.model.User;
  * <p>
  * Represents different forms to encode user passwords.
  * </p>
+ * <p>
+ * Encoders that can verify passwords themselves and upgrade the stored passwords over time implement
+ * {@link UpgradablePasswordEncoder}.
+ * </p>
  *
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  *
@@ -44,4 +48,4 @@ public interface PasswordEncoder {
      * @return
      */
     String encodePassword(User user, String rawPassword);
-}
\ No newline at end of file
+}
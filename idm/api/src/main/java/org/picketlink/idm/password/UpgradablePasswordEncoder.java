@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketlink.idm.password;
+
+import org.picketlink.idm.model.User;
+
+/**
+ * <p>
+ * {@link PasswordEncoder} that verifies passwords itself and may be used to upgrade the stored passwords over time.
+ * After a password was successfully verified against its encoded form, {@link #requiresRehash(String)} indicates
+ * whether the stored value should be replaced by a fresh encoding of the raw password.
+ * </p>
+ * <p>
+ * Encoders that only implement {@link PasswordEncoder} are verified by encoding the raw password and comparing the
+ * result with the encoded password, and their passwords never require a rehash.
+ * </p>
+ */
+public interface UpgradablePasswordEncoder extends PasswordEncoder {
+
+    /**
+     * <p>
+     * Verifies the raw password of the given {@link User} against a value previously returned by
+     * {@link #encodePassword(User, String)}.
+     * </p>
+     *
+     * @param user
+     * @param rawPassword
+     * @param encodedPassword
+     * @return true if the raw password matches the encoded password
+     */
+    boolean verifyPassword(User user, String rawPassword, String encodedPassword);
+
+    /**
+     * <p>
+     * Indicates whether the encoded password was created with an algorithm or cost other than the ones currently
+     * configured, and should therefore be encoded again the next time the raw password is available.
+     * </p>
+     *
+     * @param encodedPassword
+     * @return
+     */
+    boolean requiresRehash(String encodedPassword);
+}
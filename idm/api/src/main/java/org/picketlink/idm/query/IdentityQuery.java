@@ -1,12 +1,16 @@
 package org.picketlink.idm.query;
 
 import java.util.List;
+import java.util.Map;
 
 import org.picketlink.idm.model.IdentityType;
 
 /**
  * Unified identity query API
  * 
+ * Parameter values are matched exactly. When more than one value is provided for the same parameter,
+ * an IdentityType matches if it has any of the values.
+ * 
  * @author Shane Bryzak
  */
 public interface IdentityQuery<T extends IdentityType> {
@@ -16,9 +20,54 @@ public interface IdentityQuery<T extends IdentityType> {
 
     IdentityQuery<T> setLimit(int limit);
 
+    /**
+     * Sets the number of results fetched from the identity store at a time by the iterator returned
+     * from getResultIterator()
+     * 
+     * @param fetchSize
+     * @return
+     */
+    IdentityQuery<T> setFetchSize(int fetchSize);
+
     IdentityQuery<T> setParameter(QueryParameter param, Object... value);
 
 //    IdentityQuery<T> setParameter(QueryParameter param, Operator operator, Object... value);
 
+    /**
+     * Returns the type of IdentityType returned by this query
+     * 
+     * @return
+     */
+    Class<T> getIdentityType();
+
+    Map<QueryParameter, Object[]> getParameters();
+
+    Object[] getParameter(QueryParameter param);
+
+    int getOffset();
+
+    /**
+     * Returns the maximum number of results, or 0 if the number of results is not limited
+     * 
+     * @return
+     */
+    int getLimit();
+
+    int getFetchSize();
+
+    /**
+     * Executes the query and returns the results, honouring the offset and limit
+     * 
+     * @return
+     */
     List<T> getResultList();
+
+    /**
+     * Returns an iterator over the results that executes the query lazily, fetching fetchSize
+     * results from the identity store at a time, so that large result sets are never held in memory
+     * all at once. The iterator must be closed if it isn't read until it is exhausted.
+     * 
+     * @return
+     */
+    QueryResultIterator<T> getResultIterator();
 }
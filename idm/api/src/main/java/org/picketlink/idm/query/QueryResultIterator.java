@@ -0,0 +1,18 @@
+package org.picketlink.idm.query;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Iterator over the results of an IdentityQuery. An identity store may hold on to resources, such as a
+ * directory connection, until the results have been exhausted, so callers that stop iterating early
+ * must close the iterator.
+ */
+public interface QueryResultIterator<T> extends Iterator<T>, Closeable {
+
+    /**
+     * Releases any resources held by the iterator. Closing an exhausted or closed iterator has no effect.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.idm.spi;
+
+import java.util.Collection;
+
+import org.picketlink.idm.model.GroupRole;
+import org.picketlink.idm.model.IdentityType;
+
+/**
+ * Optional extension of IdentityStore for stores that can persist many identities or memberships
+ * more efficiently than one at a time, for example by using a single flush or fewer round trips.
+ * 
+ * The IdentityManager falls back to the single item operations of IdentityStore for stores
+ * that don't implement this interface.
+ */
+public interface BulkIdentityStore {
+
+    /**
+     * Persists all of the specified IdentityTypes, in iteration order
+     * 
+     * @param identityTypes
+     */
+    void addAll(Collection<? extends IdentityType> identityTypes);
+
+    /**
+     * Creates all of the specified memberships
+     * 
+     * @param memberships
+     */
+    void createMemberships(Collection<? extends GroupRole> memberships);
+
+    /**
+     * Removes all of the specified memberships
+     * 
+     * @param memberships
+     */
+    void removeMemberships(Collection<? extends GroupRole> memberships);
+}
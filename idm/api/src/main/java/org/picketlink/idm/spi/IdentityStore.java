@@ -23,7 +23,6 @@ package org.picketlink.idm.spi;
 
 import java.io.Serializable;
 import java.util.List;
-import java.util.Map;
 
 import org.picketlink.idm.config.IdentityStoreConfiguration;
 import org.picketlink.idm.credential.Credential;
@@ -33,7 +32,7 @@ import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.GroupRole;
 import org.picketlink.idm.model.Role;
 import org.picketlink.idm.model.User;
-import org.picketlink.idm.query.QueryParameter;
+import org.picketlink.idm.query.IdentityQuery;
 
 /**
  * IdentityStore representation providing minimal SPI
@@ -59,7 +58,13 @@ public interface IdentityStore<T extends IdentityStoreConfiguration> {
                           all }
 
     /**
-     * Sets the configuration and context in which the IdentityStore will execute its operations
+     * Sets the configuration and context in which the IdentityStore will execute its operations.
+     * 
+     * A StoreFactory may share a single IdentityStore instance between concurrent invocations, in which
+     * case this method is called once per invocation with the same configuration and a new context.
+     * Implementations should therefore bind the context to the calling thread rather than to the instance.
+     * Once the invocation has completed this method is called again with a null context, which releases the
+     * context bound to the calling thread.
      * 
      * @param config
      * @param context
@@ -181,7 +186,16 @@ public interface IdentityStore<T extends IdentityStoreConfiguration> {
 
     // Identity query
 
-    List<IdentityType> fetchQueryResults(Map<QueryParameter,Object> parameters);
+    /**
+     * Returns the IdentityType instances matching the specified query. Implementations should evaluate
+     * the query parameters, offset and limit natively, rather than loading every identity and filtering
+     * them in memory. A parameter that can't be evaluated by the store should result in an
+     * UnsupportedOperationException.
+     * 
+     * @param identityQuery
+     * @return
+     */
+    <I extends IdentityType> List<I> fetchQueryResults(IdentityQuery<I> identityQuery);
 
     // Credential management
 
@@ -0,0 +1,46 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.idm.spi;
+
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.query.IdentityQuery;
+import org.picketlink.idm.query.QueryResultIterator;
+
+/**
+ * Optional extension of IdentityStore for stores that can walk the results of a query with a single
+ * server side cursor, instead of running the query again for every page that is read.
+ * 
+ * The query iterator falls back to fetching each page with IdentityStore.fetchQueryResults() for
+ * stores that don't implement this interface.
+ */
+public interface StreamingIdentityStore {
+
+    /**
+     * Returns an iterator over the results of the specified query, honouring its offset, limit and
+     * fetch size. Any resources held by the iterator are released once it has been exhausted or
+     * closed.
+     * 
+     * @param identityQuery
+     * @return
+     */
+    <I extends IdentityType> QueryResultIterator<I> iterateQueryResults(IdentityQuery<I> identityQuery);
+}
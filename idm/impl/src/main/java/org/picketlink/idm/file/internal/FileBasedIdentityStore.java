@@ -22,6 +22,7 @@
 
 package org.picketlink.idm.file.internal;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -32,6 +33,7 @@ import java.io.Serializable;
 import java.security.cert.CertificateEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -39,12 +41,14 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.config.IdentityStoreConfiguration;
 import org.picketlink.idm.credential.Credential;
 import org.picketlink.idm.credential.DigestCredential;
 import org.picketlink.idm.credential.DigestCredentialUtil;
 import org.picketlink.idm.credential.PasswordCredential;
 import org.picketlink.idm.credential.X509CertificateCredential;
+import org.picketlink.idm.file.internal.FileJournal.Operation;
 import org.picketlink.idm.internal.util.Base64;
 import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.Group;
@@ -52,7 +56,11 @@ import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.GroupRole;
 import org.picketlink.idm.model.Role;
 import org.picketlink.idm.model.User;
+import org.picketlink.idm.password.PasswordEncoder;
+import org.picketlink.idm.password.internal.PasswordEncoderUtil;
+import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
+import org.picketlink.idm.spi.BulkIdentityStore;
 import org.picketlink.idm.spi.IdentityStore;
 import org.picketlink.idm.spi.IdentityStoreInvocationContext;
 
@@ -61,11 +69,21 @@ import org.picketlink.idm.spi.IdentityStoreInvocationContext;
  * File based {@link IdentityStore} implementation. By default, each new instance recreate the data files. This behaviour can be
  * changed by configuring the <code>alwaysCreateFiles</code> property to false.
  * </p>
+ * <p>
+ * Changes are not written by rewriting the data files. Instead each change is appended to a {@link FileJournal}, which is
+ * replayed on top of the data files during initialization and compacted into them once it reaches
+ * <code>compactionThreshold</code> records.
+ * </p>
+ * <p>
+ * Passwords are stored as provided unless a {@link PasswordEncoder} is configured, in which case only their encoded form
+ * is stored. Stored passwords that the encoder reports as outdated are encoded again after each successful validation.
+ * Note that {@link DigestCredential} validation needs the plain text password, and therefore doesn't work with an encoder.
+ * </p>
  * 
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  * 
  */
-public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfiguration> {
+public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfiguration>, BulkIdentityStore {
     
     private static final String USER_CERTIFICATE_ATTRIBUTE = "usercertificate";
     private static final String USER_PASSWORD_ATTRIBUTE = "userPassword";
@@ -74,15 +92,32 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
     private File rolesFile = new File("/tmp/pl-idm-work/pl-idm-roles.db");
     private File groupsFile = new File("/tmp/pl-idm-work/pl-idm-groups.db");
     private File membershipsFile = new File("/tmp/pl-idm-work/pl-idm-memberships.db");
+    private File journalFile;
+
+    /**
+     * Number of journal records after which the journal is compacted into the snapshot files
+     */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 10000;
+
+    /**
+     * Number of journal records written between each sync to the disk. Every change is synced by default, batching the
+     * syncs is an opt-in trade of durability for throughput
+     */
+    public static final int DEFAULT_SYNC_BATCH_SIZE = 1;
+
+    private FileJournal journal;
+    private int compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    private int syncBatchSize = DEFAULT_SYNC_BATCH_SIZE;
 
     private Map<String, FileUser> users = new HashMap<String, FileUser>();
     private Map<String, Role> roles = new HashMap<String, Role>();
     private Map<String, FileGroup> groups = new HashMap<String, FileGroup>();
-    private List<FileMembership> memberships = new ArrayList<FileMembership>();
+    private FileMembershipIndex memberships = new FileMembershipIndex();
 
     private FileChangeListener changeListener = new FileChangeListener(this);
     private String workingDir;
     private boolean alwaysCreateFiles = true;
+    private PasswordEncoder passwordEncoder;
 
     public FileBasedIdentityStore() {
         initialize();
@@ -106,6 +141,8 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
         loadRoles();
         loadGroups();
         loadMemberships();
+
+        replayJournal();
     }
 
     /**
@@ -120,6 +157,9 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
         this.rolesFile = checkAndCreateFile(new File(workingDirectoryFile.getPath() + "/pl-idm-roles.db"));
         this.groupsFile = checkAndCreateFile(new File(workingDirectoryFile.getPath() + "/pl-idm-groups.db"));
         this.membershipsFile = checkAndCreateFile(new File(workingDirectoryFile.getPath() + "/pl-idm-memberships.db"));
+        this.journalFile = checkAndCreateFile(new File(workingDirectoryFile.getPath() + "/pl-idm-journal.log"));
+
+        this.journal = new FileJournal(this.journalFile, this.syncBatchSize);
     }
 
     /**
@@ -204,7 +244,13 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
             FileInputStream fis = new FileInputStream(membershipsFile);
             ois = new ObjectInputStream(fis);
 
-            this.memberships = (List<FileMembership>) ois.readObject();
+            List<FileMembership> persisted = (List<FileMembership>) ois.readObject();
+
+            this.memberships.clear();
+
+            for (FileMembership membership : persisted) {
+                this.memberships.add(membership);
+            }
         } catch (Exception e) {
         } finally {
             try {
@@ -266,68 +312,168 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
 
     /**
      * <p>
-     * Flush all changes made to users to the filesystem.
+     * Replays the changes recorded in the journal since the last compaction on top of the loaded snapshots.
      * </p>
      */
-    synchronized void flushUsers() {
-        try {
-            FileOutputStream fos = new FileOutputStream(this.usersFile);
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
-            oos.writeObject(this.users);
-            oos.close();
-        } catch (Exception e) {
-        }
+    private void replayJournal() {
+        this.journal.replay(new FileJournal.RecordHandler() {
+            @Override
+            public void handle(Operation operation, Serializable payload) {
+                applyRecord(operation, payload);
+            }
+        });
     }
 
     /**
      * <p>
-     * Flush all changes made to roles to the filesystem.
+     * Applies a single journal record to the in-memory state.
      * </p>
+     *
+     * @param operation
+     * @param payload
      */
-    synchronized void flushRoles() {
-        try {
-            FileOutputStream fos = new FileOutputStream(this.rolesFile);
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
-            oos.writeObject(this.roles);
-            oos.close();
-        } catch (Exception e) {
+    private void applyRecord(Operation operation, Serializable payload) {
+        switch (operation) {
+            case PUT_USER:
+                FileUser user = (FileUser) payload;
+                this.users.put(user.getId(), user);
+                break;
+            case REMOVE_USER:
+                this.users.remove(payload);
+                this.memberships.removeAll(FileMembershipIndex.getUserKey((String) payload));
+                break;
+            case PUT_ROLE:
+                Role role = (Role) payload;
+                this.roles.put(role.getName(), role);
+                break;
+            case REMOVE_ROLE:
+                this.roles.remove(payload);
+                this.memberships.removeAll(FileMembershipIndex.getRoleKey((String) payload));
+                break;
+            case PUT_GROUP:
+                FileGroup group = (FileGroup) payload;
+                this.groups.put(group.getName(), group);
+                break;
+            case REMOVE_GROUP:
+                this.groups.remove(payload);
+                this.memberships.removeAll(FileMembershipIndex.getGroupKey((String) payload));
+                break;
+            case ADD_MEMBERSHIP:
+                this.memberships.add((FileMembership) payload);
+                break;
+            case REMOVE_MEMBERSHIP:
+                FileMembership criteria = (FileMembership) payload;
+                this.memberships.remove(criteria.getMember(), criteria.getGroup(), criteria.getRole());
+                break;
+            default:
+                throw new IllegalStateException("Unsupported journal operation: " + operation);
         }
     }
 
     /**
      * <p>
-     * Flush all changes made to groups to the filesystem.
+     * Records a change in the journal, compacting it once it grows beyond <code>compactionThreshold</code> records.
      * </p>
+     *
+     * @param operation
+     * @param payload
      */
-    synchronized void flushGroups() {
-        try {
-            FileOutputStream fos = new FileOutputStream(this.groupsFile);
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
-            oos.writeObject(this.groups);
-            oos.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+    private synchronized void journal(Operation operation, Serializable payload) {
+        this.journal.append(operation, payload);
+
+        if (this.journal.getRecordCount() >= this.compactionThreshold) {
+            compact();
         }
     }
 
     /**
      * <p>
-     * Flush all changes made to memberships to the filesystem.
+     * Flush the changes made to the specified user to the filesystem.
+     * </p>
+     */
+    void flushUser(FileUser user) {
+        journal(Operation.PUT_USER, user);
+    }
+
+    /**
+     * <p>
+     * Flush the changes made to the specified role to the filesystem.
+     * </p>
+     */
+    void flushRole(FileRole role) {
+        journal(Operation.PUT_ROLE, role);
+    }
+
+    /**
+     * <p>
+     * Flush the changes made to the specified group to the filesystem.
+     * </p>
+     */
+    void flushGroup(FileGroup group) {
+        journal(Operation.PUT_GROUP, group);
+    }
+
+    /**
+     * <p>
+     * Writes the current state to the snapshot files and discards the journal. Each snapshot is written to a temporary
+     * file first and then renamed, so a crash during compaction leaves either the previous or the new snapshot in place
+     * together with a journal that can still be replayed on top of it.
      * </p>
      */
-    synchronized void flushMemberships() {
+    public synchronized void compact() {
+        this.journal.sync();
+
+        writeSnapshot(this.usersFile, (Serializable) this.users);
+        writeSnapshot(this.rolesFile, (Serializable) this.roles);
+        writeSnapshot(this.groupsFile, (Serializable) this.groups);
+        writeSnapshot(this.membershipsFile, (Serializable) this.memberships.getAll());
+
+        this.journal.reset();
+    }
+
+    /**
+     * <p>
+     * Forces all journal records written so far to the disk.
+     * </p>
+     */
+    public synchronized void sync() {
+        this.journal.sync();
+    }
+
+    private void writeSnapshot(File file, Serializable state) {
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = null;
+
         try {
-            FileOutputStream fos = new FileOutputStream(this.membershipsFile);
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
-            oos.writeObject(this.memberships);
+            fos = new FileOutputStream(tempFile);
+            ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(fos));
+            oos.writeObject(state);
+            oos.flush();
+            fos.getFD().sync();
             oos.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+            fos = null;
+        } catch (IOException e) {
+            throw new IdentityManagementException("Error writing snapshot [" + file + "].", e);
+        } finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        if (!tempFile.renameTo(file)) {
+            file.delete();
+
+            if (!tempFile.renameTo(file)) {
+                throw new IdentityManagementException("Error replacing snapshot [" + file + "].");
+            }
         }
     }
 
     @Override
-    public void add(IdentityType identityType) {
+    public synchronized void add(IdentityType identityType) {
         if (User.class.isInstance(identityType)) {
             User user = (User) identityType;
 
@@ -351,17 +497,23 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
 
             this.users.put(user.getId(), fileUser);
 
-            flushUsers();
+            flushUser(fileUser);
         } else if (Group.class.isInstance(identityType)) {
             Group group = (Group) identityType;
 
-            // FIXME
-            //this.groups.put(group.getName(), group);
+            FileGroup fileGroup;
+
+            if (!(group instanceof FileGroup)) {
+                fileGroup = new FileGroup(group.getName(), group.getParentGroup());
+            } else {
+                fileGroup = (FileGroup) group;
+            }
 
-            // FIXME
-            //group.setChangeListener(this.changeListener);
+            fileGroup.setChangeListener(this.changeListener);
 
-            flushGroups();
+            this.groups.put(fileGroup.getName(), fileGroup);
+
+            flushGroup(fileGroup);
         } else if (Role.class.isInstance(identityType)) {
             Role role = (Role) identityType;
 
@@ -370,37 +522,93 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
             // FIXME need to fix this?
             //role.setChangeListener(this.changeListener);
 
-            flushRoles();
+            journal(Operation.PUT_ROLE, role);
+        }
+    }
+
+    /**
+     * <p>
+     * Adds all the given identities, syncing the journal to the disk once after the last one is written.
+     * </p>
+     */
+    @Override
+    public synchronized void addAll(Collection<? extends IdentityType> identityTypes) {
+        beginBatch();
+
+        try {
+            for (IdentityType identityType : identityTypes) {
+                add(identityType);
+            }
+        } finally {
+            endBatch();
         }
     }
 
+    @Override
+    public synchronized void createMemberships(Collection<? extends GroupRole> memberships) {
+        beginBatch();
+
+        try {
+            for (GroupRole membership : memberships) {
+                createMembership(membership.getMember(), membership.getGroup(), membership.getRole());
+            }
+        } finally {
+            endBatch();
+        }
+    }
+
+    @Override
+    public synchronized void removeMemberships(Collection<? extends GroupRole> memberships) {
+        beginBatch();
+
+        try {
+            for (GroupRole membership : memberships) {
+                removeMembership(membership.getMember(), membership.getGroup(), membership.getRole());
+            }
+        } finally {
+            endBatch();
+        }
+    }
+
+    /**
+     * Suspends the periodic journal syncs until {@link #endBatch()} is called. Batches run while holding the store lock,
+     * as do all other writes, so only the records of the batch are written while the syncs are suspended.
+     */
+    private void beginBatch() {
+        this.journal.setSyncBatchSize(Integer.MAX_VALUE);
+    }
+
+    private void endBatch() {
+        this.journal.setSyncBatchSize(this.syncBatchSize);
+        this.journal.sync();
+    }
+
     @Override
     public void update(IdentityType identityType) {
         // TODO implement this
     }
 
     @Override
-    public void remove(IdentityType identityType) {
+    public synchronized void remove(IdentityType identityType) {
         if (User.class.isInstance(identityType)) {
             User user = (User) identityType;
 
-            this.users.remove(user.getId());
-
-            flushUsers();
+            applyRecord(Operation.REMOVE_USER, user.getId());
+            journal(Operation.REMOVE_USER, user.getId());
         } else if (Group.class.isInstance(identityType)) {
             Group group = (Group) identityType;
-            this.groups.remove(group.getName());
-            flushGroups();
+            applyRecord(Operation.REMOVE_GROUP, group.getName());
+            journal(Operation.REMOVE_GROUP, group.getName());
         } else if (Role.class.isInstance(identityType)) {
             Role role = (Role) identityType;
 
-            this.roles.remove(role.getName());
-            flushRoles();
+            applyRecord(Operation.REMOVE_ROLE, role.getName());
+            journal(Operation.REMOVE_ROLE, role.getName());
         }
     }
 
     @Override
-    public User getUser(String name) {
+    public synchronized User getUser(String name) {
         FileUser user = this.users.get(name);
 
         if (user != null) {
@@ -411,7 +619,7 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
     }
 
     @Override
-    public Group getGroup(String groupId) {
+    public synchronized Group getGroup(String groupId) {
         FileGroup group = this.groups.get(groupId);
 
         if (group != null) {
@@ -428,7 +636,7 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
     }
 
     @Override
-    public Role getRole(String role) {
+    public synchronized Role getRole(String role) {
         FileRole fileRole = (FileRole) this.roles.get(role);
 
         if (fileRole != null) {
@@ -439,70 +647,28 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
     }
 
     @Override
-    public GroupRole createMembership(IdentityType member, Group group, Role role) {
+    public synchronized GroupRole createMembership(IdentityType member, Group group, Role role) {
         FileMembership membership = new FileMembership(member, group, role);
+        FileMembership indexed = this.memberships.add(membership);
 
-        this.memberships.add(membership);
-
-        flushMemberships();
+        if (indexed == membership) {
+            journal(Operation.ADD_MEMBERSHIP, membership);
+        }
 
-        return membership;
+        return indexed;
     }
 
     @Override
-    public void removeMembership(IdentityType member, Group group, Role role) {
-        for (GroupRole membership : new ArrayList<FileMembership>(this.memberships)) {
-            boolean match = false;
-
-            if (role != null) {
-                match = membership.getRole() != null && role.equals(membership.getRole());
-            }
-
-            if (member != null) {
-                match = membership.getMember() != null && member.equals(membership.getMember());
-            }
-
-            if (group != null) {
-                match = membership.getGroup() != null && group.equals(membership.getGroup());
-            }
-
-            if (match) {
-                this.memberships.remove(membership);
-            }
+    public synchronized void removeMembership(IdentityType member, Group group, Role role) {
+        // only a removal that actually happened is recorded
+        if (this.memberships.remove(member, group, role)) {
+            journal(Operation.REMOVE_MEMBERSHIP, new FileMembership(member, group, role));
         }
-
-        flushMemberships();
     }
 
     @Override
-    public GroupRole getMembership(IdentityType member, Group group, Role role) {
-        for (GroupRole membership : new ArrayList<FileMembership>(this.memberships)) {
-            boolean match = false;
-
-            if (role != null) {
-                match = membership.getRole() != null && role.equals(membership.getRole());
-            } else {
-                match = true;
-            }
-
-            if (member != null) {
-                match = membership.getMember() != null && member.equals(membership.getMember());
-            } else {
-                match = true;
-            }
-
-            if (group != null) {
-                match = membership.getGroup() != null && group.equals(membership.getGroup());
-            } else {
-                match = true;
-            }
-
-            if (match) {
-                return membership;
-            }
-        }
-
-        return null;
+    public synchronized GroupRole getMembership(IdentityType member, Group group, Role role) {
+        return this.memberships.get(member, group, role);
     }
 /*
     @Override
@@ -742,63 +908,51 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
     }*/
 
     @Override
-    public void setAttribute(IdentityType identityType, 
+    public synchronized void setAttribute(IdentityType identityType, 
             Attribute<? extends Serializable> attribute) {
         if (identityType instanceof FileUser) {
             FileUser user = (FileUser) identityType;
             FileUser fileUser = (FileUser) getUser(user.getId());
 
             fileUser.setAttribute(attribute);
-
-            flushUsers();
         } else if (identityType instanceof FileRole) {
             FileRole role = (FileRole) identityType;
             FileRole fileRole = (FileRole) getRole(role.getName());
 
             fileRole.setAttribute(attribute);
-
-            flushRoles();
         } else if (identityType instanceof FileGroup) {
             FileGroup group = (FileGroup) identityType;
             FileGroup fileGroup = (FileGroup) getGroup(group.getName());
 
             fileGroup.setAttribute(attribute);
-
-            flushRoles();
         } else {
             throwsNotSupportedIdentityType(identityType);
         }
     }
 
     @Override
-    public void removeAttribute(IdentityType identityType, String name) {
+    public synchronized void removeAttribute(IdentityType identityType, String name) {
         if (identityType instanceof FileUser) {
             FileUser user = (FileUser) identityType;
             FileUser fileUser = (FileUser) getUser(user.getId());
 
             if (fileUser != null) {
-                this.users.remove(fileUser.getId());
+                fileUser.removeAttribute(name);
             }
-
-            flushUsers();
         } else if (identityType instanceof FileRole) {
             FileRole role = (FileRole) identityType;
             FileRole fileRole = (FileRole) getRole(role.getName());
 
             if (fileRole != null) {
-                this.roles.remove(fileRole.getName());
+                fileRole.removeAttribute(name);
             }
-
-            flushRoles();
         } else if (identityType instanceof FileGroup) {
             FileGroup group = (FileGroup) identityType;
             FileGroup fileGroup = (FileGroup) getGroup(group.getName());
 
             if (fileGroup != null) {
-                this.groups.remove(fileGroup.getName());
+                fileGroup.removeAttribute(name);
             }
-
-            flushRoles();
         } else {
             throwsNotSupportedIdentityType(identityType);
         }
@@ -877,9 +1031,32 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
             PasswordCredential passwordCredential = (PasswordCredential) credential;
 
             User storedUser = getUser(user.getId());
-            String storedPassword = storedUser.<String>getAttribute(USER_PASSWORD_ATTRIBUTE).getValue();
+            Attribute<String> passwordAttribute = storedUser.<String>getAttribute(USER_PASSWORD_ATTRIBUTE);
+            String storedPassword = passwordAttribute != null ? passwordAttribute.getValue() : null;
+
+            if (storedPassword == null) {
+                return false;
+            }
 
-            return storedPassword != null && storedPassword.equals(passwordCredential.getPassword());
+            if (this.passwordEncoder == null) {
+                return storedPassword.equals(passwordCredential.getPassword());
+            }
+
+            if (!PasswordEncoderUtil.verifyPassword(this.passwordEncoder, storedUser, passwordCredential.getPassword(),
+                    storedPassword)) {
+                return false;
+            }
+
+            // the raw password is only available now, so upgrade outdated hashes while we have it
+            if (PasswordEncoderUtil.requiresRehash(this.passwordEncoder, storedPassword)) {
+                String rehashed = this.passwordEncoder.encodePassword(storedUser, passwordCredential.getPassword());
+
+                synchronized (this) {
+                    storedUser.setAttribute(new Attribute<String>(USER_PASSWORD_ATTRIBUTE, rehashed));
+                }
+            }
+
+            return true;
         } else if (credential instanceof DigestCredential) {
             DigestCredential digestCredential = (DigestCredential) credential;
             
@@ -909,15 +1086,18 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
     }
 
     @Override
-    public void updateCredential(User user, Credential credential) {
+    public synchronized void updateCredential(User user, Credential credential) {
         if (credential instanceof PasswordCredential) {
             PasswordCredential passwordCredential = (PasswordCredential) credential;
 
             User storedUser = getUser(user.getId());
+            String password = passwordCredential.getPassword();
 
-            storedUser.setAttribute(new Attribute<String>(USER_PASSWORD_ATTRIBUTE, passwordCredential.getPassword()));
-            
-            flushUsers();
+            if (this.passwordEncoder != null) {
+                password = this.passwordEncoder.encodePassword(storedUser, password);
+            }
+
+            storedUser.setAttribute(new Attribute<String>(USER_PASSWORD_ATTRIBUTE, password));
         } else if (credential instanceof X509CertificateCredential) {
             X509CertificateCredential certCredential =  (X509CertificateCredential) credential;
             
@@ -934,6 +1114,21 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
         }
     }
 
+    public PasswordEncoder getPasswordEncoder() {
+        return this.passwordEncoder;
+    }
+
+    /**
+     * <p>
+     * Sets the {@link PasswordEncoder} used to encode stored passwords. If null, passwords are stored as provided.
+     * </p>
+     * 
+     * @param passwordEncoder
+     */
+    public void setPasswordEncoder(PasswordEncoder passwordEncoder) {
+        this.passwordEncoder = passwordEncoder;
+    }
+
     public String getWorkingDir() {
         return this.workingDir;
     }
@@ -959,6 +1154,46 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
     public void setAlwaysCreateFiles(boolean alwaysCreateFiles) {
         this.alwaysCreateFiles = alwaysCreateFiles;
     }
+
+    public int getCompactionThreshold() {
+        return this.compactionThreshold;
+    }
+
+    /**
+     * <p>
+     * Sets the number of journal records after which the journal is compacted into the snapshot files.
+     * </p>
+     * 
+     * @param compactionThreshold
+     */
+    public void setCompactionThreshold(int compactionThreshold) {
+        if (compactionThreshold <= 0) {
+            throw new IllegalArgumentException("compactionThreshold must be greater than zero");
+        }
+
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public int getSyncBatchSize() {
+        return this.syncBatchSize;
+    }
+
+    /**
+     * <p>
+     * Sets the number of journal records written between each sync to the disk. The default of 1 syncs every change.
+     * A larger value batches the syncs, and the changes written since the last sync are lost if the process or the host
+     * crashes, up to <code>syncBatchSize - 1</code> changes.
+     * </p>
+     * 
+     * @param syncBatchSize
+     */
+    public synchronized void setSyncBatchSize(int syncBatchSize) {
+        if (this.journal != null) {
+            this.journal.setSyncBatchSize(syncBatchSize);
+        }
+
+        this.syncBatchSize = syncBatchSize;
+    }
     
     private void searchForIdentityTypeAttributes(List<? extends IdentityType> users, Map<String, String[]> queryAttributes) {
         if (queryAttributes != null) {
@@ -1028,10 +1263,227 @@ public class FileBasedIdentityStore implements IdentityStore<IdentityStoreConfig
         return null;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
-    public List<IdentityType> fetchQueryResults(Map<QueryParameter, Object> parameters) {
-        // TODO Auto-generated method stub
-        return null;
+    public synchronized <I extends IdentityType> List<I> fetchQueryResults(IdentityQuery<I> identityQuery) {
+        List<I> result = new ArrayList<I>();
+
+        int offset = identityQuery.getOffset();
+        int limit = identityQuery.getLimit();
+        int skipped = 0;
+
+        for (IdentityType candidate : getQueryCandidates(identityQuery)) {
+            if (!identityQuery.getIdentityType().isInstance(candidate) || !matchesQuery(candidate, identityQuery)) {
+                continue;
+            }
+
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+
+            if (AbstractFileIdentityType.class.isInstance(candidate)) {
+                ((AbstractFileIdentityType) candidate).setChangeListener(this.changeListener);
+            }
+
+            result.add((I) candidate);
+
+            if (limit > 0 && result.size() >= limit) {
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>
+     * Returns the identity types that must be evaluated for the specified query. Parameters that identify the identity
+     * type directly are resolved with a lookup, otherwise all identity types of the queried type are returned.
+     * </p>
+     * 
+     * @param identityQuery
+     * @return
+     */
+    private Collection<? extends IdentityType> getQueryCandidates(IdentityQuery<?> identityQuery) {
+        Class<?> identityType = identityQuery.getIdentityType();
+
+        if (User.class.isAssignableFrom(identityType)) {
+            Object[] ids = identityQuery.getParameter(User.ID);
+
+            if (ids == null) {
+                return this.users.values();
+            }
+
+            List<IdentityType> candidates = new ArrayList<IdentityType>();
+
+            for (Object id : ids) {
+                addIfNotNull(candidates, this.users.get(String.valueOf(id)));
+            }
+
+            return candidates;
+        } else if (Group.class.isAssignableFrom(identityType)) {
+            // groups are stored by name, so an ID parameter is evaluated against the candidates by matchesQuery
+            Object[] names = identityQuery.getParameter(Group.NAME);
+
+            if (names == null) {
+                return this.groups.values();
+            }
+
+            List<IdentityType> candidates = new ArrayList<IdentityType>();
+
+            for (Object name : names) {
+                addIfNotNull(candidates, this.groups.get(String.valueOf(name)));
+            }
+
+            return candidates;
+        } else if (Role.class.isAssignableFrom(identityType)) {
+            Object[] names = identityQuery.getParameter(Role.NAME);
+
+            if (names == null) {
+                return this.roles.values();
+            }
+
+            List<IdentityType> candidates = new ArrayList<IdentityType>();
+
+            for (Object name : names) {
+                addIfNotNull(candidates, this.roles.get(String.valueOf(name)));
+            }
+
+            return candidates;
+        }
+
+        throw new UnsupportedOperationException("IdentityType not supported: " + identityType);
+    }
+
+    private void addIfNotNull(List<IdentityType> candidates, IdentityType identityType) {
+        if (identityType != null) {
+            candidates.add(identityType);
+        }
+    }
+
+    /**
+     * <p>
+     * Checks if the specified {@link IdentityType} matches all parameters of the query.
+     * </p>
+     * 
+     * @param identityType
+     * @param identityQuery
+     * @return
+     */
+    private boolean matchesQuery(IdentityType identityType, IdentityQuery<?> identityQuery) {
+        for (Entry<QueryParameter, Object[]> entry : identityQuery.getParameters().entrySet()) {
+            QueryParameter parameter = entry.getKey();
+            Object[] values = entry.getValue();
+
+            if (parameter == User.ID || parameter == Group.NAME || parameter == Role.NAME) {
+                // already resolved by getQueryCandidates
+                continue;
+            } else if (parameter == Group.ID) {
+                if (!Group.class.isInstance(identityType) || !matchesAny(((Group) identityType).getId(), toStrings(values))) {
+                    return false;
+                }
+            } else if (parameter == IdentityType.KEY) {
+                if (!matchesAny(identityType.getKey(), values)) {
+                    return false;
+                }
+            } else if (parameter == IdentityType.ENABLED) {
+                if (!matchesAny(identityType.isEnabled(), values)) {
+                    return false;
+                }
+            } else if (parameter == User.FIRST_NAME && User.class.isInstance(identityType)) {
+                if (!matchesAny(((User) identityType).getFirstName(), values)) {
+                    return false;
+                }
+            } else if (parameter == User.LAST_NAME && User.class.isInstance(identityType)) {
+                if (!matchesAny(((User) identityType).getLastName(), values)) {
+                    return false;
+                }
+            } else if (parameter == User.EMAIL && User.class.isInstance(identityType)) {
+                if (!matchesAny(((User) identityType).getEmail(), values)) {
+                    return false;
+                }
+            } else if (parameter == Group.PARENT && Group.class.isInstance(identityType)) {
+                Group parentGroup = ((Group) identityType).getParentGroup();
+
+                if (parentGroup == null || !matchesAny(parentGroup.getId(), toGroupIds(values))) {
+                    return false;
+                }
+            } else if (parameter == IdentityType.HAS_ROLE) {
+                if (!hasMembership(identityType, values, true)) {
+                    return false;
+                }
+            } else if (parameter == IdentityType.MEMBER_OF) {
+                if (!hasMembership(identityType, values, false)) {
+                    return false;
+                }
+            } else {
+                throw new UnsupportedOperationException("Query parameter not supported: " + parameter);
+            }
+        }
+
+        return true;
+    }
+
+    private boolean matchesAny(Object actual, Object[] values) {
+        for (Object value : values) {
+            if (value == null ? actual == null : value.equals(actual)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private Object[] toStrings(Object[] values) {
+        Object[] strings = new Object[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            strings[i] = values[i] == null ? null : String.valueOf(values[i]);
+        }
+
+        return strings;
+    }
+
+    private Object[] toGroupIds(Object[] values) {
+        Object[] ids = new Object[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            ids[i] = Group.class.isInstance(values[i]) ? ((Group) values[i]).getId() : values[i];
+        }
+
+        return ids;
+    }
+
+    /**
+     * <p>
+     * Checks if the specified {@link IdentityType} has a membership with any of the given roles or groups, which may be
+     * provided either as instances or by name. Memberships are resolved through the {@link FileMembershipIndex}.
+     * </p>
+     * 
+     * @param identityType
+     * @param values
+     * @param roles
+     * @return
+     */
+    private boolean hasMembership(IdentityType identityType, Object[] values, boolean roles) {
+        for (Object value : values) {
+            if (roles) {
+                Role role = Role.class.isInstance(value) ? (Role) value : this.roles.get(String.valueOf(value));
+
+                if (role != null && !this.memberships.find(identityType, null, role).isEmpty()) {
+                    return true;
+                }
+            } else {
+                Group group = Group.class.isInstance(value) ? (Group) value : this.groups.get(String.valueOf(value));
+
+                if (group != null && !this.memberships.find(identityType, group, null).isEmpty()) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
     }
 
     @Override
@@ -34,15 +34,15 @@ public class FileChangeListener {
         this.store = store;
     }
     
-    public void updateUsers() {
-        this.store.flushUsers();
+    public void updateUser(FileUser user) {
+        this.store.flushUser(user);
     }
 
-    public void updateRoles() {
-        this.store.flushRoles();
+    public void updateRole(FileRole role) {
+        this.store.flushRole(role);
     }
 
-    public void updateGroups() {
-        this.store.flushGroups();
+    public void updateGroup(FileGroup group) {
+        this.store.flushGroup(group);
     }
 }
@@ -89,7 +89,7 @@ public class FileGroup extends AbstractFileIdentityType implements Group {
      */
     @Override
     protected void update() {
-        super.changeListener.updateGroups();
+        super.changeListener.updateGroup(this);
     }
 
     @Override
@@ -0,0 +1,291 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.idm.file.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.zip.CRC32;
+
+import org.picketlink.idm.IdentityManagementException;
+
+/**
+ * <p>
+ * Append-only journal used by the {@link FileBasedIdentityStore} to persist changes incrementally. Each change is written as a
+ * single record holding the {@link Operation} and its payload, so the cost of a write is proportional to the size of the
+ * changed entry rather than to the size of the store.
+ * </p>
+ * <p>
+ * Records are framed as <code>[length][crc32][payload]</code>. During replay a truncated or corrupted record is treated as
+ * the end of the journal and the file is truncated at that point, which discards a write that was torn by a crash.
+ * </p>
+ * <p>
+ * Records are handed to the operating system as soon as they are appended, but the file is only forced to the disk once
+ * every <code>syncBatchSize</code> records, or when {@link #sync()} or {@link #close()} are called.
+ * </p>
+ */
+public class FileJournal {
+
+    /**
+     * <p>
+     * Operations that can be recorded by the journal.
+     * </p>
+     */
+    public enum Operation {
+        PUT_USER, REMOVE_USER, PUT_ROLE, REMOVE_ROLE, PUT_GROUP, REMOVE_GROUP, ADD_MEMBERSHIP, REMOVE_MEMBERSHIP
+    }
+
+    /**
+     * <p>
+     * Callback invoked for each record read during a replay.
+     * </p>
+     */
+    public interface RecordHandler {
+        void handle(Operation operation, Serializable payload);
+    }
+
+    private final File file;
+
+    private FileOutputStream fileOutputStream;
+    private DataOutputStream output;
+
+    private int syncBatchSize;
+    private int unsyncedRecords;
+    private int recordCount;
+
+    public FileJournal(File file, int syncBatchSize) {
+        this.file = file;
+        setSyncBatchSize(syncBatchSize);
+    }
+
+    /**
+     * <p>
+     * Reads all records from the journal, passing each one to the specified {@link RecordHandler}. This method must be called
+     * before any record is appended.
+     * </p>
+     *
+     * @param handler
+     */
+    public synchronized void replay(RecordHandler handler) {
+        long validLength = 0;
+        DataInputStream input = null;
+
+        try {
+            if (this.file.exists()) {
+                input = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+
+                while (true) {
+                    int length;
+                    long checksum;
+                    byte[] payload;
+
+                    try {
+                        length = input.readInt();
+                        checksum = input.readLong();
+
+                        if (length < 0 || validLength + 12 + length > this.file.length()) {
+                            break;
+                        }
+
+                        payload = new byte[length];
+                        input.readFully(payload);
+                    } catch (EOFException e) {
+                        break;
+                    }
+
+                    if (checksum(payload) != checksum) {
+                        break;
+                    }
+
+                    ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(payload));
+                    Operation operation = (Operation) ois.readObject();
+                    Serializable value = (Serializable) ois.readObject();
+
+                    handler.handle(operation, value);
+
+                    validLength += 12 + length;
+                    this.recordCount++;
+                }
+            }
+        } catch (IOException e) {
+            throw new IdentityManagementException("Error replaying journal [" + this.file + "].", e);
+        } catch (ClassNotFoundException e) {
+            throw new IdentityManagementException("Error replaying journal [" + this.file + "].", e);
+        } finally {
+            closeQuietly(input);
+        }
+
+        truncate(validLength);
+    }
+
+    /**
+     * <p>
+     * Appends a record to the journal.
+     * </p>
+     *
+     * @param operation
+     * @param payload
+     */
+    public synchronized void append(Operation operation, Serializable payload) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+
+            oos.writeObject(operation);
+            oos.writeObject(payload);
+            oos.close();
+
+            byte[] bytes = bos.toByteArray();
+
+            DataOutputStream out = getOutput();
+
+            out.writeInt(bytes.length);
+            out.writeLong(checksum(bytes));
+            out.write(bytes);
+            out.flush();
+
+            this.recordCount++;
+
+            if (++this.unsyncedRecords >= this.syncBatchSize) {
+                sync();
+            }
+        } catch (IOException e) {
+            throw new IdentityManagementException("Error writing to journal [" + this.file + "].", e);
+        }
+    }
+
+    /**
+     * <p>
+     * Forces all appended records to the disk.
+     * </p>
+     */
+    public synchronized void sync() {
+        if (this.fileOutputStream != null && this.unsyncedRecords > 0) {
+            try {
+                this.output.flush();
+                this.fileOutputStream.getFD().sync();
+            } catch (IOException e) {
+                throw new IdentityManagementException("Error syncing journal [" + this.file + "].", e);
+            }
+        }
+
+        this.unsyncedRecords = 0;
+    }
+
+    /**
+     * <p>
+     * Discards all records. Called once the state described by the journal has been written to a snapshot.
+     * </p>
+     */
+    public synchronized void reset() {
+        truncate(0);
+        this.recordCount = 0;
+    }
+
+    /**
+     * <p>
+     * Syncs and closes the journal. The journal is reopened by the next append.
+     * </p>
+     */
+    public synchronized void close() {
+        sync();
+        closeQuietly(this.output);
+        this.output = null;
+        this.fileOutputStream = null;
+    }
+
+    /**
+     * <p>
+     * Returns the number of records held by the journal.
+     * </p>
+     *
+     * @return
+     */
+    public synchronized int getRecordCount() {
+        return this.recordCount;
+    }
+
+    public synchronized void setSyncBatchSize(int syncBatchSize) {
+        if (syncBatchSize <= 0) {
+            throw new IllegalArgumentException("syncBatchSize must be greater than zero");
+        }
+
+        this.syncBatchSize = syncBatchSize;
+    }
+
+    private DataOutputStream getOutput() throws IOException {
+        if (this.output == null) {
+            this.fileOutputStream = new FileOutputStream(this.file, true);
+            this.output = new DataOutputStream(new BufferedOutputStream(this.fileOutputStream));
+        }
+
+        return this.output;
+    }
+
+    private void truncate(long length) {
+        close();
+
+        RandomAccessFile raf = null;
+
+        try {
+            raf = new RandomAccessFile(this.file, "rw");
+            raf.setLength(length);
+        } catch (IOException e) {
+            throw new IdentityManagementException("Error truncating journal [" + this.file + "].", e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.idm.file.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.User;
+
+/**
+ * <p>
+ * In-memory index of the memberships held by the {@link FileBasedIdentityStore}.
+ * </p>
+ * <p>
+ * Memberships are keyed by their (member, group, role) triple, so a lookup with all three values is a single hash lookup.
+ * Secondary indexes keyed by member, group and role are kept alongside, so partial lookups and the removal of all
+ * memberships referencing an identity only visit the memberships of that identity. Identities are indexed by key: users by
+ * id, groups and roles by name, matching how the store keys its own maps.
+ * </p>
+ */
+public class FileMembershipIndex {
+
+    private final Map<String, FileMembership> memberships = new LinkedHashMap<String, FileMembership>();
+
+    private final Map<String, Set<FileMembership>> byMember = new HashMap<String, Set<FileMembership>>();
+    private final Map<String, Set<FileMembership>> byGroup = new HashMap<String, Set<FileMembership>>();
+    private final Map<String, Set<FileMembership>> byRole = new HashMap<String, Set<FileMembership>>();
+
+    /**
+     * <p>
+     * Adds a membership to the index. If an equivalent membership is already indexed it is returned instead.
+     * </p>
+     *
+     * @param membership
+     * @return
+     */
+    public synchronized FileMembership add(FileMembership membership) {
+        String key = getMembershipKey(membership.getMember(), membership.getGroup(), membership.getRole());
+        FileMembership existing = this.memberships.get(key);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        this.memberships.put(key, membership);
+
+        addToIndex(this.byMember, getKey(membership.getMember()), membership);
+        addToIndex(this.byGroup, getKey(membership.getGroup()), membership);
+        addToIndex(this.byRole, getKey(membership.getRole()), membership);
+
+        return membership;
+    }
+
+    /**
+     * <p>
+     * Returns the membership with exactly the specified member, group and role, resolved with a single lookup. A null group
+     * or role only matches a membership without a group or role, as in the other identity stores.
+     * </p>
+     *
+     * @param member
+     * @param group
+     * @param role
+     * @return
+     */
+    public synchronized FileMembership get(IdentityType member, Group group, Role role) {
+        return this.memberships.get(getMembershipKey(member, group, role));
+    }
+
+    /**
+     * <p>
+     * Returns all memberships matching the specified criteria. Unlike {@link #get(IdentityType, Group, Role)}, null
+     * arguments match any value, which is how queries look up the memberships of an identity.
+     * </p>
+     *
+     * @param member
+     * @param group
+     * @param role
+     * @return
+     */
+    public synchronized List<FileMembership> find(IdentityType member, Group group, Role role) {
+        List<FileMembership> result = new ArrayList<FileMembership>();
+
+        for (FileMembership membership : getCandidates(member, group, role)) {
+            if (matches(membership, member, group, role)) {
+                result.add(membership);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>
+     * Removes the membership with exactly the specified member, group and role, if it is indexed.
+     * </p>
+     *
+     * @param member
+     * @param group
+     * @param role
+     * @return true if the membership was indexed and has been removed
+     */
+    public synchronized boolean remove(IdentityType member, Group group, Role role) {
+        FileMembership membership = get(member, group, role);
+
+        if (membership != null) {
+            removeMembership(membership);
+        }
+
+        return membership != null;
+    }
+
+    /**
+     * <p>
+     * Removes all memberships in which the identity with the specified key is the member, the group or the role.
+     * </p>
+     *
+     * @param key the key of the identity, as returned by {@link #getKey(IdentityType)}
+     */
+    public synchronized void removeAll(String key) {
+        Set<FileMembership> referencing = new LinkedHashSet<FileMembership>();
+
+        addAll(referencing, this.byMember.get(key));
+        addAll(referencing, this.byGroup.get(key));
+        addAll(referencing, this.byRole.get(key));
+
+        for (FileMembership membership : referencing) {
+            removeMembership(membership);
+        }
+    }
+
+    /**
+     * <p>
+     * Returns all indexed memberships.
+     * </p>
+     *
+     * @return
+     */
+    public synchronized List<FileMembership> getAll() {
+        return new ArrayList<FileMembership>(this.memberships.values());
+    }
+
+    public synchronized int size() {
+        return this.memberships.size();
+    }
+
+    public synchronized void clear() {
+        this.memberships.clear();
+        this.byMember.clear();
+        this.byGroup.clear();
+        this.byRole.clear();
+    }
+
+    /**
+     * <p>
+     * Returns the key used to index the specified identity, or null if no identity is specified.
+     * </p>
+     *
+     * @param identityType
+     * @return
+     */
+    public static String getKey(IdentityType identityType) {
+        if (identityType == null) {
+            return null;
+        }
+
+        if (User.class.isInstance(identityType)) {
+            return getUserKey(((User) identityType).getId());
+        } else if (Group.class.isInstance(identityType)) {
+            return getGroupKey(((Group) identityType).getName());
+        } else if (Role.class.isInstance(identityType)) {
+            return getRoleKey(((Role) identityType).getName());
+        }
+
+        return identityType.getKey();
+    }
+
+    public static String getUserKey(String id) {
+        return User.KEY_PREFIX + id;
+    }
+
+    public static String getGroupKey(String name) {
+        return Group.KEY_PREFIX + name;
+    }
+
+    public static String getRoleKey(String name) {
+        return Role.KEY_PREFIX + name;
+    }
+
+    /**
+     * <p>
+     * Returns the smallest secondary index bucket that can contain matches for the specified criteria.
+     * </p>
+     */
+    private Collection<FileMembership> getCandidates(IdentityType member, Group group, Role role) {
+        Collection<FileMembership> candidates = null;
+
+        if (member != null) {
+            candidates = smallest(candidates, this.byMember.get(getKey(member)));
+        }
+
+        if (group != null) {
+            candidates = smallest(candidates, this.byGroup.get(getKey(group)));
+        }
+
+        if (role != null) {
+            candidates = smallest(candidates, this.byRole.get(getKey(role)));
+        }
+
+        if (candidates == null) {
+            if (member != null || group != null || role != null) {
+                return Collections.emptyList();
+            }
+
+            return this.memberships.values();
+        }
+
+        return candidates;
+    }
+
+    private Collection<FileMembership> smallest(Collection<FileMembership> current, Set<FileMembership> bucket) {
+        if (bucket == null) {
+            return Collections.emptyList();
+        }
+
+        if (current == null || bucket.size() < current.size()) {
+            return bucket;
+        }
+
+        return current;
+    }
+
+    private boolean matches(FileMembership membership, IdentityType member, Group group, Role role) {
+        return matches(membership.getMember(), member) && matches(membership.getGroup(), group)
+                && matches(membership.getRole(), role);
+    }
+
+    private boolean matches(IdentityType value, IdentityType criteria) {
+        if (criteria == null) {
+            return true;
+        }
+
+        return value != null && getKey(criteria).equals(getKey(value));
+    }
+
+    private void removeMembership(FileMembership membership) {
+        this.memberships.remove(getMembershipKey(membership.getMember(), membership.getGroup(), membership.getRole()));
+
+        removeFromIndex(this.byMember, getKey(membership.getMember()), membership);
+        removeFromIndex(this.byGroup, getKey(membership.getGroup()), membership);
+        removeFromIndex(this.byRole, getKey(membership.getRole()), membership);
+    }
+
+    private String getMembershipKey(IdentityType member, Group group, Role role) {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(getKey(member)).append('\n');
+        builder.append(getKey(group)).append('\n');
+        builder.append(getKey(role));
+
+        return builder.toString();
+    }
+
+    private void addToIndex(Map<String, Set<FileMembership>> index, String key, FileMembership membership) {
+        if (key == null) {
+            return;
+        }
+
+        Set<FileMembership> bucket = index.get(key);
+
+        if (bucket == null) {
+            bucket = new LinkedHashSet<FileMembership>();
+            index.put(key, bucket);
+        }
+
+        bucket.add(membership);
+    }
+
+    private void removeFromIndex(Map<String, Set<FileMembership>> index, String key, FileMembership membership) {
+        if (key == null) {
+            return;
+        }
+
+        Set<FileMembership> bucket = index.get(key);
+
+        if (bucket != null) {
+            bucket.remove(membership);
+
+            if (bucket.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private void addAll(Set<FileMembership> target, Set<FileMembership> source) {
+        if (source != null) {
+            target.addAll(source);
+        }
+    }
+}
@@ -58,7 +58,7 @@ public class FileRole extends AbstractFileIdentityType implements Role {
 
     @Override
     protected void update() {
-        super.changeListener.updateRoles();
+        super.changeListener.updateRole(this);
     }
 
     @Override
@@ -120,7 +120,7 @@ public class FileUser extends AbstractFileIdentityType implements User {
     @Override
     protected void update() {
         if (super.changeListener != null) {
-            super.changeListener.updateUsers();
+            super.changeListener.updateUser(this);
         }
     }
     
@@ -0,0 +1,333 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.idm.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.picketlink.idm.event.BulkEventBridge;
+import org.picketlink.idm.event.EventBridge;
+
+/**
+ * <p>
+ * {@link EventBridge} that queues events and delivers them to its listeners on a pool of worker threads, so that
+ * listeners don't add to the latency of the store operation raising the event.
+ * </p>
+ * <p>
+ * Events are held in a bounded ring buffer of <code>capacity</code> events. Each worker takes up to
+ * <code>maxBatchSize</code> queued events at a time and delivers them to every listener, calling
+ * {@link BulkEventBridge#raiseEvents(List)} once per batch for listeners that support it, which gives them the chance
+ * to coalesce related events. Events are delivered in the order they were raised when a single worker is configured,
+ * which is the default. With several workers, batches may be delivered concurrently and out of order.
+ * </p>
+ * <p>
+ * What happens when the buffer is full is determined by the {@link OverflowPolicy}. Anything thrown by a listener,
+ * errors included, is passed to the uncaught exception handler of the delivering thread, without affecting the other
+ * listeners or the worker. A worker that is interrupted delivers the events already queued without waiting for more,
+ * and then terminates with its interrupt status set.
+ * </p>
+ */
+public class AsyncEventBridge implements EventBridge {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+    public static final long DEFAULT_OFFER_TIMEOUT = 1000;
+
+    /**
+     * How long an idle worker waits for an event before checking whether the bridge was shut down
+     */
+    private static final long POLL_INTERVAL = 100;
+
+    /**
+     * Determines what happens to an event raised while the buffer is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * The caller waits for free space, for up to <code>offerTimeout</code> milliseconds, after which the event
+         * is dropped
+         */
+        BLOCK,
+
+        /**
+         * The new event is dropped
+         */
+        DROP_NEWEST,
+
+        /**
+         * The oldest queued event is dropped to make space for the new event
+         */
+        DROP_OLDEST,
+
+        /**
+         * The new event is delivered synchronously on the caller's thread
+         */
+        CALLER_RUNS
+    }
+
+    private static final AtomicInteger bridgeCount = new AtomicInteger();
+
+    private final BlockingQueue<Object> buffer;
+    private final List<EventBridge> listeners = new CopyOnWriteArrayList<EventBridge>();
+
+    private final int maxBatchSize;
+    private final OverflowPolicy overflowPolicy;
+    private volatile long offerTimeout = DEFAULT_OFFER_TIMEOUT;
+
+    private final Thread[] workers;
+    private final CountDownLatch terminated;
+    private volatile boolean running = true;
+
+    private final AtomicLong raisedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+
+    public AsyncEventBridge() {
+        this(DEFAULT_CAPACITY, 1, DEFAULT_MAX_BATCH_SIZE, OverflowPolicy.BLOCK);
+    }
+
+    public AsyncEventBridge(int capacity, int workerCount, int maxBatchSize, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0 || workerCount <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("capacity, workerCount and maxBatchSize must be greater than zero");
+        }
+
+        if (overflowPolicy == null) {
+            throw new IllegalArgumentException("overflowPolicy may not be null");
+        }
+
+        this.buffer = new ArrayBlockingQueue<Object>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.overflowPolicy = overflowPolicy;
+        this.workers = new Thread[workerCount];
+        this.terminated = new CountDownLatch(workerCount);
+
+        String name = "picketlink-idm-events-" + bridgeCount.incrementAndGet() + "-";
+
+        for (int i = 0; i < workerCount; i++) {
+            this.workers[i] = new Thread(new Worker(), name + i);
+            this.workers[i].setDaemon(true);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * <p>
+     * Registers a listener for all events raised through this bridge.
+     * </p>
+     *
+     * @param listener
+     */
+    public void addListener(EventBridge listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener may not be null");
+        }
+
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(EventBridge listener) {
+        this.listeners.remove(listener);
+    }
+
+    @Override
+    public void raiseEvent(Object event) {
+        if (!this.running) {
+            throw new IllegalStateException("The event bridge has been shut down");
+        }
+
+        this.raisedCount.incrementAndGet();
+
+        if (this.buffer.offer(event)) {
+            return;
+        }
+
+        switch (this.overflowPolicy) {
+            case BLOCK:
+                try {
+                    if (!this.buffer.offer(event, this.offerTimeout, TimeUnit.MILLISECONDS)) {
+                        this.droppedCount.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    this.droppedCount.incrementAndGet();
+                }
+                break;
+            case DROP_NEWEST:
+                this.droppedCount.incrementAndGet();
+                break;
+            case DROP_OLDEST:
+                while (!this.buffer.offer(event)) {
+                    if (this.buffer.poll() != null) {
+                        this.droppedCount.incrementAndGet();
+                    }
+                }
+                break;
+            case CALLER_RUNS:
+                deliver(Collections.singletonList(event));
+                break;
+        }
+    }
+
+    /**
+     * <p>
+     * Stops accepting events. The events already queued are still delivered, after which the workers terminate.
+     * </p>
+     */
+    public void shutdown() {
+        this.running = false;
+    }
+
+    /**
+     * <p>
+     * Waits for the workers to deliver the remaining events after {@link #shutdown()} was invoked.
+     * </p>
+     *
+     * @param timeout
+     * @param unit
+     * @return true if the workers have terminated, false if the timeout elapsed first
+     * @throws InterruptedException
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.terminated.await(timeout, unit);
+    }
+
+    /**
+     * <p>
+     * Returns the number of events currently waiting to be delivered.
+     * </p>
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        return this.buffer.size();
+    }
+
+    public int getRemainingCapacity() {
+        return this.buffer.remainingCapacity();
+    }
+
+    public long getRaisedCount() {
+        return this.raisedCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return this.deliveredCount.get();
+    }
+
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    public long getBatchCount() {
+        return this.batchCount.get();
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+
+    public long getOfferTimeout() {
+        return this.offerTimeout;
+    }
+
+    /**
+     * <p>
+     * Sets the time in milliseconds that callers wait for free space when the buffer is full and the overflow policy is
+     * {@link OverflowPolicy#BLOCK}.
+     * </p>
+     *
+     * @param offerTimeout
+     */
+    public void setOfferTimeout(long offerTimeout) {
+        this.offerTimeout = offerTimeout;
+    }
+
+    private void deliver(List<Object> events) {
+        for (EventBridge listener : this.listeners) {
+            try {
+                if (listener instanceof BulkEventBridge) {
+                    ((BulkEventBridge) listener).raiseEvents(events);
+                } else {
+                    for (Object event : events) {
+                        listener.raiseEvent(event);
+                    }
+                }
+            } catch (Throwable t) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+            }
+        }
+
+        this.deliveredCount.addAndGet(events.size());
+        this.batchCount.incrementAndGet();
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            List<Object> batch = new ArrayList<Object>(maxBatchSize);
+
+            try {
+                while (running || !buffer.isEmpty()) {
+                    Object event;
+
+                    try {
+                        event = buffer.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+
+                    if (event != null) {
+                        deliverBatch(batch, event);
+                    }
+                }
+
+                if (Thread.currentThread().isInterrupted()) {
+                    Object event;
+
+                    while ((event = buffer.poll()) != null) {
+                        deliverBatch(batch, event);
+                    }
+                }
+            } finally {
+                terminated.countDown();
+            }
+        }
+
+        private void deliverBatch(List<Object> batch, Object first) {
+            batch.add(first);
+            buffer.drainTo(batch, maxBatchSize - 1);
+
+            deliver(Collections.unmodifiableList(new ArrayList<Object>(batch)));
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,524 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.idm.internal;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.cert.CertificateEncodingException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.picketlink.idm.credential.Credential;
+import org.picketlink.idm.credential.PasswordCredential;
+import org.picketlink.idm.credential.X509CertificateCredential;
+
+/**
+ * <p>
+ * Caches the outcome of credential validations, so that clients authenticating repeatedly with the same credential,
+ * such as API clients using Basic authentication, don't hit the identity store on every request.
+ * </p>
+ * <p>
+ * Entries are keyed on the realm, the user and a keyed hash of the credential, using a random key generated for each
+ * cache instance, so raw credentials are never retained. Successful and failed validations are cached with separate
+ * timeouts. Only {@link PasswordCredential} and {@link X509CertificateCredential} are cached; digest responses are
+ * bound to a nonce and are always passed through to the store.
+ * </p>
+ * <p>
+ * Each invalidation starts a new generation, and outcomes resolved in an earlier generation are not cached, so a
+ * validation that overlaps with a credential update never caches the outdated outcome.
+ * </p>
+ * <p>
+ * Failed attempts are counted per user within a fixed window of <code>lockoutPeriod</code> milliseconds. Once a user
+ * reaches <code>maxFailedAttempts</code>, further validations are rejected without consulting the store until the
+ * window ends. The counters are kept per realm and user, so failures of one user never affect another. At most
+ * <code>maxLockoutEntries</code> users are tracked at a time; counters from past windows are purged to make room, and
+ * once the limit is reached with live counters only, failures of further users are not counted until room is made.
+ * </p>
+ */
+public class CredentialValidationCache {
+
+    public static final long DEFAULT_TIMEOUT = 60 * 1000;
+    public static final long DEFAULT_NEGATIVE_TIMEOUT = 5 * 1000;
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    public static final int DEFAULT_MAX_FAILED_ATTEMPTS = 10;
+    public static final long DEFAULT_LOCKOUT_PERIOD = 5 * 60 * 1000;
+
+    private static final String HASH_ALGORITHM = "HmacSHA256";
+    private static final int HASH_LENGTH = 32;
+
+    private final ConcurrentMap<String, CacheEntry> entries = new ConcurrentHashMap<String, CacheEntry>();
+
+    private final ConcurrentMap<String, FailureCount> failures = new ConcurrentHashMap<String, FailureCount>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final byte[] hashKey = new byte[HASH_LENGTH];
+
+    private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                Mac mac = Mac.getInstance(HASH_ALGORITHM);
+                mac.init(new SecretKeySpec(hashKey, HASH_ALGORITHM));
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Could not initialize " + HASH_ALGORITHM, e);
+            }
+        }
+    };
+
+    private long timeout = DEFAULT_TIMEOUT;
+    private long negativeTimeout = DEFAULT_NEGATIVE_TIMEOUT;
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    private int maxFailedAttempts = DEFAULT_MAX_FAILED_ATTEMPTS;
+    private long lockoutPeriod = DEFAULT_LOCKOUT_PERIOD;
+    private int maxLockoutEntries = DEFAULT_MAX_ENTRIES;
+
+    public CredentialValidationCache() {
+        new SecureRandom().nextBytes(this.hashKey);
+    }
+
+    /**
+     * <p>
+     * Returns the cached outcome of validating the credential for the specified user, or null if there is no valid
+     * entry or the credential type is not cached.
+     * </p>
+     *
+     * @param realm
+     * @param userId
+     * @param credential
+     * @return
+     */
+    public Boolean lookup(String realm, String userId, Credential credential) {
+        String key = getKey(realm, userId, credential);
+
+        if (key == null) {
+            return null;
+        }
+
+        CacheEntry entry = this.entries.get(key);
+
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.isExpired(System.currentTimeMillis())) {
+            this.entries.remove(key, entry);
+            return null;
+        }
+
+        return entry.valid;
+    }
+
+    /**
+     * <p>
+     * Returns the current generation, which the caller reads before validating against the store and passes back to
+     * put() once the outcome is known.
+     * </p>
+     *
+     * @return
+     */
+    public long getGeneration() {
+        return this.generation.get();
+    }
+
+    /**
+     * <p>
+     * Caches the outcome of validating the credential for the specified user, unless the cache was invalidated since
+     * the specified generation.
+     * </p>
+     *
+     * @param realm
+     * @param userId
+     * @param credential
+     * @param valid
+     * @param generation
+     */
+    public void put(String realm, String userId, Credential credential, boolean valid, long generation) {
+        long timeout = valid ? this.timeout : this.negativeTimeout;
+
+        if (timeout <= 0 || generation != this.generation.get()) {
+            return;
+        }
+
+        String key = getKey(realm, userId, credential);
+
+        if (key == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (this.entries.size() >= this.maxEntries) {
+            purge(now);
+
+            // still full of live entries, so rather skip caching than grow without bounds
+            if (this.entries.size() >= this.maxEntries) {
+                return;
+            }
+        }
+
+        CacheEntry entry = new CacheEntry(valid, now + timeout);
+
+        this.entries.put(key, entry);
+
+        // an invalidation may have run while the entry was added
+        if (generation != this.generation.get()) {
+            this.entries.remove(key, entry);
+        }
+    }
+
+    /**
+     * <p>
+     * Removes the cached outcomes of all the credentials of the specified user. This must be invoked whenever the
+     * credentials of the user change.
+     * </p>
+     *
+     * @param realm
+     * @param userId
+     */
+    public void invalidate(String realm, String userId) {
+        this.generation.incrementAndGet();
+
+        String prefix = getUserKey(realm, userId) + "#";
+
+        for (Iterator<String> iterator = this.entries.keySet().iterator(); iterator.hasNext();) {
+            String key = iterator.next();
+
+            // the credential hash has a fixed length, which rules out users whose id merely starts with this one
+            if (key.startsWith(prefix) && key.length() == prefix.length() + HASH_LENGTH * 2) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Removes all cached outcomes and resets all failed attempt counters.
+     * </p>
+     */
+    public void clear() {
+        this.generation.incrementAndGet();
+        this.entries.clear();
+        this.failures.clear();
+    }
+
+    /**
+     * <p>
+     * Indicates whether the specified user has reached the maximum number of failed attempts within the current
+     * lockout period.
+     * </p>
+     *
+     * @param realm
+     * @param userId
+     * @return
+     */
+    public boolean isLockedOut(String realm, String userId) {
+        return this.maxFailedAttempts > 0 && getFailedAttempts(realm, userId) >= this.maxFailedAttempts;
+    }
+
+    /**
+     * <p>
+     * Returns the number of failed attempts of the specified user within the current lockout period.
+     * </p>
+     *
+     * @param realm
+     * @param userId
+     * @return
+     */
+    public int getFailedAttempts(String realm, String userId) {
+        FailureCount count = this.failures.get(getUserKey(realm, userId));
+        return count != null ? count.get(getWindow()) : 0;
+    }
+
+    /**
+     * <p>
+     * Records a failed validation for the specified user.
+     * </p>
+     *
+     * @param realm
+     * @param userId
+     */
+    public void recordFailure(String realm, String userId) {
+        String key = getUserKey(realm, userId);
+        long window = getWindow();
+        FailureCount count = this.failures.get(key);
+
+        if (count == null && this.failures.size() >= this.maxLockoutEntries) {
+            purgeFailures(window);
+
+            // still full of live counters, so rather skip counting than grow without bounds
+            if (this.failures.size() >= this.maxLockoutEntries) {
+                return;
+            }
+        }
+
+        // a counter of an earlier lockout period is replaced rather than reset, so that it can be counted lock-free
+        while (count == null || count.window < window) {
+            FailureCount created = new FailureCount(window);
+
+            if (count == null) {
+                count = this.failures.putIfAbsent(key, created);
+            } else if (this.failures.replace(key, count, created)) {
+                count = null;
+            } else {
+                count = this.failures.get(key);
+                continue;
+            }
+
+            if (count == null) {
+                count = created;
+            }
+        }
+
+        count.increment();
+    }
+
+    /**
+     * <p>
+     * Records a successful validation for the specified user, resetting its failed attempts.
+     * </p>
+     *
+     * @param realm
+     * @param userId
+     */
+    public void recordSuccess(String realm, String userId) {
+        this.failures.remove(getUserKey(realm, userId));
+    }
+
+    /**
+     * <p>
+     * Returns the number of entries currently held by the cache, including entries that have expired but have not
+     * yet been purged.
+     * </p>
+     *
+     * @return
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    public long getTimeout() {
+        return this.timeout;
+    }
+
+    /**
+     * <p>
+     * Sets the time in milliseconds that a successful validation is cached. A value of zero or less disables the
+     * caching of successful validations.
+     * </p>
+     *
+     * @param timeout
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public long getNegativeTimeout() {
+        return this.negativeTimeout;
+    }
+
+    /**
+     * <p>
+     * Sets the time in milliseconds that a failed validation is cached. A value of zero or less disables the
+     * caching of failed validations.
+     * </p>
+     *
+     * @param negativeTimeout
+     */
+    public void setNegativeTimeout(long negativeTimeout) {
+        this.negativeTimeout = negativeTimeout;
+    }
+
+    public int getMaxEntries() {
+        return this.maxEntries;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be greater than zero");
+        }
+
+        this.maxEntries = maxEntries;
+    }
+
+    public int getMaxFailedAttempts() {
+        return this.maxFailedAttempts;
+    }
+
+    /**
+     * <p>
+     * Sets the number of failed attempts after which a user is locked out. A value of zero or less disables the
+     * lockout.
+     * </p>
+     *
+     * @param maxFailedAttempts
+     */
+    public void setMaxFailedAttempts(int maxFailedAttempts) {
+        this.maxFailedAttempts = maxFailedAttempts;
+    }
+
+    public long getLockoutPeriod() {
+        return this.lockoutPeriod;
+    }
+
+    /**
+     * <p>
+     * Sets the length in milliseconds of the window in which failed attempts are counted.
+     * </p>
+     *
+     * @param lockoutPeriod
+     */
+    public void setLockoutPeriod(long lockoutPeriod) {
+        if (lockoutPeriod <= 0) {
+            throw new IllegalArgumentException("lockoutPeriod must be greater than zero");
+        }
+
+        this.lockoutPeriod = lockoutPeriod;
+    }
+
+    public int getMaxLockoutEntries() {
+        return this.maxLockoutEntries;
+    }
+
+    /**
+     * <p>
+     * Sets the maximum number of users whose failed attempts are tracked at a time.
+     * </p>
+     *
+     * @param maxLockoutEntries
+     */
+    public void setMaxLockoutEntries(int maxLockoutEntries) {
+        if (maxLockoutEntries <= 0) {
+            throw new IllegalArgumentException("maxLockoutEntries must be greater than zero");
+        }
+
+        this.maxLockoutEntries = maxLockoutEntries;
+    }
+
+    private void purge(long now) {
+        for (Iterator<Map.Entry<String, CacheEntry>> iterator = this.entries.entrySet().iterator(); iterator.hasNext();) {
+            if (iterator.next().getValue().isExpired(now)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void purgeFailures(long window) {
+        for (Iterator<Map.Entry<String, FailureCount>> iterator = this.failures.entrySet().iterator(); iterator.hasNext();) {
+            if (iterator.next().getValue().get(window) == 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private long getWindow() {
+        return System.currentTimeMillis() / this.lockoutPeriod;
+    }
+
+    private String getUserKey(String realm, String userId) {
+        return realm + "#" + userId;
+    }
+
+    /**
+     * Returns the cache key for the credential, or null if the credential type is not cached
+     */
+    private String getKey(String realm, String userId, Credential credential) {
+        byte[] material;
+
+        try {
+            if (credential instanceof PasswordCredential) {
+                material = ((PasswordCredential) credential).getPassword().getBytes("UTF-8");
+            } else if (credential instanceof X509CertificateCredential) {
+                material = ((X509CertificateCredential) credential).getCertificate().getEncoded();
+            } else {
+                return null;
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        } catch (CertificateEncodingException e) {
+            return null;
+        }
+
+        Mac mac = this.macs.get();
+
+        mac.update(credential.getClass().getName().getBytes());
+        byte[] hash = mac.doFinal(material);
+
+        StringBuilder key = new StringBuilder(getUserKey(realm, userId)).append('#');
+
+        for (byte b : hash) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+
+        return key.toString();
+    }
+
+    private static class CacheEntry {
+        private final boolean valid;
+        private final long expires;
+
+        CacheEntry(boolean valid, long expires) {
+            this.valid = valid;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now) {
+            return now >= this.expires;
+        }
+    }
+
+    private static class FailureCount {
+        final long window;
+        final AtomicInteger count = new AtomicInteger();
+
+        FailureCount(long window) {
+            this.window = window;
+        }
+
+        int get(long window) {
+            return this.window == window ? this.count.get() : 0;
+        }
+
+        void increment() {
+            int current;
+
+            do {
+                current = this.count.get();
+
+                if (current == Integer.MAX_VALUE) {
+                    return;
+                }
+            } while (!this.count.compareAndSet(current, current + 1));
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.idm.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.picketlink.idm.IdentityCache;
+import org.picketlink.idm.ldap.internal.LDAPEntry;
+import org.picketlink.idm.model.AbstractIdentityType;
+import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Partition;
+import org.picketlink.idm.model.Realm;
+import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.User;
+
+/**
+ * <p>
+ * Default {@link IdentityCache} implementation.
+ * </p>
+ * <p>
+ * Cached entries are held in regions, one for each combination of {@link Partition} and identity type. Each region is
+ * guarded by its own lock, so lookups against different realms or tiers never contend with each other. Regions are bounded
+ * by <code>maxEntries</code> and evict the least recently used entry once that bound is reached. Entries also expire after
+ * a configurable timeout, which may be set independently for users, groups and roles. A timeout of zero or less disables
+ * expiry for that type.
+ * </p>
+ * <p>
+ * The cache keeps its own copy of each identity it is given, and every lookup returns a new copy of it. Callers may
+ * therefore modify the instances they look up, for example before updating them, without the change being visible to any
+ * other caller or being kept by the cache if the update fails. Copies are made with the <code>clone()</code> method of
+ * {@link AbstractIdentityType} and {@link LDAPEntry}, identities of any other type are not cached.
+ * </p>
+ */
+public class DefaultIdentityCache implements IdentityCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    public static final long DEFAULT_TIMEOUT = 5 * 60 * 1000;
+
+    private enum EntryType { USER, GROUP, ROLE }
+
+    private final ConcurrentMap<String, Region> regions = new ConcurrentHashMap<String, Region>();
+
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    private long userTimeout = DEFAULT_TIMEOUT;
+    private long groupTimeout = DEFAULT_TIMEOUT;
+    private long roleTimeout = DEFAULT_TIMEOUT;
+
+    @Override
+    public User lookupUser(Realm realm, String id) {
+        return (User) lookup(realm, EntryType.USER, id);
+    }
+
+    @Override
+    public Group lookupGroup(Partition partition, String groupId) {
+        return (Group) lookup(partition, EntryType.GROUP, groupId);
+    }
+
+    @Override
+    public Role lookupRole(Partition partition, String name) {
+        return (Role) lookup(partition, EntryType.ROLE, name);
+    }
+
+    @Override
+    public void putUser(Realm realm, User user) {
+        if (user != null) {
+            put(realm, EntryType.USER, user.getId(), user, this.userTimeout);
+        }
+    }
+
+    @Override
+    public void putGroup(Partition partition, Group group) {
+        if (group != null) {
+            put(partition, EntryType.GROUP, group.getId(), group, this.groupTimeout);
+        }
+    }
+
+    @Override
+    public void putRole(Partition partition, Role role) {
+        if (role != null) {
+            put(partition, EntryType.ROLE, role.getName(), role, this.roleTimeout);
+        }
+    }
+
+    @Override
+    public void invalidate(IdentityType identity) {
+        EntryType type;
+        String id;
+
+        if (User.class.isInstance(identity)) {
+            type = EntryType.USER;
+            id = ((User) identity).getId();
+        } else if (Group.class.isInstance(identity)) {
+            type = EntryType.GROUP;
+            id = ((Group) identity).getId();
+        } else if (Role.class.isInstance(identity)) {
+            type = EntryType.ROLE;
+            id = ((Role) identity).getName();
+        } else {
+            return;
+        }
+
+        if (id == null) {
+            return;
+        }
+
+        if (identity.getPartition() != null) {
+            Region region = this.regions.get(getRegionKey(identity.getPartition(), type));
+
+            if (region != null) {
+                region.remove(id);
+            }
+        } else {
+            String suffix = "#" + type.name();
+
+            for (Map.Entry<String, Region> entry : this.regions.entrySet()) {
+                if (entry.getKey().endsWith(suffix)) {
+                    entry.getValue().remove(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Removes all cached entries for the specified {@link Partition}.
+     * </p>
+     *
+     * @param partition
+     */
+    public void invalidatePartition(Partition partition) {
+        for (EntryType type : EntryType.values()) {
+            this.regions.remove(getRegionKey(partition, type));
+        }
+    }
+
+    /**
+     * <p>
+     * Removes all cached entries.
+     * </p>
+     */
+    public void clear() {
+        this.regions.clear();
+    }
+
+    /**
+     * <p>
+     * Returns the total number of entries currently held by the cache, including entries that have expired but have not yet
+     * been purged.
+     * </p>
+     *
+     * @return
+     */
+    public int size() {
+        int size = 0;
+
+        for (Region region : this.regions.values()) {
+            size += region.size();
+        }
+
+        return size;
+    }
+
+    public int getMaxEntries() {
+        return this.maxEntries;
+    }
+
+    /**
+     * <p>
+     * Sets the maximum number of entries held for each identity type within a single {@link Partition}. Only regions created
+     * after this method is invoked are affected.
+     * </p>
+     *
+     * @param maxEntries
+     */
+    public void setMaxEntries(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be greater than zero");
+        }
+
+        this.maxEntries = maxEntries;
+    }
+
+    public long getUserTimeout() {
+        return this.userTimeout;
+    }
+
+    /**
+     * <p>
+     * Sets the time in milliseconds that a cached {@link User} remains valid.
+     * </p>
+     *
+     * @param userTimeout
+     */
+    public void setUserTimeout(long userTimeout) {
+        this.userTimeout = userTimeout;
+    }
+
+    public long getGroupTimeout() {
+        return this.groupTimeout;
+    }
+
+    /**
+     * <p>
+     * Sets the time in milliseconds that a cached {@link Group} remains valid.
+     * </p>
+     *
+     * @param groupTimeout
+     */
+    public void setGroupTimeout(long groupTimeout) {
+        this.groupTimeout = groupTimeout;
+    }
+
+    public long getRoleTimeout() {
+        return this.roleTimeout;
+    }
+
+    /**
+     * <p>
+     * Sets the time in milliseconds that a cached {@link Role} remains valid.
+     * </p>
+     *
+     * @param roleTimeout
+     */
+    public void setRoleTimeout(long roleTimeout) {
+        this.roleTimeout = roleTimeout;
+    }
+
+    private IdentityType lookup(Partition partition, EntryType type, String id) {
+        if (id == null) {
+            return null;
+        }
+
+        Region region = this.regions.get(getRegionKey(partition, type));
+        CacheEntry entry = region != null ? region.get(id) : null;
+
+        return entry != null ? entry.copy() : null;
+    }
+
+    private void put(Partition partition, EntryType type, String id, IdentityType identity, long timeout) {
+        if (id == null) {
+            return;
+        }
+
+        IdentityType copy = copy(identity);
+
+        if (copy == null) {
+            return;
+        }
+
+        String regionKey = getRegionKey(partition, type);
+        Region region = this.regions.get(regionKey);
+
+        if (region == null) {
+            Region newRegion = new Region(this.maxEntries);
+            region = this.regions.putIfAbsent(regionKey, newRegion);
+
+            if (region == null) {
+                region = newRegion;
+            }
+        }
+
+        long expires = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+
+        region.put(id, new CacheEntry(copy, expires));
+    }
+
+    /**
+     * Returns a copy of the identity, or null if it is of a type that can't be copied
+     */
+    private static IdentityType copy(IdentityType identity) {
+        if (identity instanceof AbstractIdentityType) {
+            return ((AbstractIdentityType) identity).clone();
+        } else if (identity instanceof LDAPEntry) {
+            return ((LDAPEntry) identity).clone();
+        }
+
+        return null;
+    }
+
+    /**
+     * <p>
+     * Partitions don't implement equals() and hashCode(), so regions are keyed on the partition key instead. A null
+     * partition is treated as the default realm.
+     * </p>
+     *
+     * @param partition
+     * @param type
+     * @return
+     */
+    private String getRegionKey(Partition partition, EntryType type) {
+        String partitionKey = partition != null ? partition.getKey() : Realm.KEY_PREFIX + Realm.DEFAULT_REALM;
+        return partitionKey + "#" + type.name();
+    }
+
+    private static class CacheEntry {
+        private final IdentityType identity;
+        private final long expires;
+
+        CacheEntry(IdentityType identity, long expires) {
+            this.identity = identity;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now) {
+            return now >= this.expires;
+        }
+
+        IdentityType copy() {
+            return DefaultIdentityCache.copy(this.identity);
+        }
+    }
+
+    /**
+     * A bounded, access ordered map of cache entries guarded by its own lock.
+     */
+    private static class Region {
+        private final LinkedHashMap<String, CacheEntry> entries;
+
+        Region(final int maxEntries) {
+            this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+
+        synchronized CacheEntry get(String id) {
+            CacheEntry entry = this.entries.get(id);
+
+            if (entry == null) {
+                return null;
+            }
+
+            if (entry.isExpired(System.currentTimeMillis())) {
+                this.entries.remove(id);
+                return null;
+            }
+
+            return entry;
+        }
+
+        synchronized void put(String id, CacheEntry entry) {
+            this.entries.put(id, entry);
+        }
+
+        synchronized void remove(String id) {
+            this.entries.remove(id);
+        }
+
+        synchronized int size() {
+            return this.entries.size();
+        }
+    }
+}
@@ -21,12 +21,16 @@
  */
 package org.picketlink.idm.internal;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.picketlink.idm.IdentityCache;
 import org.picketlink.idm.IdentityManager;
 import org.picketlink.idm.SecurityConfigurationException;
 import org.picketlink.idm.config.IdentityConfiguration;
@@ -34,14 +38,20 @@ import org.picketlink.idm.config.IdentityStoreConfiguration;
 import org.picketlink.idm.config.PartitionStoreConfiguration;
 import org.picketlink.idm.config.StoreConfiguration;
 import org.picketlink.idm.credential.Credential;
+import org.picketlink.idm.event.EventBridge;
+import org.picketlink.idm.event.MembershipChangedEvent;
 import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.GroupRole;
 import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Partition;
 import org.picketlink.idm.model.Realm;
 import org.picketlink.idm.model.Role;
 import org.picketlink.idm.model.Tier;
 import org.picketlink.idm.model.User;
 import org.picketlink.idm.password.PasswordEncoder;
 import org.picketlink.idm.query.IdentityQuery;
+import org.picketlink.idm.query.internal.DefaultIdentityQuery;
+import org.picketlink.idm.spi.BulkIdentityStore;
 import org.picketlink.idm.spi.IdentityStore;
 import org.picketlink.idm.spi.IdentityStore.Feature;
 import org.picketlink.idm.spi.IdentityStoreInvocationContext;
@@ -64,62 +74,90 @@ public class DefaultIdentityManager implements IdentityManager {
 
     private StoreFactory storeFactory = new DefaultStoreFactory();
 
+    private CredentialValidationCache credentialCache;
+
     private IdentityStoreInvocationContextFactory contextFactory;
 
-    private static Method METHOD_CREATE_CONTEXT;
+    /**
+     * The stores set up by the invocation running on the calling thread. Shared stores bind the invocation
+     * context to the thread, so they are released once the outermost invocation has completed.
+     */
+    private final ThreadLocal<List<IdentityStore<?>>> invocationStores = new ThreadLocal<List<IdentityStore<?>>>();
 
-    { 
-        try {
-            METHOD_CREATE_CONTEXT = DefaultIdentityManager.class.getDeclaredMethod("createContext");
-        } catch (Exception e) {
-            throw new RuntimeException("Error creating DefaultIdentityManager - createContext() method not available", e);
-        } 
-    };
+    /**
+     * The root manager holding the configuration, or this instance if it is not scoped
+     */
+    private final DefaultIdentityManager root;
 
-    @Override
-    public IdentityManager forRealm(final Realm realm) {
-        final DefaultIdentityManager proxied = this;
+    /**
+     * The Realm or Tier that this manager is scoped to, if any
+     */
+    private final Realm realm;
+    private final Tier tier;
+
+    /**
+     * Scoped managers are created once per combination of realm name and tier id and then reused
+     */
+    private final ConcurrentMap<ScopeKey, DefaultIdentityManager> scopedManagers;
 
-        return (IdentityManager) Proxy.newProxyInstance(this.getClass().getClassLoader(), 
-                new Class[] {IdentityManager.class}, 
-                new InvocationHandler(){
+    public DefaultIdentityManager() {
+        this.root = this;
+        this.realm = null;
+        this.tier = null;
+        this.scopedManagers = new ConcurrentHashMap<ScopeKey, DefaultIdentityManager>();
+    }
+
+    /**
+     * Creates a view of the specified root manager that scopes all of its operations to a Realm and/or Tier
+     */
+    private DefaultIdentityManager(DefaultIdentityManager root, Realm realm, Tier tier) {
+        this.root = root;
+        this.realm = realm;
+        this.tier = tier;
+        this.scopedManagers = null;
+    }
 
-                    @Override
-                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-                        if (method.equals(METHOD_CREATE_CONTEXT)) {
-                            IdentityStoreInvocationContext ctx = proxied.createContext();
-                            ctx.setRealm(realm);
-                            return ctx;
-                        }
-                        else {
-                            return method.invoke(proxied, args);
-                        }
-                    }});
+    @Override
+    public IdentityManager forRealm(Realm realm) {
+        if (realm == null) {
+            throw new IllegalArgumentException("Realm may not be null");
+        }
+
+        return getScopedManager(realm, this.tier);
     }
 
     @Override
-    public IdentityManager forTier(final Tier tier) {
-        final DefaultIdentityManager proxied = this;
+    public IdentityManager forTier(Tier tier) {
+        if (tier == null) {
+            throw new IllegalArgumentException("Tier may not be null");
+        }
 
-        return (IdentityManager) Proxy.newProxyInstance(this.getClass().getClassLoader(), 
-                new Class[] {IdentityManager.class}, 
-                new InvocationHandler(){
+        return getScopedManager(this.realm, tier);
+    }
+
+    private DefaultIdentityManager getScopedManager(Realm realm, Tier tier) {
+        ScopeKey key = new ScopeKey(realm != null ? realm.getName() : null, tier != null ? tier.getId() : null);
+        DefaultIdentityManager scoped = root.scopedManagers.get(key);
+
+        if (scoped == null) {
+            DefaultIdentityManager newScoped = new DefaultIdentityManager(root, realm, tier);
+            scoped = root.scopedManagers.putIfAbsent(key, newScoped);
+
+            if (scoped == null) {
+                scoped = newScoped;
+            }
+        }
 
-                    @Override
-                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-                        if (method.equals(METHOD_CREATE_CONTEXT)) {
-                            IdentityStoreInvocationContext ctx = proxied.createContext();
-                            ctx.setTier(tier);
-                            return ctx;
-                        }
-                        else {
-                            return method.invoke(proxied, args);
-                        }
-                    }});
+        return scoped;
     }
 
     @Override
     public void bootstrap(IdentityConfiguration identityConfig, IdentityStoreInvocationContextFactory contextFactory) {
+        if (root != this) {
+            root.bootstrap(identityConfig, contextFactory);
+            return;
+        }
+
         for (StoreConfiguration config : identityConfig.getConfiguredStores()) {
 
             config.init();
@@ -159,18 +197,19 @@ public class DefaultIdentityManager implements IdentityManager {
 
     @Override
     public void setIdentityStoreFactory(StoreFactory factory) {
-        this.storeFactory = factory;
+        root.storeFactory = factory;
     }
 
     private IdentityStore<?> getContextualStoreForFeature(IdentityStoreInvocationContext ctx, Feature feature) {
         String realm = (ctx.getRealm() != null) ? ctx.getRealm().getName() : Realm.DEFAULT_REALM;
 
-        if (!realmStores.containsKey(realm)) {
+        Map<Feature,IdentityStoreConfiguration> featureToStoreMap = root.realmStores.get(realm);
+
+        if (featureToStoreMap == null) {
             throw new SecurityException("The specified realm '" + realm + "' has not been configured."); 
         }
 
         IdentityStoreConfiguration config = null;
-        Map<Feature,IdentityStoreConfiguration> featureToStoreMap = realmStores.get(realm);
 
         if (featureToStoreMap.containsKey(feature)) {
             config = featureToStoreMap.get(feature);
@@ -181,20 +220,92 @@ public class DefaultIdentityManager implements IdentityManager {
                     feature.toString() + "] has not been configured.");
         }
 
-        IdentityStore<?> store = storeFactory.createIdentityStore(config, ctx);
+        IdentityStore<?> store = root.storeFactory.createIdentityStore(config, ctx);
         getContextFactory().initContextForStore(ctx, store);
+
+        List<IdentityStore<?>> stores = root.invocationStores.get();
+
+        if (stores != null && !stores.contains(store)) {
+            stores.add(store);
+        }
+
         return store;
     }
 
+    /**
+     * Starts an invocation on the calling thread, returning true if it is the outermost one. Invocations may
+     * nest, for example when an event listener uses the IdentityManager.
+     */
+    private boolean beginInvocation() {
+        if (root.invocationStores.get() != null) {
+            return false;
+        }
+
+        root.invocationStores.set(new ArrayList<IdentityStore<?>>());
+        return true;
+    }
+
+    /**
+     * Completes an invocation, releasing the context of every store set up on the calling thread if it was
+     * the outermost one
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void endInvocation(boolean outermost) {
+        if (!outermost) {
+            return;
+        }
+
+        List<IdentityStore<?>> stores = root.invocationStores.get();
+        root.invocationStores.remove();
+
+        for (IdentityStore store : stores) {
+            store.setup(store.getConfig(), null);
+        }
+    }
+
     private IdentityStoreInvocationContext createContext() {
-        return getContextFactory().createContext();
+        IdentityStoreInvocationContext ctx = getContextFactory().createContext();
+
+        if (realm != null) {
+            ctx.setRealm(realm);
+        }
+
+        if (tier != null) {
+            ctx.setTier(tier);
+        }
+
+        return ctx;
+    }
+
+    /**
+     * Returns the Partition that groups and roles are resolved against for the specified context,
+     * or null if neither a realm nor a tier has been set.
+     */
+    private Partition getContextPartition(IdentityStoreInvocationContext ctx) {
+        return ctx.getRealm() != null ? ctx.getRealm() : ctx.getTier();
+    }
+
+    private void invalidateCache(IdentityStoreInvocationContext ctx, IdentityType identityType) {
+        if (ctx.getCache() != null) {
+            ctx.getCache().invalidate(identityType);
+        }
     }
 
     @Override
     public void add(IdentityType identityType) {
-        Feature feature;
+        boolean outermost = beginInvocation();
+
+        try {
+            IdentityStoreInvocationContext ctx = createContext();
+
+            getContextualStoreForFeature(ctx, getCreateFeature(ctx, identityType)).add(identityType);
+        } finally {
+            endInvocation(outermost);
+        }
+    }
 
-        IdentityStoreInvocationContext ctx = createContext();
+    private Feature getCreateFeature(IdentityStoreInvocationContext ctx, IdentityType identityType) {
+        Feature feature;
 
         if (User.class.isInstance(identityType)) {
             feature = Feature.createUser;
@@ -215,95 +326,278 @@ public class DefaultIdentityManager implements IdentityManager {
             throw new IllegalArgumentException("Unsupported IdentityType");
         }
 
-        getContextualStoreForFeature(ctx, feature).add(identityType);
+        return feature;
     }
 
     @Override
-    public void update(IdentityType identityType) {
-        Feature feature;
+    public void addAll(Collection<? extends IdentityType> identityTypes) {
+        boolean outermost = beginInvocation();
 
-        IdentityStoreInvocationContext ctx = createContext();
+        try {
+            IdentityStoreInvocationContext ctx = createContext();
 
-        if (User.class.isInstance(identityType)) {
-            feature = Feature.updateUser;
-        } else if (Group.class.isInstance(identityType)) {
-            if (ctx.getRealm() != null && ctx.getTier() != null) {
-                throw new IllegalStateException("Ambiguous context state - Group may only be managed in either the " +
-                        "scope of a Realm or a Tier, however both have been set.");
-            }
+            // Group the identities by the store that creates them, keeping their order within each store
+            Map<IdentityStore<?>, List<IdentityType>> batches = new LinkedHashMap<IdentityStore<?>, List<IdentityType>>();
+            Map<Feature, IdentityStore<?>> stores = new HashMap<Feature, IdentityStore<?>>();
 
-            feature = Feature.updateGroup;
-        } else if (Role.class.isInstance(identityType)) {
-            if (ctx.getRealm() != null && ctx.getTier() != null) {
-                throw new IllegalStateException("Ambiguous context state - Role may only be managed in either the " +
-                        "scope of a Realm or a Tier, however both have been set.");
+            for (IdentityType identityType : identityTypes) {
+                Feature feature = getCreateFeature(ctx, identityType);
+                IdentityStore<?> store = stores.get(feature);
+
+                if (store == null) {
+                    store = getContextualStoreForFeature(ctx, feature);
+                    stores.put(feature, store);
+                }
+
+                List<IdentityType> batch = batches.get(store);
+
+                if (batch == null) {
+                    batch = new ArrayList<IdentityType>();
+                    batches.put(store, batch);
+                }
+
+                batch.add(identityType);
             }
 
-            feature = Feature.updateRole;
-        } else {
-            throw new IllegalArgumentException("Unsupported IdentityType");
+            for (Map.Entry<IdentityStore<?>, List<IdentityType>> entry : batches.entrySet()) {
+                IdentityStore<?> store = entry.getKey();
+
+                if (store instanceof BulkIdentityStore) {
+                    ((BulkIdentityStore) store).addAll(entry.getValue());
+                } else {
+                    for (IdentityType identityType : entry.getValue()) {
+                        store.add(identityType);
+                    }
+                }
+            }
+        } finally {
+            endInvocation(outermost);
         }
+    }
+
+    @Override
+    public void grantMemberships(Collection<? extends GroupRole> memberships) {
+        boolean outermost = beginInvocation();
+
+        try {
+            IdentityStoreInvocationContext ctx = createContext();
+            IdentityStore<?> store = getContextualStoreForFeature(ctx, Feature.createMembership);
+
+            if (store instanceof BulkIdentityStore) {
+                ((BulkIdentityStore) store).createMemberships(memberships);
+            } else {
+                for (GroupRole membership : memberships) {
+                    store.createMembership(membership.getMember(), membership.getGroup(), membership.getRole());
+                }
+            }
 
-        getContextualStoreForFeature(createContext(), feature).update(identityType);
+            for (GroupRole membership : memberships) {
+                raiseMembershipChanged(ctx, membership.getMember(), membership.getGroup(), membership.getRole());
+            }
+        } finally {
+            endInvocation(outermost);
+        }
     }
 
     @Override
-    public void remove(IdentityType identityType) {
-        Feature feature;
+    public void revokeMemberships(Collection<? extends GroupRole> memberships) {
+        boolean outermost = beginInvocation();
 
-        IdentityStoreInvocationContext ctx = createContext();
+        try {
+            IdentityStoreInvocationContext ctx = createContext();
+            IdentityStore<?> store = getContextualStoreForFeature(ctx, Feature.deleteMembership);
+
+            if (store instanceof BulkIdentityStore) {
+                ((BulkIdentityStore) store).removeMemberships(memberships);
+            } else {
+                for (GroupRole membership : memberships) {
+                    store.removeMembership(membership.getMember(), membership.getGroup(), membership.getRole());
+                }
+            }
 
-        if (User.class.isInstance(identityType)) {
-            feature = Feature.deleteUser;
-        } else if (Group.class.isInstance(identityType)) {
-            if (ctx.getRealm() != null && ctx.getTier() != null) {
-                throw new IllegalStateException("Ambiguous context state - Group may only be managed in either the " +
-                        "scope of a Realm or a Tier, however both have been set.");
+            for (GroupRole membership : memberships) {
+                raiseMembershipChanged(ctx, membership.getMember(), membership.getGroup(), membership.getRole());
             }
+        } finally {
+            endInvocation(outermost);
+        }
+    }
 
-            feature = Feature.deleteGroup;
-        } else if (Role.class.isInstance(identityType)) {
-            if (ctx.getRealm() != null && ctx.getTier() != null) {
-                throw new IllegalStateException("Ambiguous context state - Role may only be managed in either the " +
-                        "scope of a Realm or a Tier, however both have been set.");
+    /**
+     * Membership changes are raised here rather than by each store, so that listeners holding on to
+     * membership state are notified whichever store manages the membership
+     */
+    private void raiseMembershipChanged(IdentityStoreInvocationContext ctx, IdentityType member, Group group, Role role) {
+        EventBridge eventBridge = ctx.getEventBridge();
+
+        if (eventBridge != null) {
+            eventBridge.raiseEvent(new MembershipChangedEvent(member, group, role));
+        }
+    }
+
+    @Override
+    public void update(IdentityType identityType) {
+        boolean outermost = beginInvocation();
+
+        try {
+            Feature feature;
+
+            IdentityStoreInvocationContext ctx = createContext();
+
+            if (User.class.isInstance(identityType)) {
+                feature = Feature.updateUser;
+            } else if (Group.class.isInstance(identityType)) {
+                if (ctx.getRealm() != null && ctx.getTier() != null) {
+                    throw new IllegalStateException("Ambiguous context state - Group may only be managed in either the " +
+                            "scope of a Realm or a Tier, however both have been set.");
+                }
+
+                feature = Feature.updateGroup;
+            } else if (Role.class.isInstance(identityType)) {
+                if (ctx.getRealm() != null && ctx.getTier() != null) {
+                    throw new IllegalStateException("Ambiguous context state - Role may only be managed in either the " +
+                            "scope of a Realm or a Tier, however both have been set.");
+                }
+
+                feature = Feature.updateRole;
+            } else {
+                throw new IllegalArgumentException("Unsupported IdentityType");
             }
 
-            feature = Feature.deleteRole;
-        } else {
-            throw new IllegalArgumentException("Unsupported IdentityType");
+            getContextualStoreForFeature(ctx, feature).update(identityType);
+            invalidateCache(ctx, identityType);
+
+            if (User.class.isInstance(identityType)) {
+                invalidateCredentials(ctx, (User) identityType);
+            }
+        } finally {
+            endInvocation(outermost);
         }
+    }
+
+    @Override
+    public void remove(IdentityType identityType) {
+        boolean outermost = beginInvocation();
+
+        try {
+            Feature feature;
+
+            IdentityStoreInvocationContext ctx = createContext();
 
-        getContextualStoreForFeature(ctx, feature).remove(identityType);
+            if (User.class.isInstance(identityType)) {
+                feature = Feature.deleteUser;
+            } else if (Group.class.isInstance(identityType)) {
+                if (ctx.getRealm() != null && ctx.getTier() != null) {
+                    throw new IllegalStateException("Ambiguous context state - Group may only be managed in either the " +
+                            "scope of a Realm or a Tier, however both have been set.");
+                }
+
+                feature = Feature.deleteGroup;
+            } else if (Role.class.isInstance(identityType)) {
+                if (ctx.getRealm() != null && ctx.getTier() != null) {
+                    throw new IllegalStateException("Ambiguous context state - Role may only be managed in either the " +
+                            "scope of a Realm or a Tier, however both have been set.");
+                }
+
+                feature = Feature.deleteRole;
+            } else {
+                throw new IllegalArgumentException("Unsupported IdentityType");
+            }
+
+            getContextualStoreForFeature(ctx, feature).remove(identityType);
+            invalidateCache(ctx, identityType);
+
+            if (User.class.isInstance(identityType)) {
+                invalidateCredentials(ctx, (User) identityType);
+            }
+        } finally {
+            endInvocation(outermost);
+        }
     }
 
     @Override
     public User getUser(String name) {
-        return getContextualStoreForFeature(createContext(), Feature.readUser).getUser(name);
+        boolean outermost = beginInvocation();
+
+        try {
+            IdentityStoreInvocationContext ctx = createContext();
+            IdentityCache cache = ctx.getCache();
+
+            if (cache != null) {
+                User user = cache.lookupUser(ctx.getRealm(), name);
+                if (user != null) {
+                    return user;
+                }
+            }
+
+            User user = getContextualStoreForFeature(ctx, Feature.readUser).getUser(name);
+
+            if (cache != null && user != null) {
+                cache.putUser(ctx.getRealm(), user);
+            }
+
+            return user;
+        } finally {
+            endInvocation(outermost);
+        }
     }
 
     @Override
     public Group getGroup(String groupId) {
-        IdentityStoreInvocationContext ctx = createContext();
-        if (ctx.getRealm() != null && ctx.getTier() != null) {
-            throw new IllegalStateException("Ambiguous context state - Group may only be managed in either the " +
-                    "scope of a Realm or a Tier, however both have been set.");
+        boolean outermost = beginInvocation();
+
+        try {
+            IdentityStoreInvocationContext ctx = createContext();
+            if (ctx.getRealm() != null && ctx.getTier() != null) {
+                throw new IllegalStateException("Ambiguous context state - Group may only be managed in either the " +
+                        "scope of a Realm or a Tier, however both have been set.");
+            }
+            IdentityCache cache = ctx.getCache();
+
+            if (cache != null) {
+                Group group = cache.lookupGroup(getContextPartition(ctx), groupId);
+                if (group != null) {
+                    return group;
+                }
+            }
+
+            Group group = getContextualStoreForFeature(ctx, Feature.readGroup).getGroup(groupId);
+
+            if (cache != null && group != null) {
+                cache.putGroup(getContextPartition(ctx), group);
+            }
+
+            return group;
+        } finally {
+            endInvocation(outermost);
         }
-        return getContextualStoreForFeature(ctx, Feature.readGroup).getGroup(groupId);
     }
 
     @Override
     public Group getGroup(String groupName, Group parent) {
-        IdentityStoreInvocationContext ctx = createContext();
-        if (ctx.getRealm() != null && ctx.getTier() != null) {
-            throw new IllegalStateException("Ambiguous context state - Group may only be managed in either the " +
-                    "scope of a Realm or a Tier, however both have been set.");
+        boolean outermost = beginInvocation();
+
+        try {
+            IdentityStoreInvocationContext ctx = createContext();
+            if (ctx.getRealm() != null && ctx.getTier() != null) {
+                throw new IllegalStateException("Ambiguous context state - Group may only be managed in either the " +
+                        "scope of a Realm or a Tier, however both have been set.");
+            }
+            return getContextualStoreForFeature(ctx, Feature.readGroup).getGroup(groupName, parent);
+        } finally {
+            endInvocation(outermost);
         }
-        return getContextualStoreForFeature(ctx, Feature.readGroup).getGroup(groupName, parent);
     }
 
     public boolean isMember(IdentityType identityType, Group group) {
-        // FIXME implement this
-        return false;
+        boolean outermost = beginInvocation();
+
+        try {
+            return getContextualStoreForFeature(createContext(), Feature.readMembership)
+                    .getMembership(identityType, group, null) != null;
+        } finally {
+            endInvocation(outermost);
+        }
     }
 
     @Override
@@ -318,12 +612,33 @@ public class DefaultIdentityManager implements IdentityManager {
 
     @Override
     public Role getRole(String name) {
-        IdentityStoreInvocationContext ctx = createContext();
-        if (ctx.getRealm() != null && ctx.getTier() != null) {
-            throw new IllegalStateException("Ambiguous context state - Role may only be managed in either the " +
-                    "scope of a Realm or a Tier, however both have been set.");
+        boolean outermost = beginInvocation();
+
+        try {
+            IdentityStoreInvocationContext ctx = createContext();
+            if (ctx.getRealm() != null && ctx.getTier() != null) {
+                throw new IllegalStateException("Ambiguous context state - Role may only be managed in either the " +
+                        "scope of a Realm or a Tier, however both have been set.");
+            }
+            IdentityCache cache = ctx.getCache();
+
+            if (cache != null) {
+                Role role = cache.lookupRole(getContextPartition(ctx), name);
+                if (role != null) {
+                    return role;
+                }
+            }
+
+            Role role = getContextualStoreForFeature(ctx, Feature.readRole).getRole(name);
+
+            if (cache != null && role != null) {
+                cache.putRole(getContextPartition(ctx), role);
+            }
+
+            return role;
+        } finally {
+            endInvocation(outermost);
         }
-        return getContextualStoreForFeature(ctx, Feature.readRole).getRole(name);
     }
 
     /* (non-Javadoc)
@@ -331,15 +646,27 @@ public class DefaultIdentityManager implements IdentityManager {
      */
     @Override
     public boolean hasGroupRole(IdentityType identityType, Role role, Group group) {
+        boolean outermost = beginInvocation();
 
-        // TODO rewrite this implementation to use the IdentityCache instead of a query
-
-        return false;
+        try {
+            return getContextualStoreForFeature(createContext(), Feature.readMembership)
+                    .getMembership(identityType, group, role) != null;
+        } finally {
+            endInvocation(outermost);
+        }
     }
 
     @Override
     public void grantGroupRole(IdentityType identityType, Role role, Group group) {
-        getContextualStoreForFeature(createContext(), Feature.createMembership).createMembership(identityType, group, role);
+        boolean outermost = beginInvocation();
+
+        try {
+            IdentityStoreInvocationContext ctx = createContext();
+            getContextualStoreForFeature(ctx, Feature.createMembership).createMembership(identityType, group, role);
+            raiseMembershipChanged(ctx, identityType, group, role);
+        } finally {
+            endInvocation(outermost);
+        }
     }
 
     @Override
@@ -349,8 +676,14 @@ public class DefaultIdentityManager implements IdentityManager {
 
     @Override
     public boolean hasRole(IdentityType identityType, Role role) {
-        // TODO Auto-generated method stub
-        return false;
+        boolean outermost = beginInvocation();
+
+        try {
+            return getContextualStoreForFeature(createContext(), Feature.readMembership)
+                    .getMembership(identityType, null, role) != null;
+        } finally {
+            endInvocation(outermost);
+        }
     }
 
     @Override
@@ -367,30 +700,126 @@ public class DefaultIdentityManager implements IdentityManager {
 
     @Override
     public boolean validateCredential(User user, Credential credential) {
-        return getContextualStoreForFeature(createContext(), 
-                Feature.validateCredential).validateCredential(user, credential);
+        boolean outermost = beginInvocation();
+
+        try {
+            IdentityStoreInvocationContext ctx = createContext();
+            CredentialValidationCache credentialCache = root.credentialCache;
+
+            if (credentialCache == null) {
+                return getContextualStoreForFeature(ctx, Feature.validateCredential).validateCredential(user, credential);
+            }
+
+            String realm = (ctx.getRealm() != null) ? ctx.getRealm().getName() : Realm.DEFAULT_REALM;
+
+            // locked out users are rejected before the store is consulted, so brute force attempts never reach it
+            if (credentialCache.isLockedOut(realm, user.getId())) {
+                return false;
+            }
+
+            Boolean valid = credentialCache.lookup(realm, user.getId(), credential);
+
+            if (valid == null) {
+                // read before validating, so that the outcome isn't cached if the credentials change meanwhile
+                long generation = credentialCache.getGeneration();
+
+                valid = getContextualStoreForFeature(ctx, Feature.validateCredential).validateCredential(user, credential);
+                credentialCache.put(realm, user.getId(), credential, valid, generation);
+            }
+
+            if (valid) {
+                credentialCache.recordSuccess(realm, user.getId());
+            } else {
+                credentialCache.recordFailure(realm, user.getId());
+            }
+
+            return valid;
+        } finally {
+            endInvocation(outermost);
+        }
     }
 
     @Override
     public void updateCredential(User user, Credential credential) {
-        getContextualStoreForFeature(createContext(), Feature.validateCredential)
-            .updateCredential(user, credential);
+        boolean outermost = beginInvocation();
+
+        try {
+            IdentityStoreInvocationContext ctx = createContext();
+            getContextualStoreForFeature(ctx, Feature.validateCredential)
+                .updateCredential(user, credential);
+            invalidateCache(ctx, user);
+            invalidateCredentials(ctx, user);
+        } finally {
+            endInvocation(outermost);
+        }
+    }
+
+    public CredentialValidationCache getCredentialCache() {
+        return root.credentialCache;
+    }
+
+    /**
+     * Sets the cache used for the outcome of credential validations.  Credentials are always validated
+     * against the identity store if no cache is set, which is the default.
+     *
+     * @param credentialCache
+     */
+    public void setCredentialCache(CredentialValidationCache credentialCache) {
+        root.credentialCache = credentialCache;
+    }
+
+    private void invalidateCredentials(IdentityStoreInvocationContext ctx, User user) {
+        if (root.credentialCache != null) {
+            String realm = (ctx.getRealm() != null) ? ctx.getRealm().getName() : Realm.DEFAULT_REALM;
+            root.credentialCache.invalidate(realm, user.getId());
+        }
     }
 
     public IdentityStoreInvocationContextFactory getContextFactory() {
-        return contextFactory;
+        return root.contextFactory;
     }
 
     @Override
     public IdentityType lookupIdentityByKey(String key) {
-        // TODO Auto-generated method stub
+        if (key == null) {
+            return null;
+        }
+
+        // Resolve the identity through the getters, so that the lookup is served from the cache where possible
+        if (key.startsWith(User.KEY_PREFIX)) {
+            return getUser(key.substring(User.KEY_PREFIX.length()));
+        } else if (key.startsWith(Group.KEY_PREFIX)) {
+            return getGroup(key.substring(Group.KEY_PREFIX.length()));
+        } else if (key.startsWith(Role.KEY_PREFIX)) {
+            return getRole(key.substring(Role.KEY_PREFIX.length()));
+        }
+
         return null;
     }
 
     @Override
-    public <T extends IdentityType> IdentityQuery<T> createQuery() {
-        // TODO Auto-generated method stub
-        return null;
+    public <T extends IdentityType> IdentityQuery<T> createQuery(Class<T> identityType) {
+        boolean outermost = beginInvocation();
+
+        try {
+            Feature feature;
+
+            IdentityStoreInvocationContext ctx = createContext();
+
+            if (User.class.isAssignableFrom(identityType)) {
+                feature = Feature.readUser;
+            } else if (Group.class.isAssignableFrom(identityType)) {
+                feature = Feature.readGroup;
+            } else if (Role.class.isAssignableFrom(identityType)) {
+                feature = Feature.readRole;
+            } else {
+                throw new IllegalArgumentException("Unsupported IdentityType [" + identityType.getName() + "]");
+            }
+
+            return new DefaultIdentityQuery<T>(identityType, getContextualStoreForFeature(ctx, feature), ctx);
+        } finally {
+            endInvocation(outermost);
+        }
     }
 
     @Override
@@ -431,12 +860,28 @@ public class DefaultIdentityManager implements IdentityManager {
 
     @Override
     public void updateRole(Role role) {
-        getContextualStoreForFeature(createContext(), Feature.updateRole).updateRole(role);
+        boolean outermost = beginInvocation();
+
+        try {
+            IdentityStoreInvocationContext ctx = createContext();
+            getContextualStoreForFeature(ctx, Feature.updateRole).updateRole(role);
+            invalidateCache(ctx, role);
+        } finally {
+            endInvocation(outermost);
+        }
     }
 
     @Override
     public void updateGroup(Group group) {
-        getContextualStoreForFeature(createContext(), Feature.updateGroup).updateGroup(group);
+        boolean outermost = beginInvocation();
+
+        try {
+            IdentityStoreInvocationContext ctx = createContext();
+            getContextualStoreForFeature(ctx, Feature.updateGroup).updateGroup(group);
+            invalidateCache(ctx, group);
+        } finally {
+            endInvocation(outermost);
+        }
     }
 
     @Override
@@ -444,4 +889,32 @@ public class DefaultIdentityManager implements IdentityManager {
         
     }
 
-}
\ No newline at end of file
+    /**
+     * Identifies a scoped manager by the name of its realm and the id of its tier, either of which may be null
+     */
+    private static final class ScopeKey {
+        private final String realm;
+        private final String tier;
+
+        ScopeKey(String realm, String tier) {
+            this.realm = realm;
+            this.tier = tier;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ScopeKey)) {
+                return false;
+            }
+
+            ScopeKey other = (ScopeKey) obj;
+            return (realm == null ? other.realm == null : realm.equals(other.realm))
+                    && (tier == null ? other.tier == null : tier.equals(other.tier));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (realm == null ? 0 : realm.hashCode()) + (tier == null ? 0 : tier.hashCode());
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.picketlink.idm.internal;
 
 import javax.persistence.EntityManagerFactory;
 
+import org.picketlink.idm.IdentityCache;
 import org.picketlink.idm.event.EventBridge;
 import org.picketlink.idm.jpa.internal.JPAIdentityStore;
 import org.picketlink.idm.spi.IdentityStore;
@@ -16,9 +17,20 @@ import org.picketlink.idm.spi.IdentityStoreInvocationContextFactory;
 public class DefaultIdentityStoreInvocationContextFactory implements IdentityStoreInvocationContextFactory {
     private EntityManagerFactory emf;
     private EventBridge eventBridge;
+    private IdentityCache identityCache;
 
+    /**
+     * Creates a factory whose contexts have no cache, so that every lookup is resolved by the identity store
+     * 
+     * @param emf
+     */
     public DefaultIdentityStoreInvocationContextFactory(EntityManagerFactory emf) {
+        this(emf, null);
+    }
+
+    public DefaultIdentityStoreInvocationContextFactory(EntityManagerFactory emf, IdentityCache identityCache) {
         this.emf = emf;
+        this.identityCache = identityCache;
         this.eventBridge = new EventBridge() {
 
             @Override
@@ -30,7 +42,35 @@ public class DefaultIdentityStoreInvocationContextFactory implements IdentitySto
 
     @Override
     public IdentityStoreInvocationContext createContext() {
-        return new IdentityStoreInvocationContext(null, eventBridge);
+        return new IdentityStoreInvocationContext(identityCache, eventBridge);
+    }
+
+    /**
+     * Returns the EventBridge shared by all contexts created by this factory
+     * 
+     * @return
+     */
+    public EventBridge getEventBridge() {
+        return eventBridge;
+    }
+
+    /**
+     * Sets the EventBridge through which the stores raise their events, such as an AsyncEventBridge
+     * to keep event listeners out of the store operations
+     * 
+     * @param eventBridge
+     */
+    public void setEventBridge(EventBridge eventBridge) {
+        this.eventBridge = eventBridge;
+    }
+
+    /**
+     * Returns the cache shared by all contexts created by this factory, or null if lookups aren't cached
+     * 
+     * @return
+     */
+    public IdentityCache getIdentityCache() {
+        return identityCache;
     }
 
     @Override
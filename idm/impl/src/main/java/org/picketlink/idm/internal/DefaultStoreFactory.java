@@ -2,6 +2,8 @@ package org.picketlink.idm.internal;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.picketlink.idm.SecurityConfigurationException;
 import org.picketlink.idm.config.IdentityStoreConfiguration;
@@ -19,53 +21,154 @@ import org.picketlink.idm.spi.PartitionStore;
 
 /**
  * Default StoreFactory implementation.  This factory is pre-configured to be
- * able to create instances of the following built-in IdentityStore implementations based 
+ * able to create instances of the following built-in IdentityStore implementations based
  * on the corresponding IdentityStoreConfiguration:
- * 
+ *
  * JPAIdentityStore - JPAIdentityStoreConfiguration
  * LDAPIdentityStore - LDAPConfiguration
- * 
+ *
  * It also maps the following PartitionStore implementations:
- * 
+ *
  * JPAPartitionStore - JPAPartitionStoreConfiguration
- * 
+ *
+ * A single instance of each built-in IdentityStore is created for each configuration (and therefore
+ * for each realm) and shared between invocations, with only the invocation context being supplied
+ * per call via setup().  Other IdentityStore implementations are created for every invocation, unless
+ * they are mapped with StoreLifecycle.SHARED, in which case they must be thread-safe and hold their
+ * invocation context per thread.  Setting the store lifecycle of the factory to StoreLifecycle.INVOCATION
+ * creates a new instance of every IdentityStore for every invocation.
+ *
  * @author Shane Bryzak
  */
 public class DefaultStoreFactory implements StoreFactory {
+
+    /**
+     * Determines whether IdentityStore instances are shared between invocations
+     */
+    public enum StoreLifecycle {
+        /**
+         * A new IdentityStore instance is created for every invocation
+         */
+        INVOCATION,
+
+        /**
+         * A single IdentityStore instance is created for each configuration and reused
+         */
+        SHARED
+    }
+
     private Map<Class<? extends IdentityStoreConfiguration>, Class<? extends IdentityStore<?>>> identityConfigMap =
-            new HashMap<Class<? extends IdentityStoreConfiguration>, Class<? extends IdentityStore<?>>>();
+            new ConcurrentHashMap<Class<? extends IdentityStoreConfiguration>, Class<? extends IdentityStore<?>>>();
 
     private Map<Class<? extends PartitionStoreConfiguration>, Class<? extends PartitionStore>> partitionConfigMap =
-            new HashMap<Class<? extends PartitionStoreConfiguration>, Class<? extends PartitionStore>>();    
+            new HashMap<Class<? extends PartitionStoreConfiguration>, Class<? extends PartitionStore>>();
+
+    /**
+     * Resolved store classes, keyed by the concrete configuration class
+     */
+    private final ConcurrentMap<Class<?>, Class<? extends IdentityStore<?>>> resolvedStoreClasses =
+            new ConcurrentHashMap<Class<?>, Class<? extends IdentityStore<?>>>();
+
+    /**
+     * Shared store instances, keyed by configuration
+     */
+    private final ConcurrentMap<IdentityStoreConfiguration, IdentityStore<IdentityStoreConfiguration>> stores =
+            new ConcurrentHashMap<IdentityStoreConfiguration, IdentityStore<IdentityStoreConfiguration>>();
+
+    /**
+     * The lifecycle of each mapped IdentityStore class, stores that are not listed are created per invocation
+     */
+    private final Map<Class<?>, StoreLifecycle> storeLifecycles = new ConcurrentHashMap<Class<?>, StoreLifecycle>();
+
+    private volatile StoreLifecycle storeLifecycle = StoreLifecycle.SHARED;
 
     public DefaultStoreFactory() {
         identityConfigMap.put(JPAIdentityStoreConfiguration.class, JPAIdentityStore.class);
         identityConfigMap.put(LDAPConfiguration.class, LDAPIdentityStore.class);
 
+        // the built-in stores are thread-safe and bind their invocation context to the calling thread
+        storeLifecycles.put(JPAIdentityStore.class, StoreLifecycle.SHARED);
+        storeLifecycles.put(LDAPIdentityStore.class, StoreLifecycle.SHARED);
+
         partitionConfigMap.put(JPAPartitionStoreConfiguration.class,  JPAPartitionStore.class);
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public IdentityStore<?> createIdentityStore(IdentityStoreConfiguration config, IdentityStoreInvocationContext context) {
-        for (Class<? extends IdentityStoreConfiguration> cc : identityConfigMap.keySet()) {
-            if (cc.isInstance(config)) {
-                try {
-                    IdentityStore<IdentityStoreConfiguration> store = 
-                            (IdentityStore<IdentityStoreConfiguration>) identityConfigMap.get(cc).newInstance(); 
-                    store.setup(config, context);
-                    return store;
-                } catch (InstantiationException e) {
-                    throw new SecurityConfigurationException(
-                            "Exception while creating new IdentityStore instance", e);
-                } catch (IllegalAccessException e) {
-                    throw new SecurityConfigurationException(
-                            "Exception while creating new IdentityStore instance", e);                }
+        if (storeLifecycle == StoreLifecycle.INVOCATION
+                || storeLifecycles.get(resolveStoreClass(config)) != StoreLifecycle.SHARED) {
+            IdentityStore<IdentityStoreConfiguration> store = newIdentityStore(config);
+            store.setup(config, context);
+            return store;
+        }
+
+        IdentityStore<IdentityStoreConfiguration> store = stores.get(config);
+
+        if (store == null) {
+            IdentityStore<IdentityStoreConfiguration> newStore = newIdentityStore(config);
+            store = stores.putIfAbsent(config, newStore);
+
+            if (store == null) {
+                store = newStore;
+            }
+        }
+
+        store.setup(config, context);
+        return store;
+    }
+
+    @SuppressWarnings("unchecked")
+    private IdentityStore<IdentityStoreConfiguration> newIdentityStore(IdentityStoreConfiguration config) {
+        try {
+            return (IdentityStore<IdentityStoreConfiguration>) resolveStoreClass(config).newInstance();
+        } catch (InstantiationException e) {
+            throw new SecurityConfigurationException(
+                    "Exception while creating new IdentityStore instance", e);
+        } catch (IllegalAccessException e) {
+            throw new SecurityConfigurationException(
+                    "Exception while creating new IdentityStore instance", e);
+        }
+    }
+
+    /**
+     * Returns the IdentityStore class mapped to the specified configuration.  The mapping is
+     * resolved once for each configuration class and then served from resolvedStoreClasses.
+     *
+     * @param config
+     * @return
+     */
+    private Class<? extends IdentityStore<?>> resolveStoreClass(IdentityStoreConfiguration config) {
+        if (config == null) {
+            throw new IllegalArgumentException("IdentityStoreConfiguration may not be null");
+        }
+
+        Class<? extends IdentityStore<?>> storeClass = resolvedStoreClasses.get(config.getClass());
+
+        if (storeClass != null) {
+            return storeClass;
+        }
+
+        // Prefer the closest mapped superclass, then fall back to any mapped type the config is an instance of
+        for (Class<?> cls = config.getClass(); cls != null && storeClass == null; cls = cls.getSuperclass()) {
+            storeClass = identityConfigMap.get(cls);
+        }
+
+        if (storeClass == null) {
+            for (Class<? extends IdentityStoreConfiguration> cc : identityConfigMap.keySet()) {
+                if (cc.isInstance(config)) {
+                    storeClass = identityConfigMap.get(cc);
+                    break;
+                }
             }
         }
 
-        throw new IllegalArgumentException(
-                "The IdentityStoreConfiguration specified is not supported by this IdentityStoreFactory implementation");
+        if (storeClass == null) {
+            throw new IllegalArgumentException(
+                    "The IdentityStoreConfiguration specified is not supported by this IdentityStoreFactory implementation");
+        }
+
+        resolvedStoreClasses.put(config.getClass(), storeClass);
+        return storeClass;
     }
 
     @Override
@@ -74,10 +177,35 @@ public class DefaultStoreFactory implements StoreFactory {
         return null;
     }
 
+    /**
+     * Maps a configuration class to an IdentityStore class.  Unless the store class is one of the built-in
+     * stores, or has been mapped as shared before, a new instance is created for every invocation.
+     */
+    @SuppressWarnings("unchecked")
     @Override
     public void mapIdentityConfiguration(Class<? extends IdentityStoreConfiguration> configClass,
             Class<? extends IdentityStore> storeClass) {
         identityConfigMap.put(configClass,  (Class<? extends IdentityStore<?>>) storeClass);
+        resolvedStoreClasses.clear();
+        stores.clear();
+    }
+
+    /**
+     * Maps a configuration class to an IdentityStore class with the specified lifecycle.  A store mapped
+     * with StoreLifecycle.SHARED must be thread-safe and bind its invocation context to the calling thread.
+     *
+     * @param configClass
+     * @param storeClass
+     * @param lifecycle
+     */
+    public void mapIdentityConfiguration(Class<? extends IdentityStoreConfiguration> configClass,
+            Class<? extends IdentityStore> storeClass, StoreLifecycle lifecycle) {
+        if (lifecycle == null) {
+            throw new IllegalArgumentException("lifecycle may not be null");
+        }
+
+        storeLifecycles.put(storeClass, lifecycle);
+        mapIdentityConfiguration(configClass, storeClass);
     }
 
     @Override
@@ -85,4 +213,25 @@ public class DefaultStoreFactory implements StoreFactory {
             Class<? extends PartitionStore> storeClass) {
         partitionConfigMap.put(configClass,  storeClass);
     }
+
+    public StoreLifecycle getStoreLifecycle() {
+        return storeLifecycle;
+    }
+
+    /**
+     * Sets the lifecycle of the IdentityStore instances created by this factory.  StoreLifecycle.SHARED,
+     * the default, shares the stores that support it, while StoreLifecycle.INVOCATION creates a new
+     * instance of every store for every invocation.  Changing the lifecycle discards any store instances
+     * that are currently shared.
+     *
+     * @param storeLifecycle
+     */
+    public void setStoreLifecycle(StoreLifecycle storeLifecycle) {
+        if (storeLifecycle == null) {
+            throw new IllegalArgumentException("storeLifecycle may not be null");
+        }
+
+        this.storeLifecycle = storeLifecycle;
+        stores.clear();
+    }
 }
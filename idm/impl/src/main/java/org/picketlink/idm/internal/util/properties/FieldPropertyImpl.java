@@ -63,13 +63,17 @@ class FieldPropertyImpl<V> implements FieldProperty<V> {
     }
 
     public V getValue(Object instance) {
-        setAccessible();
+        if (!field.isAccessible()) {
+            setAccessible();
+        }
         return getFieldValue(field, instance, getJavaClass());
     }
 
     public void setValue(Object instance, V value) {
-        setAccessible();
-        setFieldValue(true, field, instance, value);
+        if (!field.isAccessible()) {
+            setAccessible();
+        }
+        setFieldValue(false, field, instance, value);
     }
 
     public Class<?> getDeclaringClass() {
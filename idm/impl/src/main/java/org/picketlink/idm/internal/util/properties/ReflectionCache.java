@@ -0,0 +1,61 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.idm.internal.util.properties;
+
+import java.lang.ref.SoftReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A cache of metadata derived from classes and their members. Keys are held weakly and values softly, as the values
+ * usually reference the class of their key, so caching the metadata of a class never keeps its class loader from being
+ * garbage collected.
+ *
+ * @param <K> the class or member the metadata was derived from
+ * @param <V> the metadata
+ */
+public class ReflectionCache<K, V> {
+
+    private final Map<K, SoftReference<V>> entries = new WeakHashMap<K, SoftReference<V>>();
+
+    /**
+     * Returns the cached value for the key, or null if there is none or it has been collected
+     */
+    public synchronized V get(K key) {
+        SoftReference<V> reference = entries.get(key);
+        return reference != null ? reference.get() : null;
+    }
+
+    /**
+     * Caches the value for the key, unless a value is already cached, and returns the cached value
+     */
+    public synchronized V putIfAbsent(K key, V value) {
+        V existing = get(key);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        entries.put(key, new SoftReference<V>(value));
+        return value;
+    }
+}
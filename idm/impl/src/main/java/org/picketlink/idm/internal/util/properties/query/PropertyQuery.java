@@ -24,11 +24,13 @@ package org.picketlink.idm.internal.util.properties.query;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.picketlink.idm.internal.util.properties.MethodProperty;
 import org.picketlink.idm.internal.util.properties.Properties;
 import org.picketlink.idm.internal.util.properties.Property;
+import org.picketlink.idm.internal.util.properties.ReflectionCache;
 
 /**
  * <p>
@@ -41,11 +43,20 @@ import org.picketlink.idm.internal.util.properties.Property;
  * <p>
  * This class is not thread-safe, however the result returned by the getResultList() method is.
  * </p>
+ * <p>
+ * The accessor methods and fields of each class are only discovered the first time the class is queried, and are reused
+ * by later queries for as long as the class is in use.
+ * </p>
  *
  * @see PropertyQueries
  * @see PropertyCriteria
  */
 public class PropertyQuery<V> {
+    private static final ReflectionCache<Class<?>, List<Method>> accessorMethods =
+        new ReflectionCache<Class<?>, List<Method>>();
+    private static final ReflectionCache<Class<?>, List<Field>> fields =
+        new ReflectionCache<Class<?>, List<Field>>();
+
     private final Class<?> targetClass;
     private final List<PropertyCriteria> criteria;
 
@@ -156,11 +167,7 @@ public class PropertyQuery<V> {
         List<Property<V>> results = new ArrayList<Property<V>>();
 
         // First check public accessor methods (we ignore private methods)
-        for (Method method : targetClass.getMethods()) {
-            if (!(method.getName().startsWith("is") || method.getName().startsWith("get"))) {
-                continue;
-            }
-
+        for (Method method : getAccessorMethods(targetClass)) {
             boolean match = true;
             for (PropertyCriteria c : criteria) {
                 if (!c.methodMatches(method)) {
@@ -176,32 +183,71 @@ public class PropertyQuery<V> {
             }
         }
 
-        Class<?> cls = targetClass;
-        while (cls != null && !cls.equals(Object.class)) {
-            // Now check declared fields
-            for (Field field : cls.getDeclaredFields()) {
-                boolean match = true;
-                for (PropertyCriteria c : criteria) {
-                    if (!c.fieldMatches(field)) {
-                        match = false;
-                        break;
-                    }
+        // Now check declared fields
+        for (Field field : getFields(targetClass)) {
+            boolean match = true;
+            for (PropertyCriteria c : criteria) {
+                if (!c.fieldMatches(field)) {
+                    match = false;
+                    break;
                 }
-                Property<V> prop = Properties.<V> createProperty(field);
+            }
+            Property<V> prop = Properties.<V> createProperty(field);
 
-                if (match && !resultsContainsProperty(results, prop.getName())) {
-                    if (!writable || !prop.isReadOnly()) {
-                        results.add(prop);
-                    }
+            if (match && !resultsContainsProperty(results, prop.getName())) {
+                if (!writable || !prop.isReadOnly()) {
+                    results.add(prop);
                 }
             }
-
-            cls = cls.getSuperclass();
         }
 
         return results;
     }
 
+    /**
+     * Returns the public accessor methods of the class
+     */
+    private static List<Method> getAccessorMethods(Class<?> targetClass) {
+        List<Method> methods = accessorMethods.get(targetClass);
+
+        if (methods == null) {
+            methods = new ArrayList<Method>();
+
+            for (Method method : targetClass.getMethods()) {
+                if (method.getName().startsWith("is") || method.getName().startsWith("get")) {
+                    methods.add(method);
+                }
+            }
+
+            methods = Collections.unmodifiableList(methods);
+            accessorMethods.putIfAbsent(targetClass, methods);
+        }
+
+        return methods;
+    }
+
+    /**
+     * Returns the fields declared by the class and its superclasses, starting with the class itself
+     */
+    private static List<Field> getFields(Class<?> targetClass) {
+        List<Field> classFields = fields.get(targetClass);
+
+        if (classFields == null) {
+            classFields = new ArrayList<Field>();
+
+            for (Class<?> cls = targetClass; cls != null && !cls.equals(Object.class); cls = cls.getSuperclass()) {
+                for (Field field : cls.getDeclaredFields()) {
+                    classFields.add(field);
+                }
+            }
+
+            classFields = Collections.unmodifiableList(classFields);
+            fields.putIfAbsent(targetClass, classFields);
+        }
+
+        return classFields;
+    }
+
     private boolean resultsContainsProperty(List<Property<V>> results, String propertyName) {
         for (Property<V> p : results) {
             if (propertyName.equals(p.getName())) {
@@ -1,8 +1,10 @@
 package org.picketlink.idm.jpa.internal;
 
 import static org.picketlink.idm.jpa.internal.JPAIdentityStoreConfiguration.PROPERTY_ATTRIBUTE_IDENTITY;
-import static org.picketlink.idm.jpa.internal.JPAIdentityStoreConfiguration.PROPERTY_CREDENTIAL_IDENTITY;
+import static org.picketlink.idm.jpa.internal.JPAIdentityStoreConfiguration.PROPERTY_ATTRIBUTE_NAME;
+import static org.picketlink.idm.jpa.internal.JPAIdentityStoreConfiguration.PROPERTY_ATTRIBUTE_VALUE;
 import static org.picketlink.idm.jpa.internal.JPAIdentityStoreConfiguration.PROPERTY_IDENTITY_DISCRIMINATOR;
+import static org.picketlink.idm.jpa.internal.JPAIdentityStoreConfiguration.PROPERTY_IDENTITY_ENABLED;
 import static org.picketlink.idm.jpa.internal.JPAIdentityStoreConfiguration.PROPERTY_IDENTITY_ID;
 import static org.picketlink.idm.jpa.internal.JPAIdentityStoreConfiguration.PROPERTY_IDENTITY_KEY;
 import static org.picketlink.idm.jpa.internal.JPAIdentityStoreConfiguration.PROPERTY_IDENTITY_NAME;
@@ -17,14 +19,21 @@ import static org.picketlink.idm.jpa.internal.JPAIdentityStoreConfiguration.PROP
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
 
 import org.picketlink.idm.IdentityManagementException;
 import org.picketlink.idm.credential.Credential;
@@ -41,10 +50,13 @@ import org.picketlink.idm.model.GroupRole;
 import org.picketlink.idm.model.Partition;
 import org.picketlink.idm.model.Role;
 import org.picketlink.idm.model.SimpleGroup;
+import org.picketlink.idm.model.SimpleGroupRole;
 import org.picketlink.idm.model.SimpleRole;
 import org.picketlink.idm.model.SimpleUser;
 import org.picketlink.idm.model.User;
+import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
+import org.picketlink.idm.spi.BulkIdentityStore;
 import org.picketlink.idm.spi.IdentityStore;
 import org.picketlink.idm.spi.IdentityStoreInvocationContext;
 
@@ -54,7 +66,7 @@ import org.picketlink.idm.spi.IdentityStoreInvocationContext;
  * 
  * @author Shane Bryzak
  */
-public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfiguration> {
+public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfiguration>, BulkIdentityStore {
 
     // Invocation context parameters
     public static final String INVOCATION_CTX_ENTITY_MANAGER = "CTX_ENTITY_MANAGER";
@@ -67,16 +79,22 @@ public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfigura
     /**
      * The configuration for this instance 
      */
-    private JPAIdentityStoreConfiguration config;
+    private volatile JPAIdentityStoreConfiguration config;
 
     /**
-     * The invocation context
+     * The invocation context, bound to the calling thread so that a single instance may be shared
      */
-    private IdentityStoreInvocationContext context;
+    private final ThreadLocal<IdentityStoreInvocationContext> context = new ThreadLocal<IdentityStoreInvocationContext>();
 
     public void setup(JPAIdentityStoreConfiguration config, IdentityStoreInvocationContext context) {
         this.config = config;
-        this.context = context;
+
+        if (context == null) {
+            // the invocation has completed, pooled threads must not keep its context or entity manager
+            this.context.remove();
+        } else {
+            this.context.set(context);
+        }
     }
 
     @Override
@@ -86,7 +104,7 @@ public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfigura
 
     @Override
     public IdentityStoreInvocationContext getContext() {
-        return context;
+        return context.get();
     }
 
     protected EntityManager getEntityManager() {
@@ -122,6 +140,50 @@ public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfigura
 
     @Override
     public void add(IdentityType identityType) {
+        persist(identityType);
+        flush();
+    }
+
+    /**
+     * Persists all of the specified identities and flushes the EntityManager once, so that the inserts
+     * may be sent to the database as JDBC batches when the persistence provider is configured for it.
+     */
+    @Override
+    public void addAll(Collection<? extends IdentityType> identityTypes) {
+        for (IdentityType identityType : identityTypes) {
+            persist(identityType);
+        }
+
+        flush();
+    }
+
+    @Override
+    public void createMemberships(Collection<? extends GroupRole> memberships) {
+        for (GroupRole membership : memberships) {
+            createMembership(membership.getMember(), membership.getGroup(), membership.getRole());
+        }
+
+        flush();
+    }
+
+    @Override
+    public void removeMemberships(Collection<? extends GroupRole> memberships) {
+        for (GroupRole membership : memberships) {
+            removeMembership(membership.getMember(), membership.getGroup(), membership.getRole());
+        }
+
+        flush();
+    }
+
+    private void flush() {
+        try {
+            getEntityManager().flush();
+        } catch (Exception ex) {
+            throw new IdentityManagementException("Exception while creating identity", ex);
+        }
+    }
+
+    private void persist(IdentityType identityType) {
         if (User.class.isInstance(identityType)) {
             try {
                 User user = (User) identityType;
@@ -168,13 +230,56 @@ public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfigura
                         setAttribute(user, attrib);
                     }
                 }
-
-                em.flush();
-
             } catch (Exception ex) {
                 throw new IdentityManagementException("Exception while creating user", ex);
             }
+        } else if (Group.class.isInstance(identityType)) {
+            Group group = (Group) identityType;
+
+            Object identity = createIdentityObject(group, getConfig().getIdentityTypeGroup());
+
+            setModelProperty(identity, PROPERTY_IDENTITY_ID, group.getId());
+            setModelProperty(identity, PROPERTY_IDENTITY_NAME, group.getName());
+
+            if (group.getParentGroup() != null) {
+                setModelProperty(identity, PROPERTY_PARENT_GROUP, lookupIdentityObjectByKey(group.getParentGroup().getKey()),
+                        true);
+            }
+
+            getEntityManager().persist(identity);
+        } else if (Role.class.isInstance(identityType)) {
+            Role role = (Role) identityType;
+
+            Object identity = createIdentityObject(role, getConfig().getIdentityTypeRole());
+
+            setModelProperty(identity, PROPERTY_IDENTITY_NAME, role.getName());
+
+            getEntityManager().persist(identity);
+        } else {
+            throw new IdentityManagementException("Unsupported IdentityType [" + identityType.getClass().getName() + "]");
+        }
+    }
+
+    /**
+     * Creates the identity entity of a group or role, which belongs to the realm or tier of the context
+     */
+    private Object createIdentityObject(IdentityType identityType, String discriminator) {
+        Object identity;
+
+        try {
+            identity = getConfig().getIdentityClass().newInstance();
+        } catch (Exception ex) {
+            throw new IdentityManagementException("Exception while creating identity [" + identityType.getKey() + "]", ex);
+        }
+
+        setModelProperty(identity, PROPERTY_IDENTITY_DISCRIMINATOR, discriminator, true);
+        setModelProperty(identity, PROPERTY_IDENTITY_KEY, identityType.getKey(), true);
+
+        if (getContextualPartition() != null) {
+            setModelProperty(identity, PROPERTY_IDENTITY_PARTITION, lookupPartitionObject(getContextualPartition()));
         }
+
+        return identity;
     }
 
     private Object lookupIdentityObjectById(Class<? extends IdentityType> cls, String id) {
@@ -182,36 +287,24 @@ public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfigura
             return null;
         }
 
-        EntityManager em = getEntityManager();
-
-        CriteriaBuilder builder = em.getCriteriaBuilder();
-        CriteriaQuery<?> criteria = builder.createQuery(getConfig().getIdentityClass());
-        Root<?> root = criteria.from(getConfig().getIdentityClass());
-        List<Predicate> predicates = new ArrayList<Predicate>();
-        predicates.add(builder.equal(
-                root.get(getConfig().getModelProperty(PROPERTY_IDENTITY_ID).getName()), 
-                id));
+        String discriminator;
 
         if (User.class.equals(cls)) {
-            predicates.add(builder.equal(
-                    root.get(getConfig().getModelProperty(PROPERTY_IDENTITY_DISCRIMINATOR).getName()), 
-                    getConfig().getIdentityTypeUser()));
+            discriminator = getConfig().getIdentityTypeUser();
         } else if (Group.class.equals(cls)) {
-            predicates.add(builder.equal(
-                    root.get(getConfig().getModelProperty(PROPERTY_IDENTITY_DISCRIMINATOR).getName()), 
-                    getConfig().getIdentityTypeGroup()));
+            discriminator = getConfig().getIdentityTypeGroup();
         } else if (Role.class.equals(cls)) {
-            predicates.add(builder.equal(
-                    root.get(getConfig().getModelProperty(PROPERTY_IDENTITY_DISCRIMINATOR).getName()), 
-                    getConfig().getIdentityTypeRole()));
+            discriminator = getConfig().getIdentityTypeRole();
         } else {
             throw new SecurityException("Could not lookup identity by id - unsupported IdentityType [" 
                     + cls.getName() + "]");
         }
 
-        criteria.where(predicates.toArray(new Predicate[predicates.size()]));
+        TypedQuery<?> query = createLookupQuery(getConfig().getIdentityByIdQuery());
+        query.setParameter("id", id);
+        query.setParameter("discriminator", discriminator);
 
-        List<?> results = em.createQuery(criteria).getResultList();
+        List<?> results = query.getResultList();
 
         if (results.size() == 1) {
             return results.get(0);
@@ -227,15 +320,7 @@ public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfigura
             return null;
         }
 
-        EntityManager em = getEntityManager();
-
-        CriteriaBuilder builder = em.getCriteriaBuilder();
-        CriteriaQuery<?> criteria = builder.createQuery(getConfig().getIdentityClass());
-        Root<?> root = criteria.from(getConfig().getIdentityClass());
-        List<Predicate> predicates = new ArrayList<Predicate>();
-        predicates.add(builder.equal(
-                root.get(getConfig().getModelProperty(PROPERTY_IDENTITY_KEY).getName()), 
-                key));
+        Object partition = null;
 
         if (getConfig().isModelPropertySet(PROPERTY_IDENTITY_PARTITION)) {
             // We need to determine what type of key we're dealing with.. if it's a User key, then
@@ -245,9 +330,7 @@ public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfigura
                     throw new SecurityException("Cannot look up User key without a provided realm.");
                 }
 
-                predicates.add(builder.equal(
-                        root.get(getConfig().getModelProperty(PROPERTY_IDENTITY_PARTITION).getName()),
-                        lookupPartitionObject(getContext().getRealm())));
+                partition = lookupPartitionObject(getContext().getRealm());
 
             // Otherwise if it's a group or role key, we need to set either the realm or the tier
             } else if (key.startsWith(Group.KEY_PREFIX) || key.startsWith(Role.KEY_PREFIX)) {
@@ -258,22 +341,27 @@ public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfigura
                 }
 
                 if (getContext().getRealm() != null) {
-                    predicates.add(builder.equal(
-                            root.get(getConfig().getModelProperty(PROPERTY_IDENTITY_PARTITION).getName()),
-                            lookupPartitionObject(getContext().getRealm())));
+                    partition = lookupPartitionObject(getContext().getRealm());
                 } else if (getContext().getTier() != null) {
-                    predicates.add(builder.equal(
-                            root.get(getConfig().getModelProperty(PROPERTY_IDENTITY_PARTITION).getName()),
-                            lookupPartitionObject(getContext().getTier())));
+                    partition = lookupPartitionObject(getContext().getTier());
                 } else {
                     throw new SecurityException("Cannot look up key [" + key + "] without a provided realm or tier.");
                 }
             }
         }
 
-        criteria.where(predicates.toArray(new Predicate[predicates.size()]));
+        TypedQuery<?> query;
 
-        List<?> results = em.createQuery(criteria).getResultList();
+        if (partition != null) {
+            query = createLookupQuery(getConfig().getIdentityByKeyAndPartitionQuery());
+            query.setParameter("partition", partition);
+        } else {
+            query = createLookupQuery(getConfig().getIdentityByKeyQuery());
+        }
+
+        query.setParameter("key", key);
+
+        List<?> results = query.getResultList();
 
         if (results.size() == 1) {
             return results.get(0);
@@ -283,85 +371,48 @@ public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfigura
         }
     }
 
-    private void removeIdentityObject(Object object) {
-        EntityManager em = getEntityManager();
-        // Remove credentials
-        if (getConfig().getCredentialClass() != null) {
-            CriteriaBuilder builder = em.getCriteriaBuilder();
-            CriteriaQuery<?> criteria = builder.createQuery(getConfig().getCredentialClass());
-            Root<?> root = criteria.from(getConfig().getCredentialClass());
-            List<Predicate> predicates = new ArrayList<Predicate>();
-            predicates.add(builder.equal(
-                    root.get(getConfig().getModelProperty(PROPERTY_CREDENTIAL_IDENTITY).getName()), 
-                    object));
-            criteria.where(predicates.toArray(new Predicate[predicates.size()]));
-
-            List<?> results = em.createQuery(criteria).getResultList();
-            for (Object result : results) {
-                em.remove(result);
-            }
-        }
+    /**
+     * Creates one of the lookup queries built by the configuration, applying the configured
+     * query hints
+     */
+    private TypedQuery<?> createLookupQuery(String jpql) {
+        return applyQueryHints(getEntityManager().createQuery(jpql, getConfig().getIdentityClass()));
+    }
 
-        // Remove attributes
-        if (getConfig().getAttributeClass() != null) {
-            CriteriaBuilder builder = em.getCriteriaBuilder();
-            CriteriaQuery<?> criteria = builder.createQuery(getConfig().getAttributeClass());
-            Root<?> root = criteria.from(getConfig().getAttributeClass());
-            List<Predicate> predicates = new ArrayList<Predicate>();
-            predicates.add(builder.equal(
-                    root.get(getConfig().getModelProperty(PROPERTY_ATTRIBUTE_IDENTITY).getName()), 
-                    object));
-            criteria.where(predicates.toArray(new Predicate[predicates.size()]));
-
-            List<?> results = em.createQuery(criteria).getResultList();
-            for (Object result : results) {
-                em.remove(result);
-            }
+    private <Q extends TypedQuery<?>> Q applyQueryHints(Q query) {
+        for (Map.Entry<String, Object> hint : getConfig().getQueryHints().entrySet()) {
+            query.setHint(hint.getKey(), hint.getValue());
         }
 
-        // Remove memberships - this takes a little more work because the identity may be 
-        // a member, a role or a group
-        if (getConfig().getMembershipClass() != null) {
-            CriteriaBuilder builder = em.getCriteriaBuilder();
-            CriteriaQuery<?> criteria = builder.createQuery(getConfig().getMembershipClass());
-            Root<?> root = criteria.from(getConfig().getMembershipClass());
-            List<Predicate> predicates = new ArrayList<Predicate>();
-            predicates.add(builder.equal(
-                    root.get(getConfig().getModelProperty(PROPERTY_MEMBERSHIP_MEMBER).getName()), 
-                    object));
-            criteria.where(predicates.toArray(new Predicate[predicates.size()]));
-
-            List<?> results = em.createQuery(criteria).getResultList();
-            for (Object result : results) {
-                em.remove(result);
-            }
+        return query;
+    }
 
-            criteria = builder.createQuery(getConfig().getMembershipClass());
-            root = criteria.from(getConfig().getMembershipClass());
-            predicates.clear();
-            predicates.add(builder.equal(
-                    root.get(getConfig().getModelProperty(PROPERTY_MEMBERSHIP_GROUP).getName()), 
-                    object));
-            criteria.where(predicates.toArray(new Predicate[predicates.size()]));
-
-            results = em.createQuery(criteria).getResultList();
-            for (Object result : results) {
-                em.remove(result);
-            }
+    /**
+     * Removes the identity object together with its credentials, attributes and memberships. Each
+     * of the related entity types is removed with a single bulk delete, rather than by loading and
+     * removing every related entity.
+     *
+     * Bulk deletes bypass the persistence context. The context is flushed before the deletes, so that
+     * they see every pending change, and nothing but the identity object itself is loaded before they
+     * run. The EntityManager is shared with the application, so the context is not cleared afterwards;
+     * related entities the application loaded itself are stale once their identity was removed.
+     */
+    private void removeIdentityObject(Object object) {
+        EntityManager em = getEntityManager();
 
-            criteria = builder.createQuery(getConfig().getMembershipClass());
-            root = criteria.from(getConfig().getMembershipClass());
-            predicates.clear();
-            predicates.add(builder.equal(
-                    root.get(getConfig().getModelProperty(PROPERTY_MEMBERSHIP_ROLE).getName()), 
-                    object));
-            criteria.where(predicates.toArray(new Predicate[predicates.size()]));
-
-            results = em.createQuery(criteria).getResultList();
-            for (Object result : results) {
-                em.remove(result);
-            }
+        em.flush();
+
+        if (getConfig().getDeleteCredentialsQuery() != null) {
+            em.createQuery(getConfig().getDeleteCredentialsQuery()).setParameter("identity", object).executeUpdate();
+        }
+
+        if (getConfig().getDeleteAttributesQuery() != null) {
+            em.createQuery(getConfig().getDeleteAttributesQuery()).setParameter("identity", object).executeUpdate();
+        }
 
+        // the identity may be a member, a role or a group, so all three references are matched at once
+        if (getConfig().getDeleteMembershipsQuery() != null) {
+            em.createQuery(getConfig().getDeleteMembershipsQuery()).setParameter("identity", object).executeUpdate();
         }
 
         // Remove the identity object itself
@@ -413,24 +464,14 @@ public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfigura
 
     @Override
     public User getUser(String id) {
-        // Check the cache first
-        User user = getContext().getCache().lookupUser(context.getRealm(), id);
+        // Lookups are cached by the IdentityManager, so the store always resolves the identity object
+        Object instance = lookupIdentityObjectById(User.class, id);
 
-        // If the cache doesn't have a reference to the User, we have to look up it's identity object
-        // and create a User instance based on it
-        if (user == null) {
-            Object instance = lookupIdentityObjectById(User.class, id);
+        User user = convertUserEntityToUser(instance);
 
-            user = new SimpleUser(id);
-            user.setFirstName(getModelProperty(String.class, instance, PROPERTY_USER_FIRST_NAME));
-            user.setLastName(getModelProperty(String.class, instance, PROPERTY_USER_LAST_NAME));
-            user.setEmail(getModelProperty(String.class, instance, PROPERTY_USER_EMAIL));
-
-            // TODO we need to also set attribute values
-            //user.setAttribute(attribute);
-
-            getContext().getCache().putUser(context.getRealm(), user);
-        }
+        Map<Object, IdentityType> identities = new IdentityHashMap<Object, IdentityType>();
+        identities.put(instance, user);
+        loadAttributes(identities);
 
         return user;
     }
@@ -449,21 +490,13 @@ public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfigura
             throw new SecurityException("Error while looking up group - context defines no realm or tier");
         }
 
-        // Check the cache first
-        Group group = getContext().getCache().lookupGroup(partition, groupId);
-
-        // If the cache doesn't have a reference to the Group, we have to look up it's identity object
-        // and create a Group instance based on it
-        if (group == null) {
-            Object instance = lookupIdentityObjectById(Group.class, groupId);
+        Object instance = lookupIdentityObjectById(Group.class, groupId);
 
-            group = convertGroupEntityToGroup(partition, instance);
+        loadParentGroups(Collections.singletonList(instance));
+        Group group = convertGroupEntityToGroup(partition, instance);
 
-            // TODO we need to also set attribute values
-            //group.setAttribute(attribute);
-
-            getContext().getCache().putGroup(context.getRealm(), group);
-        }
+        // TODO we need to also set attribute values
+        //group.setAttribute(attribute);
 
         return group;
     }
@@ -475,15 +508,7 @@ public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfigura
 
         SimpleGroup group = null;
         if (parentInstance != null) {
-            String parentId = getModelProperty(String.class, parentInstance, PROPERTY_IDENTITY_ID);
-
-            Group parent = getContext().getCache().lookupGroup(partition, parentId);
-            if (parent == null) {
-                parent = convertGroupEntityToGroup(partition, parentInstance);
-                getContext().getCache().putGroup(partition, parent);
-            }
-
-            group = new SimpleGroup(name, parent);
+            group = new SimpleGroup(name, convertGroupEntityToGroup(partition, parentInstance));
         } else {
             group = new SimpleGroup(name);
         }
@@ -538,21 +563,12 @@ public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfigura
             throw new SecurityException("Error while looking up role - context defines no realm or tier");
         }
 
-        // Check the cache first
-        Role role = getContext().getCache().lookupRole(partition, name);
-
-        // If the cache doesn't have a reference to the Role, we have to look up it's identity object
-        // and create a Role instance based on it
-        if (role == null) {
-            Object instance = lookupIdentityObjectByKey(String.format("%s%s", Role.KEY_PREFIX, name));
+        Object instance = lookupIdentityObjectByKey(String.format("%s%s", Role.KEY_PREFIX, name));
 
-            role = convertRoleEntityToRole(partition, instance);
+        Role role = convertRoleEntityToRole(partition, instance);
 
-            // TODO we need to also set attribute values
-            //group.setAttribute(attribute);
-
-            getContext().getCache().putRole(context.getRealm(), role);
-        }
+        // TODO we need to also set attribute values
+        //group.setAttribute(attribute);
 
         return role;
 
@@ -578,26 +594,371 @@ public class JPAIdentityStore implements IdentityStore<JPAIdentityStoreConfigura
 
     @Override
     public GroupRole createMembership(IdentityType member, Group group, Role role) {
-        // TODO Auto-generated method stub
-        return null;
+        if (getConfig().getMembershipClass() == null) {
+            throw new IdentityManagementException("Cannot create membership - no membership class has been configured.");
+        }
+
+        Object membership;
+
+        try {
+            membership = getConfig().getMembershipClass().newInstance();
+        } catch (Exception ex) {
+            throw new IdentityManagementException("Exception while creating membership", ex);
+        }
+
+        setModelProperty(membership, PROPERTY_MEMBERSHIP_MEMBER, lookupIdentityObjectByKey(member.getKey()), true);
+
+        if (group != null) {
+            setModelProperty(membership, PROPERTY_MEMBERSHIP_GROUP, lookupIdentityObjectByKey(group.getKey()), true);
+        }
+
+        if (role != null) {
+            setModelProperty(membership, PROPERTY_MEMBERSHIP_ROLE, lookupIdentityObjectByKey(role.getKey()), true);
+        }
+
+        getEntityManager().persist(membership);
+
+        return new SimpleGroupRole(member, role, group);
     }
 
     @Override
     public void removeMembership(IdentityType member, Group group, Role role) {
-        // TODO Auto-generated method stub
+        TypedQuery<?> query = createMembershipQuery(member, group, role);
+
+        if (query == null) {
+            return;
+        }
 
+        EntityManager em = getEntityManager();
+
+        for (Object membership : query.getResultList()) {
+            em.remove(membership);
+        }
     }
 
     @Override
     public GroupRole getMembership(IdentityType member, Group group, Role role) {
-        // TODO Auto-generated method stub
-        return null;
+        TypedQuery<?> query = createMembershipQuery(member, group, role);
+
+        if (query == null) {
+            return null;
+        }
+
+        // the group and role are part of the query, so the database returns at most the one matching membership
+        query.setMaxResults(1);
+
+        return query.getResultList().isEmpty() ? null : new SimpleGroupRole(member, role, group);
     }
 
+    /**
+     * Creates the query for the memberships of the member with exactly the specified group and role,
+     * or returns null if no such membership can exist
+     */
+    private TypedQuery<?> createMembershipQuery(IdentityType member, Group group, Role role) {
+        String jpql = getConfig().getMembershipQuery(group != null, role != null);
+
+        if (jpql == null) {
+            return null;
+        }
+
+        // a group or role can't match if the membership class doesn't map it
+        if ((group != null && !getConfig().isModelPropertySet(PROPERTY_MEMBERSHIP_GROUP))
+                || (role != null && !getConfig().isModelPropertySet(PROPERTY_MEMBERSHIP_ROLE))) {
+            return null;
+        }
+
+        TypedQuery<?> query = applyQueryHints(getEntityManager().createQuery(jpql, getConfig().getMembershipClass()));
+        query.setParameter("member", lookupIdentityObjectByKey(member.getKey()));
+
+        if (group != null) {
+            query.setParameter("group", lookupIdentityObjectByKey(group.getKey()));
+        }
+
+        if (role != null) {
+            query.setParameter("role", lookupIdentityObjectByKey(role.getKey()));
+        }
+
+        return query;
+    }
+
+    @SuppressWarnings("unchecked")
     @Override
-    public List<IdentityType> fetchQueryResults(Map<QueryParameter, Object> parameters) {
-        // TODO Auto-generated method stub
-        return null;
+    public <I extends IdentityType> List<I> fetchQueryResults(IdentityQuery<I> identityQuery) {
+        Class<I> identityType = identityQuery.getIdentityType();
+
+        String discriminator;
+
+        if (User.class.isAssignableFrom(identityType)) {
+            discriminator = getConfig().getIdentityTypeUser();
+        } else if (Group.class.isAssignableFrom(identityType)) {
+            discriminator = getConfig().getIdentityTypeGroup();
+        } else if (Role.class.isAssignableFrom(identityType)) {
+            discriminator = getConfig().getIdentityTypeRole();
+        } else {
+            throw new UnsupportedOperationException("IdentityType not supported: " + identityType);
+        }
+
+        EntityManager em = getEntityManager();
+
+        CriteriaBuilder builder = em.getCriteriaBuilder();
+        CriteriaQuery<Object> criteria = builder.createQuery(Object.class);
+        Root<?> root = criteria.from(getConfig().getIdentityClass());
+        criteria.select(root);
+
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        predicates.add(builder.equal(
+                root.get(getConfig().getModelProperty(PROPERTY_IDENTITY_DISCRIMINATOR).getName()),
+                discriminator));
+
+        // the query is scoped like the single identity lookups, users to the realm and groups and roles
+        // to the realm or tier of the context
+        Partition partition = User.class.isAssignableFrom(identityType) ? getContext().getRealm() :
+            getContextualPartition();
+
+        if (partition != null && getConfig().isModelPropertySet(PROPERTY_IDENTITY_PARTITION)) {
+            predicates.add(createPartitionPredicate(builder, root, lookupPartitionObject(partition)));
+        }
+
+        for (Map.Entry<QueryParameter, Object[]> entry : identityQuery.getParameters().entrySet()) {
+            QueryParameter parameter = entry.getKey();
+            Object[] values = entry.getValue();
+
+            if (parameter == User.ID || parameter == Group.ID) {
+                predicates.add(createQueryPredicate(builder, root, PROPERTY_IDENTITY_ID, values));
+            } else if (parameter == Group.NAME || parameter == Role.NAME) {
+                predicates.add(createQueryPredicate(builder, root, PROPERTY_IDENTITY_NAME, values));
+            } else if (parameter == User.FIRST_NAME) {
+                predicates.add(createQueryPredicate(builder, root, PROPERTY_USER_FIRST_NAME, values));
+            } else if (parameter == User.LAST_NAME) {
+                predicates.add(createQueryPredicate(builder, root, PROPERTY_USER_LAST_NAME, values));
+            } else if (parameter == User.EMAIL) {
+                predicates.add(createQueryPredicate(builder, root, PROPERTY_USER_EMAIL, values));
+            } else if (parameter == IdentityType.KEY) {
+                predicates.add(createQueryPredicate(builder, root, PROPERTY_IDENTITY_KEY, values));
+            } else if (parameter == IdentityType.ENABLED && getConfig().isModelPropertySet(PROPERTY_IDENTITY_ENABLED)) {
+                predicates.add(createQueryPredicate(builder, root, PROPERTY_IDENTITY_ENABLED, values));
+            } else if (parameter == IdentityType.HAS_ROLE) {
+                predicates.add(createMembershipPredicate(criteria, root, PROPERTY_MEMBERSHIP_ROLE,
+                        toIdentityKeys(Role.KEY_PREFIX, values)));
+            } else if (parameter == IdentityType.MEMBER_OF) {
+                predicates.add(createMembershipPredicate(criteria, root, PROPERTY_MEMBERSHIP_GROUP,
+                        toIdentityKeys(Group.KEY_PREFIX, values)));
+            } else {
+                throw new UnsupportedOperationException("Query parameter not supported: " + parameter);
+            }
+        }
+
+        criteria.where(predicates.toArray(new Predicate[predicates.size()]));
+
+        // pages are only consistent with each other if the rows come back in the same order every time. Only
+        // users have an id, but every identity has a key that is unique within its partition
+        if (identityQuery.getOffset() > 0 || identityQuery.getLimit() > 0) {
+            criteria.orderBy(builder.asc(root.get(getConfig().getModelProperty(PROPERTY_IDENTITY_KEY).getName())));
+        }
+
+        TypedQuery<Object> query = applyQueryHints(em.createQuery(criteria));
+
+        if (identityQuery.getOffset() > 0) {
+            query.setFirstResult(identityQuery.getOffset());
+        }
+
+        if (identityQuery.getLimit() > 0) {
+            query.setMaxResults(identityQuery.getLimit());
+        }
+
+        List<Object> instances = query.getResultList();
+
+        if (Group.class.isAssignableFrom(identityType)) {
+            loadParentGroups(instances);
+        }
+
+        List<I> result = new ArrayList<I>();
+        Map<Object, IdentityType> identities = new IdentityHashMap<Object, IdentityType>();
+
+        for (Object instance : instances) {
+            IdentityType identity;
+
+            if (User.class.isAssignableFrom(identityType)) {
+                identity = convertUserEntityToUser(instance);
+                identities.put(instance, identity);
+            } else if (Group.class.isAssignableFrom(identityType)) {
+                identity = convertGroupEntityToGroup(getContextualPartition(), instance);
+            } else {
+                identity = convertRoleEntityToRole(getContextualPartition(), instance);
+            }
+
+            result.add((I) identity);
+        }
+
+        // the attributes of all the users in the page are loaded with a single query
+        loadAttributes(identities);
+
+        return result;
+    }
+
+    private Predicate createQueryPredicate(CriteriaBuilder builder, Root<?> root, String propertyName, Object[] values) {
+        String attributeName = getConfig().getModelProperty(propertyName).getName();
+
+        if (values.length == 1) {
+            return builder.equal(root.get(attributeName), values[0]);
+        }
+
+        return root.get(attributeName).in(values);
+    }
+
+    private Predicate createPartitionPredicate(CriteriaBuilder builder, Root<?> root, Object partition) {
+        String attributeName = getConfig().getModelProperty(PROPERTY_IDENTITY_PARTITION).getName();
+
+        // identities are persisted with whatever the partition lookup returns, which may be null
+        if (partition == null) {
+            return builder.isNull(root.get(attributeName));
+        }
+
+        return builder.equal(root.get(attributeName), partition);
+    }
+
+    /**
+     * Creates a predicate that restricts the query to identities that are members of any of the
+     * specified roles or groups, using a subquery against the membership entity
+     */
+    private Predicate createMembershipPredicate(CriteriaQuery<?> criteria, Root<?> root, String propertyName,
+            Object[] keys) {
+        Subquery<Object> subquery = criteria.subquery(Object.class);
+        Root<?> membership = subquery.from(getConfig().getMembershipClass());
+        subquery.select(membership.get(getConfig().getModelProperty(PROPERTY_MEMBERSHIP_MEMBER).getName()));
+        subquery.where(membership.get(getConfig().getModelProperty(propertyName).getName())
+                .get(getConfig().getModelProperty(PROPERTY_IDENTITY_KEY).getName()).in(keys));
+
+        return root.in(subquery);
+    }
+
+    private Object[] toIdentityKeys(String keyPrefix, Object[] values) {
+        Object[] keys = new Object[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            if (IdentityType.class.isInstance(values[i])) {
+                keys[i] = ((IdentityType) values[i]).getKey();
+            } else {
+                keys[i] = keyPrefix + values[i];
+            }
+        }
+
+        return keys;
+    }
+
+    private User convertUserEntityToUser(Object instance) {
+        User user = new SimpleUser(getModelProperty(String.class, instance, PROPERTY_IDENTITY_ID));
+        user.setFirstName(getModelProperty(String.class, instance, PROPERTY_USER_FIRST_NAME));
+        user.setLastName(getModelProperty(String.class, instance, PROPERTY_USER_LAST_NAME));
+        user.setEmail(getModelProperty(String.class, instance, PROPERTY_USER_EMAIL));
+        return user;
+    }
+
+    /**
+     * Sets the attribute values of the specified identities, keyed by their identity entity. Values
+     * held by the identity entity, or by an entity it references, are read directly as those
+     * entities are fetched together with the identity. Values held by the attribute entity are
+     * loaded for all of the identities with a single query.
+     */
+    private void loadAttributes(Map<Object, IdentityType> identities) {
+        if (identities.isEmpty()) {
+            return;
+        }
+
+        for (Map.Entry<Object, IdentityType> entry : identities.entrySet()) {
+            for (Map.Entry<String, MappedAttribute> mapped : getConfig().getAttributeProperties().entrySet()) {
+                MappedAttribute attrib = mapped.getValue();
+
+                Object container = attrib.getIdentityProperty() == null ? entry.getKey() : 
+                    attrib.getIdentityProperty().getValue(entry.getKey());
+
+                Object value = container == null ? null : attrib.getAttributeProperty().getValue(container);
+
+                if (value != null) {
+                    entry.getValue().setAttribute(new Attribute<Serializable>(mapped.getKey(), (Serializable) value));
+                }
+            }
+        }
+
+        if (getConfig().getAttributesByIdentitiesQuery() == null) {
+            return;
+        }
+
+        List<?> results = applyQueryHints(getEntityManager().createQuery(getConfig().getAttributesByIdentitiesQuery(),
+                getConfig().getAttributeClass())).setParameter("identities", identities.keySet()).getResultList();
+
+        Map<IdentityType, Map<String, List<Serializable>>> values = 
+                new IdentityHashMap<IdentityType, Map<String, List<Serializable>>>();
+
+        for (Object result : results) {
+            IdentityType identity = identities.get(getModelProperty(Object.class, result, PROPERTY_ATTRIBUTE_IDENTITY));
+
+            if (identity == null) {
+                continue;
+            }
+
+            Map<String, List<Serializable>> identityValues = values.get(identity);
+
+            if (identityValues == null) {
+                identityValues = new LinkedHashMap<String, List<Serializable>>();
+                values.put(identity, identityValues);
+            }
+
+            String name = getModelProperty(String.class, result, PROPERTY_ATTRIBUTE_NAME);
+            List<Serializable> attributeValues = identityValues.get(name);
+
+            if (attributeValues == null) {
+                attributeValues = new ArrayList<Serializable>();
+                identityValues.put(name, attributeValues);
+            }
+
+            attributeValues.add(getModelProperty(Serializable.class, result, PROPERTY_ATTRIBUTE_VALUE));
+        }
+
+        for (Map.Entry<IdentityType, Map<String, List<Serializable>>> entry : values.entrySet()) {
+            for (Map.Entry<String, List<Serializable>> attribute : entry.getValue().entrySet()) {
+                List<Serializable> attributeValues = attribute.getValue();
+
+                // multi-valued attributes are exposed as an array of their values
+                Serializable value = attributeValues.size() == 1 ? attributeValues.get(0) : 
+                    attributeValues.toArray(new Serializable[attributeValues.size()]);
+
+                entry.getKey().setAttribute(new Attribute<Serializable>(attribute.getKey(), value));
+            }
+        }
+    }
+
+    /**
+     * Loads the ancestors of the specified group entities with one query per level of the group
+     * hierarchy, so that converting the groups doesn't load each parent group separately.
+     */
+    private void loadParentGroups(List<?> groups) {
+        if (getConfig().getParentGroupsQuery() == null) {
+            return;
+        }
+
+        Set<Object> loaded = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        List<Object> level = new ArrayList<Object>(groups);
+
+        while (!level.isEmpty()) {
+            loaded.addAll(level);
+
+            List<?> parents = applyQueryHints(getEntityManager().createQuery(getConfig().getParentGroupsQuery(),
+                    getConfig().getIdentityClass())).setParameter("groups", level).getResultList();
+
+            level = new ArrayList<Object>();
+
+            for (Object parent : parents) {
+                // guards against cycles in the hierarchy
+                if (!loaded.contains(parent)) {
+                    level.add(parent);
+                }
+            }
+        }
+    }
+
+    private Partition getContextualPartition() {
+        return getContext().getRealm() != null ? getContext().getRealm() : getContext().getTier();
     }
 
     @Override
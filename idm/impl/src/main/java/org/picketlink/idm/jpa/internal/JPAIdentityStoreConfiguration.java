@@ -118,6 +118,24 @@ public class JPAIdentityStoreConfiguration extends IdentityStoreConfiguration {
     private Class<?> attributeClass;
     private Class<?> partitionClass;
 
+    /**
+     * Hints applied to every lookup query, such as the second-level and query cache hints of the persistence provider
+     */
+    private Map<String, Object> queryHints = new HashMap<String, Object>();
+
+    /**
+     * JPQL for the queries executed by the store, built once by init()
+     */
+    private String identityByIdQuery;
+    private String identityByKeyQuery;
+    private String identityByKeyAndPartitionQuery;
+    private String[] membershipQueries;
+    private String attributesByIdentitiesQuery;
+    private String parentGroupsQuery;
+    private String deleteCredentialsQuery;
+    private String deleteAttributesQuery;
+    private String deleteMembershipsQuery;
+
     public Class<?> getIdentityClass() {
         return identityClass;
     }
@@ -257,6 +275,184 @@ public class JPAIdentityStoreConfiguration extends IdentityStoreConfiguration {
         configureAttributes();
 
         // configureCredentials();
+
+        configureQueries();
+    }
+
+    /**
+     * Builds the JPQL for the lookup and delete queries. The queries only depend on the configured
+     * entity classes and model properties, so they are built once here instead of being rebuilt with
+     * the Criteria API on every call, which also lets the persistence provider reuse its query plans.
+     */
+    protected void configureQueries() {
+        String identity = getEntityName(identityClass);
+
+        if (isModelPropertySet(PROPERTY_IDENTITY_ID) && isModelPropertySet(PROPERTY_IDENTITY_DISCRIMINATOR)) {
+            // entities holding mapped attribute values are fetched together with the identity
+            StringBuilder query = new StringBuilder("SELECT i FROM " + identity + " i");
+            Set<String> fetched = new HashSet<String>();
+
+            for (MappedAttribute attribute : attributeProperties.values()) {
+                if (attribute.getIdentityProperty() != null && fetched.add(attribute.getIdentityProperty().getName())) {
+                    query.append(" LEFT JOIN FETCH i.").append(attribute.getIdentityProperty().getName());
+                }
+            }
+
+            identityByIdQuery = query.append(" WHERE i.").append(getModelPropertyName(PROPERTY_IDENTITY_ID))
+                    .append(" = :id AND i.").append(getModelPropertyName(PROPERTY_IDENTITY_DISCRIMINATOR))
+                    .append(" = :discriminator").toString();
+        }
+
+        if (isModelPropertySet(PROPERTY_PARENT_GROUP)) {
+            parentGroupsQuery = "SELECT DISTINCT p FROM " + identity + " g JOIN g."
+                    + getModelPropertyName(PROPERTY_PARENT_GROUP) + " p WHERE g IN (:groups)";
+        }
+
+        if (isModelPropertySet(PROPERTY_IDENTITY_KEY)) {
+            identityByKeyQuery = "SELECT i FROM " + identity + " i WHERE i." + getModelPropertyName(PROPERTY_IDENTITY_KEY)
+                    + " = :key";
+
+            if (isModelPropertySet(PROPERTY_IDENTITY_PARTITION)) {
+                identityByKeyAndPartitionQuery = identityByKeyQuery + " AND i."
+                        + getModelPropertyName(PROPERTY_IDENTITY_PARTITION) + " = :partition";
+            }
+        }
+
+        if (credentialClass != null && isModelPropertySet(PROPERTY_CREDENTIAL_IDENTITY)) {
+            deleteCredentialsQuery = "DELETE FROM " + getEntityName(credentialClass) + " c WHERE c."
+                    + getModelPropertyName(PROPERTY_CREDENTIAL_IDENTITY) + " = :identity";
+        }
+
+        if (attributeClass != null && isModelPropertySet(PROPERTY_ATTRIBUTE_IDENTITY)) {
+            deleteAttributesQuery = "DELETE FROM " + getEntityName(attributeClass) + " a WHERE a."
+                    + getModelPropertyName(PROPERTY_ATTRIBUTE_IDENTITY) + " = :identity";
+            attributesByIdentitiesQuery = "SELECT a FROM " + getEntityName(attributeClass) + " a WHERE a."
+                    + getModelPropertyName(PROPERTY_ATTRIBUTE_IDENTITY) + " IN (:identities)";
+        }
+
+        if (membershipClass != null) {
+            String membership = getEntityName(membershipClass);
+            String member = getModelPropertyName(PROPERTY_MEMBERSHIP_MEMBER);
+
+            // a single membership is matched on its group and role in the query, one for each combination of a
+            // null and a non-null group and role
+            membershipQueries = new String[4];
+            for (int i = 0; i < membershipQueries.length; i++) {
+                StringBuilder query = new StringBuilder("SELECT m FROM " + membership + " m WHERE m." + member
+                        + " = :member");
+
+                appendMembershipPredicate(query, PROPERTY_MEMBERSHIP_GROUP, "group", (i & 1) != 0);
+                appendMembershipPredicate(query, PROPERTY_MEMBERSHIP_ROLE, "role", (i & 2) != 0);
+
+                membershipQueries[i] = query.toString();
+            }
+
+            // the identity being deleted may be referenced as the member, the group or the role of a membership
+            StringBuilder delete = new StringBuilder("DELETE FROM " + membership + " m WHERE m." + member
+                    + " = :identity");
+
+            if (isModelPropertySet(PROPERTY_MEMBERSHIP_GROUP)) {
+                delete.append(" OR m.").append(getModelPropertyName(PROPERTY_MEMBERSHIP_GROUP)).append(" = :identity");
+            }
+
+            if (isModelPropertySet(PROPERTY_MEMBERSHIP_ROLE)) {
+                delete.append(" OR m.").append(getModelPropertyName(PROPERTY_MEMBERSHIP_ROLE)).append(" = :identity");
+            }
+
+            deleteMembershipsQuery = delete.toString();
+        }
+    }
+
+    private void appendMembershipPredicate(StringBuilder query, String propertyKey, String parameter, boolean set) {
+        if (isModelPropertySet(propertyKey)) {
+            query.append(" AND m.").append(getModelPropertyName(propertyKey));
+            query.append(set ? " = :" + parameter : " IS NULL");
+        }
+    }
+
+    private String getModelPropertyName(String propertyKey) {
+        return modelProperties.get(propertyKey).getName();
+    }
+
+    private String getEntityName(Class<?> entityClass) {
+        Entity entity = entityClass.getAnnotation(Entity.class);
+        return entity != null && entity.name().length() > 0 ? entity.name() : entityClass.getSimpleName();
+    }
+
+    /**
+     * Sets a hint on the lookup queries executed by the store, for example to enable the second-level
+     * or query cache of the persistence provider (e.g. "org.hibernate.cacheable" or
+     * "javax.persistence.cache.retrieveMode").
+     * 
+     * @param name
+     * @param value
+     */
+    public void setQueryHint(String name, Object value) {
+        if (value == null) {
+            queryHints.remove(name);
+        } else {
+            queryHints.put(name, value);
+        }
+    }
+
+    public Map<String, Object> getQueryHints() {
+        return queryHints;
+    }
+
+    public String getIdentityByIdQuery() {
+        return identityByIdQuery;
+    }
+
+    public String getIdentityByKeyQuery() {
+        return identityByKeyQuery;
+    }
+
+    /**
+     * Returns the query used to look up an identity by its key within a partition, or null if no
+     * partition property is mapped.
+     */
+    public String getIdentityByKeyAndPartitionQuery() {
+        return identityByKeyAndPartitionQuery;
+    }
+
+    /**
+     * Returns the query used to look up the membership of a member with the specified group and role, or null if no
+     * membership class is configured. The query has a <code>group</code> and a <code>role</code> parameter only if
+     * a group or role is given, and matches memberships without a group or role otherwise.
+     * 
+     * @param group whether a group is given
+     * @param role whether a role is given
+     */
+    public String getMembershipQuery(boolean group, boolean role) {
+        return membershipQueries != null ? membershipQueries[(group ? 1 : 0) | (role ? 2 : 0)] : null;
+    }
+
+    /**
+     * Returns the query used to load the attribute entities of several identities at once, or null
+     * if no attribute class is configured.
+     */
+    public String getAttributesByIdentitiesQuery() {
+        return attributesByIdentitiesQuery;
+    }
+
+    /**
+     * Returns the query used to load the parent groups of several groups at once, or null if no
+     * parent group property is mapped.
+     */
+    public String getParentGroupsQuery() {
+        return parentGroupsQuery;
+    }
+
+    public String getDeleteCredentialsQuery() {
+        return deleteCredentialsQuery;
+    }
+
+    public String getDeleteAttributesQuery() {
+        return deleteAttributesQuery;
+    }
+
+    public String getDeleteMembershipsQuery() {
+        return deleteMembershipsQuery;
     }
 
     protected void configureIdentityDiscriminator() throws SecurityConfigurationException {
@@ -21,7 +21,10 @@
  */
 package org.picketlink.idm.ldap.internal;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Properties;
 import java.util.Set;
 
@@ -44,6 +47,22 @@ import org.picketlink.idm.spi.IdentityStore.Feature;
 // package within API module
 public class LDAPConfiguration extends IdentityStoreConfiguration {
 
+    /**
+     * Determines how attributes that are not defined by the ldap schema are stored
+     */
+    public enum CustomAttributesMapping {
+        /**
+         * Custom attributes are serialized to a <code>cn=custom-attributes</code> entry below each identity entry
+         */
+        CHILD_ENTRY,
+
+        /**
+         * Custom attributes are stored as values of a single attribute of the identity entry, so they are read and written
+         * together with the entry itself
+         */
+        INLINE
+    }
+
     private String ldapURL;
     private String userDNSuffix;
     private String roleDNSuffix;
@@ -59,6 +78,21 @@ public class LDAPConfiguration extends IdentityStoreConfiguration {
     private Set<Feature> featuresSet = new HashSet<IdentityStore.Feature>();
     private LDAPOperationManager ldapManager;
 
+    private int connectionPoolMinSize = LDAPOperationManager.DEFAULT_POOL_MIN_SIZE;
+    private int connectionPoolMaxSize = LDAPOperationManager.DEFAULT_POOL_MAX_SIZE;
+    private int bindPoolMinSize = 0;
+    private int bindPoolMaxSize = LDAPOperationManager.DEFAULT_POOL_MAX_SIZE;
+    private long poolMaxWait = LDAPOperationManager.DEFAULT_POOL_MAX_WAIT;
+    private long poolIdleTimeout = LDAPOperationManager.DEFAULT_POOL_IDLE_TIMEOUT;
+    private boolean poolTestOnBorrow = LDAPOperationManager.DEFAULT_POOL_TEST_ON_BORROW;
+
+    private int searchPageSize = LDAPOperationManager.DEFAULT_PAGE_SIZE;
+    private Set<String> returnedAttributes = new LinkedHashSet<String>();
+
+    private CustomAttributesMapping customAttributesMapping = CustomAttributesMapping.CHILD_ENTRY;
+    private String customAttributesAttributeName;
+    private String customAttributesObjectClass = "extensibleObject";
+
     public String getStandardAttributesFileName() {
         return standardAttributesFileName;
     }
@@ -157,6 +191,160 @@ public class LDAPConfiguration extends IdentityStoreConfiguration {
         this.isActiveDirectory = isActiveDirectory;
     }
 
+    public int getConnectionPoolMinSize() {
+        return connectionPoolMinSize;
+    }
+
+    /**
+     * Sets the number of connections used to manage the ldap tree that are kept open while idle
+     */
+    public LDAPConfiguration setConnectionPoolMinSize(int connectionPoolMinSize) {
+        this.connectionPoolMinSize = connectionPoolMinSize;
+        return this;
+    }
+
+    public int getConnectionPoolMaxSize() {
+        return connectionPoolMaxSize;
+    }
+
+    /**
+     * Sets the maximum number of concurrent connections used to manage the ldap tree
+     */
+    public LDAPConfiguration setConnectionPoolMaxSize(int connectionPoolMaxSize) {
+        this.connectionPoolMaxSize = connectionPoolMaxSize;
+        return this;
+    }
+
+    public int getBindPoolMinSize() {
+        return bindPoolMinSize;
+    }
+
+    /**
+     * Sets the number of connections used to validate user credentials that are kept open while idle
+     */
+    public LDAPConfiguration setBindPoolMinSize(int bindPoolMinSize) {
+        this.bindPoolMinSize = bindPoolMinSize;
+        return this;
+    }
+
+    public int getBindPoolMaxSize() {
+        return bindPoolMaxSize;
+    }
+
+    /**
+     * Sets the maximum number of concurrent connections used to validate user credentials
+     */
+    public LDAPConfiguration setBindPoolMaxSize(int bindPoolMaxSize) {
+        this.bindPoolMaxSize = bindPoolMaxSize;
+        return this;
+    }
+
+    public long getPoolMaxWait() {
+        return poolMaxWait;
+    }
+
+    /**
+     * Sets the time in milliseconds to wait for a connection when a pool is exhausted
+     */
+    public LDAPConfiguration setPoolMaxWait(long poolMaxWait) {
+        this.poolMaxWait = poolMaxWait;
+        return this;
+    }
+
+    public long getPoolIdleTimeout() {
+        return poolIdleTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds after which idle connections above the minimum pool size are closed. A value of
+     * zero or less disables idle eviction.
+     */
+    public LDAPConfiguration setPoolIdleTimeout(long poolIdleTimeout) {
+        this.poolIdleTimeout = poolIdleTimeout;
+        return this;
+    }
+
+    public boolean isPoolTestOnBorrow() {
+        return poolTestOnBorrow;
+    }
+
+    /**
+     * Sets whether idle connections are checked before being used to manage the ldap tree. Disabled by default, as the
+     * check costs an extra round-trip for every operation; stale connections are closed after the idle timeout, and
+     * discarded as soon as an operation fails on them.
+     */
+    public LDAPConfiguration setPoolTestOnBorrow(boolean poolTestOnBorrow) {
+        this.poolTestOnBorrow = poolTestOnBorrow;
+        return this;
+    }
+
+    public int getSearchPageSize() {
+        return searchPageSize;
+    }
+
+    /**
+     * Sets the number of entries requested per page when searching the ldap tree. A value of 0 disables paged searches.
+     */
+    public LDAPConfiguration setSearchPageSize(int searchPageSize) {
+        this.searchPageSize = searchPageSize;
+        return this;
+    }
+
+    public Set<String> getReturnedAttributes() {
+        return Collections.unmodifiableSet(returnedAttributes);
+    }
+
+    /**
+     * Adds attributes to be returned when loading users, groups and roles, in addition to the ones mapped by the store
+     */
+    public LDAPConfiguration addReturnedAttributes(String... attributeNames) {
+        this.returnedAttributes.addAll(Arrays.asList(attributeNames));
+        return this;
+    }
+
+    public CustomAttributesMapping getCustomAttributesMapping() {
+        return customAttributesMapping;
+    }
+
+    /**
+     * Sets how custom attributes are stored. The {@link CustomAttributesMapping#INLINE} mapping requires the custom attributes
+     * attribute name to be set.
+     */
+    public LDAPConfiguration setCustomAttributesMapping(CustomAttributesMapping customAttributesMapping) {
+        this.customAttributesMapping = customAttributesMapping;
+        return this;
+    }
+
+    public String getCustomAttributesAttributeName() {
+        return customAttributesAttributeName;
+    }
+
+    /**
+     * Sets the multi-valued attribute holding the custom attributes of an entry when using the
+     * {@link CustomAttributesMapping#INLINE} mapping. The attribute must be defined by the schema.
+     */
+    public LDAPConfiguration setCustomAttributesAttributeName(String customAttributesAttributeName) {
+        this.customAttributesAttributeName = customAttributesAttributeName;
+        return this;
+    }
+
+    public String getCustomAttributesObjectClass() {
+        return customAttributesObjectClass;
+    }
+
+    /**
+     * Sets the objectClass added to new entries to allow the custom attributes attribute when using the
+     * {@link CustomAttributesMapping#INLINE} mapping, or null if the entries already allow it.
+     */
+    public LDAPConfiguration setCustomAttributesObjectClass(String customAttributesObjectClass) {
+        this.customAttributesObjectClass = customAttributesObjectClass;
+        return this;
+    }
+
+    public boolean isInlineCustomAttributes() {
+        return customAttributesMapping == CustomAttributesMapping.INLINE;
+    }
+
     public Properties getAdditionalProperties() {
         return additionalProperties;
     }
@@ -173,6 +361,11 @@ public class LDAPConfiguration extends IdentityStoreConfiguration {
 
     @Override
     public void init() throws SecurityConfigurationException {
+        if (isInlineCustomAttributes() && customAttributesAttributeName == null) {
+            throw new SecurityConfigurationException(
+                    "A custom attributes attribute name must be provided when custom attributes are stored inline");
+        }
+
         constructContext();
         this.featuresSet.add(Feature.all);
     }
@@ -218,7 +411,16 @@ public class LDAPConfiguration extends IdentityStoreConfiguration {
         }
 
         try {
-            this.ldapManager = new LDAPOperationManager(env);
+            LDAPConnectionPool adminPool = new LDAPConnectionPool("admin", env, getConnectionPoolMinSize(),
+                    getConnectionPoolMaxSize(), getPoolMaxWait(), getPoolIdleTimeout(), isPoolTestOnBorrow());
+            LDAPConnectionPool bindPool = new LDAPConnectionPool("bind", LDAPOperationManager.createBindEnvironment(env),
+                    getBindPoolMinSize(), getBindPoolMaxSize(), getPoolMaxWait(), getPoolIdleTimeout(), false);
+
+            adminPool.initialize();
+            bindPool.initialize();
+
+            this.ldapManager = new LDAPOperationManager(adminPool, bindPool);
+            this.ldapManager.setPageSize(getSearchPageSize());
         } catch (NamingException e1) {
             throw new RuntimeException(e1);
         }
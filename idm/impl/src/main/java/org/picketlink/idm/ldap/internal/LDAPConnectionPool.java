@@ -0,0 +1,271 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketlink.idm.ldap.internal;
+
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingException;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+
+/**
+ * <p>
+ * A bounded pool of {@link LdapContext} instances created from a fixed JNDI environment.
+ * </p>
+ * <p>
+ * A context borrowed from the pool is owned by the calling thread until it is returned by {@link #release(LdapContext)}, or
+ * discarded by {@link #invalidate(LdapContext)} when it can no longer be trusted. At most <code>maxSize</code> contexts are
+ * handed out at any time. Callers that exceed this limit wait up to <code>maxWait</code> milliseconds for a context to be
+ * returned. Idle contexts are reused most recently used first and are closed once they have been idle for longer than
+ * <code>idleTimeout</code> milliseconds, while at least <code>minSize</code> contexts are kept open. When
+ * <code>testOnBorrow</code> is enabled, idle contexts are checked by reading the root DSE before being handed out.
+ * </p>
+ */
+public class LDAPConnectionPool {
+
+    private static final String[] HEALTH_CHECK_ATTRIBUTES = new String[] { "objectClass" };
+
+    private final String name;
+    private final Properties environment;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long maxWait;
+    private final long idleTimeout;
+    private final boolean testOnBorrow;
+
+    private final LinkedBlockingDeque<PooledContext> idle = new LinkedBlockingDeque<PooledContext>();
+    private final Semaphore permits;
+
+    private volatile boolean closed;
+
+    public LDAPConnectionPool(String name, Properties environment, int minSize, int maxSize, long maxWait, long idleTimeout,
+            boolean testOnBorrow) {
+        if (maxSize <= 0 || minSize < 0 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid size for LDAP connection pool [" + name + "]: min=" + minSize
+                    + ", max=" + maxSize);
+        }
+
+        this.name = name;
+        this.environment = environment;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxWait = maxWait;
+        this.idleTimeout = idleTimeout;
+        this.testOnBorrow = testOnBorrow;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * <p>
+     * Opens <code>minSize</code> contexts, so that configuration or connectivity problems are reported up front.
+     * </p>
+     *
+     * @throws NamingException
+     */
+    public void initialize() throws NamingException {
+        while (this.idle.size() < this.minSize) {
+            this.idle.offerFirst(new PooledContext(createContext()));
+        }
+    }
+
+    /**
+     * <p>
+     * Borrows a context from the pool, creating a new one if no idle context is available.
+     * </p>
+     *
+     * @return
+     * @throws NamingException if a new context could not be created
+     */
+    public LdapContext borrow() throws NamingException {
+        if (this.closed) {
+            throw new IllegalStateException("LDAP connection pool [" + this.name + "] is closed.");
+        }
+
+        try {
+            if (!this.permits.tryAcquire(this.maxWait, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("Timed out after " + this.maxWait
+                        + "ms waiting for a connection from LDAP connection pool [" + this.name + "].");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a connection from LDAP connection pool ["
+                    + this.name + "].", e);
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+            PooledContext pooled;
+
+            while ((pooled = this.idle.pollFirst()) != null) {
+                if (isExpired(pooled, now) || (this.testOnBorrow && !isValid(pooled.context))) {
+                    closeQuietly(pooled.context);
+                    continue;
+                }
+
+                return pooled.context;
+            }
+
+            return createContext();
+        } catch (NamingException e) {
+            this.permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            this.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * <p>
+     * Returns a healthy context to the pool.
+     * </p>
+     *
+     * @param context
+     */
+    public void release(LdapContext context) {
+        if (context == null) {
+            return;
+        }
+
+        if (this.closed) {
+            closeQuietly(context);
+        } else {
+            this.idle.offerFirst(new PooledContext(context));
+        }
+
+        this.permits.release();
+
+        evictIdle();
+    }
+
+    /**
+     * <p>
+     * Closes a context that can no longer be trusted, instead of returning it to the pool.
+     * </p>
+     *
+     * @param context
+     */
+    public void invalidate(LdapContext context) {
+        if (context == null) {
+            return;
+        }
+
+        closeQuietly(context);
+        this.permits.release();
+    }
+
+    /**
+     * <p>
+     * Closes the contexts that have been idle for longer than <code>idleTimeout</code>, keeping at least
+     * <code>minSize</code> contexts open.
+     * </p>
+     */
+    public void evictIdle() {
+        if (this.idleTimeout <= 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+
+        // the least recently used contexts are at the tail of the deque
+        Iterator<PooledContext> iterator = this.idle.descendingIterator();
+
+        while (iterator.hasNext() && this.idle.size() > this.minSize) {
+            PooledContext pooled = iterator.next();
+
+            if (!isExpired(pooled, now)) {
+                break;
+            }
+
+            if (this.idle.removeLastOccurrence(pooled)) {
+                closeQuietly(pooled.context);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Closes all idle contexts. Contexts that are currently borrowed are closed when they are returned.
+     * </p>
+     */
+    public void close() {
+        this.closed = true;
+
+        PooledContext pooled;
+
+        while ((pooled = this.idle.pollFirst()) != null) {
+            closeQuietly(pooled.context);
+        }
+    }
+
+    public int getIdleCount() {
+        return this.idle.size();
+    }
+
+    public int getActiveCount() {
+        return this.maxSize - this.permits.availablePermits();
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    protected LdapContext createContext() throws NamingException {
+        return new InitialLdapContext(this.environment, null);
+    }
+
+    private boolean isExpired(PooledContext pooled, long now) {
+        return this.idleTimeout > 0 && now - pooled.lastUsed > this.idleTimeout;
+    }
+
+    private boolean isValid(LdapContext context) {
+        try {
+            context.getAttributes("", HEALTH_CHECK_ATTRIBUTES);
+            return true;
+        } catch (NamingException e) {
+            return false;
+        }
+    }
+
+    private void closeQuietly(LdapContext context) {
+        try {
+            context.close();
+        } catch (NamingException e) {
+        }
+    }
+
+    private static class PooledContext {
+        private final LdapContext context;
+        private final long lastUsed;
+
+        PooledContext(LdapContext context) {
+            this.context = context;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+}
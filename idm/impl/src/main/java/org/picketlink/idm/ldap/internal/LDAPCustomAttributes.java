@@ -22,9 +22,19 @@
 package org.picketlink.idm.ldap.internal;
 
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.BasicAttribute;
+
+import org.picketlink.idm.internal.util.Base64;
 
 /**
  * Attributes of an {@link LDAPUser} that does not map to LDAP managed attributes
@@ -32,11 +42,27 @@ import java.util.Map;
  * @author anil saldhana
  * @since Sep 7, 2012
  */
-public class LDAPCustomAttributes implements Serializable {
+public class LDAPCustomAttributes implements Serializable, Cloneable {
     private static final long serialVersionUID = 1L;
 
+    private static final String STRING_VALUE = "s:";
+    private static final String STRING_ARRAY_VALUE = "a:";
+    private static final String BOOLEAN_VALUE = "b:";
+    private static final String INTEGER_VALUE = "i:";
+    private static final String LONG_VALUE = "l:";
+    private static final String DOUBLE_VALUE = "d:";
+    private static final String DATE_VALUE = "t:";
+    private static final String BYTES_VALUE = "y:";
+
+    private static final String ARRAY_SEPARATOR = ",";
+
     private Map<String, Object> attributes = new HashMap<String, Object>();
 
+    /**
+     * Whether these custom attributes were read from an attribute present on the entry
+     */
+    private transient boolean stored;
+
     public void addAttribute(String key, Object value) {
         attributes.put(key, value);
     }
@@ -52,4 +78,206 @@ public class LDAPCustomAttributes implements Serializable {
     public Object getAttribute(String name) {
         return attributes.get(name);
     }
-}
\ No newline at end of file
+
+    /**
+     * <p>
+     * Indicates whether these custom attributes were created from an attribute present on the entry, as opposed to an entry
+     * that was stored without custom attributes.
+     * </p>
+     * 
+     * @return
+     */
+    public boolean isStored() {
+        return this.stored;
+    }
+
+    /**
+     * <p>
+     * Returns a copy of these custom attributes, to which attributes may be added or from which they may be removed
+     * without affecting these. The values themselves are shared.
+     * </p>
+     */
+    @Override
+    public LDAPCustomAttributes clone() {
+        LDAPCustomAttributes copy;
+
+        try {
+            copy = (LDAPCustomAttributes) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+
+        copy.attributes = new HashMap<String, Object>(this.attributes);
+
+        return copy;
+    }
+
+    /**
+     * <p>
+     * Converts the custom attributes to a multi-valued LDAP attribute, with one <code>name=value</code> value for each custom
+     * attribute. Only strings, string arrays, booleans, integers, longs, doubles, dates and byte arrays are supported, and
+     * every value is stored as text prefixed with its type. Values are never stored in serialized form, as reading them back
+     * would deserialize whatever anyone with write access to the entry put in the attribute.
+     * </p>
+     * 
+     * @param attributeName the name of the LDAP attribute
+     * @return
+     * @throws IllegalArgumentException if a value has an unsupported type
+     */
+    public Attribute toLDAPAttribute(String attributeName) {
+        Attribute ldapAttribute = new BasicAttribute(attributeName);
+
+        for (Entry<String, Object> entry : this.attributes.entrySet()) {
+            ldapAttribute.add(entry.getKey() + LDAPConstants.EQUAL + encodeValue(entry.getKey(), entry.getValue()));
+        }
+
+        return ldapAttribute;
+    }
+
+    /**
+     * <p>
+     * Creates the custom attributes from a LDAP attribute created by {@link #toLDAPAttribute(String)}. Values of an unknown
+     * type, including values serialized by earlier versions, are ignored.
+     * </p>
+     * 
+     * @param ldapAttribute
+     * @return
+     */
+    public static LDAPCustomAttributes fromLDAPAttribute(Attribute ldapAttribute) {
+        LDAPCustomAttributes customAttributes = new LDAPCustomAttributes();
+
+        if (ldapAttribute == null) {
+            return customAttributes;
+        }
+
+        customAttributes.stored = true;
+
+        try {
+            NamingEnumeration<?> values = ldapAttribute.getAll();
+
+            while (values.hasMore()) {
+                String value = values.next().toString();
+                int separator = value.indexOf(LDAPConstants.EQUAL);
+
+                if (separator <= 0) {
+                    continue;
+                }
+
+                Object decodedValue = decodeValue(value.substring(separator + 1));
+
+                if (decodedValue != null) {
+                    customAttributes.addAttribute(value.substring(0, separator), decodedValue);
+                }
+            }
+        } catch (NamingException e) {
+            throw new RuntimeException("Error reading custom attributes from [" + ldapAttribute.getID() + "]", e);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Error reading custom attributes from [" + ldapAttribute.getID() + "]", e);
+        } catch (IllegalStateException e) {
+            // invalid Base64 text
+            throw new RuntimeException("Error reading custom attributes from [" + ldapAttribute.getID() + "]", e);
+        }
+
+        return customAttributes;
+    }
+
+    private static String encodeValue(String name, Object value) {
+        if (value instanceof String) {
+            return STRING_VALUE + value;
+        } else if (value instanceof String[]) {
+            StringBuilder encodedValue = new StringBuilder(STRING_ARRAY_VALUE);
+            String[] values = (String[]) value;
+
+            // each element is encoded on its own, so that the separator can't occur within an element
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    encodedValue.append(ARRAY_SEPARATOR);
+                }
+
+                encodedValue.append(Base64.encodeBytes(toBytes(values[i]), Base64.DONT_BREAK_LINES));
+            }
+
+            return encodedValue.toString();
+        } else if (value instanceof Boolean) {
+            return BOOLEAN_VALUE + value;
+        } else if (value instanceof Integer) {
+            return INTEGER_VALUE + value;
+        } else if (value instanceof Long) {
+            return LONG_VALUE + value;
+        } else if (value instanceof Double) {
+            return DOUBLE_VALUE + value;
+        } else if (value instanceof Date) {
+            return DATE_VALUE + ((Date) value).getTime();
+        } else if (value instanceof byte[]) {
+            return BYTES_VALUE + Base64.encodeBytes((byte[]) value, Base64.DONT_BREAK_LINES);
+        }
+
+        throw new IllegalArgumentException("Custom attribute [" + name + "] has an unsupported type ["
+                + (value == null ? null : value.getClass().getName()) + "]");
+    }
+
+    private static Object decodeValue(String encodedValue) {
+        if (encodedValue.startsWith(STRING_VALUE)) {
+            return encodedValue.substring(STRING_VALUE.length());
+        } else if (encodedValue.startsWith(STRING_ARRAY_VALUE)) {
+            String elements = encodedValue.substring(STRING_ARRAY_VALUE.length());
+
+            if (elements.length() == 0) {
+                return new String[0];
+            }
+
+            String[] values = elements.split(ARRAY_SEPARATOR, -1);
+
+            for (int i = 0; i < values.length; i++) {
+                values[i] = fromBytes(decodeBase64(values[i]));
+            }
+
+            return values;
+        } else if (encodedValue.startsWith(BOOLEAN_VALUE)) {
+            return Boolean.valueOf(encodedValue.substring(BOOLEAN_VALUE.length()));
+        } else if (encodedValue.startsWith(INTEGER_VALUE)) {
+            return Integer.valueOf(encodedValue.substring(INTEGER_VALUE.length()));
+        } else if (encodedValue.startsWith(LONG_VALUE)) {
+            return Long.valueOf(encodedValue.substring(LONG_VALUE.length()));
+        } else if (encodedValue.startsWith(DOUBLE_VALUE)) {
+            return Double.valueOf(encodedValue.substring(DOUBLE_VALUE.length()));
+        } else if (encodedValue.startsWith(DATE_VALUE)) {
+            return new Date(Long.parseLong(encodedValue.substring(DATE_VALUE.length())));
+        } else if (encodedValue.startsWith(BYTES_VALUE)) {
+            return decodeBase64(encodedValue.substring(BYTES_VALUE.length()));
+        }
+
+        return null;
+    }
+
+    /**
+     * Decodes the Base64 text as it is, as Base64.decode(String) would decompress values that happen to look gzipped
+     */
+    private static byte[] decodeBase64(String encodedValue) {
+        byte[] bytes;
+
+        try {
+            bytes = encodedValue.getBytes("US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+
+        return Base64.decode(bytes, 0, bytes.length);
+    }
+
+    private static byte[] toBytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String fromBytes(byte[] value) {
+        try {
+            return new String(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -61,7 +61,7 @@ import org.picketlink.idm.model.Partition;
  * @author anil saldhana
  * @since Aug 30, 2012
  */
-public abstract class LDAPEntry implements DirContext, IdentityType {
+public abstract class LDAPEntry implements DirContext, IdentityType, Cloneable {
 
     private static final long serialVersionUID = 1L;
 
@@ -122,6 +122,30 @@ public abstract class LDAPEntry implements DirContext, IdentityType {
         this.attributes = attributes;
     }
 
+    /**
+     * <p>
+     * Returns a copy of this entry, whose LDAP attributes, custom attributes and dates may be changed without affecting
+     * this entry.
+     * </p>
+     */
+    @Override
+    public LDAPEntry clone() {
+        LDAPEntry copy;
+
+        try {
+            copy = (LDAPEntry) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+
+        copy.attributes = this.attributes != null ? (Attributes) this.attributes.clone() : null;
+        copy.customAttributes = this.customAttributes != null ? this.customAttributes.clone() : null;
+        copy.createDate = this.createDate != null ? new Date(this.createDate.getTime()) : null;
+        copy.expirationDate = this.expirationDate != null ? new Date(this.expirationDate.getTime()) : null;
+
+        return copy;
+    }
+
     @Override
     public Attributes getAttributes(Name name, String[] ids) throws NamingException {
         return getAttributes(name.toString(), ids);
@@ -153,6 +153,17 @@ public class LDAPGroup extends LDAPEntry implements Group {
         return parent;
     }
 
+    @Override
+    public LDAPGroup clone() {
+        LDAPGroup copy = (LDAPGroup) super.clone();
+
+        if (this.parent instanceof LDAPEntry) {
+            copy.parent = (Group) ((LDAPEntry) this.parent).clone();
+        }
+
+        return copy;
+    }
+
     public void addChildGroup(LDAPGroup childGroup) {
         Attribute memberAttribute = getLDAPAttributes().get(MEMBER);
         
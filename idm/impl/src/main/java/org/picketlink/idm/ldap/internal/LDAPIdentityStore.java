@@ -23,18 +23,30 @@ package org.picketlink.idm.ldap.internal;
 
 import static org.picketlink.idm.ldap.internal.LDAPConstants.CN;
 import static org.picketlink.idm.ldap.internal.LDAPConstants.COMMA;
+import static org.picketlink.idm.ldap.internal.LDAPConstants.EMAIL;
 import static org.picketlink.idm.ldap.internal.LDAPConstants.EQUAL;
+import static org.picketlink.idm.ldap.internal.LDAPConstants.GIVENNAME;
 import static org.picketlink.idm.ldap.internal.LDAPConstants.MEMBER;
+import static org.picketlink.idm.ldap.internal.LDAPConstants.OBJECT_CLASS;
+import static org.picketlink.idm.ldap.internal.LDAPConstants.SN;
 import static org.picketlink.idm.ldap.internal.LDAPConstants.UID;
 
 import java.io.ByteArrayInputStream;
 import java.io.Serializable;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import javax.naming.NamingEnumeration;
@@ -42,9 +54,9 @@ import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
-import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.ModificationItem;
+import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 
 import org.picketlink.idm.credential.Credential;
@@ -57,9 +69,13 @@ import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.GroupRole;
 import org.picketlink.idm.model.Role;
 import org.picketlink.idm.model.User;
+import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
+import org.picketlink.idm.query.QueryResultIterator;
+import org.picketlink.idm.spi.BulkIdentityStore;
 import org.picketlink.idm.spi.IdentityStore;
 import org.picketlink.idm.spi.IdentityStoreInvocationContext;
+import org.picketlink.idm.spi.StreamingIdentityStore;
 
 /**
  * An IdentityStore implementation backed by an LDAP directory
@@ -68,18 +84,38 @@ import org.picketlink.idm.spi.IdentityStoreInvocationContext;
  * @author Anil Saldhana
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  */
-public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration> {
+public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration>, BulkIdentityStore, StreamingIdentityStore {
 
     private static final String USER_CERTIFICATE_ATTRIBUTE = "usercertificate";
     private static final String USER_PASSWORD_ATTRIBUTE = "userpassword";
 
-    private LDAPConfiguration configuration;
-    private IdentityStoreInvocationContext context;
+    /**
+     * The attributes mapped by {@link LDAPUser}, which are the only ones requested when loading users
+     */
+    private static final String[] USER_ATTRIBUTES = new String[] { OBJECT_CLASS, UID, CN, SN, GIVENNAME, EMAIL,
+            USER_CERTIFICATE_ATTRIBUTE };
+
+    /**
+     * The attributes mapped by {@link LDAPGroup} and {@link LDAPRole}
+     */
+    private static final String[] GROUP_ATTRIBUTES = new String[] { OBJECT_CLASS, CN, MEMBER };
+
+    private volatile LDAPConfiguration configuration;
+
+    /**
+     * The invocation context is bound to the calling thread, so that a single instance may be shared
+     */
+    private final ThreadLocal<IdentityStoreInvocationContext> context = new ThreadLocal<IdentityStoreInvocationContext>();
 
     @Override
     public void setup(LDAPConfiguration config, IdentityStoreInvocationContext context) {
         this.configuration = config;
-        this.context = context;
+
+        if (context == null) {
+            this.context.remove();
+        } else {
+            this.context.set(context);
+        }
     }
 
     @Override
@@ -89,7 +125,7 @@ public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration> {
 
     @Override
     public IdentityStoreInvocationContext getContext() {
-        return this.context;
+        return this.context.get();
     }
 
     @Override
@@ -163,6 +199,9 @@ public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration> {
 
                 updatedUser.setFullName(getUserCN(updatedUser));
 
+                // all changes are collected and sent to the server in a single modify operation
+                List<ModificationItem> modifications = new ArrayList<ModificationItem>();
+
                 NamingEnumeration<? extends Attribute> storedAttributes = storedUser.getLDAPAttributes().getAll();
 
                 // check for attributes to replace or remove
@@ -173,9 +212,9 @@ public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration> {
                     // if the stored attribute exists in the updated attributes list, replace it. Otherwise remove it from the
                     // store.
                     if (updatedAttribute != null) {
-                        getLdapManager().modifyAttribute(storedUser.getDN(), updatedAttribute);
+                        modifications.add(new ModificationItem(DirContext.REPLACE_ATTRIBUTE, updatedAttribute));
                     } else {
-                        getLdapManager().removeAttribute(storedUser.getDN(), storedAttribute);
+                        modifications.add(new ModificationItem(DirContext.REMOVE_ATTRIBUTE, storedAttribute));
                     }
                 }
 
@@ -186,13 +225,14 @@ public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration> {
                     Attribute updatedAttribute = enumUpdatedAttributes.next();
                     Attribute storedAttribute = storedUser.getLDAPAttributes().get(updatedAttribute.getID());
 
-                    // if the attribute is not stored and is a managed attribute add it to the store.
+                    // if the attribute was not loaded and is a managed attribute write it to the store. Only the projected
+                    // attributes are loaded, so the entry may already hold a value and a REPLACE is used instead of an ADD.
                     if (storedAttribute == null && getLdapManager().isManagedAttribute(updatedAttribute.getID())) {
-                        getLdapManager().addAttribute(storedUser.getDN(), updatedAttribute);
+                        modifications.add(new ModificationItem(DirContext.REPLACE_ATTRIBUTE, updatedAttribute));
                     }
                 }
 
-                updateCustomAttributes(updatedUser);
+                updateCustomAttributes(storedUser, updatedUser, modifications);
             } catch (NamingException e) {
                 throw new RuntimeException(e);
             }
@@ -239,66 +279,83 @@ public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration> {
     public User getUser(String name) {
         final String baseDN = this.configuration.getUserDNSuffix();
 
-        List<User> answer = getLdapManager().searchByAttribute(baseDN, UID, name, new LDAPSearchCallback<User>() {
+        // custom attributes are loaded once the search has finished, so that the connection used by the search is not held
+        // while another one is borrowed from the pool
+        List<LDAPUser> answer = getLdapManager().searchByAttribute(baseDN, UID, name, getReturnedAttributes(USER_ATTRIBUTES),
+                new LDAPSearchCallback<LDAPUser>() {
 
-            @Override
-            public User processResult(SearchResult sr) {
-                LDAPUser user = new LDAPUser(baseDN, sr.getAttributes());
+                    @Override
+                    public LDAPUser processResult(SearchResult sr) {
+                        return new LDAPUser(baseDN, sr.getAttributes());
+                    }
 
-                user.setCustomAttributes(getCustomAttributes(user.getDN()));
+                });
 
-                return user;
-            }
+        if (answer.isEmpty()) {
+            return null;
+        }
 
-        });
+        LDAPUser user = answer.get(0);
 
-        return answer.isEmpty() ? null : answer.get(0);
+        loadCustomAttributes(user);
+
+        return user;
     }
 
     @Override
     public Group getGroup(String name) {
         final String baseDN = this.configuration.getGroupDNSuffix();
 
-        List<Group> answer = getLdapManager().searchByAttribute(baseDN, CN, name, new LDAPSearchCallback<Group>() {
+        List<LDAPGroup> answer = getLdapManager().searchByAttribute(baseDN, CN, name,
+                getReturnedAttributes(GROUP_ATTRIBUTES), new LDAPSearchCallback<LDAPGroup>() {
+
+                    @Override
+                    public LDAPGroup processResult(SearchResult sr) {
+                        return new LDAPGroup(sr.getAttributes(), baseDN);
+                    }
 
-            @Override
-            public Group processResult(SearchResult sr) {
-                LDAPGroup ldapGroup = new LDAPGroup(sr.getAttributes(), baseDN);
+                });
 
-                ldapGroup.setCustomAttributes(getCustomAttributes(ldapGroup.getDN()));
+        if (answer.isEmpty()) {
+            return null;
+        }
 
-                Group parentGroup = getParentGroup(ldapGroup);
+        LDAPGroup ldapGroup = answer.get(0);
 
-                if (parentGroup != null) {
-                    ldapGroup.setParentGroup(parentGroup);
-                }
+        loadCustomAttributes(ldapGroup);
 
-                return ldapGroup;
-            }
+        Group parentGroup = getParentGroup(ldapGroup);
 
-        });
+        if (parentGroup != null) {
+            ldapGroup.setParentGroup(parentGroup);
+        }
 
-        return answer.isEmpty() ? null : answer.get(0);
+        return ldapGroup;
     }
 
     @Override
     public Role getRole(String name) {
         final String baseDN = this.configuration.getRoleDNSuffix();
 
-        List<Role> answer = getLdapManager().searchByAttribute(baseDN, CN, name, new LDAPSearchCallback<Role>() {
+        List<LDAPRole> answer = getLdapManager().searchByAttribute(baseDN, CN, name, getReturnedAttributes(GROUP_ATTRIBUTES),
+                new LDAPSearchCallback<LDAPRole>() {
 
-            @Override
-            public Role processResult(SearchResult sr) {
-                LDAPRole ldapRole = new LDAPRole(sr.getAttributes(), baseDN);
+                    @Override
+                    public LDAPRole processResult(SearchResult sr) {
+                        return new LDAPRole(sr.getAttributes(), baseDN);
+                    }
 
-                ldapRole.setCustomAttributes(getCustomAttributes(ldapRole.getDN()));
+                });
 
-                return ldapRole;
-            }
+        if (answer.isEmpty()) {
+            return null;
+        }
 
-        });
+        LDAPRole ldapRole = answer.get(0);
 
-        return answer.isEmpty() ? null : answer.get(0);
+        loadCustomAttributes(ldapRole);
+
+        return ldapRole;
     }
 
     @Override
@@ -337,6 +394,86 @@ public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration> {
         }
     }
 
+    @Override
+    public void addAll(Collection<? extends IdentityType> identityTypes) {
+        for (IdentityType identityType : identityTypes) {
+            add(identityType);
+        }
+    }
+
+    /**
+     * <p>
+     * Creates the given memberships. Each role and group is loaded once and its member attribute is written once, with all
+     * the new members, instead of once per membership.
+     * </p>
+     */
+    @Override
+    public void createMemberships(Collection<? extends GroupRole> memberships) {
+        Map<String, LDAPRole> roles = new LinkedHashMap<String, LDAPRole>();
+        Map<String, LDAPGroup> groups = new LinkedHashMap<String, LDAPGroup>();
+        Map<String, LDAPUser> users = new HashMap<String, LDAPUser>();
+
+        for (GroupRole membership : memberships) {
+            if (!(membership.getMember() instanceof User)) {
+                // FIXME implement Group membership
+                continue;
+            }
+
+            String userId = ((User) membership.getMember()).getId();
+            LDAPUser ldapUser = users.get(userId);
+
+            if (ldapUser == null) {
+                ldapUser = (LDAPUser) getUser(userId);
+                users.put(userId, ldapUser);
+            }
+
+            LDAPRole ldapRole = null;
+
+            if (membership.getRole() != null) {
+                String roleName = membership.getRole().getName();
+                ldapRole = roles.get(roleName);
+
+                if (ldapRole == null) {
+                    ldapRole = (LDAPRole) getRole(roleName);
+                    roles.put(roleName, ldapRole);
+                }
+
+                ldapRole.addUser(ldapUser.getDN());
+            }
+
+            if (membership.getGroup() != null) {
+                String groupName = membership.getGroup().getName();
+                LDAPGroup ldapGroup = groups.get(groupName);
+
+                if (ldapGroup == null) {
+                    ldapGroup = (LDAPGroup) getGroup(groupName);
+                    groups.put(groupName, ldapGroup);
+                }
+
+                if (ldapRole != null) {
+                    ldapGroup.addRole(ldapRole);
+                }
+
+                ldapGroup.addUser(ldapUser.getDN());
+            }
+        }
+
+        for (LDAPRole ldapRole : roles.values()) {
+            getLdapManager().modifyAttribute(ldapRole.getDN(), ldapRole.getLDAPAttributes().get(MEMBER));
+        }
+
+        for (LDAPGroup ldapGroup : groups.values()) {
+            getLdapManager().modifyAttribute(ldapGroup.getDN(), ldapGroup.getLDAPAttributes().get(MEMBER));
+        }
+    }
+
+    @Override
+    public void removeMemberships(Collection<? extends GroupRole> memberships) {
+        for (GroupRole membership : memberships) {
+            removeMembership(membership.getMember(), membership.getGroup(), membership.getRole());
+        }
+    }
+
     @Override
     public void removeMembership(IdentityType member, Group group, Role role) {
         if (member instanceof User) {
@@ -509,10 +646,142 @@ public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration> {
         }
     }
 
+    /**
+     * <p>
+     * Executes the given query as a single paged search below the base DN of the queried type. The directory has no notion of
+     * offsets, so the entries before the offset are skipped as they are streamed, and the search stops once the limit has been
+     * reached. Membership parameters are resolved to the member DNs of the given roles and groups beforehand.
+     * </p>
+     */
     @Override
-    public List<IdentityType> fetchQueryResults(Map<QueryParameter, Object> parameters) {
-        // TODO implement this
-        return null;
+    public <I extends IdentityType> List<I> fetchQueryResults(IdentityQuery<I> identityQuery) {
+        final QuerySearch<I> search = new QuerySearch<I>(identityQuery);
+        final List<I> result = new ArrayList<I>();
+
+        if (search.isEmpty()) {
+            return result;
+        }
+
+        final int offset = identityQuery.getOffset();
+        final int limit = identityQuery.getLimit();
+
+        // without membership parameters every entry returned by the directory is a match, so the directory can stop the search
+        int sizeLimit = search.allowedDNs == null && limit > 0 ? offset + limit : 0;
+
+        getLdapManager().stream(search.baseDN, search.filter, search.filterArgs, search.returnedAttributes,
+                SearchControls.ONELEVEL_SCOPE, sizeLimit, new LDAPSearchCallback<Object>() {
+
+                    private int matched;
+
+                    @Override
+                    public Object processResult(SearchResult sr) {
+                        if (limit > 0 && result.size() >= limit) {
+                            return null;
+                        }
+
+                        I identity = search.toIdentity(sr);
+
+                        if (identity != null && this.matched++ >= offset) {
+                            result.add(identity);
+                        }
+
+                        return null;
+                    }
+
+                });
+
+        for (I identity : result) {
+            populate(identity);
+        }
+
+        return result;
+    }
+
+    /**
+     * <p>
+     * Walks the results of the given query with a single paged search, reading one page of <code>fetchSize</code> entries
+     * at a time. Running {@link #fetchQueryResults(IdentityQuery)} for each page would repeat the search and stream past all
+     * of the previous pages every time.
+     * </p>
+     */
+    @Override
+    public <I extends IdentityType> QueryResultIterator<I> iterateQueryResults(IdentityQuery<I> identityQuery) {
+        return new SearchResultIterator<I>(new QuerySearch<I>(identityQuery), identityQuery);
+    }
+
+    /**
+     * <p>
+     * Loads the custom attributes and the parent group of an entry returned by a query.
+     * </p>
+     */
+    private void populate(IdentityType identity) {
+        loadCustomAttributes((LDAPEntry) identity);
+
+        if (LDAPGroup.class.isInstance(identity)) {
+            Group parentGroup = getParentGroup((LDAPGroup) identity);
+
+            if (parentGroup != null) {
+                ((LDAPGroup) identity).setParentGroup(parentGroup);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Appends a filter for the given attribute to the query filter. Multiple values are combined with an OR filter.
+     * </p>
+     */
+    private void appendQueryFilter(StringBuilder filter, List<Object> filterArgs, String attributeName, Object[] values) {
+        if (values.length > 1) {
+            filter.append("(|");
+        }
+
+        for (Object value : values) {
+            filter.append("(").append(attributeName).append("={").append(filterArgs.size()).append("})");
+            filterArgs.add(String.valueOf(value));
+        }
+
+        if (values.length > 1) {
+            filter.append(")");
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the lower cased DNs of the members of any of the given roles or groups, which may be provided either as instances
+     * or by name.
+     * </p>
+     */
+    private Set<String> getMemberDNs(Object[] values, boolean roles) {
+        Set<String> memberDNs = new HashSet<String>();
+
+        for (Object value : values) {
+            LDAPEntry entry;
+
+            if (roles) {
+                entry = (LDAPEntry) getRole(Role.class.isInstance(value) ? ((Role) value).getName() : String.valueOf(value));
+            } else {
+                entry = (LDAPEntry) getGroup(Group.class.isInstance(value) ? ((Group) value).getName() : String.valueOf(value));
+            }
+
+            Attribute members = entry != null ? entry.getLDAPAttributes().get(MEMBER) : null;
+
+            if (members == null) {
+                continue;
+            }
+
+            try {
+                NamingEnumeration<?> memberValues = members.getAll();
+
+                while (memberValues.hasMore()) {
+                    memberDNs.add(String.valueOf(memberValues.next()).toLowerCase());
+                }
+            } catch (NamingException e) {
+                throw new RuntimeException("Error reading the members of [" + entry.getDN() + "]", e);
+            }
+        }
+
+        return memberDNs;
     }
 
     @Override
@@ -525,7 +794,7 @@ public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration> {
 
         LDAPRole updatedRole = (LDAPRole) role;
 
-        updateCustomAttributes(updatedRole);
+        updateCustomAttributes(storedRole, updatedRole, new ArrayList<ModificationItem>());
     }
     
     @Override
@@ -538,7 +807,7 @@ public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration> {
 
         LDAPGroup updatedGroup = (LDAPGroup) group;
 
-        updateCustomAttributes(updatedGroup);
+        updateCustomAttributes(storedGroup, updatedGroup, new ArrayList<ModificationItem>());
     }
 
     @Override
@@ -611,6 +880,25 @@ public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration> {
         return ldapUser;
     }
 
+    /**
+     * <p>
+     * Loads the custom attributes of the given {@link LDAPEntry}. When custom attributes are stored inline they were already
+     * returned with the entry, otherwise the child entry holding them is looked up.
+     * </p>
+     * 
+     * @param ldapEntry
+     */
+    private void loadCustomAttributes(LDAPEntry ldapEntry) {
+        if (this.configuration.isInlineCustomAttributes()) {
+            Attribute inlineAttributes = ldapEntry.getLDAPAttributes().remove(
+                    this.configuration.getCustomAttributesAttributeName());
+
+            ldapEntry.setCustomAttributes(LDAPCustomAttributes.fromLDAPAttribute(inlineAttributes));
+        } else {
+            ldapEntry.setCustomAttributes(getCustomAttributes(ldapEntry.getDN()));
+        }
+    }
+
     /**
      * <p>
      * Returns the custom attributes for the given parent DN.
@@ -663,15 +951,39 @@ public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration> {
 
     /**
      * <p>
-     * Stores the given {@link LDAPEntry} instance in the LDAP tree. This method performs a bind for both
-     * {@link LDAPEntry} instance and its {@link LDAPCustomAttributes}.
+     * Stores the given {@link LDAPEntry} instance in the LDAP tree. Unless custom attributes are stored inline, this method
+     * performs a bind for both {@link LDAPEntry} instance and its {@link LDAPCustomAttributes}.
      * </p>
      * 
      * @param ldapEntry
      */
     private void store(LDAPEntry ldapEntry) {
-        getLdapManager().bind(ldapEntry.getDN(), ldapEntry);
-        getLdapManager().bind(getCustomAttributesDN(ldapEntry.getDN()), ldapEntry.getCustomAttributes());
+        if (this.configuration.isInlineCustomAttributes()) {
+            String attributeName = this.configuration.getCustomAttributesAttributeName();
+            String objectClass = this.configuration.getCustomAttributesObjectClass();
+            Attributes attributes = ldapEntry.getLDAPAttributes();
+            Attribute objectClasses = attributes.get(OBJECT_CLASS);
+
+            if (objectClass != null && objectClasses != null && !objectClasses.contains(objectClass)) {
+                objectClasses.add(objectClass);
+            }
+
+            Attribute customAttributes = ldapEntry.getCustomAttributes().toLDAPAttribute(attributeName);
+
+            // servers reject attributes without values, so an entry without custom attributes is stored without it
+            if (customAttributes.size() > 0) {
+                attributes.put(customAttributes);
+            }
+
+            try {
+                getLdapManager().bind(ldapEntry.getDN(), ldapEntry);
+            } finally {
+                attributes.remove(attributeName);
+            }
+        } else {
+            getLdapManager().bind(ldapEntry.getDN(), ldapEntry);
+            getLdapManager().bind(getCustomAttributesDN(ldapEntry.getDN()), ldapEntry.getCustomAttributes());
+        }
     }
 
     /**
@@ -683,12 +995,14 @@ public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration> {
      * @param ldapEntry
      */
     private void remove(LDAPEntry ldapEntry) {
-        String customDN = getCustomAttributesDN(ldapEntry.getDN());
+        if (!this.configuration.isInlineCustomAttributes()) {
+            String customDN = getCustomAttributesDN(ldapEntry.getDN());
 
-        try {
-            getLdapManager().lookup(customDN);
-            getLdapManager().destroySubcontext(customDN);
-        } catch (Exception ignore) {
+            try {
+                getLdapManager().lookup(customDN);
+                getLdapManager().destroySubcontext(customDN);
+            } catch (Exception ignore) {
+            }
         }
 
         getLdapManager().destroySubcontext(ldapEntry.getDN());
@@ -702,33 +1016,38 @@ public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration> {
      * @param childGroup
      * @return
      */
-    private Group getParentGroup(LDAPGroup childGroup) {
-        Attributes matchAttrs = new BasicAttributes(true);
-        matchAttrs.put(new BasicAttribute(MEMBER, CN + EQUAL + childGroup.getName() + COMMA
-                + this.configuration.getGroupDNSuffix()));
-        // Search for objects with these matching attributes
-        try {
-            NamingEnumeration<SearchResult> answer = getLdapManager().search(this.configuration.getGroupDNSuffix(), matchAttrs,
-                    new String[] { CN });
-            while (answer.hasMoreElements()) {
-                SearchResult sr = (SearchResult) answer.nextElement();
-                Attributes attributes = sr.getAttributes();
-                String cn = (String) attributes.get(CN).get();
-                return getGroup(cn);
-            }
-        } catch (NamingException e) {
-            throw new RuntimeException("Error looking parent group for [" + childGroup.getDN() + "]", e);
-        }
+    private Group getParentGroup(final LDAPGroup childGroup) {
+        String childDN = CN + EQUAL + childGroup.getName() + COMMA + this.configuration.getGroupDNSuffix();
+
+        List<String> answer = getLdapManager().search(this.configuration.getGroupDNSuffix(), "(" + MEMBER + "={0})",
+                new Object[] { childDN }, new String[] { CN }, SearchControls.ONELEVEL_SCOPE, 1,
+                new LDAPSearchCallback<String>() {
+
+                    @Override
+                    public String processResult(SearchResult sr) {
+                        try {
+                            return (String) sr.getAttributes().get(CN).get();
+                        } catch (NamingException e) {
+                            throw new RuntimeException("Error looking parent group for [" + childGroup.getDN() + "]", e);
+                        }
+                    }
 
-        return null;
+                });
+
+        return answer.isEmpty() ? null : getGroup(answer.get(0));
     }
-    
+
     /**
-     * <p>Updates the custom attributes for the given {@link LDAPEntry} instance.</p>
+     * <p>
+     * Updates the custom attributes for the given {@link LDAPEntry} instance. The given modifications are applied to the
+     * entry in a single operation, together with the custom attributes when they are stored inline.
+     * </p>
      * 
+     * @param storedEntry the entry as currently stored
      * @param ldapEntry
+     * @param modifications
      */
-    private void updateCustomAttributes(LDAPEntry ldapEntry) {
+    private void updateCustomAttributes(LDAPEntry storedEntry, LDAPEntry ldapEntry, List<ModificationItem> modifications) {
         LDAPCustomAttributes attributes = ldapEntry.getCustomAttributes();
 
         Set<Entry<String, Object>> entrySet = new HashMap<String, Object>(attributes.getAttributes()).entrySet();
@@ -744,10 +1063,262 @@ public class LDAPIdentityStore implements IdentityStore<LDAPConfiguration> {
             }
         }
 
-        getLdapManager().rebind(getCustomAttributesDN(ldapEntry.getDN()), attributes);
+        if (this.configuration.isInlineCustomAttributes()) {
+            Attribute customAttributes = attributes.toLDAPAttribute(this.configuration.getCustomAttributesAttributeName());
+
+            // an attribute without values can not be written, so removing the last custom attribute removes the whole
+            // attribute. Entries without custom attributes are stored without it, in which case there is nothing to remove.
+            if (customAttributes.size() > 0) {
+                modifications.add(new ModificationItem(DirContext.REPLACE_ATTRIBUTE, customAttributes));
+            } else if (storedEntry.getCustomAttributes().isStored()) {
+                modifications.add(new ModificationItem(DirContext.REMOVE_ATTRIBUTE, customAttributes));
+            }
+        }
+
+        if (!modifications.isEmpty()) {
+            getLdapManager().modifyAttributes(ldapEntry.getDN(),
+                    modifications.toArray(new ModificationItem[modifications.size()]));
+        }
+
+        if (!this.configuration.isInlineCustomAttributes()) {
+            getLdapManager().rebind(getCustomAttributesDN(ldapEntry.getDN()), attributes);
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the attributes to request when loading an entry: the ones mapped by the store, those configured to be
+     * returned and any attribute already known to be managed.
+     * </p>
+     * 
+     * @param mappedAttributes
+     * @return
+     */
+    private String[] getReturnedAttributes(String[] mappedAttributes) {
+        Set<String> attributes = new LinkedHashSet<String>();
+
+        for (String attribute : mappedAttributes) {
+            attributes.add(attribute);
+        }
+
+        attributes.addAll(this.configuration.getReturnedAttributes());
+
+        if (this.configuration.isInlineCustomAttributes()) {
+            attributes.add(this.configuration.getCustomAttributesAttributeName());
+        }
+        attributes.addAll(getLdapManager().getManagedAttributes());
+
+        return attributes.toArray(new String[attributes.size()]);
     }
 
     public LDAPOperationManager getLdapManager() {
         return this.configuration.getLdapManager();
     }
+
+    /**
+     * <p>
+     * The search that answers an {@link IdentityQuery}: the base DN and object class of the queried type, the filter built
+     * from the query parameters and, for membership parameters, the DNs an entry must have to be a match.
+     * </p>
+     */
+    private class QuerySearch<I extends IdentityType> {
+
+        private final Class<I> identityType;
+        private final String baseDN;
+        private final String filter;
+        private final Object[] filterArgs;
+        private final String[] returnedAttributes;
+        private final Set<String> allowedDNs;
+
+        QuerySearch(IdentityQuery<I> identityQuery) {
+            this.identityType = identityQuery.getIdentityType();
+
+            String objectClass;
+            String[] mappedAttributes;
+
+            if (User.class.isAssignableFrom(this.identityType)) {
+                this.baseDN = configuration.getUserDNSuffix();
+                objectClass = "inetOrgPerson";
+                mappedAttributes = USER_ATTRIBUTES;
+            } else if (Group.class.isAssignableFrom(this.identityType)) {
+                this.baseDN = configuration.getGroupDNSuffix();
+                objectClass = "groupOfNames";
+                mappedAttributes = GROUP_ATTRIBUTES;
+            } else if (Role.class.isAssignableFrom(this.identityType)) {
+                this.baseDN = configuration.getRoleDNSuffix();
+                objectClass = "groupOfNames";
+                mappedAttributes = GROUP_ATTRIBUTES;
+            } else {
+                throw new UnsupportedOperationException("IdentityType not supported: " + this.identityType);
+            }
+
+            StringBuilder filter = new StringBuilder("(&(" + OBJECT_CLASS + "={0})");
+            List<Object> filterArgs = new ArrayList<Object>();
+            filterArgs.add(objectClass);
+
+            Set<String> memberDNs = null;
+
+            for (Entry<QueryParameter, Object[]> entry : identityQuery.getParameters().entrySet()) {
+                QueryParameter parameter = entry.getKey();
+                Object[] values = entry.getValue();
+
+                if (parameter == User.ID) {
+                    appendQueryFilter(filter, filterArgs, UID, values);
+                } else if (parameter == User.FIRST_NAME) {
+                    appendQueryFilter(filter, filterArgs, GIVENNAME, values);
+                } else if (parameter == User.LAST_NAME) {
+                    appendQueryFilter(filter, filterArgs, SN, values);
+                } else if (parameter == User.EMAIL) {
+                    appendQueryFilter(filter, filterArgs, EMAIL, values);
+                } else if (parameter == Group.NAME || parameter == Role.NAME) {
+                    appendQueryFilter(filter, filterArgs, CN, values);
+                } else if (parameter == IdentityType.HAS_ROLE || parameter == IdentityType.MEMBER_OF) {
+                    Set<String> members = getMemberDNs(values, parameter == IdentityType.HAS_ROLE);
+
+                    if (memberDNs == null) {
+                        memberDNs = members;
+                    } else {
+                        memberDNs.retainAll(members);
+                    }
+                } else {
+                    throw new UnsupportedOperationException("Query parameter not supported: " + parameter);
+                }
+            }
+
+            filter.append(")");
+
+            this.filter = filter.toString();
+            this.filterArgs = filterArgs.toArray();
+            this.returnedAttributes = getReturnedAttributes(mappedAttributes);
+            this.allowedDNs = memberDNs;
+        }
+
+        /**
+         * Returns true if the query can't match any entry, so there is no need to search the directory
+         */
+        boolean isEmpty() {
+            return this.allowedDNs != null && this.allowedDNs.isEmpty();
+        }
+
+        /**
+         * Creates the identity for a search result, or returns null if the entry is not a member of the queried groups or
+         * roles. Custom attributes and parent groups are not loaded.
+         */
+        @SuppressWarnings("unchecked")
+        I toIdentity(SearchResult sr) {
+            if (this.allowedDNs != null && !this.allowedDNs.contains(sr.getNameInNamespace().toLowerCase())) {
+                return null;
+            }
+
+            if (User.class.isAssignableFrom(this.identityType)) {
+                return (I) new LDAPUser(this.baseDN, sr.getAttributes());
+            } else if (Group.class.isAssignableFrom(this.identityType)) {
+                return (I) new LDAPGroup(sr.getAttributes(), this.baseDN);
+            } else {
+                return (I) new LDAPRole(sr.getAttributes(), this.baseDN);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Iterates the results of a query over a single {@link LDAPSearchCursor}, one page at a time. The connection held by the
+     * cursor is returned to the pool once the results or the limit have been exhausted, or when the iterator is closed.
+     * </p>
+     */
+    private class SearchResultIterator<I extends IdentityType> implements QueryResultIterator<I> {
+
+        private final QuerySearch<I> search;
+        private final LDAPSearchCursor cursor;
+        private final int offset;
+        private final int limit;
+
+        private Iterator<I> page = Collections.<I> emptyList().iterator();
+        private int matched;
+        private int returned;
+        private boolean exhausted;
+
+        SearchResultIterator(QuerySearch<I> search, IdentityQuery<I> identityQuery) {
+            this.search = search;
+            this.offset = identityQuery.getOffset();
+            this.limit = identityQuery.getLimit();
+            this.exhausted = search.isEmpty();
+            this.cursor = this.exhausted ? null : getLdapManager().openCursor(search.baseDN, search.filter,
+                    search.filterArgs, search.returnedAttributes, SearchControls.ONELEVEL_SCOPE,
+                    identityQuery.getFetchSize());
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.limit > 0 && this.returned >= this.limit) {
+                close();
+            }
+
+            while (!this.page.hasNext() && !this.exhausted) {
+                fetchPage();
+            }
+
+            return this.page.hasNext();
+        }
+
+        @Override
+        public I next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            this.returned++;
+            return this.page.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            this.exhausted = true;
+            this.page = Collections.<I> emptyList().iterator();
+
+            if (this.cursor != null) {
+                this.cursor.close();
+            }
+        }
+
+        private void fetchPage() {
+            List<SearchResult> results = this.cursor.nextPage();
+
+            if (results.isEmpty()) {
+                close();
+                return;
+            }
+
+            final List<I> identities = new ArrayList<I>();
+
+            for (SearchResult sr : results) {
+                if (this.limit > 0 && this.returned + identities.size() >= this.limit) {
+                    break;
+                }
+
+                I identity = this.search.toIdentity(sr);
+
+                if (identity != null && this.matched++ >= this.offset) {
+                    identities.add(identity);
+                }
+            }
+
+            // the cursor still holds its connection for the next page, which populating the entries reuses
+            getLdapManager().runOnCursor(this.cursor, new Runnable() {
+                @Override
+                public void run() {
+                    for (I identity : identities) {
+                        populate(identity);
+                    }
+                }
+            });
+
+            this.page = identities.iterator();
+        }
+    }
 }
\ No newline at end of file
@@ -22,13 +22,23 @@
 
 package org.picketlink.idm.ldap.internal;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
 import javax.naming.Context;
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.SizeLimitExceededException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
@@ -37,15 +47,21 @@ import javax.naming.directory.DirContext;
 import javax.naming.directory.ModificationItem;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
-import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
 
 /**
  * <p>
  * This class provides a set of operations to manage LDAP trees.
  * </p>
  * <p>
- * A different {@link DirContext} is used to perform authentication. The reason is that while managing the ldap tree information
- * bindings are not allowed. Also, instead of creating a new {@link DirContext} each time we reuse it.
+ * Connections are taken from two {@link LDAPConnectionPool} instances. The admin pool holds connections bound with the
+ * configured bind DN and is used to read and manage the ldap tree. The bind pool is only used to validate user credentials:
+ * each authentication borrows a connection, binds it with the user's DN and password, removes them from the connection's
+ * environment and returns it. Its connections are created without the admin credentials. Each connection is used by a
+ * single thread at a time, so operations and logins may run concurrently without sharing JNDI state.
  * </p>
  * 
  * @author Anil Saldhana
@@ -53,17 +69,58 @@ import javax.naming.ldap.InitialLdapContext;
  */
 public class LDAPOperationManager {
 
-    private List<String> managedAttributes = new ArrayList<String>();
+    public static final int DEFAULT_POOL_MIN_SIZE = 1;
+    public static final int DEFAULT_POOL_MAX_SIZE = 10;
+    public static final long DEFAULT_POOL_MAX_WAIT = 30 * 1000;
+    public static final long DEFAULT_POOL_IDLE_TIMEOUT = 5 * 60 * 1000;
+    public static final boolean DEFAULT_POOL_TEST_ON_BORROW = false;
+    public static final int DEFAULT_PAGE_SIZE = 500;
 
-    @SuppressWarnings("unused")
-    private Properties properties;
-    private DirContext context;
-    private DirContext authenticationContext;
+    private Set<String> managedAttributes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private Set<String> unmanagedAttributes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final LDAPConnectionPool adminPool;
+    private final LDAPConnectionPool bindPool;
+
+    private volatile int pageSize = DEFAULT_PAGE_SIZE;
+
+    /**
+     * The connection of the cursor whose entries the current thread is processing, see {@link #runOnCursor}.
+     */
+    private final ThreadLocal<LdapContext> cursorContext = new ThreadLocal<LdapContext>();
 
     public LDAPOperationManager(Properties properties) throws NamingException {
-        this.context = new InitialLdapContext(properties, null);
-        this.authenticationContext = new InitialLdapContext(properties, null);
-        this.properties = properties;
+        this(new LDAPConnectionPool("admin", properties, DEFAULT_POOL_MIN_SIZE, DEFAULT_POOL_MAX_SIZE,
+                DEFAULT_POOL_MAX_WAIT, DEFAULT_POOL_IDLE_TIMEOUT, DEFAULT_POOL_TEST_ON_BORROW), new LDAPConnectionPool("bind",
+                createBindEnvironment(properties), 0, DEFAULT_POOL_MAX_SIZE, DEFAULT_POOL_MAX_WAIT,
+                DEFAULT_POOL_IDLE_TIMEOUT, false));
+
+        this.adminPool.initialize();
+    }
+
+    public LDAPOperationManager(LDAPConnectionPool adminPool, LDAPConnectionPool bindPool) {
+        this.adminPool = adminPool;
+        this.bindPool = bindPool;
+    }
+
+    /**
+     * <p>
+     * Returns a copy of the admin environment without the admin credentials. Connections of the bind pool are bound with
+     * the user's credentials, so they are opened anonymously.
+     * </p>
+     * 
+     * @param properties the environment of the admin pool
+     * @return
+     */
+    static Properties createBindEnvironment(Properties properties) {
+        Properties bindEnv = new Properties();
+
+        bindEnv.putAll(properties);
+        bindEnv.remove(Context.SECURITY_AUTHENTICATION);
+        bindEnv.remove(Context.SECURITY_PRINCIPAL);
+        bindEnv.remove(Context.SECURITY_CREDENTIALS);
+
+        return bindEnv;
     }
 
     /**
@@ -73,12 +130,14 @@ public class LDAPOperationManager {
      * 
      * @param ldapUser
      */
-    public void bind(String dn, Object object) {
-        try {
-            context.bind(dn, object);
-        } catch (NamingException e) {
-            throw new RuntimeException(e);
-        }
+    public void bind(final String dn, final Object object) {
+        execute(new LDAPOperation<Void>() {
+            @Override
+            public Void execute(LdapContext context) throws NamingException {
+                context.bind(dn, object);
+                return null;
+            }
+        });
     }
 
     /**
@@ -90,12 +149,7 @@ public class LDAPOperationManager {
      * @param attribute
      */
     public void modifyAttribute(String dn, Attribute attribute) {
-        try {
-            ModificationItem[] mods = new ModificationItem[] { new ModificationItem(DirContext.REPLACE_ATTRIBUTE, attribute) };
-            context.modifyAttributes(dn, mods);
-        } catch (NamingException e) {
-            throw new RuntimeException(e);
-        }
+        modifyAttributes(dn, new ModificationItem[] { new ModificationItem(DirContext.REPLACE_ATTRIBUTE, attribute) });
     }
 
     /**
@@ -107,12 +161,7 @@ public class LDAPOperationManager {
      * @param attribute
      */
     public void removeAttribute(String dn, Attribute attribute) {
-        try {
-            ModificationItem[] mods = new ModificationItem[] { new ModificationItem(DirContext.REMOVE_ATTRIBUTE, attribute) };
-            context.modifyAttributes(dn, mods);
-        } catch (NamingException e) {
-            throw new RuntimeException(e);
-        }
+        modifyAttributes(dn, new ModificationItem[] { new ModificationItem(DirContext.REMOVE_ATTRIBUTE, attribute) });
     }
 
     /**
@@ -124,12 +173,25 @@ public class LDAPOperationManager {
      * @param attribute
      */
     public void addAttribute(String dn, Attribute attribute) {
-        try {
-            ModificationItem[] mods = new ModificationItem[] { new ModificationItem(DirContext.ADD_ATTRIBUTE, attribute) };
-            context.modifyAttributes(dn, mods);
-        } catch (NamingException e) {
-            throw new RuntimeException(e);
-        }
+        modifyAttributes(dn, new ModificationItem[] { new ModificationItem(DirContext.ADD_ATTRIBUTE, attribute) });
+    }
+
+    /**
+     * <p>
+     * Applies all the given modifications to the entry with the given DN in a single operation.
+     * </p>
+     * 
+     * @param dn
+     * @param mods
+     */
+    public void modifyAttributes(final String dn, final ModificationItem[] mods) {
+        execute(new LDAPOperation<Void>() {
+            @Override
+            public Void execute(LdapContext context) throws NamingException {
+                context.modifyAttributes(dn, mods);
+                return null;
+            }
+        });
     }
 
     /**
@@ -140,12 +202,14 @@ public class LDAPOperationManager {
      * @param dn
      * @param object
      */
-    public void rebind(String dn, Object object) {
-        try {
-            context.rebind(dn, object);
-        } catch (NamingException e) {
-            throw new RuntimeException(e);
-        }
+    public void rebind(final String dn, final Object object) {
+        execute(new LDAPOperation<Void>() {
+            @Override
+            public Void execute(LdapContext context) throws NamingException {
+                context.rebind(dn, object);
+                return null;
+            }
+        });
     }
 
     /**
@@ -158,64 +222,246 @@ public class LDAPOperationManager {
      * @throws NamingException
      */
     @SuppressWarnings("unchecked")
-    public <T> T lookup(String dn) {
-        try {
-            return (T) context.lookup(dn);
-        } catch (NamingException e) {
-            throw new RuntimeException(e);
-        }
+    public <T> T lookup(final String dn) {
+        return (T) execute(new LDAPOperation<Object>() {
+            @Override
+            public Object execute(LdapContext context) throws NamingException {
+                return context.lookup(dn);
+            }
+        });
     }
 
     /**
      * <p>
-     * Searches the LDAP tree.
+     * Searches the entries directly below the base DN with the given attribute value. All attributes of the matching entries
+     * are returned.
      * </p>
      * 
      * @param baseDN
-     * @param attributesToSearch
+     * @param attributeName
+     * @param attributeValue
+     * @param searchCallback
      * @return
      */
     public <T extends Object> List<T> searchByAttribute(String baseDN, String attributeName, String attributeValue,
             LDAPSearchCallback<T> searchCallback) {
+        return searchByAttribute(baseDN, attributeName, attributeValue, null, searchCallback);
+    }
+
+    /**
+     * <p>
+     * Searches the entries directly below the base DN with the given attribute value, returning only the given attributes.
+     * </p>
+     * 
+     * @param baseDN
+     * @param attributeName
+     * @param attributeValue
+     * @param attributesToReturn the attributes to return, or null to return all attributes
+     * @param searchCallback
+     * @return
+     */
+    public <T extends Object> List<T> searchByAttribute(String baseDN, String attributeName, String attributeValue,
+            String[] attributesToReturn, LDAPSearchCallback<T> searchCallback) {
+        return search(baseDN, "(" + attributeName + "={0})", new Object[] { attributeValue }, attributesToReturn,
+                SearchControls.ONELEVEL_SCOPE, 0, searchCallback);
+    }
+
+    /**
+     * <p>
+     * Searches the LDAP tree and returns the non-null values produced by the callback for each entry. Results are requested
+     * in pages using the RFC 2696 paged results control, so searches are not limited by the server side size limit.
+     * </p>
+     * 
+     * @param baseDN
+     * @param filter the search filter, which may reference the filter arguments as {0}, {1}, etc
+     * @param filterArgs
+     * @param attributesToReturn the attributes to return, or null to return all attributes
+     * @param scope one of the {@link SearchControls} scopes
+     * @param sizeLimit the maximum number of entries to process, or 0 for no limit
+     * @param searchCallback
+     * @return
+     */
+    public <T extends Object> List<T> search(String baseDN, String filter, Object[] filterArgs, String[] attributesToReturn,
+            int scope, int sizeLimit, LDAPSearchCallback<T> searchCallback) {
         List<T> result = new ArrayList<T>();
 
+        search(baseDN, filter, filterArgs, attributesToReturn, scope, sizeLimit, searchCallback, result);
+
+        return result;
+    }
+
+    /**
+     * <p>
+     * Searches the LDAP tree, passing each entry to the callback as it is received. Neither the entries nor the values
+     * returned by the callback are retained, so arbitrarily large result sets can be processed in constant memory.
+     * </p>
+     * 
+     * @param baseDN
+     * @param filter the search filter, which may reference the filter arguments as {0}, {1}, etc
+     * @param filterArgs
+     * @param attributesToReturn the attributes to return, or null to return all attributes
+     * @param scope one of the {@link SearchControls} scopes
+     * @param sizeLimit the maximum number of entries to process, or 0 for no limit
+     * @param searchCallback
+     * @return the number of entries processed
+     */
+    public int stream(String baseDN, String filter, Object[] filterArgs, String[] attributesToReturn, int scope,
+            int sizeLimit, LDAPSearchCallback<?> searchCallback) {
+        return search(baseDN, filter, filterArgs, attributesToReturn, scope, sizeLimit, searchCallback, null);
+    }
+
+    /**
+     * <p>
+     * Opens a paged search whose pages are read one at a time with {@link LDAPSearchCursor#nextPage()}. Unlike
+     * {@link #stream}, the search is not repeated to read later pages, but the cursor holds a connection from the pool until
+     * it has been exhausted or closed.
+     * </p>
+     * 
+     * @param baseDN
+     * @param filter the search filter, which may reference the filter arguments as {0}, {1}, etc
+     * @param filterArgs
+     * @param attributesToReturn the attributes to return, or null to return all attributes
+     * @param scope one of the {@link SearchControls} scopes
+     * @param pageSize the number of entries the directory returns per page
+     * @return
+     */
+    public LDAPSearchCursor openCursor(String baseDN, String filter, Object[] filterArgs, String[] attributesToReturn,
+            int scope, int pageSize) {
+        return new LDAPSearchCursor(this.adminPool, baseDN, filter, filterArgs, attributesToReturn, scope, pageSize);
+    }
+
+    /**
+     * <p>
+     * Runs the given task with the connection held by the cursor, which every operation of the current thread uses
+     * meanwhile instead of borrowing one from the pool. Processing the entries of a page therefore doesn't wait for a
+     * second connection while the cursor holds one, which would deadlock concurrent cursors once the pool is exhausted.
+     * </p>
+     * <p>
+     * The operations are sent without the paging control of the cursor, and searches are not paged, as the directory
+     * only keeps the state of one paged search per connection.
+     * </p>
+     * 
+     * @param cursor
+     * @param task
+     */
+    public void runOnCursor(LDAPSearchCursor cursor, Runnable task) {
+        LdapContext context = cursor.getContext();
+
+        if (context == null || this.cursorContext.get() != null) {
+            task.run();
+            return;
+        }
+
+        this.cursorContext.set(context);
+
         try {
-            Attributes attributesToSearch = new BasicAttributes(true);
+            task.run();
+        } finally {
+            this.cursorContext.remove();
+        }
+    }
 
-            attributesToSearch.put(new BasicAttribute(attributeName, attributeValue));
+    private <T> int search(final String baseDN, final String filter, final Object[] filterArgs,
+            final String[] attributesToReturn, final int scope, final int sizeLimit,
+            final LDAPSearchCallback<? extends T> searchCallback, final List<T> result) {
+        // a paged search on the connection of a cursor would replace the paged search of the cursor
+        final int pageSize = this.cursorContext.get() != null ? 0 : this.pageSize;
 
-            NamingEnumeration<SearchResult> answer = this.context.search(baseDN, attributesToSearch);
+        return execute(new LDAPOperation<Integer>() {
+            @Override
+            public Integer execute(LdapContext context) throws NamingException {
+                SearchControls controls = new SearchControls();
 
-            while (answer.hasMore()) {
-                result.add(searchCallback.processResult(answer.next()));
+                controls.setSearchScope(scope);
+                controls.setReturningAttributes(attributesToReturn);
+                controls.setCountLimit(sizeLimit);
+
+                int processed = 0;
+                byte[] cookie = null;
+
+                try {
+                    do {
+                        if (pageSize > 0) {
+                            context.setRequestControls(new Control[] { new PagedResultsControl(pageSize, cookie,
+                                    Control.NONCRITICAL) });
+                        }
+
+                        NamingEnumeration<SearchResult> answer = context.search(baseDN, filter, filterArgs, controls);
+
+                        try {
+                            while ((sizeLimit <= 0 || processed < sizeLimit) && answer.hasMore()) {
+                                T value = searchCallback.processResult(answer.next());
+                                processed++;
+
+                                if (result != null && value != null) {
+                                    result.add(value);
+                                }
+                            }
+                        } catch (SizeLimitExceededException e) {
+                            // the requested size limit was reached
+                            break;
+                        } finally {
+                            answer.close();
+                        }
+
+                        cookie = pageSize > 0 ? getPagedResultsCookie(context) : null;
+                    } while (cookie != null && (sizeLimit <= 0 || processed < sizeLimit));
+                } catch (IOException e) {
+                    throw new NamingException("Could not create paged results control: " + e.getMessage());
+                } finally {
+                    if (pageSize > 0) {
+                        if (cookie != null) {
+                            // the size limit or a failure ended the search before its last page
+                            LDAPSearchCursor.abandon(context, baseDN, filter, filterArgs, controls, cookie);
+                        }
+
+                        // the connection goes back to the pool, so it must not keep the paging control
+                        context.setRequestControls(null);
+                    }
+                }
+
+                return processed;
+            }
+        });
+    }
+
+    private byte[] getPagedResultsCookie(LdapContext context) throws NamingException {
+        Control[] controls = context.getResponseControls();
+
+        if (controls != null) {
+            for (Control control : controls) {
+                if (control instanceof PagedResultsResponseControl) {
+                    byte[] cookie = ((PagedResultsResponseControl) control).getCookie();
+                    return cookie != null && cookie.length > 0 ? cookie : null;
+                }
             }
-        } catch (NamingException e) {
-            throw new RuntimeException(e);
         }
 
-        return result;
+        return null;
     }
 
     /**
      * <p>
-     * Searches the LDAP tree.
+     * Searches the LDAP tree. The results are read before the connection is returned to the pool.
      * </p>
      * 
      * @param baseDN
      * @param attributesToSearch
      * @return
      */
-    public NamingEnumeration<SearchResult> search(String baseDN, Attributes attributesToSearch, String[] attributesToReturn) {
-        try {
-            return context.search(baseDN, attributesToSearch, attributesToReturn);
-        } catch (NamingException e) {
-            throw new RuntimeException(e);
-        }
+    public NamingEnumeration<SearchResult> search(final String baseDN, final Attributes attributesToSearch,
+            final String[] attributesToReturn) {
+        return execute(new LDAPOperation<NamingEnumeration<SearchResult>>() {
+            @Override
+            public NamingEnumeration<SearchResult> execute(LdapContext context) throws NamingException {
+                return readAll(context.search(baseDN, attributesToSearch, attributesToReturn));
+            }
+        });
     }
 
     /**
      * <p>
-     * Searches the LDAP tree.
+     * Searches the LDAP tree. The results are read before the connection is returned to the pool.
      * </p>
      * 
      * @param baseDN
@@ -224,13 +470,14 @@ public class LDAPOperationManager {
      * @param searchControls
      * @return
      */
-    public NamingEnumeration<SearchResult> search(String baseDN, String filter, String[] attributesToReturn,
-            SearchControls searchControls) {
-        try {
-            return this.context.search(baseDN, filter, attributesToReturn, searchControls);
-        } catch (NamingException e) {
-            throw new RuntimeException(e);
-        }
+    public NamingEnumeration<SearchResult> search(final String baseDN, final String filter,
+            final String[] attributesToReturn, final SearchControls searchControls) {
+        return execute(new LDAPOperation<NamingEnumeration<SearchResult>>() {
+            @Override
+            public NamingEnumeration<SearchResult> execute(LdapContext context) throws NamingException {
+                return readAll(context.search(baseDN, filter, attributesToReturn, searchControls));
+            }
+        });
     }
 
     /**
@@ -240,12 +487,14 @@ public class LDAPOperationManager {
      * 
      * @param dn
      */
-    public void destroySubcontext(String dn) {
-        try {
-            context.destroySubcontext(dn);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    public void destroySubcontext(final String dn) {
+        execute(new LDAPOperation<Void>() {
+            @Override
+            public Void execute(LdapContext context) throws NamingException {
+                context.destroySubcontext(dn);
+                return null;
+            }
+        });
     }
 
     /**
@@ -262,12 +511,35 @@ public class LDAPOperationManager {
             return true;
         }
 
-        if (checkAttributePresence(attributeName)) {
+        if (this.unmanagedAttributes.contains(attributeName)) {
+            return false;
+        }
+
+        Boolean present = lookupAttributeDefinition(attributeName);
+
+        if (present == null) {
+            // the schema could not be read, so the answer is not remembered
+            return false;
+        }
+
+        if (present) {
             this.managedAttributes.add(attributeName);
-            return true;
+        } else {
+            this.unmanagedAttributes.add(attributeName);
         }
 
-        return false;
+        return present;
+    }
+
+    /**
+     * <p>
+     * Returns the attributes known to be managed so far.
+     * </p>
+     * 
+     * @return
+     */
+    public Set<String> getManagedAttributes() {
+        return Collections.unmodifiableSet(this.managedAttributes);
     }
 
     /**
@@ -278,24 +550,38 @@ public class LDAPOperationManager {
      * @param attributeName
      * @return
      */
-    public boolean checkAttributePresence(String attributeName) {
+    public boolean checkAttributePresence(final String attributeName) {
+        return Boolean.TRUE.equals(lookupAttributeDefinition(attributeName));
+    }
+
+    /**
+     * Returns whether the schema defines the attribute, or null if the schema could not be read
+     */
+    private Boolean lookupAttributeDefinition(final String attributeName) {
         try {
-            DirContext schema = context.getSchema("");
+            return execute(new LDAPOperation<Boolean>() {
+                @Override
+                public Boolean execute(LdapContext context) throws NamingException {
+                    DirContext schema = context.getSchema("");
 
-            DirContext cnSchema = (DirContext) schema.lookup("AttributeDefinition/" + attributeName);
-            if (cnSchema != null) {
-                return true;
-            }
+                    try {
+                        return schema.lookup("AttributeDefinition/" + attributeName) != null;
+                    } catch (NameNotFoundException e) {
+                        return false;
+                    } finally {
+                        schema.close();
+                    }
+                }
+            });
         } catch (Exception e) {
-            return false; // Probably an unmanaged attribute
+            return null;
         }
-
-        return false;
     }
 
     /**
      * <p>
-     * Performs a simple authentication using the ginve DN and password to bind to the authentication context.
+     * Performs a simple authentication using the given DN and password, on a connection borrowed from the bind pool.
+     * Returns false only if the server rejected the credentials; any other failure is rethrown.
      * </p>
      * 
      * @param dn
@@ -303,15 +589,205 @@ public class LDAPOperationManager {
      * @return
      */
     public boolean authenticate(String dn, String password) {
+        // an empty password would result in an unauthenticated bind, which most servers accept
+        if (dn == null || password == null || password.length() == 0) {
+            return false;
+        }
+
+        LdapContext context;
+
         try {
-            this.authenticationContext.addToEnvironment(Context.SECURITY_PRINCIPAL, dn);
-            this.authenticationContext.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
-            this.authenticationContext.lookup(dn);
-        } catch (Exception e) {
+            context = this.bindPool.borrow();
+        } catch (NamingException e) {
+            throw new RuntimeException("Could not obtain a connection from LDAP connection pool ["
+                    + this.bindPool.getName() + "].", e);
+        }
+
+        try {
+            context.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
+            context.addToEnvironment(Context.SECURITY_PRINCIPAL, dn);
+            context.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+            context.reconnect(null);
+        } catch (AuthenticationException e) {
+            this.bindPool.invalidate(context);
             return false;
+        } catch (NamingException e) {
+            // the server could not be asked, which must not be mistaken for invalid credentials
+            this.bindPool.invalidate(context);
+            throw new RuntimeException("Could not authenticate [" + dn + "] against LDAP connection pool ["
+                    + this.bindPool.getName() + "].", e);
+        } catch (RuntimeException e) {
+            this.bindPool.invalidate(context);
+            throw e;
+        }
+
+        // the next borrower must not inherit the credentials, which also must not stay reachable from the pool
+        try {
+            clearCredentials(context);
+        } catch (NamingException e) {
+            this.bindPool.invalidate(context);
+            return true;
         }
 
+        this.bindPool.release(context);
+
         return true;
     }
 
+    private void clearCredentials(LdapContext context) throws NamingException {
+        context.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+        context.removeFromEnvironment(Context.SECURITY_PRINCIPAL);
+        context.removeFromEnvironment(Context.SECURITY_AUTHENTICATION);
+    }
+
+    /**
+     * <p>
+     * Closes the connection pools.
+     * </p>
+     */
+    public void close() {
+        this.adminPool.close();
+        this.bindPool.close();
+    }
+
+    public int getPageSize() {
+        return this.pageSize;
+    }
+
+    /**
+     * <p>
+     * Sets the number of entries requested per page by searches. A value of 0 or less disables paging.
+     * </p>
+     * 
+     * @param pageSize
+     */
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public LDAPConnectionPool getAdminPool() {
+        return this.adminPool;
+    }
+
+    public LDAPConnectionPool getBindPool() {
+        return this.bindPool;
+    }
+
+    /**
+     * <p>
+     * Executes the given operation with a connection borrowed from the admin pool. Connections that failed because of a
+     * communication problem are discarded, all others are returned to the pool.
+     * </p>
+     * 
+     * @param operation
+     * @return
+     */
+    private <T> T execute(LDAPOperation<T> operation) {
+        LdapContext context = this.cursorContext.get();
+
+        if (context != null) {
+            return executeOnCursor(context, operation);
+        }
+
+        try {
+            context = this.adminPool.borrow();
+        } catch (NamingException e) {
+            throw new RuntimeException("Could not obtain a connection from LDAP connection pool ["
+                    + this.adminPool.getName() + "].", e);
+        }
+
+        boolean healthy = false;
+
+        try {
+            T result = operation.execute(context);
+            healthy = true;
+            return result;
+        } catch (CommunicationException e) {
+            throw new RuntimeException(e);
+        } catch (ServiceUnavailableException e) {
+            throw new RuntimeException(e);
+        } catch (NamingException e) {
+            healthy = true;
+            throw new RuntimeException(e);
+        } finally {
+            if (healthy) {
+                this.adminPool.release(context);
+            } else {
+                this.adminPool.invalidate(context);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Executes the given operation with the connection of a cursor. The cursor remains responsible for the connection, and
+     * discards it if the failure affected the connection itself.
+     * </p>
+     */
+    private <T> T executeOnCursor(LdapContext context, LDAPOperation<T> operation) {
+        try {
+            // the operation must not carry the paging control of the cursor's search
+            context.setRequestControls(null);
+            return operation.execute(context);
+        } catch (NamingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private NamingEnumeration<SearchResult> readAll(NamingEnumeration<SearchResult> answer) throws NamingException {
+        List<SearchResult> results = new ArrayList<SearchResult>();
+
+        try {
+            while (answer.hasMore()) {
+                results.add(answer.next());
+            }
+        } finally {
+            answer.close();
+        }
+
+        return new ListNamingEnumeration<SearchResult>(results);
+    }
+
+    /**
+     * An operation executed against a pooled {@link LdapContext}.
+     */
+    private interface LDAPOperation<T> {
+        T execute(LdapContext context) throws NamingException;
+    }
+
+    /**
+     * A {@link NamingEnumeration} over results that were already read from the server.
+     */
+    private static class ListNamingEnumeration<T> implements NamingEnumeration<T> {
+        private final Iterator<T> iterator;
+
+        ListNamingEnumeration(List<T> results) {
+            this.iterator = results.iterator();
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return this.iterator.hasNext();
+        }
+
+        @Override
+        public T nextElement() {
+            return this.iterator.next();
+        }
+
+        @Override
+        public boolean hasMore() {
+            return hasMoreElements();
+        }
+
+        @Override
+        public T next() {
+            return nextElement();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
 }
@@ -0,0 +1,227 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketlink.idm.ldap.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+
+/**
+ * <p>
+ * A single paged search (RFC 2696) whose pages are read on demand. The directory keeps the state of a paged search per
+ * connection, so the cursor holds on to one pooled connection from the first page until the last one has been read or the
+ * cursor is closed.
+ * </p>
+ * <p>
+ * Instances are not thread safe and are obtained from {@link LDAPOperationManager#openCursor}.
+ * </p>
+ */
+public class LDAPSearchCursor implements Closeable {
+
+    private final LDAPConnectionPool pool;
+    private final String baseDN;
+    private final String filter;
+    private final Object[] filterArgs;
+    private final SearchControls controls;
+    private final int pageSize;
+
+    private LdapContext context;
+    private byte[] cookie;
+    private boolean exhausted;
+
+    LDAPSearchCursor(LDAPConnectionPool pool, String baseDN, String filter, Object[] filterArgs,
+            String[] attributesToReturn, int scope, int pageSize) {
+        this.pool = pool;
+        this.baseDN = baseDN;
+        this.filter = filter;
+        this.filterArgs = filterArgs;
+        this.pageSize = pageSize;
+
+        this.controls = new SearchControls();
+        this.controls.setSearchScope(scope);
+        this.controls.setReturningAttributes(attributesToReturn);
+    }
+
+    /**
+     * <p>
+     * Reads the next page of the search. Without a page size the whole search is read as a single page. The connection is
+     * returned to the pool as soon as the directory reports that there are no more pages.
+     * </p>
+     * 
+     * @return the entries of the next page, or an empty list once the search has been exhausted
+     */
+    public List<SearchResult> nextPage() {
+        if (this.exhausted) {
+            return Collections.emptyList();
+        }
+
+        boolean healthy = false;
+
+        try {
+            if (this.context == null) {
+                this.context = this.pool.borrow();
+            }
+
+            if (this.pageSize > 0) {
+                this.context.setRequestControls(new Control[] { new PagedResultsControl(this.pageSize, this.cookie,
+                        Control.NONCRITICAL) });
+            }
+
+            List<SearchResult> page = new ArrayList<SearchResult>();
+            NamingEnumeration<SearchResult> answer = this.context.search(this.baseDN, this.filter, this.filterArgs,
+                    this.controls);
+
+            try {
+                while (answer.hasMore()) {
+                    page.add(answer.next());
+                }
+            } finally {
+                answer.close();
+            }
+
+            this.cookie = this.pageSize > 0 ? getPagedResultsCookie() : null;
+            healthy = true;
+
+            if (this.cookie == null) {
+                close();
+            }
+
+            return page;
+        } catch (CommunicationException e) {
+            throw new RuntimeException(e);
+        } catch (ServiceUnavailableException e) {
+            throw new RuntimeException(e);
+        } catch (NamingException e) {
+            healthy = true;
+            close();
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            healthy = true;
+            close();
+            throw new RuntimeException("Could not create paged results control.", e);
+        } finally {
+            if (!healthy) {
+                discard();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Abandons the search and returns the connection to the pool. If the directory still holds more pages, the search is
+     * abandoned by requesting a page size of 0 with the last cookie, and the connection is discarded if that fails. Closing
+     * an exhausted cursor has no effect.
+     * </p>
+     */
+    @Override
+    public void close() {
+        this.exhausted = true;
+
+        if (this.context != null) {
+            LdapContext context = this.context;
+            this.context = null;
+
+            try {
+                if (this.cookie != null) {
+                    abandon(context, this.baseDN, this.filter, this.filterArgs, this.controls, this.cookie);
+                    this.cookie = null;
+                }
+
+                // the connection goes back to the pool, so it must not keep the paging control
+                context.setRequestControls(null);
+            } catch (NamingException e) {
+                this.pool.invalidate(context);
+                return;
+            }
+
+            this.pool.release(context);
+        }
+    }
+
+    /**
+     * <p>
+     * Abandons an unfinished paged search, so that the directory discards its state, by repeating the search with a page size
+     * of 0 and the last cookie the directory returned. Only communication failures are thrown, after any other failure the
+     * directory no longer holds the search either.
+     * </p>
+     */
+    static void abandon(LdapContext context, String baseDN, String filter, Object[] filterArgs, SearchControls controls,
+            byte[] cookie) throws NamingException {
+        try {
+            context.setRequestControls(new Control[] { new PagedResultsControl(0, cookie, Control.CRITICAL) });
+            context.search(baseDN, filter, filterArgs, controls).close();
+        } catch (CommunicationException e) {
+            throw e;
+        } catch (ServiceUnavailableException e) {
+            throw e;
+        } catch (NamingException ignore) {
+        } catch (IOException ignore) {
+        }
+    }
+
+    /**
+     * <p>
+     * Returns the connection held by the cursor, or null if it doesn't hold one.
+     * </p>
+     */
+    LdapContext getContext() {
+        return this.context;
+    }
+
+    private void discard() {
+        this.exhausted = true;
+
+        if (this.context != null) {
+            this.pool.invalidate(this.context);
+            this.context = null;
+        }
+    }
+
+    private byte[] getPagedResultsCookie() throws NamingException {
+        Control[] responseControls = this.context.getResponseControls();
+
+        if (responseControls != null) {
+            for (Control control : responseControls) {
+                if (control instanceof PagedResultsResponseControl) {
+                    byte[] cookie = ((PagedResultsResponseControl) control).getCookie();
+                    return cookie != null && cookie.length > 0 ? cookie : null;
+                }
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketlink.idm.password.internal;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.picketlink.idm.internal.util.Base64;
+import org.picketlink.idm.model.User;
+import org.picketlink.idm.password.PasswordEncoder;
+import org.picketlink.idm.password.UpgradablePasswordEncoder;
+
+/**
+ * <p>
+ * Base class for {@link PasswordEncoder} implementations based on a deliberately slow key derivation function with a
+ * configurable cost.
+ * </p>
+ * <p>
+ * Encoded passwords record the algorithm and the cost they were created with, using the format
+ * <code>{ID}parameters$salt$hash</code>, where the salt and hash are Base64 encoded. Passwords are always verified
+ * with the parameters stored alongside them, so the cost may be raised at any time. Passwords encoded with different
+ * parameters are reported by {@link #requiresRehash(String)}.
+ * </p>
+ */
+public abstract class AbstractAdaptivePasswordEncoder implements UpgradablePasswordEncoder {
+
+    public static final int DEFAULT_SALT_LENGTH = 16;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final String id;
+    private final int keyLength;
+
+    protected AbstractAdaptivePasswordEncoder(String id, int keyLength) {
+        if (keyLength <= 0) {
+            throw new IllegalArgumentException("keyLength must be greater than zero");
+        }
+
+        this.id = id;
+        this.keyLength = keyLength;
+    }
+
+    /**
+     * <p>
+     * Returns the identifier of the algorithm, which is recorded as the <code>{ID}</code> prefix of encoded passwords.
+     * </p>
+     *
+     * @return
+     */
+    public String getId() {
+        return this.id;
+    }
+
+    /**
+     * <p>
+     * Returns the cost parameters of this encoder, in the form they are recorded in encoded passwords.
+     * </p>
+     *
+     * @return
+     */
+    protected abstract String getParameters();
+
+    /**
+     * <p>
+     * Derives a key of the specified length from the password, using the specified salt and cost parameters.
+     * </p>
+     *
+     * @param password
+     * @param salt
+     * @param parameters the parameters recorded in the encoded password
+     * @param keyLength
+     * @return
+     * @throws IllegalArgumentException if the parameters are not valid for this algorithm
+     */
+    protected abstract byte[] deriveKey(byte[] password, byte[] salt, String parameters, int keyLength);
+
+    @Override
+    public String encodePassword(User user, String rawPassword) {
+        if (rawPassword == null) {
+            throw new IllegalArgumentException("rawPassword may not be null");
+        }
+
+        byte[] salt = new byte[DEFAULT_SALT_LENGTH];
+        random.nextBytes(salt);
+
+        String parameters = getParameters();
+        byte[] hash = deriveKey(toBytes(rawPassword), salt, parameters, this.keyLength);
+
+        return "{" + this.id + "}" + parameters + "$" + Base64.encodeBytes(salt, Base64.DONT_BREAK_LINES) + "$"
+                + Base64.encodeBytes(hash, Base64.DONT_BREAK_LINES);
+    }
+
+    @Override
+    public boolean verifyPassword(User user, String rawPassword, String encodedPassword) {
+        String[] parts = parse(encodedPassword);
+
+        if (rawPassword == null || parts == null) {
+            return false;
+        }
+
+        byte[] salt = Base64.decode(parts[1]);
+        byte[] expected = Base64.decode(parts[2]);
+
+        if (salt == null || expected == null || expected.length == 0) {
+            return false;
+        }
+
+        return isEqual(deriveKey(toBytes(rawPassword), salt, parts[0], expected.length), expected);
+    }
+
+    @Override
+    public boolean requiresRehash(String encodedPassword) {
+        String[] parts = parse(encodedPassword);
+        return parts == null || !parts[0].equals(getParameters());
+    }
+
+    /**
+     * <p>
+     * Indicates whether the encoded password was created by this algorithm, regardless of its cost.
+     * </p>
+     *
+     * @param encodedPassword
+     * @return
+     */
+    public boolean isEncodedBy(String encodedPassword) {
+        return encodedPassword != null && encodedPassword.startsWith("{" + this.id + "}");
+    }
+
+    /**
+     * Splits the encoded password into its parameters, salt and hash, or returns null if it wasn't created by this
+     * algorithm
+     */
+    private String[] parse(String encodedPassword) {
+        if (!isEncodedBy(encodedPassword)) {
+            return null;
+        }
+
+        String[] parts = encodedPassword.substring(this.id.length() + 2).split("\\$");
+
+        return parts.length == 3 ? parts : null;
+    }
+
+    /**
+     * <p>
+     * Measures how long it takes to encode a password with this encoder on the current host, in milliseconds.
+     * </p>
+     *
+     * @return
+     */
+    public long measure() {
+        byte[] password = toBytes("calibration");
+        byte[] salt = new byte[DEFAULT_SALT_LENGTH];
+        String parameters = getParameters();
+
+        // the first run includes class loading and interpretation, so only the second one is measured
+        deriveKey(password, salt, parameters, this.keyLength);
+
+        long start = System.nanoTime();
+        deriveKey(password, salt, parameters, this.keyLength);
+
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * <p>
+     * Computes PBKDF2 as defined by RFC 2898, using the specified HMAC algorithm as the pseudorandom function.
+     * </p>
+     *
+     * @param algorithm the name of a {@link Mac} algorithm, such as HmacSHA1 or HmacSHA256
+     * @param password
+     * @param salt
+     * @param iterations
+     * @param keyLength
+     * @return
+     */
+    protected static byte[] pbkdf2(String algorithm, byte[] password, byte[] salt, int iterations, int keyLength) {
+        Mac mac;
+
+        try {
+            mac = Mac.getInstance(algorithm);
+
+            // HMAC pads short keys with zeros, so an empty password is equivalent to a single zero byte
+            mac.init(new SecretKeySpec(password.length > 0 ? password : new byte[1], algorithm));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Could not initialize " + algorithm, e);
+        }
+
+        int blockLength = mac.getMacLength();
+        byte[] result = new byte[keyLength];
+        byte[] u = new byte[blockLength];
+        byte[] t = new byte[blockLength];
+
+        try {
+            for (int block = 1, offset = 0; offset < keyLength; block++, offset += blockLength) {
+                mac.update(salt);
+                mac.update((byte) (block >>> 24));
+                mac.update((byte) (block >>> 16));
+                mac.update((byte) (block >>> 8));
+                mac.update((byte) block);
+                mac.doFinal(u, 0);
+
+                System.arraycopy(u, 0, t, 0, blockLength);
+
+                for (int i = 1; i < iterations; i++) {
+                    mac.update(u);
+                    mac.doFinal(u, 0);
+
+                    for (int j = 0; j < blockLength; j++) {
+                        t[j] ^= u[j];
+                    }
+                }
+
+                System.arraycopy(t, 0, result, offset, Math.min(blockLength, keyLength - offset));
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Error computing " + algorithm, e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Compares both values in a time that only depends on their length
+     */
+    static boolean isEqual(byte[] a, byte[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+
+        int result = 0;
+
+        for (int i = 0; i < a.length; i++) {
+            result |= a[i] ^ b[i];
+        }
+
+        return result == 0;
+    }
+
+    static boolean isEqual(String a, String b) {
+        return isEqual(toBytes(a), toBytes(b));
+    }
+
+    static byte[] toBytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("Error encoding password", e);
+        }
+    }
+
+    /**
+     * Parses a positive integer cost parameter
+     */
+    static int parseCost(String value) {
+        int cost;
+
+        try {
+            cost = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cost parameter: " + value);
+        }
+
+        if (cost <= 0) {
+            throw new IllegalArgumentException("Invalid cost parameter: " + value);
+        }
+
+        return cost;
+    }
+}
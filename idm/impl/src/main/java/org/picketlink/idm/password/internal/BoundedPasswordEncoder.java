@@ -0,0 +1,146 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketlink.idm.password.internal;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.picketlink.idm.IdentityManagementException;
+import org.picketlink.idm.model.User;
+import org.picketlink.idm.password.PasswordEncoder;
+import org.picketlink.idm.password.UpgradablePasswordEncoder;
+
+/**
+ * <p>
+ * {@link PasswordEncoder} that limits the number of passwords being encoded or verified at the same time by its
+ * delegate.
+ * </p>
+ * <p>
+ * Adaptive encoders are deliberately expensive, so a burst of logins could otherwise keep every request thread busy
+ * hashing. Callers wait up to <code>timeout</code> milliseconds for one of the <code>maxConcurrent</code> slots, after
+ * which an {@link IdentityManagementException} is thrown, so that excess logins fail fast while the others still
+ * complete in a predictable time. The hashing itself runs on the calling thread.
+ * </p>
+ */
+public class BoundedPasswordEncoder implements UpgradablePasswordEncoder {
+
+    public static final long DEFAULT_TIMEOUT = 5000;
+
+    private final PasswordEncoder delegate;
+    private final Semaphore slots;
+    private final int maxConcurrent;
+    private final long timeout;
+
+    /**
+     * Creates an encoder that allows one hashing operation per available processor
+     *
+     * @param delegate
+     */
+    public BoundedPasswordEncoder(PasswordEncoder delegate) {
+        this(delegate, Runtime.getRuntime().availableProcessors(), DEFAULT_TIMEOUT);
+    }
+
+    public BoundedPasswordEncoder(PasswordEncoder delegate, int maxConcurrent, long timeout) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate may not be null");
+        }
+
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent must be greater than zero");
+        }
+
+        this.delegate = delegate;
+        this.slots = new Semaphore(maxConcurrent, true);
+        this.maxConcurrent = maxConcurrent;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public String encodePassword(User user, String rawPassword) {
+        acquire();
+
+        try {
+            return this.delegate.encodePassword(user, rawPassword);
+        } finally {
+            this.slots.release();
+        }
+    }
+
+    @Override
+    public boolean verifyPassword(User user, String rawPassword, String encodedPassword) {
+        acquire();
+
+        try {
+            return PasswordEncoderUtil.verifyPassword(this.delegate, user, rawPassword, encodedPassword);
+        } finally {
+            this.slots.release();
+        }
+    }
+
+    @Override
+    public boolean requiresRehash(String encodedPassword) {
+        return PasswordEncoderUtil.requiresRehash(this.delegate, encodedPassword);
+    }
+
+    public PasswordEncoder getDelegate() {
+        return this.delegate;
+    }
+
+    public int getMaxConcurrent() {
+        return this.maxConcurrent;
+    }
+
+    /**
+     * <p>
+     * Returns the number of operations currently hashing a password.
+     * </p>
+     *
+     * @return
+     */
+    public int getActiveCount() {
+        return this.maxConcurrent - this.slots.availablePermits();
+    }
+
+    /**
+     * <p>
+     * Returns an estimate of the number of callers waiting for a slot.
+     * </p>
+     *
+     * @return
+     */
+    public int getWaitingCount() {
+        return this.slots.getQueueLength();
+    }
+
+    private void acquire() {
+        try {
+            if (!this.slots.tryAcquire(this.timeout, TimeUnit.MILLISECONDS)) {
+                throw new IdentityManagementException("Timed out after " + this.timeout
+                        + "ms waiting to hash a password, " + getWaitingCount() + " callers are waiting.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdentityManagementException("Interrupted while waiting to hash a password", e);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketlink.idm.password.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.picketlink.idm.model.User;
+import org.picketlink.idm.password.PasswordEncoder;
+import org.picketlink.idm.password.UpgradablePasswordEncoder;
+
+/**
+ * <p>
+ * {@link PasswordEncoder} that encodes new passwords with a default {@link AbstractAdaptivePasswordEncoder}, while still
+ * verifying passwords encoded by any of the other configured algorithms. The algorithm of an encoded password is
+ * identified by its <code>{ID}</code> prefix.
+ * </p>
+ * <p>
+ * Encoded passwords without a prefix predate this encoder. They are only verified if a legacy encoder was set, and are
+ * rejected otherwise. Use a {@link PlainTextPasswordEncoder} as the legacy encoder to migrate passwords that were stored
+ * as plain text. Any password not encoded by the default encoder with its current cost requires a rehash, so stored
+ * passwords are upgraded as users log in.
+ * </p>
+ */
+public class DelegatingPasswordEncoder implements UpgradablePasswordEncoder {
+
+    private final AbstractAdaptivePasswordEncoder defaultEncoder;
+
+    private final Map<String, AbstractAdaptivePasswordEncoder> encoders = new HashMap<String, AbstractAdaptivePasswordEncoder>();
+
+    private PasswordEncoder legacyEncoder;
+
+    public DelegatingPasswordEncoder() {
+        this(new PBKDF2PasswordEncoder(), new SCryptPasswordEncoder());
+    }
+
+    public DelegatingPasswordEncoder(AbstractAdaptivePasswordEncoder defaultEncoder,
+            AbstractAdaptivePasswordEncoder... otherEncoders) {
+        if (defaultEncoder == null) {
+            throw new IllegalArgumentException("defaultEncoder may not be null");
+        }
+
+        this.defaultEncoder = defaultEncoder;
+
+        for (AbstractAdaptivePasswordEncoder encoder : otherEncoders) {
+            this.encoders.put(encoder.getId(), encoder);
+        }
+
+        this.encoders.put(defaultEncoder.getId(), defaultEncoder);
+    }
+
+    public AbstractAdaptivePasswordEncoder getDefaultEncoder() {
+        return this.defaultEncoder;
+    }
+
+    public PasswordEncoder getLegacyEncoder() {
+        return this.legacyEncoder;
+    }
+
+    /**
+     * <p>
+     * Sets the encoder used to verify encoded passwords that don't have an <code>{ID}</code> prefix, such as the ones
+     * created by {@link SHASaltedPasswordEncoder}. If not set, such passwords never match.
+     * </p>
+     *
+     * @param legacyEncoder
+     */
+    public void setLegacyEncoder(PasswordEncoder legacyEncoder) {
+        this.legacyEncoder = legacyEncoder;
+    }
+
+    @Override
+    public String encodePassword(User user, String rawPassword) {
+        return this.defaultEncoder.encodePassword(user, rawPassword);
+    }
+
+    @Override
+    public boolean verifyPassword(User user, String rawPassword, String encodedPassword) {
+        if (rawPassword == null || encodedPassword == null) {
+            return false;
+        }
+
+        String id = getId(encodedPassword);
+
+        if (id != null) {
+            AbstractAdaptivePasswordEncoder encoder = this.encoders.get(id);
+            return encoder != null && encoder.verifyPassword(user, rawPassword, encodedPassword);
+        }
+
+        return this.legacyEncoder != null
+                && PasswordEncoderUtil.verifyPassword(this.legacyEncoder, user, rawPassword, encodedPassword);
+    }
+
+    @Override
+    public boolean requiresRehash(String encodedPassword) {
+        return !this.defaultEncoder.isEncodedBy(encodedPassword) || this.defaultEncoder.requiresRehash(encodedPassword);
+    }
+
+    /**
+     * Returns the algorithm identifier of the encoded password, or null if it has no known prefix
+     */
+    private String getId(String encodedPassword) {
+        if (!encodedPassword.startsWith("{")) {
+            return null;
+        }
+
+        int end = encodedPassword.indexOf('}');
+
+        if (end < 0) {
+            return null;
+        }
+
+        String id = encodedPassword.substring(1, end);
+
+        return this.encoders.containsKey(id) ? id : null;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketlink.idm.password.internal;
+
+/**
+ * <p>
+ * {@link AbstractAdaptivePasswordEncoder} based on PBKDF2 with HMAC-SHA1. The cost is the number of iterations.
+ * </p>
+ * <p>
+ * Passwords are encoded as <code>{PBKDF2}iterations$salt$hash</code>.
+ * </p>
+ */
+public class PBKDF2PasswordEncoder extends AbstractAdaptivePasswordEncoder {
+
+    public static final String ID = "PBKDF2";
+
+    public static final int DEFAULT_ITERATIONS = 10000;
+
+    private static final String ALGORITHM = "HmacSHA1";
+    private static final int KEY_LENGTH = 20;
+
+    private final int iterations;
+
+    public PBKDF2PasswordEncoder() {
+        this(DEFAULT_ITERATIONS);
+    }
+
+    public PBKDF2PasswordEncoder(int iterations) {
+        super(ID, KEY_LENGTH);
+
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("iterations must be greater than zero");
+        }
+
+        this.iterations = iterations;
+    }
+
+    /**
+     * <p>
+     * Creates an encoder whose number of iterations is chosen so that encoding a password takes roughly the specified
+     * time on the current host. The result never uses fewer than {@link #DEFAULT_ITERATIONS}.
+     * </p>
+     *
+     * @param targetMillis
+     * @return
+     */
+    public static PBKDF2PasswordEncoder calibrate(long targetMillis) {
+        int iterations = DEFAULT_ITERATIONS;
+        long elapsed = new PBKDF2PasswordEncoder(iterations).measure();
+
+        // the cost is linear, so grow the sample until it can be measured reliably and then extrapolate
+        while (elapsed < 10 && iterations < Integer.MAX_VALUE / 2) {
+            iterations *= 2;
+            elapsed = new PBKDF2PasswordEncoder(iterations).measure();
+        }
+
+        long calibrated = elapsed > 0 ? iterations * targetMillis / elapsed : iterations;
+
+        return new PBKDF2PasswordEncoder((int) Math.max(DEFAULT_ITERATIONS, Math.min(calibrated, Integer.MAX_VALUE)));
+    }
+
+    public int getIterations() {
+        return this.iterations;
+    }
+
+    @Override
+    protected String getParameters() {
+        return String.valueOf(this.iterations);
+    }
+
+    @Override
+    protected byte[] deriveKey(byte[] password, byte[] salt, String parameters, int keyLength) {
+        return pbkdf2(ALGORITHM, password, salt, parseCost(parameters), keyLength);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketlink.idm.password.internal;
+
+import org.picketlink.idm.model.User;
+import org.picketlink.idm.password.PasswordEncoder;
+import org.picketlink.idm.password.UpgradablePasswordEncoder;
+
+/**
+ * <p>
+ * Utility methods to verify and upgrade passwords with any {@link PasswordEncoder}. Encoders that don't implement
+ * {@link UpgradablePasswordEncoder} are verified by encoding the raw password and comparing the result with the encoded
+ * password, and their passwords never require a rehash.
+ * </p>
+ */
+public class PasswordEncoderUtil {
+
+    /**
+     * <p>
+     * Verifies the raw password of the given {@link User} against its encoded form.
+     * </p>
+     *
+     * @param encoder
+     * @param user
+     * @param rawPassword
+     * @param encodedPassword
+     * @return true if the raw password matches the encoded password
+     */
+    public static boolean verifyPassword(PasswordEncoder encoder, User user, String rawPassword, String encodedPassword) {
+        if (encoder instanceof UpgradablePasswordEncoder) {
+            return ((UpgradablePasswordEncoder) encoder).verifyPassword(user, rawPassword, encodedPassword);
+        }
+
+        if (rawPassword == null || encodedPassword == null) {
+            return false;
+        }
+
+        String encoded = encoder.encodePassword(user, rawPassword);
+
+        return encoded != null && AbstractAdaptivePasswordEncoder.isEqual(encoded, encodedPassword);
+    }
+
+    /**
+     * <p>
+     * Indicates whether the encoded password should be encoded again the next time the raw password is available.
+     * </p>
+     *
+     * @param encoder
+     * @param encodedPassword
+     * @return
+     */
+    public static boolean requiresRehash(PasswordEncoder encoder, String encodedPassword) {
+        return encoder instanceof UpgradablePasswordEncoder
+                && ((UpgradablePasswordEncoder) encoder).requiresRehash(encodedPassword);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketlink.idm.password.internal;
+
+import org.picketlink.idm.model.User;
+import org.picketlink.idm.password.PasswordEncoder;
+import org.picketlink.idm.password.UpgradablePasswordEncoder;
+
+/**
+ * <p>
+ * {@link PasswordEncoder} for passwords that were stored as plain text. It is only meant to be set as the legacy encoder
+ * of a {@link DelegatingPasswordEncoder}, so that such passwords are still accepted once and then replaced by a proper
+ * hash.
+ * </p>
+ */
+public class PlainTextPasswordEncoder implements UpgradablePasswordEncoder {
+
+    @Override
+    public String encodePassword(User user, String rawPassword) {
+        return rawPassword;
+    }
+
+    @Override
+    public boolean verifyPassword(User user, String rawPassword, String encodedPassword) {
+        if (rawPassword == null || encodedPassword == null) {
+            return false;
+        }
+
+        return AbstractAdaptivePasswordEncoder.isEqual(rawPassword, encodedPassword);
+    }
+
+    @Override
+    public boolean requiresRehash(String encodedPassword) {
+        return true;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketlink.idm.password.internal;
+
+/**
+ * <p>
+ * {@link AbstractAdaptivePasswordEncoder} based on scrypt, as defined by RFC 7914. Besides CPU time, scrypt needs
+ * <code>128 * r * N</code> bytes of memory for each password it encodes, which makes it expensive to attack with
+ * dedicated hardware.
+ * </p>
+ * <p>
+ * Passwords are encoded as <code>{SCRYPT}N,r,p$salt$hash</code>.
+ * </p>
+ */
+public class SCryptPasswordEncoder extends AbstractAdaptivePasswordEncoder {
+
+    public static final String ID = "SCRYPT";
+
+    public static final int DEFAULT_COST = 16384;
+    public static final int DEFAULT_BLOCK_SIZE = 8;
+    public static final int DEFAULT_PARALLELIZATION = 1;
+
+    /**
+     * Upper bound of the cost chosen by {@link #calibrate(long)}, which requires 128MB per password with the default
+     * block size
+     */
+    public static final int MAX_CALIBRATED_COST = 131072;
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int KEY_LENGTH = 32;
+
+    private final int cost;
+    private final int blockSize;
+    private final int parallelization;
+
+    public SCryptPasswordEncoder() {
+        this(DEFAULT_COST, DEFAULT_BLOCK_SIZE, DEFAULT_PARALLELIZATION);
+    }
+
+    /**
+     * @param cost the CPU and memory cost N, which must be a power of 2 greater than 1
+     * @param blockSize the block size r
+     * @param parallelization the parallelization p
+     */
+    public SCryptPasswordEncoder(int cost, int blockSize, int parallelization) {
+        super(ID, KEY_LENGTH);
+        validate(cost, blockSize, parallelization);
+
+        this.cost = cost;
+        this.blockSize = blockSize;
+        this.parallelization = parallelization;
+    }
+
+    /**
+     * <p>
+     * Creates an encoder whose cost is chosen so that encoding a password takes roughly the specified time on the
+     * current host, using the default block size and parallelization. The cost is never lower than
+     * {@link #DEFAULT_COST} nor higher than {@link #MAX_CALIBRATED_COST}.
+     * </p>
+     *
+     * @param targetMillis
+     * @return
+     */
+    public static SCryptPasswordEncoder calibrate(long targetMillis) {
+        SCryptPasswordEncoder encoder = new SCryptPasswordEncoder();
+
+        while (encoder.getCost() < MAX_CALIBRATED_COST && encoder.measure() * 2 <= targetMillis) {
+            encoder = new SCryptPasswordEncoder(encoder.getCost() * 2, DEFAULT_BLOCK_SIZE, DEFAULT_PARALLELIZATION);
+        }
+
+        return encoder;
+    }
+
+    public int getCost() {
+        return this.cost;
+    }
+
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+
+    public int getParallelization() {
+        return this.parallelization;
+    }
+
+    @Override
+    protected String getParameters() {
+        return this.cost + "," + this.blockSize + "," + this.parallelization;
+    }
+
+    @Override
+    protected byte[] deriveKey(byte[] password, byte[] salt, String parameters, int keyLength) {
+        String[] values = parameters.split(",");
+
+        if (values.length != 3) {
+            throw new IllegalArgumentException("Invalid scrypt parameters: " + parameters);
+        }
+
+        int n = parseCost(values[0]);
+        int r = parseCost(values[1]);
+        int p = parseCost(values[2]);
+
+        validate(n, r, p);
+
+        return scrypt(password, salt, n, r, p, keyLength);
+    }
+
+    /**
+     * <p>
+     * Computes scrypt as defined by RFC 7914.
+     * </p>
+     *
+     * @param password
+     * @param salt
+     * @param n
+     * @param r
+     * @param p
+     * @param keyLength
+     * @return
+     */
+    public static byte[] scrypt(byte[] password, byte[] salt, int n, int r, int p, int keyLength) {
+        int blockLength = 128 * r;
+        byte[] b = pbkdf2(ALGORITHM, password, salt, 1, p * blockLength);
+
+        int[] x = new int[32 * r];
+        int[] y = new int[32 * r];
+        int[] v = new int[32 * r * n];
+
+        for (int i = 0; i < p; i++) {
+            smix(b, i * blockLength, r, n, x, y, v);
+        }
+
+        return pbkdf2(ALGORITHM, password, b, 1, keyLength);
+    }
+
+    private static void smix(byte[] b, int offset, int r, int n, int[] x, int[] y, int[] v) {
+        int length = 32 * r;
+
+        for (int i = 0; i < length; i++) {
+            int k = offset + i * 4;
+            x[i] = (b[k] & 0xff) | (b[k + 1] & 0xff) << 8 | (b[k + 2] & 0xff) << 16 | (b[k + 3] & 0xff) << 24;
+        }
+
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(x, 0, v, i * length, length);
+            blockMix(x, y, r);
+        }
+
+        for (int i = 0; i < n; i++) {
+            int j = x[(2 * r - 1) * 16] & (n - 1);
+
+            for (int k = 0; k < length; k++) {
+                x[k] ^= v[j * length + k];
+            }
+
+            blockMix(x, y, r);
+        }
+
+        for (int i = 0; i < length; i++) {
+            int k = offset + i * 4;
+            b[k] = (byte) x[i];
+            b[k + 1] = (byte) (x[i] >>> 8);
+            b[k + 2] = (byte) (x[i] >>> 16);
+            b[k + 3] = (byte) (x[i] >>> 24);
+        }
+    }
+
+    private static void blockMix(int[] b, int[] y, int r) {
+        int[] t = new int[16];
+
+        System.arraycopy(b, (2 * r - 1) * 16, t, 0, 16);
+
+        for (int i = 0; i < 2 * r; i++) {
+            for (int k = 0; k < 16; k++) {
+                t[k] ^= b[i * 16 + k];
+            }
+
+            salsa208(t);
+
+            // even blocks go to the first half of the output, odd blocks to the second half
+            System.arraycopy(t, 0, y, ((i & 1) * r + (i >> 1)) * 16, 16);
+        }
+
+        System.arraycopy(y, 0, b, 0, 32 * r);
+    }
+
+    private static void salsa208(int[] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+
+        for (int i = 0; i < 8; i += 2) {
+            // columns
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+
+            // rows
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+
+        b[0] += x0; b[1] += x1; b[2] += x2; b[3] += x3; b[4] += x4; b[5] += x5; b[6] += x6; b[7] += x7;
+        b[8] += x8; b[9] += x9; b[10] += x10; b[11] += x11; b[12] += x12; b[13] += x13; b[14] += x14; b[15] += x15;
+    }
+
+    private static void validate(int n, int r, int p) {
+        if (n <= 1 || (n & (n - 1)) != 0) {
+            throw new IllegalArgumentException("The scrypt cost must be a power of 2 greater than 1");
+        }
+
+        if (r <= 0 || p <= 0) {
+            throw new IllegalArgumentException("The scrypt block size and parallelization must be greater than zero");
+        }
+
+        if ((long) r * p >= 1 << 30 || (long) 128 * r * n > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The scrypt parameters are too large");
+        }
+    }
+}
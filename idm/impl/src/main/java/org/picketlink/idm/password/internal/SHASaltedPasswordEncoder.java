@@ -28,6 +28,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 
 import org.picketlink.idm.password.PasswordEncoder;
+import org.picketlink.idm.password.UpgradablePasswordEncoder;
 import org.picketlink.idm.internal.util.Base64;
 import org.picketlink.idm.model.Attribute;
 import org.picketlink.idm.model.User;
@@ -40,11 +41,16 @@ import org.picketlink.idm.model.User;
  * The provided password is salted before the encoding. The salt is stored as an user's attribute with name
  * <code>PASSWORD_SALT_USER_ATTRIBUTE</code>.
  * </p>
+ * <p>
+ * A single digest is cheap to brute force, so this encoder is mainly kept to verify existing passwords. New passwords
+ * should be encoded with one of the {@link AbstractAdaptivePasswordEncoder} implementations, using this encoder as the
+ * legacy encoder of a {@link DelegatingPasswordEncoder}.
+ * </p>
  *
  * @author <a href="mailto:psilva@redhat.com">Pedro Silva</a>
  *
  */
-public class SHASaltedPasswordEncoder implements PasswordEncoder {
+public class SHASaltedPasswordEncoder implements UpgradablePasswordEncoder {
 
     private static final String PASSWORD_SALT_USER_ATTRIBUTE = "passwordSalt";
     private int strength;
@@ -62,7 +68,8 @@ public class SHASaltedPasswordEncoder implements PasswordEncoder {
     public String encodePassword(User user, String rawPassword) {
         MessageDigest messageDigest = getMessageDigest();
 
-        String salt = user.<String>getAttribute(PASSWORD_SALT_USER_ATTRIBUTE).getValue();
+        Attribute<String> saltAttribute = user.<String>getAttribute(PASSWORD_SALT_USER_ATTRIBUTE);
+        String salt = saltAttribute != null ? saltAttribute.getValue() : null;
 
         // user does not have a salt. let's generate a fresh one.
         if (salt == null) {
@@ -70,8 +77,8 @@ public class SHASaltedPasswordEncoder implements PasswordEncoder {
             String algorithm = "SHA1PRNG";
 
             try {
+                // don't seed the generator explicitly, a fixed seed would give every user the same salt
                 psuedoRng = SecureRandom.getInstance(algorithm);
-                psuedoRng.setSeed(1024);
             } catch (NoSuchAlgorithmException e) {
                 throw new RuntimeException("Error getting SecureRandom instance: " + algorithm, e);
             }
@@ -92,6 +99,21 @@ public class SHASaltedPasswordEncoder implements PasswordEncoder {
         return Base64.encodeBytes(encodedPassword);
     }
 
+    @Override
+    public boolean verifyPassword(User user, String rawPassword, String encodedPassword) {
+        if (rawPassword == null || encodedPassword == null
+                || user.getAttribute(PASSWORD_SALT_USER_ATTRIBUTE) == null) {
+            return false;
+        }
+
+        return AbstractAdaptivePasswordEncoder.isEqual(encodePassword(user, rawPassword), encodedPassword);
+    }
+
+    @Override
+    public boolean requiresRehash(String encodedPassword) {
+        return false;
+    }
+
     /**
      * <p>
      * Salt the password with the specified salt value.
@@ -1,14 +1,23 @@
 package org.picketlink.idm.query.internal;
 
-import java.lang.reflect.ParameterizedType;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.query.QueryParameter;
+import org.picketlink.idm.query.QueryResultIterator;
+import org.picketlink.idm.spi.IdentityStore;
+import org.picketlink.idm.spi.IdentityStoreInvocationContext;
+import org.picketlink.idm.spi.StreamingIdentityStore;
 
 /**
- * Default IdentityQuery implementation.
+ * Default IdentityQuery implementation.  The query is executed by the IdentityStore it was
+ * created for, which is expected to evaluate the parameters, offset and limit natively.
  * 
  * @author Shane Bryzak
  *
@@ -16,10 +25,50 @@ import org.picketlink.idm.query.QueryParameter;
  */
 public class DefaultIdentityQuery<T extends IdentityType> implements IdentityQuery<T> {
 
+    public static final int DEFAULT_FETCH_SIZE = 100;
+
+    private final Class<T> identityType;
+    private final IdentityStore<?> identityStore;
+
+    /**
+     * The context the store is set up with while the query runs, or null if the store is already set up
+     */
+    private final IdentityStoreInvocationContext context;
+
+    private final Map<QueryParameter, Object[]> parameters = new LinkedHashMap<QueryParameter, Object[]>();
+
+    private int offset;
+    private int limit;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    public DefaultIdentityQuery(Class<T> identityType, IdentityStore<?> identityStore) {
+        this(identityType, identityStore, null);
+    }
+
+    /**
+     * Creates a query that sets up the store with the specified context for each fetch, and releases it
+     * afterwards, as the query may run long after the invocation that created it has completed
+     */
+    public DefaultIdentityQuery(Class<T> identityType, IdentityStore<?> identityStore,
+            IdentityStoreInvocationContext context) {
+        if (identityType == null) {
+            throw new IllegalArgumentException("identityType may not be null");
+        }
+
+        this.identityType = identityType;
+        this.identityStore = identityStore;
+        this.context = context;
+    }
+
     @Override
     public IdentityQuery<T> setParameter(QueryParameter param, Object... value) {
-        // TODO Auto-generated method stub
-        return null;
+        if (value == null || value.length == 0) {
+            this.parameters.remove(param);
+        } else {
+            this.parameters.put(param, value);
+        }
+
+        return this;
     }
 
     /*@Override
@@ -30,24 +79,182 @@ public class DefaultIdentityQuery<T extends IdentityType> implements IdentityQue
 
     @Override
     public List<T> getResultList() {
+        IdentityStoreInvocationContext previous = bindContext();
 
-        // This is a bit hacky, we might need to actually pass in the type to the constructor
-        ParameterizedType parameterizedType = (ParameterizedType)getClass()
-                .getGenericSuperclass();
-        Class type = (Class) parameterizedType.getActualTypeArguments()[0];
+        try {
+            List<T> result = this.identityStore.fetchQueryResults(this);
+            return result != null ? result : Collections.<T>emptyList();
+        } finally {
+            restoreContext(previous);
+        }
+    }
 
-        // TODO Auto-generated method stub
-        return null;
+    @Override
+    public QueryResultIterator<T> getResultIterator() {
+        if (this.identityStore instanceof StreamingIdentityStore) {
+            IdentityStoreInvocationContext previous = bindContext();
+
+            try {
+                return ((StreamingIdentityStore) this.identityStore).iterateQueryResults(this);
+            } finally {
+                restoreContext(previous);
+            }
+        }
+
+        return new PagedResultIterator();
+    }
 
+    /**
+     * Sets up the store with the context of this query, returning the context it was set up with before
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private IdentityStoreInvocationContext bindContext() {
+        if (this.context == null) {
+            return null;
+        }
+
+        IdentityStoreInvocationContext previous = this.identityStore.getContext();
+        ((IdentityStore) this.identityStore).setup(this.identityStore.getConfig(), this.context);
+        return previous;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void restoreContext(IdentityStoreInvocationContext previous) {
+        if (this.context != null) {
+            ((IdentityStore) this.identityStore).setup(this.identityStore.getConfig(), previous);
+        }
     }
 
     @Override
     public IdentityQuery<T> setOffset(int offset) {
-        return null;
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset may not be negative");
+        }
+
+        this.offset = offset;
+        return this;
     }
 
     @Override
     public IdentityQuery<T> setLimit(int limit) {
-        return null;
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit may not be negative");
+        }
+
+        this.limit = limit;
+        return this;
+    }
+
+    @Override
+    public IdentityQuery<T> setFetchSize(int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("fetchSize must be greater than zero");
+        }
+
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    @Override
+    public Class<T> getIdentityType() {
+        return this.identityType;
+    }
+
+    @Override
+    public Map<QueryParameter, Object[]> getParameters() {
+        return Collections.unmodifiableMap(this.parameters);
+    }
+
+    @Override
+    public Object[] getParameter(QueryParameter param) {
+        return this.parameters.get(param);
+    }
+
+    @Override
+    public int getOffset() {
+        return this.offset;
+    }
+
+    @Override
+    public int getLimit() {
+        return this.limit;
+    }
+
+    @Override
+    public int getFetchSize() {
+        return this.fetchSize;
+    }
+
+    /**
+     * Copies the parameters of this query into a new query for a single page of results
+     */
+    private DefaultIdentityQuery<T> createPageQuery(int pageOffset, int pageLimit) {
+        DefaultIdentityQuery<T> page = new DefaultIdentityQuery<T>(this.identityType, this.identityStore, this.context);
+        page.parameters.putAll(this.parameters);
+        page.offset = pageOffset;
+        page.limit = pageLimit;
+        return page;
+    }
+
+    /**
+     * Fetches the results one page at a time, requesting the next page only once the current one
+     * has been consumed.
+     */
+    private class PagedResultIterator implements QueryResultIterator<T> {
+        private Iterator<T> page = Collections.<T>emptyList().iterator();
+        private int nextOffset = offset;
+        private int returned;
+        private boolean exhausted;
+
+        @Override
+        public boolean hasNext() {
+            while (!this.page.hasNext() && !this.exhausted) {
+                fetchPage();
+            }
+
+            return this.page.hasNext();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            this.returned++;
+            return this.page.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            // every page is read with its own query, so only the current page is held
+            this.exhausted = true;
+            this.page = Collections.<T>emptyList().iterator();
+        }
+
+        private void fetchPage() {
+            int pageLimit = fetchSize;
+
+            if (limit > 0) {
+                pageLimit = Math.min(pageLimit, limit - this.returned);
+            }
+
+            if (pageLimit <= 0) {
+                this.exhausted = true;
+                return;
+            }
+
+            List<T> results = createPageQuery(this.nextOffset, pageLimit).getResultList();
+
+            // a short page means there are no more results
+            this.exhausted = results.size() < pageLimit;
+            this.nextOffset += results.size();
+            this.page = results.iterator();
+        }
     }
 }
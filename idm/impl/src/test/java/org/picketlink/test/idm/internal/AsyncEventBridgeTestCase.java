@@ -0,0 +1,255 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.picketlink.idm.event.BulkEventBridge;
+import org.picketlink.idm.event.EventBridge;
+import org.picketlink.idm.internal.AsyncEventBridge;
+import org.picketlink.idm.internal.AsyncEventBridge.OverflowPolicy;
+
+/**
+ * <p>
+ * Unit test {@link AsyncEventBridge}
+ * </p>
+ */
+public class AsyncEventBridgeTestCase {
+
+    @Test
+    public void testEventsAreDeliveredInOrder() throws Exception {
+        AsyncEventBridge bridge = new AsyncEventBridge();
+
+        final List<Object> events = Collections.synchronizedList(new ArrayList<Object>());
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+        bridge.addListener(new EventBridge() {
+            @Override
+            public void raiseEvent(Object event) {
+                events.add(event);
+            }
+        });
+
+        bridge.addListener(new BulkEventBridge() {
+            @Override
+            public void raiseEvent(Object event) {
+                raiseEvents(Collections.singletonList(event));
+            }
+
+            @Override
+            public void raiseEvents(List<Object> events) {
+                batchSizes.add(events.size());
+            }
+        });
+
+        for (int i = 0; i < 1000; i++) {
+            bridge.raiseEvent(i);
+        }
+
+        bridge.shutdown();
+        assertTrue(bridge.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(1000, events.size());
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, events.get(i));
+        }
+
+        int total = 0;
+
+        for (Integer size : batchSizes) {
+            assertTrue(size <= AsyncEventBridge.DEFAULT_MAX_BATCH_SIZE);
+            total += size;
+        }
+
+        assertEquals(1000, total);
+        assertEquals(batchSizes.size(), bridge.getBatchCount());
+        assertEquals(1000, bridge.getDeliveredCount());
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        AsyncEventBridge bridge = new AsyncEventBridge(2, 1, 1, OverflowPolicy.DROP_NEWEST);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Object> events = Collections.synchronizedList(new ArrayList<Object>());
+
+        bridge.addListener(new EventBridge() {
+            @Override
+            public void raiseEvent(Object event) {
+                started.countDown();
+
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                events.add(event);
+            }
+        });
+
+        // the first event blocks the worker, the next two fill the buffer
+        bridge.raiseEvent("first");
+        started.await();
+        bridge.raiseEvent("second");
+        bridge.raiseEvent("third");
+
+        assertEquals(2, bridge.getQueueDepth());
+
+        bridge.raiseEvent("fourth");
+
+        assertEquals(1, bridge.getDroppedCount());
+
+        release.countDown();
+        bridge.shutdown();
+        assertTrue(bridge.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(3, events.size());
+        assertEquals("third", events.get(2));
+    }
+
+    @Test
+    public void testCallerRunsWhenFull() throws Exception {
+        AsyncEventBridge bridge = new AsyncEventBridge(1, 1, 1, OverflowPolicy.CALLER_RUNS);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+        bridge.addListener(new EventBridge() {
+            @Override
+            public void raiseEvent(Object event) {
+                threads.add(Thread.currentThread());
+
+                if ("first".equals(event)) {
+                    started.countDown();
+
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+
+        bridge.raiseEvent("first");
+        started.await();
+        bridge.raiseEvent("second");
+        bridge.raiseEvent("third");
+
+        assertEquals(Thread.currentThread(), threads.get(threads.size() - 1));
+
+        release.countDown();
+        bridge.shutdown();
+        assertTrue(bridge.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(3, bridge.getDeliveredCount());
+        assertEquals(0, bridge.getDroppedCount());
+    }
+
+    @Test
+    public void testListenerErrorDoesNotStopWorker() throws Exception {
+        AsyncEventBridge bridge = new AsyncEventBridge();
+
+        final List<Object> events = Collections.synchronizedList(new ArrayList<Object>());
+
+        bridge.addListener(new EventBridge() {
+            @Override
+            public void raiseEvent(Object event) {
+                if ("first".equals(event)) {
+                    throw new AssertionError("Listener failure expected by the test");
+                }
+            }
+        });
+
+        bridge.addListener(new EventBridge() {
+            @Override
+            public void raiseEvent(Object event) {
+                events.add(event);
+            }
+        });
+
+        bridge.raiseEvent("first");
+        bridge.raiseEvent("second");
+
+        bridge.shutdown();
+        assertTrue(bridge.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(2, events.size());
+        assertEquals(2, bridge.getDeliveredCount());
+    }
+
+    @Test
+    public void testInterruptedWorkerDeliversQueuedEventsAndTerminates() throws Exception {
+        AsyncEventBridge bridge = new AsyncEventBridge(16, 1, 1, OverflowPolicy.BLOCK);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Object> events = Collections.synchronizedList(new ArrayList<Object>());
+        final List<Boolean> interrupted = Collections.synchronizedList(new ArrayList<Boolean>());
+
+        bridge.addListener(new EventBridge() {
+            @Override
+            public void raiseEvent(Object event) {
+                if ("first".equals(event)) {
+                    started.countDown();
+
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    Thread.currentThread().interrupt();
+                }
+
+                events.add(event);
+                interrupted.add(Thread.currentThread().isInterrupted());
+            }
+        });
+
+        bridge.raiseEvent("first");
+        started.await();
+        bridge.raiseEvent("second");
+        bridge.raiseEvent("third");
+        release.countDown();
+
+        // the worker stops without the bridge being shut down
+        assertTrue(bridge.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(3, events.size());
+        assertEquals("third", events.get(2));
+        assertFalse(interrupted.contains(Boolean.FALSE));
+    }
+}
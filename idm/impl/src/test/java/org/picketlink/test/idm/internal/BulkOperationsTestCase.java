@@ -0,0 +1,165 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.picketlink.idm.config.IdentityConfiguration;
+import org.picketlink.idm.config.IdentityStoreConfiguration;
+import org.picketlink.idm.config.PartitionStoreConfiguration;
+import org.picketlink.idm.internal.DefaultIdentityCache;
+import org.picketlink.idm.internal.DefaultIdentityManager;
+import org.picketlink.idm.internal.DefaultIdentityStoreInvocationContextFactory;
+import org.picketlink.idm.model.GroupRole;
+import org.picketlink.idm.model.SimpleGroup;
+import org.picketlink.idm.model.SimpleGroupRole;
+import org.picketlink.idm.model.SimpleRole;
+import org.picketlink.idm.model.SimpleUser;
+import org.picketlink.idm.spi.BulkIdentityStore;
+import org.picketlink.idm.spi.IdentityStore;
+import org.picketlink.idm.spi.IdentityStore.Feature;
+import org.picketlink.idm.spi.IdentityStoreInvocationContext;
+import org.picketlink.idm.spi.PartitionStore;
+import org.picketlink.idm.spi.StoreFactory;
+
+/**
+ * <p>
+ * Unit test the bulk operations of {@link DefaultIdentityManager}
+ * </p>
+ */
+public class BulkOperationsTestCase {
+
+    @Test
+    public void testBulkStoreReceivesBatch() throws Exception {
+        List<String> calls = new ArrayList<String>();
+        DefaultIdentityManager identityManager = createIdentityManager(calls, true);
+
+        identityManager.addAll(Arrays.asList(new SimpleUser("jdoe"), new SimpleRole("manager"), new SimpleUser("asmith")));
+
+        assertEquals(Arrays.asList("addAll:3"), calls);
+    }
+
+    @Test
+    public void testFallbackToSingleOperations() throws Exception {
+        List<String> calls = new ArrayList<String>();
+        DefaultIdentityManager identityManager = createIdentityManager(calls, false);
+
+        identityManager.addAll(Arrays.asList(new SimpleUser("jdoe"), new SimpleUser("asmith")));
+
+        assertEquals(Arrays.asList("add", "add"), calls);
+    }
+
+    @Test
+    public void testMemberships() throws Exception {
+        List<String> calls = new ArrayList<String>();
+        List<GroupRole> memberships = new ArrayList<GroupRole>();
+
+        memberships.add(new SimpleGroupRole(new SimpleUser("jdoe"), new SimpleRole("manager"), new SimpleGroup("admins")));
+        memberships.add(new SimpleGroupRole(new SimpleUser("asmith"), new SimpleRole("manager"), new SimpleGroup("admins")));
+
+        createIdentityManager(calls, true).grantMemberships(memberships);
+        createIdentityManager(calls, false).revokeMemberships(memberships);
+
+        assertEquals(Arrays.asList("createMemberships:2", "removeMembership", "removeMembership"), calls);
+    }
+
+    private DefaultIdentityManager createIdentityManager(final List<String> calls, final boolean bulk) {
+        IdentityConfiguration configuration = new IdentityConfiguration();
+        configuration.addStoreConfiguration(new TestStoreConfiguration());
+
+        DefaultIdentityManager identityManager = new DefaultIdentityManager();
+        identityManager.bootstrap(configuration, new DefaultIdentityStoreInvocationContextFactory(null,
+                new DefaultIdentityCache()));
+
+        final IdentityStore<?> store = createStore(calls, bulk);
+
+        identityManager.setIdentityStoreFactory(new StoreFactory() {
+            @Override
+            public IdentityStore createIdentityStore(IdentityStoreConfiguration config, IdentityStoreInvocationContext context) {
+                return store;
+            }
+
+            @Override
+            public PartitionStore createPartitionStore(PartitionStoreConfiguration config) {
+                return null;
+            }
+
+            @Override
+            public void mapIdentityConfiguration(Class<? extends IdentityStoreConfiguration> configClass,
+                    Class<? extends IdentityStore> storeClass) {
+            }
+
+            @Override
+            public void mapPartitionConfiguration(Class<? extends PartitionStoreConfiguration> configClass,
+                    Class<? extends PartitionStore> storeClass) {
+            }
+        });
+
+        return identityManager;
+    }
+
+    private IdentityStore<?> createStore(final List<String> calls, boolean bulk) {
+        Class<?>[] interfaces = bulk ? new Class[] { IdentityStore.class, BulkIdentityStore.class }
+                : new Class[] { IdentityStore.class };
+
+        return (IdentityStore<?>) Proxy.newProxyInstance(getClass().getClassLoader(), interfaces, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getDeclaringClass() == BulkIdentityStore.class) {
+                    calls.add(method.getName() + ":" + ((Collection<?>) args[0]).size());
+                } else if (method.getName().equals("setup") || method.getName().equals("getConfig")) {
+                    // the identity manager releases the store once each invocation has completed
+                    return null;
+                } else if (method.getDeclaringClass() == IdentityStore.class) {
+                    calls.add(method.getName());
+                } else if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static class TestStoreConfiguration extends IdentityStoreConfiguration {
+        @Override
+        public Set<Feature> getFeatureSet() {
+            return Collections.singleton(Feature.all);
+        }
+
+        @Override
+        public void init() {
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.picketlink.idm.credential.PasswordCredential;
+import org.picketlink.idm.internal.CredentialValidationCache;
+
+/**
+ * <p>
+ * Unit test {@link CredentialValidationCache}
+ * </p>
+ */
+public class CredentialValidationCacheTestCase {
+
+    @Test
+    public void testLookup() throws Exception {
+        CredentialValidationCache cache = new CredentialValidationCache();
+
+        cache.put("acme", "jdoe", new PasswordCredential("secret"), true, cache.getGeneration());
+        cache.put("acme", "jdoe", new PasswordCredential("wrong"), false, cache.getGeneration());
+
+        assertEquals(Boolean.TRUE, cache.lookup("acme", "jdoe", new PasswordCredential("secret")));
+        assertEquals(Boolean.FALSE, cache.lookup("acme", "jdoe", new PasswordCredential("wrong")));
+        assertNull(cache.lookup("acme", "jdoe", new PasswordCredential("other")));
+        assertNull(cache.lookup("default", "jdoe", new PasswordCredential("secret")));
+        assertNull(cache.lookup("acme", "jsmith", new PasswordCredential("secret")));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        CredentialValidationCache cache = new CredentialValidationCache();
+
+        cache.put("acme", "jdoe", new PasswordCredential("secret"), true, cache.getGeneration());
+        cache.put("acme", "jdoe#2", new PasswordCredential("secret"), true, cache.getGeneration());
+
+        cache.invalidate("acme", "jdoe");
+
+        assertNull(cache.lookup("acme", "jdoe", new PasswordCredential("secret")));
+        assertEquals(Boolean.TRUE, cache.lookup("acme", "jdoe#2", new PasswordCredential("secret")));
+    }
+
+    @Test
+    public void testStaleGenerationIsNotCached() throws Exception {
+        CredentialValidationCache cache = new CredentialValidationCache();
+
+        // the credentials were updated while the validation against the store was in progress
+        long generation = cache.getGeneration();
+        cache.invalidate("acme", "jdoe");
+        cache.put("acme", "jdoe", new PasswordCredential("secret"), true, generation);
+
+        assertNull(cache.lookup("acme", "jdoe", new PasswordCredential("secret")));
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        CredentialValidationCache cache = new CredentialValidationCache();
+        cache.setNegativeTimeout(1);
+
+        cache.put("acme", "jdoe", new PasswordCredential("secret"), true, cache.getGeneration());
+        cache.put("acme", "jdoe", new PasswordCredential("wrong"), false, cache.getGeneration());
+
+        Thread.sleep(20);
+
+        assertEquals(Boolean.TRUE, cache.lookup("acme", "jdoe", new PasswordCredential("secret")));
+        assertNull(cache.lookup("acme", "jdoe", new PasswordCredential("wrong")));
+    }
+
+    @Test
+    public void testLockout() throws Exception {
+        CredentialValidationCache cache = new CredentialValidationCache();
+        cache.setMaxFailedAttempts(3);
+
+        cache.recordFailure("acme", "jdoe");
+        cache.recordFailure("acme", "jdoe");
+
+        assertFalse(cache.isLockedOut("acme", "jdoe"));
+
+        // a successful validation resets the counter
+        cache.recordSuccess("acme", "jdoe");
+        assertEquals(0, cache.getFailedAttempts("acme", "jdoe"));
+
+        for (int i = 0; i < 3; i++) {
+            cache.recordFailure("acme", "jdoe");
+        }
+
+        assertTrue(cache.isLockedOut("acme", "jdoe"));
+        assertFalse(cache.isLockedOut("acme", "jsmith"));
+        assertFalse(cache.isLockedOut("default", "jdoe"));
+    }
+
+    @Test
+    public void testLockoutIsPerUser() throws Exception {
+        CredentialValidationCache cache = new CredentialValidationCache();
+        cache.setMaxFailedAttempts(3);
+        cache.setMaxLockoutEntries(100);
+
+        cache.recordFailure("acme", "jdoe");
+        cache.recordFailure("acme", "jdoe");
+
+        // failures spread over many other users must not lock out or reset anyone else
+        for (int i = 0; i < 1000; i++) {
+            for (int j = 0; j < 3; j++) {
+                cache.recordFailure("acme", "user" + i);
+            }
+
+            cache.recordSuccess("acme", "other" + i);
+        }
+
+        assertEquals(2, cache.getFailedAttempts("acme", "jdoe"));
+        assertFalse(cache.isLockedOut("acme", "jdoe"));
+        assertFalse(cache.isLockedOut("acme", "jsmith"));
+
+        cache.recordFailure("acme", "jdoe");
+        assertTrue(cache.isLockedOut("acme", "jdoe"));
+    }
+
+    @Test
+    public void testLockoutExpires() throws Exception {
+        CredentialValidationCache cache = new CredentialValidationCache();
+        cache.setMaxFailedAttempts(1);
+        cache.setLockoutPeriod(10);
+
+        cache.recordFailure("acme", "jdoe");
+
+        Thread.sleep(25);
+
+        assertFalse(cache.isLockedOut("acme", "jdoe"));
+
+        // the counter of the new period starts from zero
+        cache.recordFailure("acme", "jdoe");
+        assertEquals(1, cache.getFailedAttempts("acme", "jdoe"));
+    }
+
+    @Test
+    public void testConcurrentFailuresAreCounted() throws Exception {
+        final CredentialValidationCache cache = new CredentialValidationCache();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    for (int j = 0; j < 1000; j++) {
+                        cache.recordFailure("acme", "jdoe");
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(8000, cache.getFailedAttempts("acme", "jdoe"));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.picketlink.idm.internal.DefaultIdentityCache;
+import org.picketlink.idm.model.Attribute;
+import org.picketlink.idm.model.Realm;
+import org.picketlink.idm.model.SimpleGroup;
+import org.picketlink.idm.model.SimpleRole;
+import org.picketlink.idm.model.SimpleUser;
+import org.picketlink.idm.model.Tier;
+import org.picketlink.idm.model.User;
+
+/**
+ * <p>
+ * Unit test {@link DefaultIdentityCache}
+ * </p>
+ */
+public class DefaultIdentityCacheTestCase {
+
+    @Test
+    public void testLookupIsScopedToPartition() throws Exception {
+        DefaultIdentityCache cache = new DefaultIdentityCache();
+
+        Realm realm = new Realm("acme");
+        Tier tier = new Tier("app", null, null);
+
+        SimpleUser user = new SimpleUser("jdoe");
+        SimpleGroup group = new SimpleGroup("admins");
+        SimpleRole role = new SimpleRole("manager");
+
+        cache.putUser(realm, user);
+        cache.putGroup(tier, group);
+        cache.putRole(tier, role);
+
+        assertEquals("jdoe", cache.lookupUser(new Realm("acme"), "jdoe").getId());
+        assertNull(cache.lookupUser(new Realm(Realm.DEFAULT_REALM), "jdoe"));
+        assertNull(cache.lookupUser(null, "jdoe"));
+
+        assertEquals("/admins", cache.lookupGroup(tier, "/admins").getId());
+        assertNull(cache.lookupGroup(realm, "/admins"));
+
+        assertEquals("manager", cache.lookupRole(tier, "manager").getName());
+        assertNull(cache.lookupRole(realm, "manager"));
+    }
+
+    @Test
+    public void testLookupReturnsCopy() throws Exception {
+        DefaultIdentityCache cache = new DefaultIdentityCache();
+
+        Realm realm = new Realm("acme");
+        SimpleUser user = new SimpleUser("jdoe");
+        user.setFirstName("John");
+
+        cache.putUser(realm, user);
+
+        // neither the cached instance nor a looked up one may change the cached entry
+        user.setFirstName("Johnny");
+
+        User lookedUp = cache.lookupUser(realm, "jdoe");
+        assertNotSame(user, lookedUp);
+        assertEquals("John", lookedUp.getFirstName());
+
+        lookedUp.setFirstName("Jack");
+        assertEquals("John", cache.lookupUser(realm, "jdoe").getFirstName());
+    }
+
+    @Test
+    public void testCopyKeepsCreatedDateAndAttributes() throws Exception {
+        DefaultIdentityCache cache = new DefaultIdentityCache();
+
+        Realm realm = new Realm("acme");
+        SimpleUser user = new SimpleUser("jdoe");
+        user.setAttribute(new Attribute<String>("phone", "555-1234"));
+
+        cache.putUser(realm, user);
+
+        User lookedUp = cache.lookupUser(realm, "jdoe");
+        assertEquals(user.getCreatedDate(), lookedUp.getCreatedDate());
+        assertEquals("555-1234", lookedUp.<String>getAttribute("phone").getValue());
+
+        lookedUp.removeAttribute("phone");
+        lookedUp.getCreatedDate().setTime(0);
+
+        User again = cache.lookupUser(realm, "jdoe");
+        assertEquals(user.getCreatedDate(), again.getCreatedDate());
+        assertNotNull(again.getAttribute("phone"));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        DefaultIdentityCache cache = new DefaultIdentityCache();
+
+        Realm realm = new Realm("acme");
+        SimpleUser user = new SimpleUser("jdoe");
+
+        cache.putUser(realm, user);
+        cache.putUser(null, user);
+
+        // no partition set on the user, so every cached copy is removed
+        cache.invalidate(new SimpleUser("jdoe"));
+
+        assertNull(cache.lookupUser(realm, "jdoe"));
+        assertNull(cache.lookupUser(null, "jdoe"));
+
+        cache.putUser(realm, user);
+        cache.putUser(null, user);
+
+        SimpleUser scoped = new SimpleUser("jdoe");
+        scoped.setPartition(realm);
+
+        cache.invalidate(scoped);
+
+        assertNull(cache.lookupUser(realm, "jdoe"));
+        assertEquals("jdoe", cache.lookupUser(null, "jdoe").getId());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        DefaultIdentityCache cache = new DefaultIdentityCache();
+        cache.setMaxEntries(2);
+
+        Realm realm = new Realm("acme");
+
+        User first = new SimpleUser("first");
+        User second = new SimpleUser("second");
+
+        cache.putUser(realm, first);
+        cache.putUser(realm, second);
+
+        // touch the first user so that the second becomes the eldest entry
+        cache.lookupUser(realm, "first");
+
+        cache.putUser(realm, new SimpleUser("third"));
+
+        assertEquals(2, cache.size());
+        assertEquals("first", cache.lookupUser(realm, "first").getId());
+        assertNull(cache.lookupUser(realm, "second"));
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        DefaultIdentityCache cache = new DefaultIdentityCache();
+        cache.setUserTimeout(1);
+        cache.setRoleTimeout(0);
+
+        Realm realm = new Realm("acme");
+
+        cache.putUser(realm, new SimpleUser("jdoe"));
+        cache.putRole(realm, new SimpleRole("manager"));
+
+        Thread.sleep(20);
+
+        assertNull(cache.lookupUser(realm, "jdoe"));
+        assertEquals("manager", cache.lookupRole(realm, "manager").getName());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.picketlink.idm.internal.DefaultStoreFactory;
+import org.picketlink.idm.internal.DefaultStoreFactory.StoreLifecycle;
+import org.picketlink.idm.jpa.internal.JPAIdentityStore;
+import org.picketlink.idm.jpa.internal.JPAIdentityStoreConfiguration;
+import org.picketlink.idm.spi.IdentityStore;
+import org.picketlink.idm.spi.IdentityStoreInvocationContext;
+
+/**
+ * <p>
+ * Unit test {@link DefaultStoreFactory}
+ * </p>
+ */
+public class DefaultStoreFactoryTestCase {
+
+    @Test
+    public void testSharedStoreIsReused() throws Exception {
+        DefaultStoreFactory factory = new DefaultStoreFactory();
+        JPAIdentityStoreConfiguration config = new JPAIdentityStoreConfiguration();
+
+        IdentityStoreInvocationContext firstContext = new IdentityStoreInvocationContext(null, null);
+        IdentityStore<?> first = factory.createIdentityStore(config, firstContext);
+        assertSame(firstContext, first.getContext());
+
+        IdentityStoreInvocationContext secondContext = new IdentityStoreInvocationContext(null, null);
+        IdentityStore<?> second = factory.createIdentityStore(config, secondContext);
+
+        assertSame(first, second);
+        assertSame(secondContext, second.getContext());
+
+        // a different configuration gets its own instance
+        assertNotSame(first, factory.createIdentityStore(new JPAIdentityStoreConfiguration(), secondContext));
+    }
+
+    @Test
+    public void testContextIsBoundPerThread() throws Exception {
+        final DefaultStoreFactory factory = new DefaultStoreFactory();
+        final JPAIdentityStoreConfiguration config = new JPAIdentityStoreConfiguration();
+
+        IdentityStoreInvocationContext context = new IdentityStoreInvocationContext(null, null);
+        final IdentityStore<?> store = factory.createIdentityStore(config, context);
+
+        final IdentityStoreInvocationContext otherContext = new IdentityStoreInvocationContext(null, null);
+        final IdentityStore<?>[] otherStore = new IdentityStore<?>[1];
+
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                otherStore[0] = factory.createIdentityStore(config, otherContext);
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertSame(store, otherStore[0]);
+        assertSame(context, store.getContext());
+    }
+
+    @Test
+    public void testCustomStoreIsCreatedPerInvocation() throws Exception {
+        DefaultStoreFactory factory = new DefaultStoreFactory();
+        factory.mapIdentityConfiguration(CustomStoreConfiguration.class, CustomStore.class);
+
+        CustomStoreConfiguration config = new CustomStoreConfiguration();
+        IdentityStoreInvocationContext context = new IdentityStoreInvocationContext(null, null);
+
+        IdentityStore<?> store = factory.createIdentityStore(config, context);
+
+        assertTrue(store instanceof CustomStore);
+        assertNotSame(store, factory.createIdentityStore(config, context));
+
+        // unless it is explicitly mapped as shared
+        factory.mapIdentityConfiguration(CustomStoreConfiguration.class, CustomStore.class, StoreLifecycle.SHARED);
+
+        assertSame(factory.createIdentityStore(config, context), factory.createIdentityStore(config, context));
+    }
+
+    @Test
+    public void testContextIsReleased() throws Exception {
+        DefaultStoreFactory factory = new DefaultStoreFactory();
+        JPAIdentityStoreConfiguration config = new JPAIdentityStoreConfiguration();
+
+        JPAIdentityStore store = (JPAIdentityStore) factory.createIdentityStore(config,
+                new IdentityStoreInvocationContext(null, null));
+
+        store.setup(config, null);
+
+        assertNull(store.getContext());
+        assertSame(config, store.getConfig());
+    }
+
+    @Test
+    public void testInvocationLifecycle() throws Exception {
+        DefaultStoreFactory factory = new DefaultStoreFactory();
+        factory.setStoreLifecycle(StoreLifecycle.INVOCATION);
+
+        JPAIdentityStoreConfiguration config = new JPAIdentityStoreConfiguration();
+        IdentityStoreInvocationContext context = new IdentityStoreInvocationContext(null, null);
+
+        assertNotSame(factory.createIdentityStore(config, context), factory.createIdentityStore(config, context));
+    }
+
+    public static class CustomStoreConfiguration extends JPAIdentityStoreConfiguration {
+    }
+
+    public static class CustomStore extends JPAIdentityStore {
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.picketlink.idm.IdentityManagementException;
+import org.picketlink.idm.credential.PasswordCredential;
+import org.picketlink.idm.file.internal.FileBasedIdentityStore;
+import org.picketlink.idm.file.internal.FileUser;
+import org.picketlink.idm.model.SimpleUser;
+import org.picketlink.idm.model.User;
+import org.picketlink.idm.password.PasswordEncoder;
+import org.picketlink.idm.password.UpgradablePasswordEncoder;
+import org.picketlink.idm.password.internal.BoundedPasswordEncoder;
+import org.picketlink.idm.password.internal.DelegatingPasswordEncoder;
+import org.picketlink.idm.password.internal.PBKDF2PasswordEncoder;
+import org.picketlink.idm.password.internal.PasswordEncoderUtil;
+import org.picketlink.idm.password.internal.PlainTextPasswordEncoder;
+import org.picketlink.idm.password.internal.SCryptPasswordEncoder;
+
+/**
+ * <p>
+ * Unit test the {@link PasswordEncoder} implementations
+ * </p>
+ */
+public class PasswordEncoderTestCase {
+
+    @Test
+    public void testSCryptTestVectors() throws Exception {
+        // test vectors from RFC 7914
+        assertArrayEquals(toBytes("77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede21442"
+                + "fcd0069ded0948f8326a753a0fc81f17e8d3e0fb2e0d3628cf35e20c38d18906"),
+                SCryptPasswordEncoder.scrypt(new byte[0], new byte[0], 16, 1, 1, 64));
+        assertArrayEquals(toBytes("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162"
+                + "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640"),
+                SCryptPasswordEncoder.scrypt("password".getBytes("UTF-8"), "NaCl".getBytes("UTF-8"), 1024, 8, 16, 64));
+    }
+
+    @Test
+    public void testEncodeAndVerify() throws Exception {
+        User user = new SimpleUser("jdoe");
+
+        UpgradablePasswordEncoder[] encoders = new UpgradablePasswordEncoder[] { new PBKDF2PasswordEncoder(1000),
+                new SCryptPasswordEncoder(1024, 8, 1) };
+
+        for (UpgradablePasswordEncoder encoder : encoders) {
+            String encoded = encoder.encodePassword(user, "secret");
+
+            assertTrue(encoder.verifyPassword(user, "secret", encoded));
+            assertFalse(encoder.verifyPassword(user, "Secret", encoded));
+            assertFalse(encoder.requiresRehash(encoded));
+
+            // every password gets its own salt
+            assertFalse(encoded.equals(encoder.encodePassword(user, "secret")));
+        }
+
+        String encoded = new PBKDF2PasswordEncoder(1000).encodePassword(user, "secret");
+
+        assertTrue(encoded.startsWith("{PBKDF2}1000$"));
+
+        // passwords are verified with the cost they were encoded with
+        PBKDF2PasswordEncoder stronger = new PBKDF2PasswordEncoder(2000);
+
+        assertTrue(stronger.verifyPassword(user, "secret", encoded));
+        assertTrue(stronger.requiresRehash(encoded));
+    }
+
+    @Test
+    public void testDelegatingEncoderUpgradesPasswords() throws Exception {
+        User user = new SimpleUser("jdoe");
+
+        DelegatingPasswordEncoder encoder = new DelegatingPasswordEncoder(new PBKDF2PasswordEncoder(1000),
+                new SCryptPasswordEncoder(1024, 8, 1));
+
+        String scrypt = new SCryptPasswordEncoder(1024, 8, 1).encodePassword(user, "secret");
+
+        assertTrue(encoder.verifyPassword(user, "secret", scrypt));
+        assertTrue(encoder.requiresRehash(scrypt));
+
+        // passwords stored before any encoder was configured are only accepted through a legacy encoder
+        assertFalse(encoder.verifyPassword(user, "secret", "secret"));
+        assertTrue(encoder.requiresRehash("secret"));
+
+        encoder.setLegacyEncoder(new PlainTextPasswordEncoder());
+
+        assertTrue(encoder.verifyPassword(user, "secret", "secret"));
+        assertFalse(encoder.verifyPassword(user, "other", "secret"));
+
+        String encoded = encoder.encodePassword(user, "secret");
+
+        assertTrue(encoded.startsWith("{PBKDF2}"));
+        assertFalse(encoder.requiresRehash(encoded));
+    }
+
+    @Test
+    public void testEncoderWithoutVerificationIsComparedAfterEncoding() throws Exception {
+        User user = new SimpleUser("jdoe");
+
+        // an encoder written against the plain SPI, which neither verifies passwords nor requires a rehash
+        PasswordEncoder reversing = new PasswordEncoder() {
+            @Override
+            public String encodePassword(User user, String rawPassword) {
+                return new StringBuilder(rawPassword).reverse().toString();
+            }
+        };
+
+        assertTrue(PasswordEncoderUtil.verifyPassword(reversing, user, "secret", "terces"));
+        assertFalse(PasswordEncoderUtil.verifyPassword(reversing, user, "secret", "secret"));
+        assertFalse(PasswordEncoderUtil.requiresRehash(reversing, "terces"));
+
+        DelegatingPasswordEncoder encoder = new DelegatingPasswordEncoder(new PBKDF2PasswordEncoder(1000));
+
+        encoder.setLegacyEncoder(reversing);
+
+        assertTrue(encoder.verifyPassword(user, "secret", "terces"));
+        assertTrue(encoder.requiresRehash("terces"));
+    }
+
+    @Test
+    public void testFileStoreRehashesOnValidation() throws Exception {
+        File workingDir = new File(System.getProperty("java.io.tmpdir"), "pl-idm-password-" + System.nanoTime());
+        workingDir.mkdirs();
+
+        try {
+            FileBasedIdentityStore store = new FileBasedIdentityStore(workingDir.getPath(), true);
+
+            store.add(new FileUser("jdoe"));
+            store.updateCredential(store.getUser("jdoe"), new PasswordCredential("secret"));
+
+            DelegatingPasswordEncoder encoder = new DelegatingPasswordEncoder(new PBKDF2PasswordEncoder(1000));
+            encoder.setLegacyEncoder(new PlainTextPasswordEncoder());
+
+            store.setPasswordEncoder(encoder);
+
+            User user = store.getUser("jdoe");
+
+            assertFalse(store.validateCredential(user, new PasswordCredential("wrong")));
+            assertEquals("secret", user.<String>getAttribute("userPassword").getValue());
+
+            assertTrue(store.validateCredential(user, new PasswordCredential("secret")));
+            assertTrue(store.getUser("jdoe").<String>getAttribute("userPassword").getValue().startsWith("{PBKDF2}1000$"));
+            assertTrue(store.validateCredential(user, new PasswordCredential("secret")));
+        } finally {
+            File[] files = workingDir.listFiles();
+
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+
+            workingDir.delete();
+        }
+    }
+
+    @Test
+    public void testBoundedEncoderFailsWhenSaturated() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final BoundedPasswordEncoder encoder = new BoundedPasswordEncoder(new PBKDF2PasswordEncoder(1000) {
+            @Override
+            public boolean verifyPassword(User user, String rawPassword, String encodedPassword) {
+                started.countDown();
+
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                return super.verifyPassword(user, rawPassword, encodedPassword);
+            }
+        }, 1, 50);
+
+        final User user = new SimpleUser("jdoe");
+        final String encoded = encoder.encodePassword(user, "secret");
+
+        Thread busy = new Thread() {
+            @Override
+            public void run() {
+                encoder.verifyPassword(user, "secret", encoded);
+            }
+        };
+
+        busy.start();
+        started.await();
+
+        assertEquals(1, encoder.getActiveCount());
+
+        try {
+            encoder.verifyPassword(user, "secret", encoded);
+            fail("Expected the verification to time out");
+        } catch (IdentityManagementException e) {
+            // expected
+        }
+
+        release.countDown();
+        busy.join();
+
+        assertEquals(0, encoder.getActiveCount());
+        assertTrue(encoder.verifyPassword(user, "secret", encoded));
+    }
+
+    private byte[] toBytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+
+        return bytes;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.picketlink.idm.IdentityManager;
+import org.picketlink.idm.config.IdentityConfiguration;
+import org.picketlink.idm.internal.DefaultIdentityCache;
+import org.picketlink.idm.internal.DefaultIdentityManager;
+import org.picketlink.idm.internal.DefaultIdentityStoreInvocationContextFactory;
+import org.picketlink.idm.model.Realm;
+import org.picketlink.idm.model.SimpleRole;
+import org.picketlink.idm.model.SimpleUser;
+import org.picketlink.idm.model.Tier;
+
+/**
+ * <p>
+ * Unit test the realm and tier scoped views returned by {@link DefaultIdentityManager}
+ * </p>
+ */
+public class ScopedIdentityManagerTestCase {
+
+    @Test
+    public void testScopedManagersAreCached() throws Exception {
+        DefaultIdentityManager identityManager = new DefaultIdentityManager();
+
+        IdentityManager acme = identityManager.forRealm(new Realm("acme"));
+
+        assertSame(acme, identityManager.forRealm(new Realm("acme")));
+        assertSame(acme, acme.forRealm(new Realm("acme")));
+        assertNotSame(acme, identityManager.forRealm(new Realm("other")));
+
+        IdentityManager app = identityManager.forTier(new Tier("app", null, null));
+
+        assertSame(app, identityManager.forTier(new Tier("app", null, null)));
+
+        // scoping a realm manager to a tier keeps the realm
+        IdentityManager acmeApp = acme.forTier(new Tier("app", null, null));
+
+        assertNotSame(app, acmeApp);
+        assertSame(acmeApp, acme.forTier(new Tier("app", null, null)));
+        assertSame(acmeApp, app.forRealm(new Realm("acme")));
+    }
+
+    @Test
+    public void testPartitionIsAppliedToContext() throws Exception {
+        DefaultIdentityCache cache = new DefaultIdentityCache();
+        DefaultIdentityManager identityManager = new DefaultIdentityManager();
+        identityManager.bootstrap(new IdentityConfiguration(), new DefaultIdentityStoreInvocationContextFactory(null, cache));
+
+        Realm realm = new Realm("acme");
+        Tier tier = new Tier("app", null, null);
+
+        SimpleUser user = new SimpleUser("jdoe");
+        SimpleRole role = new SimpleRole("manager");
+
+        cache.putUser(realm, user);
+        cache.putRole(tier, role);
+
+        // served from the cache entries for the scoped partition, so no store is required
+        assertEquals(user.getId(), identityManager.forRealm(realm).getUser("jdoe").getId());
+        assertEquals(role.getName(), identityManager.forTier(tier).getRole("manager").getName());
+        assertEquals(user.getId(), identityManager.forRealm(realm).forTier(tier).getUser("jdoe").getId());
+
+        try {
+            // the unscoped manager resolves against the default realm, which has not been configured
+            identityManager.getUser("jdoe");
+            fail("Expected the default realm to be unconfigured");
+        } catch (SecurityException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.file.internal.FileBasedIdentityStore;
+import org.picketlink.idm.file.internal.FileGroup;
+import org.picketlink.idm.file.internal.FileRole;
+import org.picketlink.idm.file.internal.FileUser;
+import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.User;
+import org.picketlink.idm.query.IdentityQuery;
+import org.picketlink.idm.query.internal.DefaultIdentityQuery;
+
+/**
+ * <p>
+ * Tests the evaluation of {@link IdentityQuery} instances by the {@link FileBasedIdentityStore}.
+ * </p>
+ */
+public class FileIdentityQueryTestCase {
+
+    private static final int USER_COUNT = 7;
+
+    private File workingDir;
+    private FileBasedIdentityStore store;
+
+    @Before
+    public void onSetup() throws Exception {
+        this.workingDir = new File(System.getProperty("java.io.tmpdir"), "pl-idm-query-" + System.nanoTime());
+        this.workingDir.mkdirs();
+
+        this.store = new FileBasedIdentityStore(this.workingDir.getPath(), true);
+
+        for (int i = 0; i < USER_COUNT; i++) {
+            FileUser user = new FileUser("user" + i);
+
+            user.setFirstName(i % 2 == 0 ? "Anil" : "Pedro");
+            user.setLastName("Last" + i);
+            user.setEmail("user" + i + "@company.com");
+
+            this.store.add(user);
+        }
+
+        this.store.add(new FileRole("admin"));
+        this.store.add(new FileGroup("staff", null));
+        this.store.add(new FileGroup("managers", null));
+        this.store.createMembership(this.store.getUser("user1"), null, this.store.getRole("admin"));
+        this.store.createMembership(this.store.getUser("user2"), null, this.store.getRole("admin"));
+    }
+
+    @After
+    public void onFinish() throws Exception {
+        File[] files = this.workingDir.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        this.workingDir.delete();
+    }
+
+    /**
+     * <p>
+     * Tests queries using the user properties, including parameters with more than one value.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFindByUserProperties() throws Exception {
+        assertEquals(1, createUserQuery().setParameter(User.ID, "user3").getResultList().size());
+        assertEquals(2, createUserQuery().setParameter(User.ID, "user3", "user4", "invalid").getResultList().size());
+        assertEquals(4, createUserQuery().setParameter(User.FIRST_NAME, "Anil").getResultList().size());
+        assertEquals(7, createUserQuery().setParameter(User.FIRST_NAME, "Anil", "Pedro").getResultList().size());
+
+        List<User> result = createUserQuery().setParameter(User.FIRST_NAME, "Pedro")
+                .setParameter(User.EMAIL, "user3@company.com").getResultList();
+
+        assertEquals(1, result.size());
+        assertEquals("user3", result.get(0).getId());
+
+        assertTrue(createUserQuery().setParameter(User.LAST_NAME, "Invalid").getResultList().isEmpty());
+    }
+
+    /**
+     * <p>
+     * Tests a query using the memberships of the users.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFindByRole() throws Exception {
+        Set<String> ids = getIds(createUserQuery().setParameter(IdentityType.HAS_ROLE, "admin").getResultList());
+
+        assertEquals(2, ids.size());
+        assertTrue(ids.contains("user1"));
+        assertTrue(ids.contains("user2"));
+
+        assertEquals(1, createUserQuery().setParameter(IdentityType.HAS_ROLE, this.store.getRole("admin"))
+                .setParameter(User.FIRST_NAME, "Pedro").getResultList().size());
+
+        assertEquals(1, new DefaultIdentityQuery<Role>(Role.class, this.store).setParameter(Role.NAME, "admin")
+                .getResultList().size());
+    }
+
+    /**
+     * <p>
+     * Tests that group IDs and names are both evaluated when a query uses them together.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFindGroupByIdAndName() throws Exception {
+        String staffId = this.store.getGroup("staff").getId();
+
+        assertEquals(1, createGroupQuery().setParameter(Group.ID, staffId).getResultList().size());
+        assertEquals(1, createGroupQuery().setParameter(Group.NAME, "staff", "managers").setParameter(Group.ID, staffId)
+                .getResultList().size());
+        assertTrue(createGroupQuery().setParameter(Group.NAME, "managers").setParameter(Group.ID, staffId).getResultList()
+                .isEmpty());
+        assertTrue(createGroupQuery().setParameter(Group.ID, "invalid").getResultList().isEmpty());
+    }
+
+    /**
+     * <p>
+     * Tests that offset and limit select distinct pages and that the iterator returns every result exactly once.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPagination() throws Exception {
+        List<User> firstPage = createUserQuery().setLimit(3).getResultList();
+        List<User> secondPage = createUserQuery().setOffset(3).setLimit(3).getResultList();
+        List<User> lastPage = createUserQuery().setOffset(6).setLimit(3).getResultList();
+
+        assertEquals(3, firstPage.size());
+        assertEquals(3, secondPage.size());
+        assertEquals(1, lastPage.size());
+
+        Set<String> ids = getIds(firstPage);
+
+        ids.addAll(getIds(secondPage));
+        ids.addAll(getIds(lastPage));
+
+        assertEquals(USER_COUNT, ids.size());
+
+        Set<String> iterated = new HashSet<String>();
+        int count = 0;
+
+        for (Iterator<User> iterator = createUserQuery().setFetchSize(2).getResultIterator(); iterator.hasNext();) {
+            iterated.add(iterator.next().getId());
+            count++;
+        }
+
+        assertEquals(USER_COUNT, count);
+        assertEquals(ids, iterated);
+
+        count = 0;
+
+        for (Iterator<User> iterator = createUserQuery().setOffset(1).setLimit(5).setFetchSize(2).getResultIterator(); iterator
+                .hasNext(); iterator.next()) {
+            count++;
+        }
+
+        assertEquals(5, count);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testUnsupportedParameter() throws Exception {
+        createUserQuery().setParameter(IdentityType.CREATED_DATE, new Date()).getResultList();
+    }
+
+    private IdentityQuery<User> createUserQuery() {
+        return new DefaultIdentityQuery<User>(User.class, this.store);
+    }
+
+    private IdentityQuery<Group> createGroupQuery() {
+        return new DefaultIdentityQuery<Group>(Group.class, this.store);
+    }
+
+    private Set<String> getIds(List<User> users) {
+        Set<String> ids = new HashSet<String>();
+
+        for (User user : users) {
+            ids.add(user.getId());
+        }
+
+        return ids;
+    }
+}
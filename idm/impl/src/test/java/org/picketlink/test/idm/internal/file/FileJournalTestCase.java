@@ -0,0 +1,170 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.credential.PasswordCredential;
+import org.picketlink.idm.file.internal.FileBasedIdentityStore;
+import org.picketlink.idm.file.internal.FileJournal;
+import org.picketlink.idm.file.internal.FileJournal.Operation;
+import org.picketlink.idm.file.internal.FileUser;
+import org.picketlink.idm.model.SimpleGroup;
+import org.picketlink.idm.model.SimpleRole;
+import org.picketlink.idm.model.User;
+
+/**
+ * <p>
+ * Tests the journal used by the {@link FileBasedIdentityStore} to persist changes.
+ * </p>
+ */
+public class FileJournalTestCase {
+
+    private File workingDir;
+
+    @Before
+    public void onSetup() throws Exception {
+        this.workingDir = new File(System.getProperty("java.io.tmpdir"), "pl-idm-journal-" + System.nanoTime());
+        this.workingDir.mkdirs();
+    }
+
+    @After
+    public void onFinish() throws Exception {
+        File[] files = this.workingDir.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        this.workingDir.delete();
+    }
+
+    /**
+     * <p>
+     * Tests that a record torn by a crash is discarded during replay, keeping the records written before it.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReplayDiscardsTornRecord() throws Exception {
+        File file = new File(this.workingDir, "test-journal.log");
+
+        FileJournal journal = new FileJournal(file, 1);
+
+        journal.append(Operation.REMOVE_USER, "first");
+        journal.append(Operation.REMOVE_USER, "second");
+        journal.close();
+
+        long validLength = file.length();
+
+        journal.append(Operation.REMOVE_USER, "third");
+        journal.close();
+
+        // simulate a crash in the middle of the last write
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(file.length() - 3);
+        raf.close();
+
+        final List<Serializable> replayed = new ArrayList<Serializable>();
+
+        FileJournal reopened = new FileJournal(file, 1);
+
+        reopened.replay(new FileJournal.RecordHandler() {
+            @Override
+            public void handle(Operation operation, Serializable payload) {
+                replayed.add(payload);
+            }
+        });
+
+        assertEquals(2, replayed.size());
+        assertEquals("second", replayed.get(1));
+        assertEquals(2, reopened.getRecordCount());
+        assertEquals(validLength, file.length());
+    }
+
+    /**
+     * <p>
+     * Tests that changes are recovered from the journal and from the snapshots written by a compaction.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testChangesSurviveRestart() throws Exception {
+        FileBasedIdentityStore store = new FileBasedIdentityStore(this.workingDir.getPath(), true);
+        store.setSyncBatchSize(1);
+
+        store.add(new FileUser("asaldhana"));
+        store.add(new FileUser("psilva"));
+        store.updateCredential(store.getUser("asaldhana"), new PasswordCredential("secret"));
+
+        store = new FileBasedIdentityStore(this.workingDir.getPath(), false);
+
+        User user = store.getUser("asaldhana");
+
+        assertNotNull(user);
+        assertEquals("secret", user.<String>getAttribute("userPassword").getValue());
+
+        store.compact();
+        store.remove(store.getUser("psilva"));
+
+        store = new FileBasedIdentityStore(this.workingDir.getPath(), false);
+
+        assertNotNull(store.getUser("asaldhana"));
+        assertNull(store.getUser("psilva"));
+    }
+
+    /**
+     * <p>
+     * Tests that removing a membership that doesn't exist isn't recorded in the journal.
+     * </p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRemoveMissingMembershipIsNotJournaled() throws Exception {
+        FileBasedIdentityStore store = new FileBasedIdentityStore(this.workingDir.getPath(), true);
+
+        store.add(new FileUser("asaldhana"));
+
+        File journalFile = new File(this.workingDir, "pl-idm-journal.log");
+        long length = journalFile.length();
+
+        store.removeMembership(store.getUser("asaldhana"), new SimpleGroup("admins"), new SimpleRole("manager"));
+
+        assertEquals(length, journalFile.length());
+    }
+}
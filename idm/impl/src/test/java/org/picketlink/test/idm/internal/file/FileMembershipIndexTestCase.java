@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.picketlink.idm.file.internal.FileGroup;
+import org.picketlink.idm.file.internal.FileMembership;
+import org.picketlink.idm.file.internal.FileMembershipIndex;
+import org.picketlink.idm.file.internal.FileRole;
+import org.picketlink.idm.file.internal.FileUser;
+
+/**
+ * <p>
+ * Tests the {@link FileMembershipIndex}.
+ * </p>
+ */
+public class FileMembershipIndexTestCase {
+
+    @Test
+    public void testLookup() throws Exception {
+        FileMembershipIndex index = new FileMembershipIndex();
+
+        FileUser user = new FileUser("asaldhana");
+        FileGroup group = new FileGroup("Administrators", null);
+        FileRole role = new FileRole("admin");
+
+        FileMembership groupRole = index.add(new FileMembership(user, group, role));
+        FileMembership groupMembership = index.add(new FileMembership(user, group, null));
+
+        // equivalent memberships are only indexed once
+        assertSame(groupRole, index.add(new FileMembership(new FileUser("asaldhana"), group, role)));
+        assertEquals(2, index.size());
+
+        assertSame(groupRole, index.get(new FileUser("asaldhana"), new FileGroup("Administrators", null), new FileRole("admin")));
+        assertEquals(2, index.find(user, group, null).size());
+        assertEquals(1, index.find(user, null, role).size());
+
+        // a null group or role is part of the membership, not a wildcard
+        assertNull(index.get(user, null, role));
+        assertNull(index.get(user, null, null));
+        assertNull(index.get(new FileUser("psilva"), null, null));
+        assertNull(index.get(user, group, new FileRole("manager")));
+
+        // removing a membership without a role leaves the group role membership in place
+        index.remove(user, null, role);
+        assertSame(groupRole, index.get(user, group, role));
+
+        index.remove(user, group, role);
+
+        assertNull(index.get(user, group, role));
+        assertSame(groupMembership, index.get(user, group, null));
+    }
+
+    @Test
+    public void testRemoveAllReferencingIdentity() throws Exception {
+        FileMembershipIndex index = new FileMembershipIndex();
+
+        FileUser user = new FileUser("asaldhana");
+        FileUser other = new FileUser("psilva");
+        FileGroup group = new FileGroup("Administrators", null);
+        FileRole role = new FileRole("admin");
+
+        index.add(new FileMembership(user, group, role));
+        index.add(new FileMembership(other, group, null));
+        index.add(new FileMembership(other, null, role));
+
+        index.removeAll(FileMembershipIndex.getKey(group));
+
+        assertEquals(1, index.size());
+        assertNull(index.get(other, group, null));
+        assertSame(role, index.get(other, null, role).getRole());
+
+        index.removeAll(FileMembershipIndex.getRoleKey("admin"));
+
+        assertEquals(0, index.size());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.event.EventBridge;
+import org.picketlink.idm.internal.DefaultIdentityCache;
+import org.picketlink.idm.jpa.internal.JPAIdentityStore;
+import org.picketlink.idm.jpa.internal.JPAIdentityStoreConfiguration;
+import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.SimpleGroup;
+import org.picketlink.idm.model.SimpleGroupRole;
+import org.picketlink.idm.model.SimpleRole;
+import org.picketlink.idm.model.SimpleUser;
+import org.picketlink.idm.model.User;
+import org.picketlink.idm.spi.IdentityStoreInvocationContext;
+import org.picketlink.test.idm.internal.mgr.IdentityObject;
+import org.picketlink.test.idm.internal.mgr.MembershipObject;
+
+/**
+ * <p>
+ * Tests the bulk operations of the {@link JPAIdentityStore} against a database.
+ * </p>
+ */
+public class JPABulkOperationsTestCase {
+
+    private EntityManagerFactory emf;
+    private EntityManager entityManager;
+    private JPAIdentityStore store;
+
+    private User user = new SimpleUser("john");
+    private Group admins = new SimpleGroup("admins");
+    private Group auditors = new SimpleGroup("auditors", this.admins);
+    private Role manager = new SimpleRole("manager");
+
+    @Before
+    public void onSetup() throws Exception {
+        this.emf = Persistence.createEntityManagerFactory("jpa-membership-tests-pu");
+        this.entityManager = this.emf.createEntityManager();
+        this.entityManager.getTransaction().begin();
+
+        JPAIdentityStoreConfiguration config = new JPAIdentityStoreConfiguration();
+
+        config.setIdentityClass(IdentityObject.class);
+        config.setMembershipClass(MembershipObject.class);
+        config.init();
+
+        EventBridge eventBridge = new EventBridge() {
+            @Override
+            public void raiseEvent(Object event) {
+            }
+        };
+
+        IdentityStoreInvocationContext context = new IdentityStoreInvocationContext(new DefaultIdentityCache(),
+                eventBridge);
+
+        context.setParameter(JPAIdentityStore.INVOCATION_CTX_ENTITY_MANAGER, this.entityManager);
+
+        this.store = new JPAIdentityStore();
+        this.store.setup(config, context);
+    }
+
+    @After
+    public void onFinish() throws Exception {
+        this.store.setup(this.store.getConfig(), null);
+        this.entityManager.getTransaction().rollback();
+        this.entityManager.close();
+        this.emf.close();
+    }
+
+    @Test
+    public void testAddAllPersistsUsersGroupsAndRoles() throws Exception {
+        this.store.addAll(Arrays.asList(this.user, this.admins, this.auditors, this.manager));
+
+        assertNotNull(findIdentity(this.user.getKey()));
+        assertNotNull(findIdentity(this.manager.getKey()));
+        assertSame(findIdentity(this.admins.getKey()), findIdentity(this.auditors.getKey()).getParent());
+    }
+
+    @Test
+    public void testCreateAndRemoveMemberships() throws Exception {
+        this.store.addAll(Arrays.asList(this.user, this.admins, this.auditors, this.manager));
+
+        this.store.createMemberships(Arrays.asList(new SimpleGroupRole(this.user, this.manager, this.admins),
+                new SimpleGroupRole(this.user, null, this.auditors)));
+
+        assertNotNull(this.store.getMembership(this.user, this.admins, this.manager));
+        assertNotNull(this.store.getMembership(this.user, this.auditors, null));
+        assertEquals(2L, countMemberships());
+
+        this.store.removeMemberships(Arrays.asList(new SimpleGroupRole(this.user, this.manager, this.admins)));
+
+        assertNull(this.store.getMembership(this.user, this.admins, this.manager));
+        assertNotNull(this.store.getMembership(this.user, this.auditors, null));
+        assertEquals(1L, countMemberships());
+    }
+
+    private IdentityObject findIdentity(String key) {
+        for (IdentityObject identity : this.entityManager.createQuery("SELECT i FROM IdentityObject i",
+                IdentityObject.class).getResultList()) {
+            // the key is read through the same property the store wrote it with
+            if (key.equals(this.store.getConfig().getModelProperty(JPAIdentityStoreConfiguration.PROPERTY_IDENTITY_KEY)
+                    .getValue(identity))) {
+                return identity;
+            }
+        }
+
+        return null;
+    }
+
+    private long countMemberships() {
+        return this.entityManager.createQuery("SELECT COUNT(m) FROM MembershipObject m", Long.class).getSingleResult();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+
+import org.junit.Test;
+import org.picketlink.idm.jpa.annotations.IDMProperty;
+import org.picketlink.idm.jpa.annotations.PropertyType;
+import org.picketlink.idm.jpa.internal.JPAIdentityStoreConfiguration;
+import org.picketlink.test.idm.internal.mgr.IdentityObject;
+
+/**
+ * <p>
+ * Tests the queries built by {@link JPAIdentityStoreConfiguration} during initialization.
+ * </p>
+ */
+public class JPAIdentityStoreConfigurationTestCase {
+
+    @Test
+    public void testLookupQueries() throws Exception {
+        JPAIdentityStoreConfiguration config = new JPAIdentityStoreConfiguration();
+
+        config.setIdentityClass(IdentityObject.class);
+        config.init();
+
+        assertEquals("SELECT i FROM IdentityObject i WHERE i.id = :id AND i.discriminator = :discriminator",
+                config.getIdentityByIdQuery());
+        assertEquals("SELECT i FROM IdentityObject i WHERE i.key = :key", config.getIdentityByKeyQuery());
+        assertEquals("SELECT DISTINCT p FROM IdentityObject g JOIN g.parent p WHERE g IN (:groups)",
+                config.getParentGroupsQuery());
+
+        // no membership, credential or attribute classes have been configured
+        assertNull(config.getMembershipQuery(true, true));
+        assertNull(config.getDeleteMembershipsQuery());
+        assertNull(config.getDeleteCredentialsQuery());
+        assertNull(config.getDeleteAttributesQuery());
+    }
+
+    @Test
+    public void testMembershipQueries() throws Exception {
+        JPAIdentityStoreConfiguration config = new JPAIdentityStoreConfiguration();
+
+        config.setIdentityClass(IdentityObject.class);
+        config.setMembershipClass(Membership.class);
+        config.init();
+
+        assertEquals("DELETE FROM TestMembership m WHERE m.member = :identity OR m.memberOf = :identity "
+                + "OR m.role = :identity", config.getDeleteMembershipsQuery());
+        assertEquals("SELECT m FROM TestMembership m WHERE m.member = :member AND m.memberOf = :group "
+                + "AND m.role = :role", config.getMembershipQuery(true, true));
+        assertEquals("SELECT m FROM TestMembership m WHERE m.member = :member AND m.memberOf = :group "
+                + "AND m.role IS NULL", config.getMembershipQuery(true, false));
+        assertEquals("SELECT m FROM TestMembership m WHERE m.member = :member AND m.memberOf IS NULL "
+                + "AND m.role = :role", config.getMembershipQuery(false, true));
+        assertEquals("SELECT m FROM TestMembership m WHERE m.member = :member AND m.memberOf IS NULL "
+                + "AND m.role IS NULL", config.getMembershipQuery(false, false));
+    }
+
+    @Test
+    public void testQueryHints() throws Exception {
+        JPAIdentityStoreConfiguration config = new JPAIdentityStoreConfiguration();
+
+        config.setQueryHint("org.hibernate.cacheable", Boolean.TRUE);
+        assertEquals(Boolean.TRUE, config.getQueryHints().get("org.hibernate.cacheable"));
+
+        config.setQueryHint("org.hibernate.cacheable", null);
+        assertTrue(config.getQueryHints().isEmpty());
+    }
+
+    @Entity(name = "TestMembership")
+    public static class Membership {
+        @Id
+        @GeneratedValue
+        private long id;
+
+        @ManyToOne
+        @IDMProperty(PropertyType.MEMBER)
+        private IdentityObject member;
+
+        @ManyToOne
+        @IDMProperty(PropertyType.GROUP)
+        private IdentityObject memberOf;
+
+        @ManyToOne
+        @IDMProperty(PropertyType.ROLE)
+        private IdentityObject role;
+    }
+}
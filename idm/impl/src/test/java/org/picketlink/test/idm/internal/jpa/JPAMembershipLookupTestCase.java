@@ -0,0 +1,151 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal.jpa;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketlink.idm.internal.DefaultIdentityCache;
+import org.picketlink.idm.jpa.internal.JPAIdentityStore;
+import org.picketlink.idm.jpa.internal.JPAIdentityStoreConfiguration;
+import org.picketlink.idm.model.Group;
+import org.picketlink.idm.model.IdentityType;
+import org.picketlink.idm.model.Role;
+import org.picketlink.idm.model.SimpleGroup;
+import org.picketlink.idm.model.SimpleRole;
+import org.picketlink.idm.model.SimpleUser;
+import org.picketlink.idm.model.User;
+import org.picketlink.idm.spi.IdentityStoreInvocationContext;
+import org.picketlink.test.idm.internal.mgr.IdentityObject;
+import org.picketlink.test.idm.internal.mgr.MembershipObject;
+
+/**
+ * <p>
+ * Tests the lookup of a single membership by {@link JPAIdentityStore#getMembership(IdentityType, Group, Role)}
+ * with and without a group and a role.
+ * </p>
+ */
+public class JPAMembershipLookupTestCase {
+
+    private EntityManagerFactory emf;
+    private EntityManager entityManager;
+    private JPAIdentityStore store;
+
+    private User user = new SimpleUser("john");
+    private Group admins = new SimpleGroup("admins");
+    private Group users = new SimpleGroup("users");
+    private Role manager = new SimpleRole("manager");
+    private Role auditor = new SimpleRole("auditor");
+
+    @Before
+    public void onSetup() throws Exception {
+        this.emf = Persistence.createEntityManagerFactory("jpa-membership-tests-pu");
+        this.entityManager = this.emf.createEntityManager();
+        this.entityManager.getTransaction().begin();
+
+        IdentityObject userEntity = createIdentity(this.user);
+        IdentityObject adminsEntity = createIdentity(this.admins);
+        IdentityObject usersEntity = createIdentity(this.users);
+        IdentityObject managerEntity = createIdentity(this.manager);
+
+        createIdentity(this.auditor);
+
+        createMembership(userEntity, adminsEntity, managerEntity);
+        createMembership(userEntity, usersEntity, null);
+        createMembership(userEntity, null, managerEntity);
+
+        JPAIdentityStoreConfiguration config = new JPAIdentityStoreConfiguration();
+
+        config.setIdentityClass(IdentityObject.class);
+        config.setMembershipClass(MembershipObject.class);
+        config.init();
+
+        IdentityStoreInvocationContext context = new IdentityStoreInvocationContext(new DefaultIdentityCache(), null);
+
+        context.setParameter(JPAIdentityStore.INVOCATION_CTX_ENTITY_MANAGER, this.entityManager);
+
+        this.store = new JPAIdentityStore();
+        this.store.setup(config, context);
+    }
+
+    @After
+    public void onFinish() throws Exception {
+        this.store.setup(this.store.getConfig(), null);
+        this.entityManager.getTransaction().rollback();
+        this.entityManager.close();
+        this.emf.close();
+    }
+
+    @Test
+    public void testMembershipWithGroupAndRole() throws Exception {
+        assertNotNull(this.store.getMembership(this.user, this.admins, this.manager));
+        assertNull(this.store.getMembership(this.user, this.admins, this.auditor));
+        assertNull(this.store.getMembership(this.user, this.users, this.manager));
+    }
+
+    @Test
+    public void testMembershipWithGroupOnly() throws Exception {
+        assertNotNull(this.store.getMembership(this.user, this.users, null));
+
+        // the membership of the admins group also has a role
+        assertNull(this.store.getMembership(this.user, this.admins, null));
+    }
+
+    @Test
+    public void testMembershipWithRoleOnly() throws Exception {
+        assertNotNull(this.store.getMembership(this.user, null, this.manager));
+        assertNull(this.store.getMembership(this.user, null, this.auditor));
+    }
+
+    @Test
+    public void testMembershipWithoutGroupAndRole() throws Exception {
+        assertNull(this.store.getMembership(this.user, null, null));
+    }
+
+    private IdentityObject createIdentity(IdentityType identityType) {
+        IdentityObject entity = new IdentityObject();
+
+        entity.setKey(identityType.getKey());
+        entity.setName(identityType.getKey());
+
+        this.entityManager.persist(entity);
+
+        return entity;
+    }
+
+    private void createMembership(IdentityObject member, IdentityObject group, IdentityObject role) {
+        MembershipObject membership = new MembershipObject();
+
+        membership.setMember(member);
+        membership.setMemberOf(group);
+        membership.setRole(role);
+
+        this.entityManager.persist(membership);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+
+import org.junit.Test;
+import org.picketlink.idm.ldap.internal.LDAPConnectionPool;
+
+/**
+ * Unit test {@link LDAPConnectionPool}, using contexts that are not connected to a server
+ */
+public class LDAPConnectionPoolTestCase {
+
+    @Test
+    public void testContextsAreReused() throws Exception {
+        TestPool pool = new TestPool(0, 2, 0);
+
+        LdapContext first = pool.borrow();
+        LdapContext second = pool.borrow();
+
+        assertNotSame(first, second);
+        assertEquals(2, pool.getActiveCount());
+
+        pool.release(first);
+
+        assertSame(first, pool.borrow());
+        assertEquals(2, pool.created.get());
+    }
+
+    @Test
+    public void testMaxSizeIsEnforced() throws Exception {
+        TestPool pool = new TestPool(0, 1, 0);
+
+        LdapContext context = pool.borrow();
+
+        try {
+            pool.borrow();
+            fail("Expected the pool to be exhausted");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        pool.invalidate(context);
+
+        assertEquals(1, pool.closed.get());
+        assertEquals(0, pool.getActiveCount());
+        assertNotSame(context, pool.borrow());
+    }
+
+    @Test
+    public void testIdleContextsAreEvicted() throws Exception {
+        TestPool pool = new TestPool(1, 3, 1);
+
+        LdapContext first = pool.borrow();
+        LdapContext second = pool.borrow();
+        LdapContext third = pool.borrow();
+
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+
+        Thread.sleep(20);
+        pool.evictIdle();
+
+        assertEquals(1, pool.getIdleCount());
+        assertTrue(pool.closed.get() >= 2);
+    }
+
+    private static class TestPool extends LDAPConnectionPool {
+        private final AtomicInteger created = new AtomicInteger();
+        private final AtomicInteger closed = new AtomicInteger();
+
+        TestPool(int minSize, int maxSize, long idleTimeout) {
+            super("test", new Properties(), minSize, maxSize, 10, idleTimeout, false);
+        }
+
+        @Override
+        protected LdapContext createContext() throws NamingException {
+            created.incrementAndGet();
+
+            return (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { LdapContext.class },
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if (method.getName().equals("close")) {
+                                closed.incrementAndGet();
+                            } else if (method.getName().equals("equals")) {
+                                return proxy == args[0];
+                            } else if (method.getName().equals("hashCode")) {
+                                return System.identityHashCode(proxy);
+                            }
+                            return null;
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal.ldap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketbox.test.ldap.AbstractLDAPTest;
+import org.picketlink.idm.internal.DefaultIdentityStoreInvocationContextFactory;
+import org.picketlink.idm.internal.util.Base64;
+import org.picketlink.idm.ldap.internal.LDAPConfiguration;
+import org.picketlink.idm.ldap.internal.LDAPConfiguration.CustomAttributesMapping;
+import org.picketlink.idm.ldap.internal.LDAPConfigurationBuilder;
+import org.picketlink.idm.ldap.internal.LDAPCustomAttributes;
+import org.picketlink.idm.ldap.internal.LDAPIdentityStore;
+import org.picketlink.idm.ldap.internal.LDAPUser;
+
+/**
+ * Unit test the conversion of {@link LDAPCustomAttributes} to and from the attribute used to store them inline, and
+ * storing and updating entries with inline custom attributes
+ */
+public class LDAPInlineCustomAttributesTestCase extends AbstractLDAPTest {
+
+    private static final String USER_DN_SUFFIX = "ou=People,dc=jboss,dc=org";
+    private static final String CUSTOM_ATTRIBUTE = "description";
+
+    private LDAPConfiguration configuration;
+    private LDAPIdentityStore store;
+
+    @Before
+    public void setup() throws Exception {
+        super.setup();
+        importLDIF("ldap/users.ldif");
+
+        this.configuration = (LDAPConfiguration) new LDAPConfigurationBuilder().build();
+
+        this.configuration.setBindDN(adminDN).setBindCredential(adminPW).setLdapURL("ldap://localhost:10389");
+        this.configuration.setUserDNSuffix(USER_DN_SUFFIX).setRoleDNSuffix("ou=Roles,dc=jboss,dc=org");
+        this.configuration.setGroupDNSuffix("ou=Groups,dc=jboss,dc=org");
+        this.configuration.setCustomAttributesMapping(CustomAttributesMapping.INLINE);
+        this.configuration.setCustomAttributesAttributeName(CUSTOM_ATTRIBUTE);
+        this.configuration.init();
+
+        this.store = new LDAPIdentityStore();
+        this.store.setup(this.configuration, new DefaultIdentityStoreInvocationContextFactory(null).createContext());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.configuration.getLdapManager().close();
+        super.tearDown();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        LDAPCustomAttributes customAttributes = new LDAPCustomAttributes();
+
+        customAttributes.addAttribute("enabled", "true");
+        customAttributes.addAttribute("query", "a=b");
+        customAttributes.addAttribute("phones", new String[] { "111", "222" });
+
+        Attribute ldapAttribute = customAttributes.toLDAPAttribute("customAttribute");
+
+        assertEquals("customAttribute", ldapAttribute.getID());
+        assertEquals(3, ldapAttribute.size());
+        assertTrue(ldapAttribute.contains("enabled=s:true"));
+
+        LDAPCustomAttributes loaded = LDAPCustomAttributes.fromLDAPAttribute(ldapAttribute);
+
+        assertEquals(3, loaded.getAttributes().size());
+        assertEquals("true", loaded.getAttribute("enabled"));
+        assertEquals("a=b", loaded.getAttribute("query"));
+        assertArrayEquals(new String[] { "111", "222" }, (String[]) loaded.getAttribute("phones"));
+    }
+
+    @Test
+    public void testTypedValues() throws Exception {
+        LDAPCustomAttributes customAttributes = new LDAPCustomAttributes();
+        Date created = new Date();
+
+        customAttributes.addAttribute("active", Boolean.TRUE);
+        customAttributes.addAttribute("logins", Integer.valueOf(3));
+        customAttributes.addAttribute("quota", Long.valueOf(1L << 40));
+        customAttributes.addAttribute("score", Double.valueOf(0.5));
+        customAttributes.addAttribute("created", created);
+        customAttributes.addAttribute("avatar", new byte[] { 0x1f, (byte) 0x8b, 0, 1 });
+        customAttributes.addAttribute("aliases", new String[] { "a,b", "" });
+
+        LDAPCustomAttributes loaded = LDAPCustomAttributes.fromLDAPAttribute(customAttributes
+                .toLDAPAttribute("customAttribute"));
+
+        assertEquals(Boolean.TRUE, loaded.getAttribute("active"));
+        assertEquals(Integer.valueOf(3), loaded.getAttribute("logins"));
+        assertEquals(Long.valueOf(1L << 40), loaded.getAttribute("quota"));
+        assertEquals(Double.valueOf(0.5), loaded.getAttribute("score"));
+        assertEquals(created, loaded.getAttribute("created"));
+        assertArrayEquals(new byte[] { 0x1f, (byte) 0x8b, 0, 1 }, (byte[]) loaded.getAttribute("avatar"));
+        assertArrayEquals(new String[] { "a,b", "" }, (String[]) loaded.getAttribute("aliases"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedType() throws Exception {
+        LDAPCustomAttributes customAttributes = new LDAPCustomAttributes();
+
+        customAttributes.addAttribute("address", new StringBuilder("somewhere"));
+        customAttributes.toLDAPAttribute("customAttribute");
+    }
+
+    @Test
+    public void testMissingOrUnknownValues() throws Exception {
+        assertTrue(LDAPCustomAttributes.fromLDAPAttribute(null).getAttributes().isEmpty());
+
+        Attribute ldapAttribute = new BasicAttribute("customAttribute");
+
+        ldapAttribute.add("not a custom attribute");
+        ldapAttribute.add("enabled=x:true");
+
+        // serialized values are never deserialized
+        ldapAttribute.add("date=o:" + Base64.encodeObject(new Date(), Base64.DONT_BREAK_LINES));
+
+        assertTrue(LDAPCustomAttributes.fromLDAPAttribute(ldapAttribute).getAttributes().isEmpty());
+    }
+
+    @Test
+    public void testStoreAndUpdate() throws Exception {
+        LDAPUser user = new LDAPUser(USER_DN_SUFFIX);
+
+        user.setId("jdoe");
+        user.setFirstName("John");
+        user.setLastName("Doe");
+        user.setAttribute(new org.picketlink.idm.model.Attribute<String>("question", "favorite toy?"));
+
+        this.store.add(user);
+
+        LDAPUser stored = (LDAPUser) this.store.getUser("jdoe");
+
+        assertNotNull(stored);
+        assertEquals("favorite toy?", stored.getCustomAttributes().getAttribute("question"));
+
+        stored.setAttribute(new org.picketlink.idm.model.Attribute<String>("answer", "gum"));
+        stored.removeAttribute("question");
+
+        this.store.update(stored);
+
+        LDAPUser updated = (LDAPUser) this.store.getUser("jdoe");
+
+        assertEquals("gum", updated.getCustomAttributes().getAttribute("answer"));
+        assertNull(updated.getCustomAttributes().getAttribute("question"));
+    }
+
+    @Test
+    public void testStoreAndUpdateWithoutCustomAttributes() throws Exception {
+        LDAPUser user = new EmptyLDAPUser();
+
+        user.setId("jsmith");
+        user.setFirstName("John");
+        user.setLastName("Smith");
+
+        // an empty attribute is rejected by the server, so it must not be sent at all
+        this.store.add(user);
+
+        assertNull(getStoredCustomAttributes("jsmith"));
+
+        LDAPUser stored = (LDAPUser) this.store.getUser("jsmith");
+
+        stored.setAttribute(new org.picketlink.idm.model.Attribute<String>("question", "favorite toy?"));
+        this.store.update(stored);
+
+        assertNotNull(getStoredCustomAttributes("jsmith"));
+
+        // removing the last custom attribute removes the whole attribute
+        LDAPUser emptied = new EmptyLDAPUser();
+
+        emptied.setId("jsmith");
+        emptied.setFirstName("John");
+        emptied.setLastName("Smith");
+
+        this.store.update(emptied);
+
+        assertNull(getStoredCustomAttributes("jsmith"));
+
+        // and updating an entry that has none does not try to remove it again
+        this.store.update(emptied);
+
+        assertNull(getStoredCustomAttributes("jsmith"));
+    }
+
+    private Attribute getStoredCustomAttributes(String userId) throws Exception {
+        SearchControls controls = new SearchControls();
+        controls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+
+        NamingEnumeration<SearchResult> results = this.configuration.getLdapManager().search(USER_DN_SUFFIX,
+                "(uid=" + userId + ")", new String[] { CUSTOM_ATTRIBUTE }, controls);
+
+        assertTrue(results.hasMore());
+
+        return results.next().getAttributes().get(CUSTOM_ATTRIBUTE);
+    }
+
+    /**
+     * An entry that has no custom attributes at all, not even the ones tracking its state
+     */
+    private static class EmptyLDAPUser extends LDAPUser {
+        private static final long serialVersionUID = 1L;
+
+        private final LDAPCustomAttributes customAttributes = new LDAPCustomAttributes();
+
+        EmptyLDAPUser() {
+            super(USER_DN_SUFFIX);
+        }
+
+        @Override
+        public LDAPCustomAttributes getCustomAttributes() {
+            return this.customAttributes;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+
+import javax.naming.AuthenticationException;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+
+import org.junit.Test;
+import org.picketlink.idm.ldap.internal.LDAPConnectionPool;
+import org.picketlink.idm.ldap.internal.LDAPOperationManager;
+import org.picketlink.idm.ldap.internal.LDAPSearchCallback;
+import org.picketlink.idm.ldap.internal.LDAPSearchCursor;
+
+/**
+ * Unit test the paged searches performed by {@link LDAPOperationManager}, using a context that serves a fixed set of entries
+ */
+public class LDAPOperationManagerTestCase {
+
+    private static final LDAPSearchCallback<String> NAME_CALLBACK = new LDAPSearchCallback<String>() {
+        @Override
+        public String processResult(SearchResult sr) {
+            return sr.getName();
+        }
+    };
+
+    @Test
+    public void testSearchFollowsPages() throws Exception {
+        PagedContextPool pool = new PagedContextPool(5);
+        LDAPOperationManager manager = new LDAPOperationManager(pool, pool);
+        manager.setPageSize(2);
+
+        List<String> names = manager.search("ou=People", "(uid={0})", new Object[] { "*" }, new String[] { "uid" },
+                SearchControls.ONELEVEL_SCOPE, 0, NAME_CALLBACK);
+
+        assertEquals(5, names.size());
+        assertEquals("uid=0", names.get(0));
+        assertEquals("uid=4", names.get(4));
+        assertEquals(3, pool.searches);
+        assertEquals(0, pool.abandonedSearches);
+        assertNull(pool.requestControls);
+    }
+
+    @Test
+    public void testSizeLimitStopsPaging() throws Exception {
+        PagedContextPool pool = new PagedContextPool(10);
+        LDAPOperationManager manager = new LDAPOperationManager(pool, pool);
+        manager.setPageSize(2);
+
+        List<String> names = manager.search("ou=People", "(uid=*)", null, null, SearchControls.ONELEVEL_SCOPE, 3,
+                NAME_CALLBACK);
+
+        assertEquals(3, names.size());
+        assertEquals(2, pool.searches);
+
+        // the directory still holds the remaining pages
+        assertEquals(1, pool.abandonedSearches);
+        assertNull(pool.requestControls);
+    }
+
+    @Test
+    public void testClosingCursorAbandonsSearch() throws Exception {
+        PagedContextPool pool = new PagedContextPool(5);
+        LDAPOperationManager manager = new LDAPOperationManager(pool, pool);
+
+        LDAPSearchCursor cursor = manager.openCursor("ou=People", "(uid=*)", null, null, SearchControls.ONELEVEL_SCOPE, 2);
+
+        assertEquals(2, cursor.nextPage().size());
+
+        cursor.close();
+
+        assertEquals(1, pool.abandonedSearches);
+        assertNull(pool.requestControls);
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+        assertTrue(cursor.nextPage().isEmpty());
+    }
+
+    @Test
+    public void testExhaustedCursorIsNotAbandoned() throws Exception {
+        PagedContextPool pool = new PagedContextPool(3);
+        LDAPOperationManager manager = new LDAPOperationManager(pool, pool);
+
+        LDAPSearchCursor cursor = manager.openCursor("ou=People", "(uid=*)", null, null, SearchControls.ONELEVEL_SCOPE, 2);
+
+        assertEquals(2, cursor.nextPage().size());
+        assertEquals(1, cursor.nextPage().size());
+
+        cursor.close();
+
+        assertEquals(0, pool.abandonedSearches);
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void testStreamDoesNotRetainResults() throws Exception {
+        PagedContextPool pool = new PagedContextPool(7);
+        LDAPOperationManager manager = new LDAPOperationManager(pool, pool);
+        manager.setPageSize(3);
+
+        final List<String> names = new ArrayList<String>();
+
+        int processed = manager.stream("ou=People", "(uid=*)", null, null, SearchControls.ONELEVEL_SCOPE, 0,
+                new LDAPSearchCallback<Void>() {
+                    @Override
+                    public Void processResult(SearchResult sr) {
+                        names.add(sr.getName());
+                        return null;
+                    }
+                });
+
+        assertEquals(7, processed);
+        assertEquals(7, names.size());
+        assertEquals(3, pool.searches);
+    }
+
+    @Test
+    public void testOperationsRunOnTheConnectionOfTheCursor() throws Exception {
+        PagedContextPool pool = new PagedContextPool(5);
+        final LDAPOperationManager manager = new LDAPOperationManager(pool, pool);
+        manager.setPageSize(2);
+
+        LDAPSearchCursor cursor = manager.openCursor("ou=People", "(uid=*)", null, null, SearchControls.ONELEVEL_SCOPE, 2);
+        List<String> names = new ArrayList<String>();
+
+        for (List<SearchResult> page = cursor.nextPage(); !page.isEmpty(); page = cursor.nextPage()) {
+            for (SearchResult sr : page) {
+                names.add(sr.getName());
+            }
+
+            // the pool has a single connection, which the cursor holds until the last page has been read
+            manager.runOnCursor(cursor, new Runnable() {
+                @Override
+                public void run() {
+                    manager.search("ou=Groups", "(member={0})", new Object[] { "uid=0" }, null,
+                            SearchControls.ONELEVEL_SCOPE, 0, NAME_CALLBACK);
+                }
+            });
+        }
+
+        // the searches on the cursor's connection were not paged, so the paged search of the cursor went on
+        assertEquals(5, names.size());
+        assertEquals("uid=4", names.get(4));
+        assertEquals(2, pool.unpagedSearches);
+        assertEquals(4, pool.searches);
+        assertEquals(0, pool.abandonedSearches);
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void testAuthenticateClearsCredentials() throws Exception {
+        BindContextPool pool = new BindContextPool();
+        LDAPOperationManager manager = new LDAPOperationManager(pool, pool);
+
+        assertTrue(manager.authenticate("uid=jdoe", "secret"));
+
+        // the context was returned to the pool without the user's credentials
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(0, pool.getActiveCount());
+        assertNull(pool.environment.get(Context.SECURITY_PRINCIPAL));
+        assertNull(pool.environment.get(Context.SECURITY_CREDENTIALS));
+        assertNull(pool.environment.get(Context.SECURITY_AUTHENTICATION));
+
+        // rejected credentials discard the context
+        assertFalse(manager.authenticate("uid=jdoe", "wrong"));
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    /**
+     * A pool serving contexts that accept the password <code>secret</code> and keep their environment in
+     * <code>environment</code>
+     */
+    private static class BindContextPool extends LDAPConnectionPool {
+        private final Hashtable<Object, Object> environment = new Hashtable<Object, Object>();
+
+        BindContextPool() {
+            super("test", new Properties(), 0, 1, 10, 0, false);
+        }
+
+        @Override
+        protected LdapContext createContext() throws NamingException {
+            return (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { LdapContext.class },
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if (method.getName().equals("addToEnvironment")) {
+                                return environment.put(args[0], args[1]);
+                            } else if (method.getName().equals("removeFromEnvironment")) {
+                                return environment.remove(args[0]);
+                            } else if (method.getName().equals("reconnect")) {
+                                if (!"secret".equals(environment.get(Context.SECURITY_CREDENTIALS))) {
+                                    throw new AuthenticationException();
+                                }
+                            } else if (method.getName().equals("equals")) {
+                                return proxy == args[0];
+                            } else if (method.getName().equals("hashCode")) {
+                                return System.identityHashCode(proxy);
+                            }
+                            return null;
+                        }
+                    });
+        }
+    }
+
+    /**
+     * A pool serving a single context that returns <code>entries</code> results, split in pages of the requested size
+     */
+    private static class PagedContextPool extends LDAPConnectionPool {
+        private final int entries;
+        private int searches;
+        private int unpagedSearches;
+        private int abandonedSearches;
+        private int offset;
+        private Control[] requestControls;
+        private Control[] responseControls;
+
+        PagedContextPool(int entries) {
+            super("test", new Properties(), 0, 1, 10, 0, false);
+            this.entries = entries;
+        }
+
+        @Override
+        protected LdapContext createContext() throws NamingException {
+            return (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { LdapContext.class },
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if (method.getName().equals("setRequestControls")) {
+                                requestControls = (Control[]) args[0];
+                            } else if (method.getName().equals("getResponseControls")) {
+                                return responseControls;
+                            } else if (method.getName().equals("search")) {
+                                return search();
+                            } else if (method.getName().equals("equals")) {
+                                return proxy == args[0];
+                            } else if (method.getName().equals("hashCode")) {
+                                return System.identityHashCode(proxy);
+                            }
+                            return null;
+                        }
+                    });
+        }
+
+        private NamingEnumeration<SearchResult> search() throws Exception {
+            if (requestControls == null) {
+                // not part of the paged search
+                unpagedSearches++;
+                return new ListEnumeration(new ArrayList<SearchResult>());
+            }
+
+            int pageSize = 0;
+
+            for (Control control : requestControls) {
+                if (control instanceof PagedResultsControl) {
+                    // the page size is the first value of the encoded control
+                    pageSize = control.getEncodedValue()[4];
+
+                    if (pageSize == 0 && control.isCritical()) {
+                        abandonedSearches++;
+                        return new ListEnumeration(new ArrayList<SearchResult>());
+                    }
+                }
+            }
+
+            searches++;
+
+            List<SearchResult> page = new ArrayList<SearchResult>();
+
+            while (page.size() < pageSize && offset < entries) {
+                page.add(new SearchResult("uid=" + offset++, null, new BasicAttributes(true)));
+            }
+
+            byte[] cookie = offset < entries ? new byte[] { (byte) offset } : new byte[0];
+            byte[] value = new byte[] { 0x30, (byte) (5 + cookie.length), 0x02, 0x01, (byte) entries, 0x04,
+                    (byte) cookie.length };
+            byte[] encoded = new byte[value.length + cookie.length];
+
+            System.arraycopy(value, 0, encoded, 0, value.length);
+            System.arraycopy(cookie, 0, encoded, value.length, cookie.length);
+
+            this.responseControls = new Control[] { new PagedResultsResponseControl(PagedResultsControl.OID, false, encoded) };
+
+            return new ListEnumeration(page);
+        }
+    }
+
+    private static class ListEnumeration implements NamingEnumeration<SearchResult> {
+        private final List<SearchResult> results;
+        private int index;
+
+        ListEnumeration(List<SearchResult> results) {
+            this.results = results;
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return this.index < this.results.size();
+        }
+
+        @Override
+        public SearchResult nextElement() {
+            return this.results.get(this.index++);
+        }
+
+        @Override
+        public boolean hasMore() {
+            return hasMoreElements();
+        }
+
+        @Override
+        public SearchResult next() {
+            return nextElement();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
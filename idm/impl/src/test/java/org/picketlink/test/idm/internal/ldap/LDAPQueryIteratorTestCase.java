@@ -0,0 +1,144 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.picketbox.test.ldap.AbstractLDAPTest;
+import org.picketlink.idm.internal.DefaultIdentityStoreInvocationContextFactory;
+import org.picketlink.idm.ldap.internal.LDAPConfiguration;
+import org.picketlink.idm.ldap.internal.LDAPConfiguration.CustomAttributesMapping;
+import org.picketlink.idm.ldap.internal.LDAPConfigurationBuilder;
+import org.picketlink.idm.ldap.internal.LDAPConnectionPool;
+import org.picketlink.idm.ldap.internal.LDAPIdentityStore;
+import org.picketlink.idm.ldap.internal.LDAPUser;
+import org.picketlink.idm.model.User;
+import org.picketlink.idm.query.IdentityQuery;
+import org.picketlink.idm.query.QueryResultIterator;
+import org.picketlink.idm.query.internal.DefaultIdentityQuery;
+
+/**
+ * Unit test iterating the results of an {@link IdentityQuery} with a single paged search of the {@link LDAPIdentityStore}
+ */
+public class LDAPQueryIteratorTestCase extends AbstractLDAPTest {
+
+    private static final String USER_DN_SUFFIX = "ou=People,dc=jboss,dc=org";
+    private static final int USER_COUNT = 7;
+
+    private LDAPConfiguration configuration;
+    private LDAPIdentityStore store;
+
+    @Before
+    public void setup() throws Exception {
+        super.setup();
+        importLDIF("ldap/users.ldif");
+
+        this.configuration = (LDAPConfiguration) new LDAPConfigurationBuilder().build();
+
+        this.configuration.setBindDN(adminDN).setBindCredential(adminPW).setLdapURL("ldap://localhost:10389");
+        this.configuration.setUserDNSuffix(USER_DN_SUFFIX).setRoleDNSuffix("ou=Roles,dc=jboss,dc=org");
+        this.configuration.setGroupDNSuffix("ou=Groups,dc=jboss,dc=org");
+        this.configuration.setCustomAttributesMapping(CustomAttributesMapping.INLINE);
+        this.configuration.setCustomAttributesAttributeName("description");
+        this.configuration.init();
+
+        this.store = new LDAPIdentityStore();
+        this.store.setup(this.configuration, new DefaultIdentityStoreInvocationContextFactory(null).createContext());
+
+        for (int i = 0; i < USER_COUNT; i++) {
+            LDAPUser user = new LDAPUser(USER_DN_SUFFIX);
+
+            user.setId("query" + i);
+            user.setFirstName("Query");
+            user.setLastName("User" + i);
+
+            this.store.add(user);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.configuration.getLdapManager().close();
+        super.tearDown();
+    }
+
+    @Test
+    public void testIterateAllPages() throws Exception {
+        Set<String> ids = new HashSet<String>();
+        int count = 0;
+
+        for (Iterator<User> iterator = createQuery().setFetchSize(2).getResultIterator(); iterator.hasNext();) {
+            ids.add(iterator.next().getId());
+            count++;
+        }
+
+        assertEquals(USER_COUNT, count);
+        assertEquals(USER_COUNT, ids.size());
+        assertEquals(0, getAdminPool().getActiveCount());
+    }
+
+    @Test
+    public void testOffsetAndLimit() throws Exception {
+        int count = 0;
+
+        for (Iterator<User> iterator = createQuery().setOffset(1).setLimit(5).setFetchSize(2).getResultIterator(); iterator
+                .hasNext(); iterator.next()) {
+            count++;
+        }
+
+        assertEquals(5, count);
+
+        // the limit was reached before the search was exhausted, the connection must have been released anyway
+        assertEquals(0, getAdminPool().getActiveCount());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        QueryResultIterator<User> iterator = createQuery().setFetchSize(2).getResultIterator();
+
+        iterator.next();
+
+        // the paged search keeps its connection between pages
+        assertEquals(1, getAdminPool().getActiveCount());
+
+        iterator.close();
+
+        assertEquals(0, getAdminPool().getActiveCount());
+        assertFalse(iterator.hasNext());
+    }
+
+    private IdentityQuery<User> createQuery() {
+        return new DefaultIdentityQuery<User>(User.class, this.store).setParameter(User.FIRST_NAME, "Query");
+    }
+
+    private LDAPConnectionPool getAdminPool() {
+        return this.configuration.getLdapManager().getAdminPool();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.picketlink.test.idm.internal.mgr;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.ManyToOne;
+
+import org.picketlink.idm.jpa.annotations.EntityType;
+import org.picketlink.idm.jpa.annotations.IDMEntity;
+import org.picketlink.idm.jpa.annotations.IDMProperty;
+import org.picketlink.idm.jpa.annotations.PropertyType;
+
+/**
+ * <p>
+ * Membership entity used by the JPA identity store tests.
+ * </p>
+ */
+@IDMEntity (EntityType.IDENTITY_RELATIONSHIP)
+@Entity
+public class MembershipObject {
+
+    @Id
+    @GeneratedValue
+    private long id;
+
+    @ManyToOne
+    @IDMProperty (PropertyType.MEMBER)
+    private IdentityObject member;
+
+    @ManyToOne
+    @IDMProperty (PropertyType.GROUP)
+    private IdentityObject memberOf;
+
+    @ManyToOne
+    @IDMProperty (PropertyType.ROLE)
+    private IdentityObject role;
+
+    public long getId() {
+        return this.id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public IdentityObject getMember() {
+        return this.member;
+    }
+
+    public void setMember(IdentityObject member) {
+        this.member = member;
+    }
+
+    public IdentityObject getMemberOf() {
+        return this.memberOf;
+    }
+
+    public void setMemberOf(IdentityObject memberOf) {
+        this.memberOf = memberOf;
+    }
+
+    public IdentityObject getRole() {
+        return this.role;
+    }
+
+    public void setRole(IdentityObject role) {
+        this.role = role;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2012, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.picketlink.test.idm.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.picketlink.idm.internal.util.properties.Properties;
+import org.picketlink.idm.internal.util.properties.Property;
+import org.picketlink.idm.internal.util.properties.query.NamedPropertyCriteria;
+import org.picketlink.idm.internal.util.properties.query.PropertyQueries;
+
+/**
+ * <p>
+ * Unit test {@link Properties} and the property queries
+ * </p>
+ */
+public class PropertiesTestCase {
+
+    @Test
+    public void testPropertiesAreReused() throws Exception {
+        assertSame(Properties.createProperty(Bean.class.getDeclaredField("name")),
+                Properties.createProperty(Bean.class.getDeclaredField("name")));
+        assertSame(Properties.createProperty(Bean.class.getMethod("getName")),
+                Properties.createProperty(Bean.class.getMethod("getName")));
+
+        Property<String> first = PropertyQueries.<String> createQuery(Bean.class)
+                .addCriteria(new NamedPropertyCriteria("secret")).getSingleResult();
+        Property<String> second = PropertyQueries.<String> createQuery(Bean.class)
+                .addCriteria(new NamedPropertyCriteria("secret")).getSingleResult();
+
+        assertSame(first, second);
+    }
+
+    @Test
+    public void testPrivateFieldAccess() throws Exception {
+        Property<String> property = PropertyQueries.<String> createQuery(SubBean.class)
+                .addCriteria(new NamedPropertyCriteria("secret")).getSingleResult();
+
+        SubBean bean = new SubBean();
+
+        property.setValue(bean, "value");
+        assertEquals("value", property.getValue(bean));
+
+        property.setValue(bean, "other");
+        assertEquals("other", property.getValue(bean));
+    }
+
+    public static class Bean {
+        private String name;
+        private String secret;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    public static class SubBean extends Bean {
+    }
+}
@@ -59,7 +59,7 @@ import org.picketlink.idm.model.IdentityType;
 import org.picketlink.idm.model.GroupRole;
 import org.picketlink.idm.model.Role;
 import org.picketlink.idm.model.User;
-import org.picketlink.idm.query.QueryParameter;
+import org.picketlink.idm.query.IdentityQuery;
 import org.picketlink.idm.spi.IdentityStore;
 import org.picketlink.idm.spi.IdentityStoreInvocationContext;
 import org.picketlink.idm.spi.IdentityStore.Feature;
@@ -761,7 +761,7 @@ public class SimpleJPAIdentityStore implements IdentityStore {
     }
 
     @Override
-    public List<IdentityType> fetchQueryResults(Map<QueryParameter, Object> parameters) {
+    public <I extends IdentityType> List<I> fetchQueryResults(IdentityQuery<I> identityQuery) {
         // TODO Auto-generated method stub
         return null;
     }